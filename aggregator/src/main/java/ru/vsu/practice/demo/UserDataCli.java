@@ -0,0 +1,102 @@
+package ru.vsu.practice.demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Потоковый импорт и экспорт пользователей из командной строки,
+ * без запуска веб-приложения. Хранилище выбирается тем же системным
+ * свойством {@value UserController#STORAGE_PROPERTY}, что и в приложении;
+ * users.json при импорте ведется в режиме журнала и в конце сжимается
+ * в снимок, чтобы каждый пакет не перезаписывал файл целиком.
+ * <pre>
+ * java -cp aggregator.jar -Dloader.main=ru.vsu.practice.demo.UserDataCli \
+ *     org.springframework.boot.loader.launch.PropertiesLauncher \
+ *     export users.ndjson
+ * </pre>
+ * Вместо файла можно указать "-" для стандартного ввода или вывода.
+ */
+public final class UserDataCli {
+
+    /** Размер буфера файлового ввода-вывода. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private UserDataCli() {
+        // utility class constructor to satisfy Checkstyle
+    }
+
+    /**
+     * Точка входа: import или export и путь к файлу NDJSON.
+     *
+     * @param args команда и файл
+     * @throws IOException если файл не читается или не записывается
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2 || !args[0].matches("import|export")) {
+            System.err.println("Usage: UserDataCli import|export <file|->");
+            System.exit(2);
+            return;
+        }
+        String storage = System.getProperty(
+                UserController.STORAGE_PROPERTY, "json");
+        boolean importing = args[0].equals("import");
+        try (UserRepository repository = UserRepository.open(storage,
+                importing ? PersistenceMode.JOURNAL
+                        : PersistenceMode.SNAPSHOT)) {
+            if (importing) {
+                ImportReport report;
+                try (InputStream in = input(args[1])) {
+                    report = UserNdjson.read(in, repository,
+                            UserNdjson.DEFAULT_BATCH);
+                }
+                repository.compact();
+                System.err.printf("Imported %d users, rejected %d%n",
+                        report.created(), report.failed());
+                for (BatchResult error : report.errors()) {
+                    System.err.printf("  record %d (%s): %s%n",
+                            error.index(), error.id(), error.error());
+                }
+                if (!report.isComplete()) {
+                    System.err.printf("Import stopped: %s%n", report.error());
+                }
+            } else {
+                long count;
+                try (OutputStream out = output(args[1])) {
+                    count = UserNdjson.write(repository.scanAll(), out);
+                }
+                System.err.printf("Exported %d users%n", count);
+            }
+        }
+    }
+
+    /**
+     * Открывает входной файл или стандартный ввод.
+     *
+     * @param path путь или "-"
+     * @return буферизованный поток
+     * @throws IOException если файл не открывается
+     */
+    private static InputStream input(final String path) throws IOException {
+        InputStream in = path.equals("-")
+                ? System.in : Files.newInputStream(Path.of(path));
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Открывает выходной файл или стандартный вывод.
+     *
+     * @param path путь или "-"
+     * @return буферизованный поток
+     * @throws IOException если файл не создается
+     */
+    private static OutputStream output(final String path) throws IOException {
+        OutputStream out = path.equals("-")
+                ? System.out : Files.newOutputStream(Path.of(path));
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+}
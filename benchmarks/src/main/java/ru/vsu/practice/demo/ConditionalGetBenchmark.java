@@ -0,0 +1,151 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк условного чтения через {@link UserController}: полный
+ * ответ с сериализацией тела против ответа 304 на If-None-Match
+ * с актуальным ETag. Полный ответ сериализуется тем же Jackson,
+ * что и в приложении, поэтому разница — стоимость, которую
+ * экономит опрашивающий клиент.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConditionalGetBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    private static final int SIZE = 10_000;
+
+    /**
+     * Ресурс: user — один пользователь, users — страница
+     * из 100 пользователей, friends — друзья хаба.
+     */
+    @Param({"user", "users", "friends"})
+    private String resource;
+
+    /** Сериализатор тела ответа. */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /** Контроллер под нагрузкой. */
+    private UserController controller;
+
+    /** Сервис хранилища. */
+    private UserService service;
+
+    /** Запрашиваемый пользователь: хаб с друзьями. */
+    private String uid;
+
+    /** Параметры списка. */
+    private Map<String, String> params;
+
+    /** Актуальный ETag ресурса. */
+    private String etag;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Загружает пользователей и запоминает ETag ресурса.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(SIZE, 100);
+        uid = dataset.ids()[0];
+        params = "users".equals(resource) ? Map.of("limit", "100") : Map.of();
+        storage = dataset.writeTo("users-conditional-bench");
+        service = new UserService(storage.toString());
+        controller = new UserController(service);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        call(new ServletWebRequest(get(), response));
+        etag = response.getHeader(HttpHeaders.ETAG);
+    }
+
+    /**
+     * Удаляет временные файлы хранилища.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Запрос без условных заголовков: выборка и сериализация.
+     *
+     * @return тело ответа
+     * @throws IOException если сериализация не удалась
+     */
+    @Benchmark
+    public byte[] full() throws IOException {
+        ResponseEntity<?> response = call(new ServletWebRequest(
+                get(), new MockHttpServletResponse()));
+        return mapper.writeValueAsBytes(response.getBody());
+    }
+
+    /**
+     * Запрос с If-None-Match актуального ETag: ответ 304 без тела.
+     *
+     * @return признак того, что ответ не сформирован
+     */
+    @Benchmark
+    public boolean notModified() {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        return call(new ServletWebRequest(request,
+                new MockHttpServletResponse())) == null;
+    }
+
+    /**
+     * Вызывает обработчик выбранного ресурса.
+     *
+     * @param request запрос с условными заголовками
+     * @return ответ контроллера или null, если отдан 304
+     */
+    private ResponseEntity<?> call(final ServletWebRequest request) {
+        return switch (resource) {
+            case "user" -> controller.getUserById(uid, request);
+            case "users" -> controller.getAllUsers(params, request);
+            default -> controller.getUserFriends(uid, params, request);
+        };
+    }
+
+    /**
+     * Пустой GET-запрос.
+     *
+     * @return запрос без заголовков
+     */
+    private static MockHttpServletRequest get() {
+        return new MockHttpServletRequest("GET", "/");
+    }
+}
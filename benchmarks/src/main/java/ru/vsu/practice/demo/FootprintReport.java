@@ -0,0 +1,153 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Отчет JOL о занимаемой в куче памяти: первичный индекс
+ * из строковых ID и множеств строк против индекса по {@link UUID}
+ * с друзьями в массиве long. Граф меряется на уменьшенном наборе,
+ * результат пересчитывается на миллион пользователей
+ * с 50 друзьями у каждого (50 миллионов связей).
+ *
+ * <p>Запуск: {@code java -cp benchmarks/target/benchmarks.jar
+ * ru.vsu.practice.demo.FootprintReport [пользователей] [друзей]}.</p>
+ */
+public final class FootprintReport {
+
+    /** Пользователей в оценке по умолчанию. */
+    private static final int DEFAULT_USERS = 20_000;
+
+    /** Друзей у каждого пользователя по умолчанию. */
+    private static final int DEFAULT_DEGREE = 50;
+
+    /** Целевое число пользователей. */
+    private static final long TARGET_USERS = 1_000_000L;
+
+    /** Байт в мегабайте. */
+    private static final double MB = 1024.0 * 1024.0;
+
+    private FootprintReport() {
+    }
+
+    /**
+     * Прежнее представление пользователя: строковый ID
+     * и {@link LinkedHashSet} строк, каждая из которых — отдельный
+     * объект, как после разбора JSON.
+     */
+    static final class LegacyUser {
+
+        /** Идентификатор. */
+        private final String id;
+
+        /** Имя. */
+        private final String firstName;
+
+        /** Фамилия. */
+        private final String lastName;
+
+        /** Возраст. */
+        private final int age;
+
+        /** Email. */
+        private final String email;
+
+        /** Описание. */
+        private final String description;
+
+        /** UID друзей. */
+        private final Set<String> friends;
+
+        LegacyUser(final User user) {
+            this.id = new String(user.getId());
+            this.firstName = user.getFirstName();
+            this.lastName = user.getLastName();
+            this.age = user.getAge();
+            this.email = user.getEmail();
+            this.description = user.getDescription();
+            this.friends = new LinkedHashSet<>();
+            for (String friend : user.getFriends()) {
+                friends.add(new String(friend));
+            }
+        }
+    }
+
+    /**
+     * Строит оба индекса и печатает их размер.
+     *
+     * @param args число пользователей и число друзей у каждого
+     */
+    public static void main(final String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        int degree = args.length > 1
+                ? Integer.parseInt(args[1]) : DEFAULT_DEGREE;
+
+        List<User> users = generate(size, degree);
+        Map<String, LegacyUser> legacy = new LinkedHashMap<>();
+        Map<UUID, User> compact = new LinkedHashMap<>();
+        for (User user : users) {
+            legacy.put(new String(user.getId()), new LegacyUser(user));
+            compact.put(user.uuid(), user);
+        }
+        users = null;
+
+        long edges = (long) size * degree;
+        System.out.printf("%,d users, %,d edges%n", size, edges);
+        report("String ids, LinkedHashSet<String> friends",
+                GraphLayout.parseInstance(legacy).totalSize(), size);
+        report("UUID ids, long[] friends",
+                GraphLayout.parseInstance(compact).totalSize(), size);
+    }
+
+    /**
+     * Печатает размер графа и его пересчет на целевой объем.
+     * При 50 друзьях у каждого набор имеет ту же долю связей
+     * на пользователя, что и цель, поэтому размер пересчитывается
+     * пропорционально числу пользователей.
+     *
+     * @param label название представления
+     * @param total размер графа в байтах
+     * @param size  число пользователей
+     */
+    private static void report(final String label, final long total,
+                               final int size) {
+        System.out.printf("%-42s %8.1f MB  %6.0f B/user  ~%,.0f MB at %,d"
+                        + " users%n", label, total / MB,
+                (double) total / size, (double) total / size * TARGET_USERS
+                        / MB, TARGET_USERS);
+    }
+
+    /**
+     * Генерирует пользователей с одинаковым числом случайных друзей.
+     *
+     * @param size   число пользователей
+     * @param degree друзей у каждого
+     * @return пользователи
+     */
+    private static List<User> generate(final int size, final int degree) {
+        Random random = new Random(42L);
+        List<User> users = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            users.add(new User("Anna", "Smith", 18 + random.nextInt(50),
+                    "user" + i + "@example.com", "desc", List.of()));
+        }
+        for (User user : users) {
+            int target = Math.min(degree, size - 1);
+            while (user.friendCount() < target) {
+                User friend = users.get(random.nextInt(size));
+                if (friend != user) {
+                    user.addFriend(friend.uuid());
+                }
+            }
+        }
+        return users;
+    }
+}
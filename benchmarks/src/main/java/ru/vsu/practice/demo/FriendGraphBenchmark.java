@@ -0,0 +1,142 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк запросов к графу дружбы у хабов с тысячами друзей:
+ * общие друзья по индексу против пересечения двух ответов
+ * getFriends на стороне клиента, кандидаты в друзья
+ * и распределение по числу друзей.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FriendGraphBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    @Param({"100000"})
+    private int size;
+
+    /** Число друзей у хабов набора. */
+    @Param({"1000", "5000"})
+    private int friendDegree;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Идентификаторы хабов. */
+    private String[] hubIds;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует набор пользователей и загружает его в сервис.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, friendDegree);
+        hubIds = dataset.hubIds();
+        storage = dataset.writeTo("users-graph-bench");
+        service = new UserService(storage.toString());
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Общие друзья двух случайных хабов по индексу дружбы.
+     *
+     * @return общие друзья
+     */
+    @Benchmark
+    public List<User> mutualFriends() {
+        return service.getMutualFriends(randomHub(), randomHub());
+    }
+
+    /**
+     * Общие друзья так, как их считает клиент: два запроса
+     * getFriends и пересечение по идентификаторам.
+     *
+     * @return общие друзья
+     */
+    @Benchmark
+    public List<User> mutualFriendsByClient() {
+        List<User> first = service.getFriends(randomHub(), Map.of());
+        Set<String> second = new HashSet<>();
+        for (User friend : service.getFriends(randomHub(), Map.of())) {
+            second.add(friend.getId());
+        }
+        List<User> mutual = new ArrayList<>();
+        for (User friend : first) {
+            if (second.contains(friend.getId())) {
+                mutual.add(friend);
+            }
+        }
+        return mutual;
+    }
+
+    /**
+     * Десять кандидатов в друзья случайного хаба.
+     *
+     * @return кандидаты
+     */
+    @Benchmark
+    public List<FriendSuggestion> suggestFriends() {
+        return service.suggestFriends(randomHub(), 10);
+    }
+
+    /**
+     * Распределение по числу друзей.
+     *
+     * @return распределение
+     */
+    @Benchmark
+    public DegreeStats degreeStats() {
+        return service.getDegreeStats();
+    }
+
+    /**
+     * Случайный хаб набора.
+     *
+     * @return идентификатор хаба
+     */
+    private String randomHub() {
+        return hubIds[ThreadLocalRandom.current().nextInt(hubIds.length)];
+    }
+}
@@ -0,0 +1,81 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк точечного поиска пользователя по идентификатору.
+ * Время одного вызова getById не должно зависеть от размера набора данных.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class GetByIdBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Идентификаторы всех загруженных пользователей. */
+    private String[] ids;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует набор пользователей и загружает его в сервис.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, 0);
+        ids = dataset.ids();
+        storage = dataset.writeTo("users-bench");
+        service = new UserService(storage.toString());
+    }
+
+    /**
+     * Удаляет временные файлы хранилища.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Поиск случайного существующего пользователя.
+     *
+     * @return найденный пользователь
+     */
+    @Benchmark
+    public User getById() {
+        return service.getById(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+}
@@ -0,0 +1,287 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Нагрузочный тест запущенного приложения: много одновременных
+ * клиентов читают пользователей по ID и часть запросов меняет возраст.
+ * Печатает пропускную способность и задержки p50/p99/p99.9
+ * отдельно для чтения и записи.
+ * Для сравнения режимов приложение запускается дважды: с потоками
+ * Tomcat по умолчанию и с {@code --spring.threads.virtual.enabled=true}.
+ *
+ * <p>Запуск: {@code java -cp benchmarks/target/benchmarks.jar
+ * ru.vsu.practice.demo.HttpLoadTest [URL] [клиентов] [секунд]
+ * [пользователей] [процент записей]}.</p>
+ */
+public final class HttpLoadTest {
+
+    /** Адрес API по умолчанию. */
+    private static final String DEFAULT_URL = "http://localhost:5050/api/v1";
+
+    /** Одновременных клиентов по умолчанию. */
+    private static final int DEFAULT_CLIENTS = 1000;
+
+    /** Длительность замера по умолчанию, секунд. */
+    private static final int DEFAULT_SECONDS = 30;
+
+    /** Пользователей, создаваемых перед замером, по умолчанию. */
+    private static final int DEFAULT_USERS = 10_000;
+
+    /** Процент запросов на запись по умолчанию. */
+    private static final int DEFAULT_WRITE_PERCENT = 10;
+
+    /** Прогрев перед замером, секунд. */
+    private static final int WARMUP_SECONDS = 5;
+
+    /** Размер пакета при заполнении. */
+    private static final int SEED_BATCH = 10_000;
+
+    /** Наносекунд в миллисекунде. */
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    /** HTTP-клиент на виртуальных потоках. */
+    private final HttpClient client;
+
+    /** Адрес API. */
+    private final String url;
+
+    /** ID пользователей, созданных при заполнении. */
+    private final List<String> ids = new ArrayList<>();
+
+    private HttpLoadTest(final String urlParam) {
+        this.url = urlParam;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Точка входа.
+     *
+     * @param args URL, клиентов, секунд, пользователей, процент записей
+     * @throws Exception если приложение недоступно
+     */
+    public static void main(final String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : DEFAULT_URL;
+        int clients = arg(args, 1, DEFAULT_CLIENTS);
+        int seconds = arg(args, 2, DEFAULT_SECONDS);
+        int users = arg(args, 3, DEFAULT_USERS);
+        int writePercent = arg(args, 4, DEFAULT_WRITE_PERCENT);
+
+        HttpLoadTest test = new HttpLoadTest(url);
+        test.seed(users);
+        test.run(clients, WARMUP_SECONDS, writePercent);
+        Result result = test.run(clients, seconds, writePercent);
+        int requests = result.reads.length + result.writes.length;
+        System.out.printf("clients=%d writes=%d%% requests=%d errors=%d,"
+                        + " throughput %.0f req/s%n",
+                clients, writePercent, requests, result.errors,
+                requests / (double) seconds);
+        print("reads ", result.reads);
+        print("writes", result.writes);
+    }
+
+    /**
+     * Печатает перцентили задержек.
+     *
+     * @param kind      вид запросов
+     * @param latencies отсортированные задержки
+     */
+    private static void print(final String kind, final long[] latencies) {
+        System.out.printf("%s p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms,"
+                        + " max %.2f ms%n", kind,
+                percentile(latencies, 0.50), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1.0));
+    }
+
+    /**
+     * Задержка заданного перцентиля в миллисекундах.
+     *
+     * @param latencies отсортированные задержки в наносекундах
+     * @param quantile  доля от 0 до 1
+     * @return задержка
+     */
+    private static double percentile(final long[] latencies,
+                                     final double quantile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * latencies.length) - 1;
+        return latencies[Math.max(0, index)] / NANOS_PER_MS;
+    }
+
+    /**
+     * Создает пользователей пакетными запросами.
+     *
+     * @param count число пользователей
+     * @throws IOException          если запрос не удался
+     * @throws InterruptedException если ожидание прервано
+     */
+    private void seed(final int count)
+            throws IOException, InterruptedException {
+        ObjectMapper mapper = new ObjectMapper();
+        for (int from = 0; from < count; from += SEED_BATCH) {
+            List<User> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(count, from + SEED_BATCH); i++) {
+                User user = new User("Load", "Test", 20 + i % 50,
+                        "load" + i + "@example.com", "desc", List.of());
+                batch.add(user);
+                ids.add(user.getId());
+            }
+            HttpResponse<String> response = client.send(HttpRequest
+                    .newBuilder(URI.create(url + "/users/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(
+                            mapper.writeValueAsBytes(batch)))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("Seeding failed: "
+                        + response.statusCode());
+            }
+        }
+    }
+
+    /**
+     * Нагружает приложение заданное время.
+     *
+     * @param clients      одновременных клиентов
+     * @param seconds      длительность
+     * @param writePercent процент запросов на запись
+     * @return задержки всех запросов
+     * @throws Exception если клиент завершился с ошибкой
+     */
+    private Result run(final int clients, final int seconds,
+                       final int writePercent) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Result>> workers = new ArrayList<>(clients);
+        try (ExecutorService executor =
+                     Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                workers.add(executor.submit(
+                        () -> client(deadline, writePercent)));
+            }
+        }
+        List<Result> results = new ArrayList<>(clients);
+        for (Future<Result> worker : workers) {
+            results.add(worker.get());
+        }
+        return Result.merge(results);
+    }
+
+    /**
+     * Один клиент: запросы друг за другом до истечения времени.
+     *
+     * @param deadline     момент окончания по System.nanoTime
+     * @param writePercent процент запросов на запись
+     * @return задержки запросов клиента
+     * @throws InterruptedException если ожидание прервано
+     */
+    private Result client(final long deadline, final int writePercent)
+            throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[][] latencies = {new long[1024], new long[1024]};
+        int[] counts = new int[2];
+        long errors = 0;
+        while (System.nanoTime() < deadline) {
+            String id = ids.get(random.nextInt(ids.size()));
+            HttpRequest.Builder request = HttpRequest.newBuilder(
+                    URI.create(url + "/user/" + id))
+                    .timeout(Duration.ofSeconds(60));
+            int kind = random.nextInt(100) < writePercent ? 1 : 0;
+            if (kind == 1) {
+                request.header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(
+                                "{\"age\":" + (20 + random.nextInt(50)) + "}"));
+            }
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request.build(),
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() != 200) {
+                    errors++;
+                }
+            } catch (IOException e) {
+                errors++;
+            }
+            if (counts[kind] == latencies[kind].length) {
+                latencies[kind] = Arrays.copyOf(latencies[kind],
+                        counts[kind] * 2);
+            }
+            latencies[kind][counts[kind]++] = System.nanoTime() - start;
+        }
+        return new Result(Arrays.copyOf(latencies[0], counts[0]),
+                Arrays.copyOf(latencies[1], counts[1]), errors);
+    }
+
+    /**
+     * Читает числовой аргумент.
+     *
+     * @param args     аргументы
+     * @param index    номер аргумента
+     * @param fallback значение по умолчанию
+     * @return значение
+     */
+    private static int arg(final String[] args, final int index,
+                           final int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+
+    /**
+     * Задержки запросов и число ошибок.
+     *
+     * @param reads  задержки чтения в наносекундах
+     * @param writes задержки записи в наносекундах
+     * @param errors число ошибок
+     */
+    private record Result(long[] reads, long[] writes, long errors) {
+
+        /**
+         * Объединяет результаты клиентов и сортирует задержки.
+         *
+         * @param results результаты клиентов
+         * @return общий результат
+         */
+        static Result merge(final List<Result> results) {
+            long errors = 0;
+            for (Result result : results) {
+                errors += result.errors;
+            }
+            return new Result(concat(results, Result::reads),
+                    concat(results, Result::writes), errors);
+        }
+
+        /**
+         * Склеивает и сортирует задержки одного вида.
+         *
+         * @param results результаты клиентов
+         * @param kind    выбор задержек
+         * @return отсортированные задержки
+         */
+        private static long[] concat(final List<Result> results,
+                                     final Function<Result, long[]> kind) {
+            long[] all = results.stream().map(kind)
+                    .flatMapToLong(Arrays::stream).toArray();
+            Arrays.sort(all);
+            return all;
+        }
+    }
+}
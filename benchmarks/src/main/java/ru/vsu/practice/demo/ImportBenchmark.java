@@ -0,0 +1,121 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк импорта: пакет новых пользователей, каждый со связью
+ * дружбы к существующему пользователю. Импорт по одному сохраняет
+ * на диск каждое изменение, пакетный — по одному разу на пакет
+ * пользователей и пакет связей. Каждый замер начинается
+ * с нового сервиса над исходным набором.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ImportBenchmark {
+
+    /** Режим сохранения. */
+    @Param({"SNAPSHOT", "JOURNAL"})
+    private PersistenceMode mode;
+
+    /** Количество пользователей в хранилище до импорта. */
+    @Param({"10000"})
+    private int size;
+
+    /** Количество импортируемых пользователей. */
+    @Param({"1000"})
+    private int batch;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Импортируемые пользователи. */
+    private List<User> imported;
+
+    /** Связи импортируемых пользователей с существующими. */
+    private List<FriendEdge> edges;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует набор, открывает сервис и готовит пакет импорта.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, 10);
+        String[] ids = dataset.ids();
+        storage = dataset.writeTo("users-import-bench");
+        service = new UserService(storage.toString(), mode);
+
+        Random random = new Random(7L);
+        imported = new ArrayList<>(batch);
+        edges = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            User user = new User("Import", "User", 20 + i % 40,
+                    "import" + i + "@example.com", "desc", List.of());
+            imported.add(user);
+            edges.add(new FriendEdge(user.getId(),
+                    ids[random.nextInt(ids.length)]));
+        }
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Импорт отдельными вызовами create и addFriend.
+     */
+    @Benchmark
+    public void oneByOne() {
+        for (User user : imported) {
+            service.create(user);
+        }
+        for (FriendEdge edge : edges) {
+            service.addFriend(edge.uid(), edge.friendUid());
+        }
+    }
+
+    /**
+     * Импорт пакетными вызовами createAll и addFriends.
+     *
+     * @return результаты связей
+     */
+    @Benchmark
+    public List<BatchResult> batched() {
+        service.createAll(imported);
+        return service.addFriends(edges);
+    }
+}
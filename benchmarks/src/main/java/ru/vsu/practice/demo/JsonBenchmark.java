@@ -0,0 +1,87 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк сериализации и десериализации пользователей Jackson
+ * в том же формате, что и users.json.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    /** Тип списка пользователей для десериализации. */
+    private static final TypeReference<List<User>> USER_LIST =
+            new TypeReference<>() { };
+
+    /** Количество пользователей в документе. */
+    @Param({"1", "1000"})
+    private int size;
+
+    /** Число друзей у хабов набора. */
+    @Param({"0", "10"})
+    private int friendDegree;
+
+    /** Сериализатор. */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /** Пользователи для сериализации. */
+    private List<User> users;
+
+    /** Готовый документ для десериализации. */
+    private byte[] json;
+
+    /**
+     * Генерирует набор и заранее сериализует его.
+     *
+     * @throws IOException если сериализация не удалась
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        users = new UserDataset(size, friendDegree).users();
+        json = mapper.writeValueAsBytes(users);
+    }
+
+    /**
+     * Сериализация списка пользователей.
+     *
+     * @return документ
+     * @throws IOException если сериализация не удалась
+     */
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return mapper.writeValueAsBytes(users);
+    }
+
+    /**
+     * Десериализация списка пользователей с валидацией в сеттерах.
+     *
+     * @return пользователи
+     * @throws IOException если документ не читается
+     */
+    @Benchmark
+    public List<User> deserialize() throws IOException {
+        return mapper.readValue(json, USER_LIST);
+    }
+}
@@ -0,0 +1,81 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк запуска сервиса: чтение снимка, валидация
+ * и построение индексов. Сравнивает JSON и двоичный формат снимка.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    /** Число друзей у хабов набора. */
+    @Param({"0", "10"})
+    private int friendDegree;
+
+    /** Формат снимка. */
+    @Param({"JSON", "BINARY"})
+    private SnapshotFormat format;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует и записывает набор пользователей.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storage = new UserDataset(size, friendDegree)
+                .writeTo("users-load-bench", format);
+    }
+
+    /**
+     * Удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Открытие сервиса над готовым файлом.
+     *
+     * @return загруженный сервис
+     */
+    @Benchmark
+    public UserService load() {
+        UserService service = new UserService(storage.toString(),
+                PersistenceMode.SNAPSHOT, null, format);
+        service.close();
+        return service;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк getById в хранилище вне кучи при куче 256 МБ.
+ * Наибольший набор занимает на диске больше, чем вся куча,
+ * а время поиска должно оставаться таким же, как на малых наборах.
+ * Пользователи создаются потоком, без промежуточного списка в куче.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@State(Scope.Benchmark)
+public class MappedGetByIdBenchmark {
+
+    /** Число ID, среди которых выбирается искомый. */
+    private static final int SAMPLE = 1 << 16;
+
+    /** Количество пользователей в хранилище. */
+    @Param({"100000", "1000000", "5000000"})
+    private int size;
+
+    /** Хранилище под нагрузкой. */
+    private MappedUserRepository repository;
+
+    /** Равномерная выборка ID загруженных пользователей. */
+    private String[] ids;
+
+    /** Каталог файлов хранилища. */
+    private Path directory;
+
+    /**
+     * Заполняет хранилище сгенерированными пользователями.
+     *
+     * @throws IOException если не удалось создать каталог
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("users-mapped-bench");
+        repository = new MappedUserRepository(
+                directory.resolve("users").toString());
+        Random random = new Random(42L);
+        ids = new String[Math.min(SAMPLE, size)];
+        int step = Math.max(1, size / ids.length);
+        for (int i = 0; i < size; i++) {
+            User user = new User("Anna", "Smith", 18 + random.nextInt(50),
+                    "user" + i + "@example.com", "desc", List.of());
+            repository.create(user);
+            if (i % step == 0 && i / step < ids.length) {
+                ids[i / step] = user.getId();
+            }
+        }
+    }
+
+    /**
+     * Закрывает хранилище и удаляет его файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Поиск случайного существующего пользователя.
+     *
+     * @return найденный пользователь
+     */
+    @Benchmark
+    public User getById() {
+        return repository.getById(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+}
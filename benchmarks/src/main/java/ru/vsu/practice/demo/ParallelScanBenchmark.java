@@ -0,0 +1,110 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк полного прохода getAll с фильтрами, которые не покрываются
+ * индексом (подстроки короче триграммы): последовательно и с делением
+ * на части в общем пуле fork-join. Число потоков пула задается
+ * при запуске свойством
+ * {@code java.util.concurrent.ForkJoinPool.common.parallelism}
+ * через {@code -jvmArgsAppend};
+ * при одном ядре параллельный проход выключен и оба варианта совпадают.
+ * Выделение памяти на проверку показывает запуск с {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    @Param({"1000000"})
+    private int size;
+
+    /** Порог параллельного прохода; 0 — всегда последовательно. */
+    @Param({"0", "50000"})
+    private int threshold;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует набор пользователей и загружает его в сервис
+     * с заданным порогом.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storage = new UserDataset(size, 0).writeTo("users-scan-bench");
+        System.setProperty(UserService.PARALLEL_SCAN_PROPERTY,
+                Integer.toString(threshold));
+        service = new UserService(storage.toString());
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Подстрока имени из одной буквы: подходит около половины набора.
+     *
+     * @return подошедшие пользователи
+     */
+    @Benchmark
+    public List<User> shortFirstName() {
+        return service.getAll(Map.of("firstName", "a"));
+    }
+
+    /**
+     * Две короткие подстроки: подходит около процента набора.
+     *
+     * @return подошедшие пользователи
+     */
+    @Benchmark
+    public List<User> shortNameAndEmail() {
+        return service.getAll(Map.of("lastName", "ov", "email", "99"));
+    }
+
+    /**
+     * Подстрока, которой нет ни у кого: время и выделение памяти
+     * приходятся только на проверку, без сборки результата.
+     *
+     * @return пустой список
+     */
+    @Benchmark
+    public List<User> shortNoMatch() {
+        return service.getAll(Map.of("firstName", "zq"));
+    }
+}
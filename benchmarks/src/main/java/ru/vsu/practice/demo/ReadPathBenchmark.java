@@ -0,0 +1,144 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк путей чтения: getAll с фильтрами разной селективности,
+ * getFriends у пользователей с длинными списками друзей
+ * и первая страница постраничного чтения.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ReadPathBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    /** Число друзей у хабов набора. */
+    @Param({"0", "10", "1000"})
+    private int friendDegree;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Идентификаторы хабов. */
+    private String[] hubIds;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /** Параметры первой страницы. */
+    private final PageQuery firstPage =
+            new PageQuery(100, null, UserSort.AGE);
+
+    /**
+     * Генерирует набор пользователей и загружает его в сервис.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, friendDegree);
+        hubIds = dataset.hubIds();
+        storage = dataset.writeTo("users-read-bench");
+        service = new UserService(storage.toString());
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Все пользователи без фильтров.
+     *
+     * @return пользователи
+     */
+    @Benchmark
+    public List<User> getAllUnfiltered() {
+        return service.getAll(Map.of());
+    }
+
+    /**
+     * Фильтр по точному возрасту (около 2% набора).
+     *
+     * @return пользователи
+     */
+    @Benchmark
+    public List<User> getAllByAge() {
+        return service.getAll(Map.of("age", "33"));
+    }
+
+    /**
+     * Фильтр по подстроке имени (около 10% набора).
+     *
+     * @return пользователи
+     */
+    @Benchmark
+    public List<User> getAllByFirstName() {
+        return service.getAll(Map.of("firstName", "ann"));
+    }
+
+    /**
+     * Узкий фильтр по нескольким полям.
+     *
+     * @return пользователи
+     */
+    @Benchmark
+    public List<User> getAllByNameAndAge() {
+        return service.getAll(Map.of("firstName", "ann",
+                "lastName", "ova", "age", "33"));
+    }
+
+    /**
+     * Друзья случайного хаба.
+     *
+     * @return друзья
+     */
+    @Benchmark
+    public List<User> getFriendsOfHub() {
+        return service.getFriends(
+                hubIds[ThreadLocalRandom.current().nextInt(hubIds.length)],
+                Map.of());
+    }
+
+    /**
+     * Первая страница в порядке возраста.
+     *
+     * @return страница
+     */
+    @Benchmark
+    public UserPage getFirstPageByAge() {
+        return service.getPage(Map.of(), firstPage);
+    }
+}
@@ -0,0 +1,142 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Один и тот же набор операций на разных реализациях
+ * {@link UserRepository}: users.json в куче, отображенные в память
+ * файлы и встраиваемая база H2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    /** Реализация хранилища. */
+    @Param({"JSON", "MAPPED", "H2"})
+    private String backend;
+
+    /** Количество пользователей в хранилище. */
+    @Param({"10000", "100000"})
+    private int size;
+
+    /** Число друзей у хабов набора. */
+    @Param({"100"})
+    private int friendDegree;
+
+    /** Хранилище под нагрузкой. */
+    private UserRepository repository;
+
+    /** Идентификаторы пользователей. */
+    private String[] ids;
+
+    /** Идентификаторы хабов. */
+    private String[] hubIds;
+
+    /** Файл хранилища; его каталог удаляется после прогона. */
+    private Path storage;
+
+    /**
+     * Генерирует набор пользователей и загружает его в хранилище.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, friendDegree);
+        ids = dataset.ids();
+        hubIds = dataset.hubIds();
+        storage = dataset.writeTo("users-repository-bench");
+        Path base = storage.resolveSibling("users");
+        repository = switch (backend) {
+            case "JSON" -> new UserService(storage.toString());
+            case "MAPPED" -> new MappedUserRepository(base.toString());
+            case "H2" -> new JdbcUserRepository("jdbc:h2:" + base);
+            default -> throw new IllegalArgumentException(backend);
+        };
+        if (!(repository instanceof UserService)) {
+            for (User user : dataset.users()) {
+                repository.create(user);
+            }
+        }
+    }
+
+    /**
+     * Закрывает хранилище и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Поиск случайного пользователя по ID.
+     *
+     * @return пользователь
+     */
+    @Benchmark
+    public User getById() {
+        return repository.getById(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    /**
+     * Фильтр по точному возрасту (около 2% набора).
+     *
+     * @return пользователи
+     */
+    @Benchmark
+    public List<User> getAllByAge() {
+        return repository.getAll(Map.of("age", "33"));
+    }
+
+    /**
+     * Друзья случайного хаба.
+     *
+     * @return друзья
+     */
+    @Benchmark
+    public List<User> getFriendsOfHub() {
+        return repository.getFriends(
+                hubIds[ThreadLocalRandom.current().nextInt(hubIds.length)],
+                Map.of());
+    }
+
+    /**
+     * Изменение возраста случайного пользователя.
+     *
+     * @return обновленный пользователь
+     */
+    @Benchmark
+    public User updateAge() {
+        User patch = new User();
+        patch.setAge(18 + ThreadLocalRandom.current().nextInt(50));
+        return repository.update(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)], patch);
+    }
+}
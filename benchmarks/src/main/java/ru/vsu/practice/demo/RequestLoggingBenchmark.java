@@ -0,0 +1,156 @@
+package ru.vsu.practice.demo;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.joran.spi.JoranException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость журнала запросов в обработчике GET /user/{uid}:
+ * вызов контроллера напрямую, без HTTP. Журнал настраивается
+ * конфигурацией logback.xml из модуля web, в которой консоль
+ * заменена записью в /dev/null:
+ * <ul>
+ *     <li>off — уровень WARN, строки запросов не пишутся;</li>
+ *     <li>sync — каждая строка пишется в потоке запроса,
+ *     без ограничения частоты;</li>
+ *     <li>unsampled — очередь без ограничения частоты;</li>
+ *     <li>async — конфигурация приложения: очередь с отбрасыванием
+ *     при переполнении и {@link RequestLogSampler}.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RequestLoggingBenchmark {
+
+    /** Количество пользователей в хранилище. */
+    private static final int SIZE = 10_000;
+
+    /** Настройка журнала. */
+    @Param({"off", "sync", "unsampled", "async"})
+    private String logging;
+
+    /** Контроллер под нагрузкой. */
+    private UserController controller;
+
+    /** Запрос без условных заголовков: ответ всегда полный. */
+    private final WebRequest request = new ServletWebRequest(
+            new MockHttpServletRequest("GET", "/api/v1/user"));
+
+    /** Сервис хранилища. */
+    private UserService service;
+
+    /** Идентификаторы всех загруженных пользователей. */
+    private String[] ids;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Настраивает журнал и загружает пользователей.
+     *
+     * @throws IOException    если не удалось прочитать конфигурацию
+     *                        или записать файл хранилища
+     * @throws JoranException если конфигурация журнала некорректна
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JoranException {
+        configureLogging();
+        UserDataset dataset = new UserDataset(SIZE, 0);
+        ids = dataset.ids();
+        storage = dataset.writeTo("users-logging-bench");
+        service = new UserService(storage.toString());
+        controller = new UserController(service);
+    }
+
+    /**
+     * Останавливает журнал и удаляет временные файлы хранилища.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Запрос случайного существующего пользователя.
+     *
+     * @return ответ контроллера
+     */
+    @Benchmark
+    public ResponseEntity<User> getUserById() {
+        return controller.getUserById(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)],
+                request);
+    }
+
+    /**
+     * Перечитывает logback.xml приложения с выводом в /dev/null
+     * и изменениями для выбранной настройки.
+     *
+     * @throws IOException    если не удалось прочитать конфигурацию
+     * @throws JoranException если конфигурация журнала некорректна
+     */
+    private void configureLogging() throws IOException, JoranException {
+        String xml;
+        try (InputStream in = UserController.class.getClassLoader()
+                .getResourceAsStream("logback.xml")) {
+            xml = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        xml = xml.replace("class=\"ch.qos.logback.core.ConsoleAppender\">",
+                "class=\"ch.qos.logback.core.FileAppender\">"
+                        + "<file>/dev/null</file>");
+        xml = switch (logging) {
+            case "off" -> xml.replace("<root level=\"INFO\">",
+                    "<root level=\"WARN\">");
+            case "sync" -> xml
+                    .replaceAll("(?s)<turboFilter.*?</turboFilter>", "")
+                    .replace("<appender-ref ref=\"ASYNC\" />",
+                            "<appender-ref ref=\"STDOUT\" />");
+            case "unsampled" -> xml
+                    .replaceAll("(?s)<turboFilter.*?</turboFilter>", "");
+            default -> xml;
+        };
+        LoggerContext context =
+                (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,155 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк полнотекстового поиска {@link UserService#search}.
+ * Описания пользователей составлены из восьми слов словаря
+ * из {@value #WORDS} слов с перекосом частот: слово w0 есть примерно
+ * у половины, слова с большими номерами — у единиц.
+ * Для сравнения — проход по всем пользователям с поиском подстроки
+ * в описании, как без индекса.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    /** Размер словаря описаний. */
+    private static final int WORDS = 20_000;
+
+    /** Число слов в описании. */
+    private static final int DESCRIPTION_WORDS = 8;
+
+    /** Число результатов. */
+    private static final int LIMIT = 20;
+
+    /** Количество пользователей в хранилище. */
+    @Param({"1000000"})
+    private int size;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Описания для прохода без индекса. */
+    private List<String> descriptions;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует пользователей с описаниями и загружает их в сервис.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, 0);
+        Random random = new Random(7);
+        descriptions = new ArrayList<>(size);
+        for (User user : dataset.users()) {
+            StringBuilder description = new StringBuilder();
+            for (int i = 0; i < DESCRIPTION_WORDS; i++) {
+                double skew = Math.pow(random.nextDouble(), 4);
+                description.append(i == 0 ? "" : " ")
+                        .append('w').append((int) (skew * WORDS));
+            }
+            user.setDescription(description.toString());
+            descriptions.add(description.toString());
+        }
+        storage = dataset.writeTo("users-search-bench");
+        service = new UserService(storage.toString());
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Редкое слово: несколько сотен совпадений.
+     *
+     * @return результаты
+     */
+    @Benchmark
+    public List<SearchHit> rareWord() {
+        return service.search("w15000", LIMIT);
+    }
+
+    /**
+     * Частое слово и имя: пересечение списков в десятки и сотни
+     * тысяч документов.
+     *
+     * @return результаты
+     */
+    @Benchmark
+    public List<SearchHit> commonWordAndName() {
+        return service.search("ivan w0", LIMIT);
+    }
+
+    /**
+     * Префикс фамилии: одно слово словаря, около восьми процентов
+     * пользователей.
+     *
+     * @return результаты
+     */
+    @Benchmark
+    public List<SearchHit> namePrefix() {
+        return service.search("petr*", LIMIT);
+    }
+
+    /**
+     * Префикс, который раскрывается в 1 111 слов описаний,
+     * вместе с именем.
+     *
+     * @return результаты
+     */
+    @Benchmark
+    public List<SearchHit> wordPrefixAndName() {
+        return service.search("anna w19*", LIMIT);
+    }
+
+    /**
+     * Без индекса: поиск подстроки в описании каждого пользователя.
+     *
+     * @return число совпадений
+     */
+    @Benchmark
+    public int scanDescriptions() {
+        int found = 0;
+        for (String description : descriptions) {
+            if (description.toLowerCase().contains("w15000")) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,119 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк пропускной способности изменений в шардированном
+ * хранилище при конкурентной записи: обновления случайных
+ * пользователей в режиме JOURNAL с синхронным сохранением.
+ * Один шард — то же, что один {@link UserService} под общей
+ * блокировкой; с ростом числа шардов записи в разные шарды
+ * перестают ждать друг друга, и пропускная способность растет
+ * вместе с числом ядер.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class ShardedWriteBenchmark {
+
+    /** Число шардов. */
+    @Param({"1", "4", "16"})
+    private int shards;
+
+    /** Количество пользователей в хранилище. */
+    @Param({"100000"})
+    private int size;
+
+    /** Хранилище под нагрузкой. */
+    private ShardedUserRepository repository;
+
+    /** Идентификаторы всех пользователей. */
+    private String[] ids;
+
+    /** Изменение возраста, применяемое в каждом вызове. */
+    private User patch;
+
+    /** Файл во временном каталоге хранилища. */
+    private Path storage;
+
+    /**
+     * Раскладывает набор пользователей по файлам шардов
+     * и открывает хранилище.
+     *
+     * @throws IOException если не удалось записать файлы шардов
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, 0);
+        ids = dataset.ids();
+        storage = dataset.writeTo("users-sharded-bench");
+
+        List<List<User>> byShard = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (User user : dataset.users()) {
+            byShard.get(ShardedUserRepository.indexOf(user.uuid(), shards))
+                    .add(user);
+        }
+        String prefix = storage.resolveSibling("users").toString();
+        ObjectMapper mapper = new ObjectMapper();
+        for (int i = 0; i < shards; i++) {
+            SnapshotFormat.JSON.write(byShard.get(i),
+                    Path.of(prefix + "-" + i + "of" + shards + ".json"),
+                    mapper);
+        }
+        repository = new ShardedUserRepository(prefix, shards,
+                PersistenceMode.JOURNAL, null);
+
+        patch = new User();
+        patch.setAge(33);
+    }
+
+    /**
+     * Закрывает хранилище и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Обновление случайного пользователя.
+     *
+     * @return обновленный пользователь
+     */
+    @Benchmark
+    public User update() {
+        return repository.update(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)], patch);
+    }
+}
@@ -0,0 +1,167 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Генератор наборов пользователей для бенчмарков.
+ * Набор детерминирован: при одинаковых параметрах получаются
+ * одинаковые имена, возрасты и связи (кроме случайных UID),
+ * поэтому результаты разных коммитов сравнимы.
+ * Каждый {@value #HUB_EVERY}-й пользователь — «хаб» с заданным числом
+ * друзей, у остальных друзей не больше {@value #REGULAR_DEGREE}:
+ * так набор на миллион пользователей помещается в память,
+ * а getFriends проверяется и на очень длинных списках.
+ */
+final class UserDataset {
+
+    /** Шаг, с которым в наборе встречаются хабы. */
+    static final int HUB_EVERY = 100;
+
+    /** Наибольшее число друзей у обычного пользователя. */
+    static final int REGULAR_DEGREE = 4;
+
+    /** Зерно генератора. */
+    private static final long SEED = 42L;
+
+    /** Имена; подстрока "ann" встречается примерно у каждого десятого. */
+    private static final String[] FIRST_NAMES = {
+        "Anna", "John", "Maria", "Ivan", "Hannah", "Peter", "Olga",
+        "Joanna", "Alex", "Elena", "Mark", "Sofia", "Dmitry", "Irina",
+        "Pavel", "Nina", "Oleg", "Vera", "Roman", "Daria",
+    };
+
+    /** Фамилии. */
+    private static final String[] LAST_NAMES = {
+        "Smith", "Ivanov", "Petrova", "Brown", "Sidorov", "Kuznetsova",
+        "Miller", "Popov", "Volkova", "Taylor", "Sokolov", "Lebedeva",
+    };
+
+    /** Пользователи в порядке вставки. */
+    private final List<User> users;
+
+    /** Идентификаторы пользователей в порядке вставки. */
+    private final String[] ids;
+
+    /** Идентификаторы хабов. */
+    private final String[] hubIds;
+
+    /**
+     * Генерирует набор.
+     *
+     * @param size         количество пользователей
+     * @param friendDegree число друзей у хаба
+     */
+    UserDataset(final int size, final int friendDegree) {
+        Random random = new Random(SEED);
+        users = new ArrayList<>(size);
+        ids = new String[size];
+        for (int i = 0; i < size; i++) {
+            User user = new User(
+                    FIRST_NAMES[random.nextInt(FIRST_NAMES.length)],
+                    LAST_NAMES[random.nextInt(LAST_NAMES.length)],
+                    18 + random.nextInt(50),
+                    "user" + i + "@example.com", "desc", List.of());
+            users.add(user);
+            ids[i] = user.getId();
+        }
+
+        hubIds = new String[(size + HUB_EVERY - 1) / HUB_EVERY];
+        for (int i = 0; i < size; i++) {
+            boolean hub = i % HUB_EVERY == 0;
+            if (hub) {
+                hubIds[i / HUB_EVERY] = ids[i];
+            }
+            int degree = Math.min(size - 1, hub
+                    ? friendDegree
+                    : Math.min(friendDegree, REGULAR_DEGREE));
+            Set<String> friends = new LinkedHashSet<>();
+            while (friends.size() < degree) {
+                int friend = random.nextInt(size);
+                if (friend != i) {
+                    friends.add(ids[friend]);
+                }
+            }
+            users.get(i).setFriends(new ArrayList<>(friends));
+        }
+    }
+
+    /**
+     * Возвращает пользователей в порядке вставки.
+     *
+     * @return пользователи
+     */
+    List<User> users() {
+        return users;
+    }
+
+    /**
+     * Возвращает идентификаторы пользователей.
+     *
+     * @return идентификаторы в порядке вставки
+     */
+    String[] ids() {
+        return ids;
+    }
+
+    /**
+     * Возвращает идентификаторы хабов.
+     *
+     * @return идентификаторы хабов
+     */
+    String[] hubIds() {
+        return hubIds;
+    }
+
+    /**
+     * Записывает набор во временный каталог в формате users.json.
+     *
+     * @param prefix префикс имени каталога
+     * @return путь к файлу хранилища
+     * @throws IOException если запись не удалась
+     */
+    Path writeTo(final String prefix) throws IOException {
+        return writeTo(prefix, SnapshotFormat.JSON);
+    }
+
+    /**
+     * Записывает набор во временный каталог в заданном формате снимка.
+     *
+     * @param prefix префикс имени каталога
+     * @param format формат снимка
+     * @return путь к файлу хранилища
+     * @throws IOException если запись не удалась
+     */
+    Path writeTo(final String prefix, final SnapshotFormat format)
+            throws IOException {
+        Path dir = Files.createTempDirectory(prefix);
+        Path storage = dir.resolve("users.json");
+        format.write(users, storage, new ObjectMapper());
+        return storage;
+    }
+
+    /**
+     * Удаляет каталог хранилища вместе с журналом и временными файлами.
+     *
+     * @param storage путь к файлу хранилища
+     * @throws IOException если удалить не удалось
+     */
+    static void delete(final Path storage) throws IOException {
+        try (Stream<Path> files = Files.walk(storage.getParent())) {
+            files.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк валидации в конструкторе и сеттерах {@link User}:
+ * проверка имени, email и UID друзей регулярными выражениями.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserValidationBenchmark {
+
+    /** Число друзей в создаваемом пользователе. */
+    @Param({"0", "10", "1000"})
+    private int friendDegree;
+
+    /** UID друзей. */
+    private List<String> friends;
+
+    /**
+     * Генерирует UID друзей.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        friends = new ArrayList<>(friendDegree);
+        for (int i = 0; i < friendDegree; i++) {
+            friends.add(UUID.randomUUID().toString());
+        }
+    }
+
+    /**
+     * Создание корректного пользователя со всеми проверками.
+     *
+     * @return пользователь
+     */
+    @Benchmark
+    public User createValid() {
+        return new User("John", "Doe", 30, "john.doe@example.com",
+                "desc", friends);
+    }
+
+    /**
+     * Отклонение некорректного email.
+     *
+     * @return сообщение об ошибке
+     */
+    @Benchmark
+    public String rejectInvalidEmail() {
+        try {
+            new User("John", "Doe", 30, "john.doe.example.com",
+                    "desc", friends);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк задержки одиночных изменений вместе с сохранением на диск.
+ * В режиме SNAPSHOT каждое изменение перезаписывает весь файл,
+ * поэтому время растет с размером набора; в режиме JOURNAL
+ * дописывается одна строка журнала.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class WritePathBenchmark {
+
+    /** Режим сохранения. */
+    @Param({"SNAPSHOT", "JOURNAL"})
+    private PersistenceMode mode;
+
+    /** Количество пользователей в хранилище. */
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Идентификаторы всех пользователей. */
+    private String[] ids;
+
+    /** Изменение возраста, применяемое в update. */
+    private User patch;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует набор пользователей и открывает сервис.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, 10);
+        ids = dataset.ids();
+        storage = dataset.writeTo("users-write-path-bench");
+        service = new UserService(storage.toString(), mode);
+
+        patch = new User();
+        patch.setAge(33);
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Создание пользователя и его удаление, чтобы размер набора
+     * не менялся между итерациями.
+     *
+     * @return созданный пользователь
+     */
+    @Benchmark
+    public User createAndDelete() {
+        User created = service.create(new User("Bench", "User", 30,
+                "bench@example.com", "desc", List.of()));
+        service.delete(created.getId());
+        return created;
+    }
+
+    /**
+     * Обновление случайного пользователя.
+     *
+     * @return обновленный пользователь
+     */
+    @Benchmark
+    public User update() {
+        return service.update(randomId(), patch);
+    }
+
+    /**
+     * Добавление и удаление друга у случайного пользователя.
+     */
+    @Benchmark
+    public void addAndRemoveFriend() {
+        String uid = randomId();
+        String friendUid = randomId();
+        if (uid.equals(friendUid)) {
+            return;
+        }
+        service.addFriend(uid, friendUid);
+        service.removeFriend(uid, friendUid);
+    }
+
+    /**
+     * Выбирает случайного пользователя набора.
+     *
+     * @return идентификатор пользователя
+     */
+    private String randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+}
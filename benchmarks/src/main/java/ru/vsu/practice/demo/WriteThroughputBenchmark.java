@@ -0,0 +1,101 @@
+package ru.vsu.practice.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк пропускной способности изменений при конкурентной записи.
+ * Сравнивает синхронное сохранение (DIRECT) с групповым сохранением
+ * на каждом уровне надежности.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class WriteThroughputBenchmark {
+
+    /** Режим сохранения. */
+    @Param({"SNAPSHOT", "JOURNAL"})
+    private PersistenceMode mode;
+
+    /** DIRECT — синхронное сохранение, иначе уровень надежности пачек. */
+    @Param({"DIRECT", "FSYNC_PER_BATCH", "PERIODIC_FSYNC", "NONE"})
+    private String commit;
+
+    /** Количество пользователей в хранилище. */
+    @Param({"10000"})
+    private int size;
+
+    /** Сервис под нагрузкой. */
+    private UserService service;
+
+    /** Идентификаторы всех пользователей. */
+    private String[] ids;
+
+    /** Изменение возраста, применяемое в каждом вызове. */
+    private User patch;
+
+    /** Файл хранилища. */
+    private Path storage;
+
+    /**
+     * Генерирует набор пользователей и открывает сервис.
+     *
+     * @throws IOException если не удалось записать файл хранилища
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        UserDataset dataset = new UserDataset(size, 0);
+        ids = dataset.ids();
+        storage = dataset.writeTo("users-write-bench");
+
+        GroupCommitPolicy policy = "DIRECT".equals(commit)
+                ? null : GroupCommitPolicy.of(Durability.valueOf(commit));
+        service = new UserService(storage.toString(), mode, policy);
+
+        patch = new User();
+        patch.setAge(33);
+    }
+
+    /**
+     * Закрывает сервис и удаляет временные файлы.
+     *
+     * @throws IOException если не удалось удалить файлы
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.close();
+        UserDataset.delete(storage);
+    }
+
+    /**
+     * Обновление случайного пользователя.
+     *
+     * @return обновленный пользователь
+     */
+    @Benchmark
+    public User update() {
+        return service.update(
+                ids[ThreadLocalRandom.current().nextInt(ids.length)], patch);
+    }
+}
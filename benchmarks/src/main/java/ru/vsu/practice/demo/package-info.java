@@ -0,0 +1,5 @@
+/**
+ * Пакет содержит JMH-бенчмарки и нагрузочные тесты
+ * сервиса пользователей.
+ */
+package ru.vsu.practice.demo;
@@ -0,0 +1,52 @@
+package ru.vsu.practice.demo;
+
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Результат одного элемента пакетной операции. Ошибка элемента
+ * не отменяет остальные элементы пакета.
+ *
+ * @param index номер элемента в пакете
+ * @param id    идентификатор пользователя элемента
+ * @param error сообщение об ошибке; null, если элемент применен
+ */
+public record BatchResult(int index, String id, String error) {
+
+    /**
+     * Выполняет действие над элементом пакета и запоминает исход.
+     * Ошибки данных (пустой элемент, некорректный или отсутствующий
+     * пользователь) записываются в результат, остальные исключения
+     * пробрасываются.
+     *
+     * @param index  номер элемента в пакете
+     * @param item   элемент пакета
+     * @param id     извлечение идентификатора пользователя из элемента
+     * @param action действие над элементом
+     * @param <T>    тип элемента
+     * @return результат элемента
+     */
+    static <T> BatchResult attempt(final int index, final T item,
+                                   final Function<T, String> id,
+                                   final Consumer<T> action) {
+        if (item == null) {
+            return new BatchResult(index, null, "Empty batch item");
+        }
+        try {
+            action.accept(item);
+            return new BatchResult(index, id.apply(item), null);
+        } catch (IllegalArgumentException | NoSuchElementException e) {
+            return new BatchResult(index, id.apply(item), e.getMessage());
+        }
+    }
+
+    /**
+     * Проверяет, применен ли элемент.
+     *
+     * @return true, если ошибки нет
+     */
+    public boolean isOk() {
+        return error == null;
+    }
+}
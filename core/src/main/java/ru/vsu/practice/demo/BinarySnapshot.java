@@ -0,0 +1,243 @@
+package ru.vsu.practice.demo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Компактный двоичный снимок пользователей.
+ * Формат: заголовок (сигнатура {@link #MAGIC}, версия, число записей),
+ * затем записи с префиксом длины и в конце CRC32C всего предыдущего
+ * содержимого. ID и UID друзей хранятся как два long, строки — как
+ * длина и байты UTF-8, отсутствующее описание — длиной -1.
+ * Файл читается через отображение в память окнами, поэтому
+ * снимок может быть больше 2 ГБ, а разбор не требует
+ * промежуточного буфера на весь файл. Совпадение контрольной суммы
+ * доказывает, что файл записан сервисом и не менялся, поэтому
+ * пользователи такого снимка создаются без повторной проверки полей.
+ */
+final class BinarySnapshot {
+
+    /** Сигнатура файла: "USRB". */
+    static final int MAGIC = 0x55535242;
+
+    /** Версия формата. */
+    private static final short VERSION = 3;
+
+    /** Размер заголовка в байтах. */
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+
+    /** Размер окна отображения файла в память. */
+    private static final long WINDOW = 256L * 1024 * 1024;
+
+    /** Размер буфера записи. */
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Записывает пользователей в файл.
+     *
+     * @param users пользователи в порядке вставки
+     * @param path  файл снимка
+     * @throws IOException если запись не удалась
+     */
+    static void write(final Collection<User> users, final Path path)
+            throws IOException {
+        CRC32C checksum = new CRC32C();
+        try (OutputStream file = Files.newOutputStream(path);
+             DataOutputStream out = new DataOutputStream(
+                     new CheckedOutputStream(new BufferedOutputStream(
+                             file, WRITE_BUFFER), checksum))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(users.size());
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream fields = new DataOutputStream(record);
+            for (User user : users) {
+                record.reset();
+                fields.writeLong(user.uuid().getMostSignificantBits());
+                fields.writeLong(user.uuid().getLeastSignificantBits());
+                writeString(fields, user.getFirstName());
+                writeString(fields, user.getLastName());
+                fields.writeInt(user.getAge());
+                writeString(fields, user.getEmail());
+                writeString(fields, user.getDescription());
+                long[] friends = user.friendBits();
+                fields.writeInt(user.friendCount());
+                for (int i = 0; i < user.friendCount() * 2; i++) {
+                    fields.writeLong(friends[i]);
+                }
+                out.writeInt(record.size());
+                record.writeTo(out);
+            }
+            out.writeInt((int) checksum.getValue());
+        }
+    }
+
+    /**
+     * Читает пользователей из файла.
+     *
+     * @param path файл снимка
+     * @return пользователи в порядке вставки
+     * @throws IOException если файл не читается или поврежден
+     */
+    static List<User> read(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Binary snapshot is truncated: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a binary snapshot: " + path);
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException(
+                        "Unsupported binary snapshot version: " + version);
+            }
+            int count = header.getInt();
+            size -= Integer.BYTES;
+            verifyChecksum(channel, size, path);
+
+            List<User> users = new ArrayList<>(count);
+            long position = HEADER_SIZE;
+            MappedByteBuffer window = null;
+            long windowStart = 0;
+            for (int i = 0; i < count; i++) {
+                int length = -1;
+                if (window != null && window.remaining() >= Integer.BYTES) {
+                    length = window.getInt(window.position());
+                }
+                if (length < 0 || window.remaining() < Integer.BYTES + length) {
+                    windowStart = position;
+                    window = map(channel, position, size);
+                    length = window.getInt(0);
+                    if (window.remaining() < Integer.BYTES + length) {
+                        window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                position, Integer.BYTES + (long) length);
+                    }
+                }
+                window.getInt();
+                users.add(readUser(window));
+                position = windowStart + window.position();
+            }
+            return users;
+        } catch (RuntimeException e) {
+            throw new IOException("Binary snapshot is corrupted: " + path, e);
+        }
+    }
+
+    /**
+     * Сверяет CRC32C содержимого с записанной в конце файла.
+     *
+     * @param channel канал файла
+     * @param size    размер содержимого без контрольной суммы
+     * @param path    файл снимка
+     * @throws IOException если контрольная сумма не совпала
+     */
+    private static void verifyChecksum(final FileChannel channel,
+                                       final long size, final Path path)
+            throws IOException {
+        CRC32C checksum = new CRC32C();
+        for (long position = 0; position < size; position += WINDOW) {
+            checksum.update(map(channel, position, size));
+        }
+        ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY,
+                size, Integer.BYTES);
+        if (stored.getInt() != (int) checksum.getValue()) {
+            throw new IOException(
+                    "Binary snapshot checksum mismatch: " + path);
+        }
+    }
+
+    /**
+     * Отображает в память окно файла, начиная с позиции.
+     *
+     * @param channel  канал файла
+     * @param position начало окна
+     * @param size     размер файла
+     * @return окно
+     * @throws IOException если отображение не удалось
+     */
+    private static MappedByteBuffer map(final FileChannel channel,
+                                        final long position, final long size)
+            throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position,
+                Math.min(WINDOW, size - position));
+    }
+
+    /**
+     * Читает одну запись пользователя. Контрольная сумма снимка уже
+     * проверена, поэтому пользователь создается без проверки полей.
+     *
+     * @param in буфер, установленный на начало полей записи
+     * @return пользователь
+     */
+    private static User readUser(final ByteBuffer in) {
+        UUID uid = new UUID(in.getLong(), in.getLong());
+        String firstName = readString(in);
+        String lastName = readString(in);
+        int age = in.getInt();
+        String email = readString(in);
+        String description = readString(in);
+        long[] friends = new long[in.getInt() * 2];
+        in.asLongBuffer().get(friends);
+        in.position(in.position() + friends.length * Long.BYTES);
+        return User.trusted(uid, firstName, lastName, age, email,
+                description, friends);
+    }
+
+    /**
+     * Записывает строку: длина в байтах и UTF-8; null — длина -1.
+     *
+     * @param out   поток записи
+     * @param value строка или null
+     * @throws IOException если запись не удалась
+     */
+    static void writeString(final DataOutputStream out,
+                            final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Читает строку, записанную {@link #writeString}.
+     *
+     * @param in буфер
+     * @return строка или null
+     */
+    static String readString(final ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.vsu.practice.demo;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Распределение пользователей по числу друзей.
+ *
+ * @param users       число пользователей
+ * @param friendships число связей дружбы
+ * @param max         наибольшее число друзей
+ * @param mean        среднее число друзей
+ * @param median      медиана числа друзей
+ * @param p90         90-й перцентиль числа друзей
+ * @param p99         99-й перцентиль числа друзей
+ * @param histogram   число пользователей по интервалам [2^k, 2^(k+1));
+ *                    ключ — нижняя граница, отдельно 0
+ */
+public record DegreeStats(int users, long friendships, int max, double mean,
+                          int median, int p90, int p99,
+                          Map<Integer, Integer> histogram) {
+
+    /** Доля пользователей для медианы. */
+    private static final double MEDIAN = 0.5;
+
+    /** Доля пользователей для 90-го перцентиля. */
+    private static final double P90 = 0.9;
+
+    /** Доля пользователей для 99-го перцентиля. */
+    private static final double P99 = 0.99;
+
+    /**
+     * Считает распределение по числу пользователей с каждым
+     * числом друзей. Время зависит от числа различных значений,
+     * а не от числа пользователей.
+     *
+     * @param usersByDegree число пользователей по числу друзей
+     * @return распределение
+     */
+    public static DegreeStats of(
+            final NavigableMap<Integer, Integer> usersByDegree) {
+        int users = 0;
+        long friendships = 0;
+        Map<Integer, Integer> histogram = new TreeMap<>();
+        for (Map.Entry<Integer, Integer> entry : usersByDegree.entrySet()) {
+            int degree = entry.getKey();
+            users += entry.getValue();
+            friendships += (long) degree * entry.getValue();
+            int bucket = degree == 0 ? 0 : Integer.highestOneBit(degree);
+            histogram.merge(bucket, entry.getValue(), Integer::sum);
+        }
+        if (users == 0) {
+            return new DegreeStats(0, 0, 0, 0, 0, 0, 0, histogram);
+        }
+        return new DegreeStats(users, friendships, usersByDegree.lastKey(),
+                (double) friendships / users,
+                percentile(usersByDegree, users, MEDIAN),
+                percentile(usersByDegree, users, P90),
+                percentile(usersByDegree, users, P99), histogram);
+    }
+
+    /**
+     * Перцентиль по ближайшему рангу.
+     *
+     * @param usersByDegree число пользователей по числу друзей
+     * @param users         всего пользователей
+     * @param quantile      доля от 0 до 1
+     * @return наименьшее число друзей, не меньшее доли quantile
+     * пользователей
+     */
+    private static int percentile(
+            final NavigableMap<Integer, Integer> usersByDegree,
+            final int users, final double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * users));
+        long seen = 0;
+        for (Map.Entry<Integer, Integer> entry : usersByDegree.entrySet()) {
+            seen += entry.getValue();
+            if (seen >= rank) {
+                return entry.getKey();
+            }
+        }
+        return usersByDegree.lastKey();
+    }
+}
@@ -0,0 +1,24 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Уровень надежности группового сохранения изменений.
+ */
+public enum Durability {
+
+    /**
+     * fsync после каждой пачки: вызывающий получает подтверждение
+     * только когда изменения физически на диске.
+     */
+    FSYNC_PER_BATCH,
+
+    /**
+     * Пачки записываются в файл сразу, а fsync выполняется по таймеру.
+     * При сбое ОС теряются изменения за последний интервал.
+     */
+    PERIODIC_FSYNC,
+
+    /**
+     * fsync не выполняется, сброс на диск остается на усмотрение ОС.
+     */
+    NONE
+}
@@ -0,0 +1,9 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Связь дружбы для пакетного добавления и удаления друзей.
+ *
+ * @param uid       идентификатор пользователя
+ * @param friendUid идентификатор друга
+ */
+public record FriendEdge(String uid, String friendUid) { }
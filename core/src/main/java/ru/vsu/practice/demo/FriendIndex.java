@@ -0,0 +1,501 @@
+package ru.vsu.practice.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Индекс дружбы. Обратные связи — для каждого UID пользователи,
+ * у которых он есть в списке друзей, — позволяют при удалении
+ * пользователя убрать его из чужих списков за время,
+ * пропорциональное числу входящих связей.
+ * Прямые связи хранятся компактно для запросов к графу: каждому
+ * UID выдается номер вершины, список друзей — массив номеров
+ * по возрастанию. Массивы не меняются на месте, изменение заменяет
+ * массив новым. Номер вершины освобождается, когда UID перестает
+ * быть пользователем и пропадает из всех списков друзей, и выдается
+ * снова, поэтому при постоянных созданиях и удалениях индекс
+ * не растет сверх числа живых вершин.
+ */
+final class FriendIndex {
+
+    /** Пустой список друзей. */
+    private static final int[] NO_FRIENDS = new int[0];
+
+    /** Начальная емкость массивов по номеру вершины. */
+    private static final int INITIAL_NODES = 16;
+
+    /** Наименьшая емкость таблицы подсчета кандидатов. */
+    private static final int MIN_TABLE = 8;
+
+    /** Двоичный логарифм запаса таблицы подсчета над числом ключей. */
+    private static final int TABLE_SLACK_SHIFT = 2;
+
+    /** Множитель хеширования номеров вершин (золотое сечение). */
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    /** Входящие связи: UID друга — UID пользователей, добавивших его. */
+    private final Map<UUID, Set<UUID>> inbound = new HashMap<>();
+
+    /** Номер вершины по UID. */
+    private final Map<UUID, Integer> nodeById = new HashMap<>();
+
+    /**
+     * UID по номеру вершины; значимы первые nodes элементов,
+     * у освобожденных номеров — null.
+     */
+    private UUID[] uuidByNode = new UUID[INITIAL_NODES];
+
+    /**
+     * Друзья по номеру вершины: номера по возрастанию; null у вершин,
+     * которые не являются пользователями.
+     */
+    private int[][] outbound = new int[INITIAL_NODES][];
+
+    /** Число выданных номеров вершин, включая освобожденные. */
+    private int nodes;
+
+    /** Освобожденные номера вершин; значимы первые freeCount. */
+    private int[] freeNodes = new int[INITIAL_NODES];
+
+    /** Число освобожденных номеров вершин. */
+    private int freeCount;
+
+    /** Число пользователей по числу друзей. */
+    private final TreeMap<Integer, Integer> degrees = new TreeMap<>();
+
+    /**
+     * Перестраивает индекс по всем пользователям.
+     *
+     * @param users пользователи
+     */
+    void rebuild(final Collection<User> users) {
+        inbound.clear();
+        nodeById.clear();
+        Arrays.fill(uuidByNode, 0, nodes, null);
+        Arrays.fill(outbound, 0, nodes, null);
+        nodes = 0;
+        freeCount = 0;
+        degrees.clear();
+        for (User user : users) {
+            link(user);
+        }
+    }
+
+    /**
+     * Регистрирует пользователя и его исходящие связи.
+     *
+     * @param user пользователь
+     */
+    void link(final User user) {
+        int[] friends = new int[user.friendCount()];
+        for (int i = 0; i < user.friendCount(); i++) {
+            UUID friendUid = user.friendAt(i);
+            inbound.computeIfAbsent(friendUid, f -> new HashSet<>())
+                    .add(user.uuid());
+            friends[i] = nodeOf(friendUid);
+        }
+        Arrays.sort(friends);
+        int unique = 0;
+        for (int i = 0; i < friends.length; i++) {
+            if (i == 0 || friends[i] != friends[i - 1]) {
+                friends[unique++] = friends[i];
+            }
+        }
+        setFriends(nodeOf(user.uuid()), unique == friends.length
+                ? friends : Arrays.copyOf(friends, unique));
+    }
+
+    /**
+     * Регистрирует одну исходящую связь.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid UID друга
+     */
+    void link(final UUID uid, final UUID friendUid) {
+        inbound.computeIfAbsent(friendUid, f -> new HashSet<>()).add(uid);
+        int node = nodeOf(uid);
+        int[] friends = friendsOf(node);
+        int friend = nodeOf(friendUid);
+        int pos = Arrays.binarySearch(friends, friend);
+        if (pos >= 0) {
+            return;
+        }
+        int insert = -pos - 1;
+        int[] updated = new int[friends.length + 1];
+        System.arraycopy(friends, 0, updated, 0, insert);
+        updated[insert] = friend;
+        System.arraycopy(friends, insert, updated, insert + 1,
+                friends.length - insert);
+        setFriends(node, updated);
+    }
+
+    /**
+     * Снимает исходящие связи пользователя; сам пользователь
+     * остается зарегистрированным без друзей.
+     *
+     * @param user пользователь
+     */
+    void unlink(final User user) {
+        Integer node = nodeById.get(user.uuid());
+        if (node != null && outbound[node] != null) {
+            setFriends(node, NO_FRIENDS);
+        }
+        for (int i = 0; i < user.friendCount(); i++) {
+            unlinkInbound(user.uuid(), user.friendAt(i));
+        }
+    }
+
+    /**
+     * Снимает регистрацию удаленного пользователя. Исходящие связи
+     * должны быть сняты заранее через {@link #unlink(User)}.
+     *
+     * @param uid идентификатор пользователя
+     */
+    void remove(final UUID uid) {
+        Integer node = nodeById.get(uid);
+        if (node != null && outbound[node] != null) {
+            setFriends(node, null);
+        }
+        release(uid);
+    }
+
+    /**
+     * Снимает одну исходящую связь.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid UID друга
+     */
+    void unlink(final UUID uid, final UUID friendUid) {
+        Integer node = nodeById.get(uid);
+        Integer friend = nodeById.get(friendUid);
+        if (node != null && friend != null && outbound[node] != null) {
+            int[] friends = outbound[node];
+            int pos = Arrays.binarySearch(friends, friend);
+            if (pos >= 0) {
+                int[] updated = new int[friends.length - 1];
+                System.arraycopy(friends, 0, updated, 0, pos);
+                System.arraycopy(friends, pos + 1, updated, pos,
+                        friends.length - pos - 1);
+                setFriends(node, updated);
+            }
+        }
+        unlinkInbound(uid, friendUid);
+    }
+
+    /**
+     * Снимает одну входящую связь. Исходящая связь в массиве
+     * пользователя должна быть снята заранее: номер друга может
+     * освободиться.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid UID друга
+     */
+    private void unlinkInbound(final UUID uid, final UUID friendUid) {
+        Set<UUID> followers = inbound.get(friendUid);
+        if (followers != null) {
+            followers.remove(uid);
+            if (followers.isEmpty()) {
+                inbound.remove(friendUid);
+                release(friendUid);
+            }
+        }
+    }
+
+    /**
+     * Освобождает номер вершины, если UID не пользователь и не
+     * встречается ни в одном списке друзей.
+     *
+     * @param uid идентификатор
+     */
+    private void release(final UUID uid) {
+        Integer node = nodeById.get(uid);
+        if (node == null || outbound[node] != null
+                || inbound.containsKey(uid)) {
+            return;
+        }
+        nodeById.remove(uid);
+        uuidByNode[node] = null;
+        if (freeCount == freeNodes.length) {
+            freeNodes = Arrays.copyOf(freeNodes, freeCount * 2);
+        }
+        freeNodes[freeCount++] = node;
+    }
+
+    /**
+     * Заменяет исходящие связи пользователя.
+     *
+     * @param previous прежнее состояние пользователя
+     * @param current  новое состояние пользователя
+     */
+    void relink(final User previous, final User current) {
+        unlink(previous);
+        link(current);
+    }
+
+    /**
+     * Возвращает пользователей, у которых UID есть в списке друзей.
+     *
+     * @param uid идентификатор пользователя
+     * @return UID пользователей с входящей связью; копия
+     */
+    Set<UUID> followersOf(final UUID uid) {
+        Set<UUID> followers = inbound.get(uid);
+        return followers == null ? Set.of() : new HashSet<>(followers);
+    }
+
+    /**
+     * Общие друзья двух пользователей: пересечение их списков.
+     * Меньший список проходится по порядку, в большем позиция
+     * ищется экспоненциальным шагом от предыдущей, поэтому время —
+     * O(m log(n / m)) для списков длины m &lt;= n.
+     *
+     * @param uid      идентификатор первого пользователя
+     * @param otherUid идентификатор второго пользователя
+     * @return UID общих друзей
+     */
+    List<UUID> mutual(final UUID uid, final UUID otherUid) {
+        int[] a = friendsOf(uid);
+        int[] b = friendsOf(otherUid);
+        int[] common = new int[Math.min(a.length, b.length)];
+        int count = intersect(a, b, common);
+        List<UUID> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(uuidByNode[common[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Друзья друзей, которых нет в списке пользователя, по убыванию
+     * числа общих друзей; при равенстве — по возрастанию номера
+     * вершины.
+     * Друзья пользователя проходятся от меньшего числа друзей
+     * к большему, и проход останавливается, когда просмотрено
+     * budget связей второго уровня: время запроса ограничено
+     * и у пользователей с тысячами друзей, а малочисленные общие
+     * круги, которые точнее указывают на знакомство, учитываются
+     * первыми.
+     *
+     * @param uid    идентификатор пользователя
+     * @param limit  наибольшее число кандидатов
+     * @param budget наибольшее число просматриваемых связей
+     * @return кандидаты с числом общих друзей
+     */
+    List<Candidate> suggest(final UUID uid, final int limit,
+                            final int budget) {
+        Integer self = nodeById.get(uid);
+        if (self == null || limit <= 0) {
+            return List.of();
+        }
+        int[] own = friendsOf(self);
+        int[][] hops = new int[own.length][];
+        for (int i = 0; i < own.length; i++) {
+            hops[i] = friendsOf(own[i]);
+        }
+        Arrays.sort(hops, Comparator.comparingInt(h -> h.length));
+        int scanned = 0;
+        int used = 0;
+        while (used < hops.length && scanned + hops[used].length <= budget) {
+            scanned += hops[used++].length;
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(MIN_TABLE, scanned))
+                << TABLE_SLACK_SHIFT;
+        int mask = capacity - 1;
+        int[] keys = new int[capacity];
+        int[] counts = new int[capacity];
+        for (int h = 0; h < used; h++) {
+            for (int node : hops[h]) {
+                int slot = (node * GOLDEN_RATIO) & mask;
+                while (keys[slot] != 0 && keys[slot] != node + 1) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = node + 1;
+                counts[slot]++;
+            }
+        }
+
+        Comparator<Candidate> rank = Comparator
+                .comparingInt(Candidate::mutual)
+                .thenComparing(Comparator.comparingInt(Candidate::node)
+                        .reversed());
+        PriorityQueue<Candidate> top = new PriorityQueue<>(rank);
+        for (int slot = 0; slot < capacity; slot++) {
+            int node = keys[slot] - 1;
+            int mutual = counts[slot];
+            if (node < 0 || node == self || outbound[node] == null) {
+                continue;
+            }
+            if (top.size() == limit) {
+                Candidate weakest = top.peek();
+                if (mutual < weakest.mutual() || mutual == weakest.mutual()
+                        && node > weakest.node()) {
+                    continue;
+                }
+            }
+            if (Arrays.binarySearch(own, node) >= 0) {
+                continue;
+            }
+            if (top.size() == limit) {
+                top.poll();
+            }
+            top.add(new Candidate(uuidByNode[node], node, mutual));
+        }
+        List<Candidate> result = new ArrayList<>(top);
+        result.sort(rank.reversed());
+        return result;
+    }
+
+    /**
+     * Число пользователей по числу друзей.
+     *
+     * @return копия распределения
+     */
+    NavigableMap<Integer, Integer> degrees() {
+        return new TreeMap<>(degrees);
+    }
+
+    /**
+     * Число занятых номеров вершин: пользователи и UID, которые
+     * встречаются в списках друзей.
+     *
+     * @return число вершин без освобожденных
+     */
+    int nodeCount() {
+        return nodes - freeCount;
+    }
+
+    /**
+     * Наибольший выданный номер вершины плюс один; ограничивает
+     * размер массивов по номеру вершины.
+     *
+     * @return число выданных номеров, включая освобожденные
+     */
+    int nodeCapacity() {
+        return nodes;
+    }
+
+    /**
+     * Пересекает два отсортированных массива галопирующим поиском.
+     *
+     * @param a   первый массив
+     * @param b   второй массив
+     * @param out приемник общих элементов длиной не меньше меньшего
+     * @return число общих элементов
+     */
+    static int intersect(final int[] a, final int[] b, final int[] out) {
+        int[] small = a.length <= b.length ? a : b;
+        int[] large = small == a ? b : a;
+        int count = 0;
+        int from = 0;
+        for (int value : small) {
+            int step = 1;
+            int to = from;
+            while (to < large.length && large[to] < value) {
+                from = to + 1;
+                to += step;
+                step <<= 1;
+            }
+            int pos = Arrays.binarySearch(large, from,
+                    Math.min(to + 1, large.length), value);
+            if (pos >= 0) {
+                out[count++] = value;
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Список друзей пользователя.
+     *
+     * @param uid идентификатор пользователя
+     * @return номера вершин друзей по возрастанию
+     */
+    private int[] friendsOf(final UUID uid) {
+        Integer node = nodeById.get(uid);
+        return node == null ? NO_FRIENDS : friendsOf(node);
+    }
+
+    /**
+     * Список друзей вершины.
+     *
+     * @param node номер вершины
+     * @return номера вершин друзей; пустой, если вершина не пользователь
+     */
+    private int[] friendsOf(final int node) {
+        int[] friends = outbound[node];
+        return friends == null ? NO_FRIENDS : friends;
+    }
+
+    /**
+     * Номер вершины UID; при первом обращении выдает освобожденный
+     * номер или новый.
+     *
+     * @param uid идентификатор
+     * @return номер вершины
+     */
+    private int nodeOf(final UUID uid) {
+        Integer node = nodeById.get(uid);
+        if (node != null) {
+            return node;
+        }
+        if (freeCount > 0) {
+            int reused = freeNodes[--freeCount];
+            uuidByNode[reused] = uid;
+            nodeById.put(uid, reused);
+            return reused;
+        }
+        if (nodes == uuidByNode.length) {
+            uuidByNode = Arrays.copyOf(uuidByNode, nodes * 2);
+            outbound = Arrays.copyOf(outbound, nodes * 2);
+        }
+        uuidByNode[nodes] = uid;
+        nodeById.put(uid, nodes);
+        return nodes++;
+    }
+
+    /**
+     * Заменяет список друзей вершины и обновляет распределение.
+     *
+     * @param node    номер вершины
+     * @param friends новый список или null, если вершина больше
+     *                не пользователь
+     */
+    private void setFriends(final int node, final int[] friends) {
+        int[] previous = outbound[node];
+        if (previous != null) {
+            degrees.computeIfPresent(previous.length,
+                    (d, n) -> n == 1 ? null : n - 1);
+        }
+        if (friends != null) {
+            degrees.merge(friends.length, 1, Integer::sum);
+        }
+        outbound[node] = friends;
+    }
+
+    /**
+     * Кандидат в друзья.
+     *
+     * @param uid    идентификатор кандидата
+     * @param node   номер вершины
+     * @param mutual число общих друзей
+     */
+    record Candidate(UUID uid, int node, int mutual) { }
+}
@@ -0,0 +1,9 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Кандидат в друзья: друг друзей пользователя.
+ *
+ * @param user          кандидат
+ * @param mutualFriends число общих друзей с пользователем
+ */
+public record FriendSuggestion(User user, int mutualFriends) { }
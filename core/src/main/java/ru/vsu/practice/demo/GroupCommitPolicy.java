@@ -0,0 +1,119 @@
+package ru.vsu.practice.demo;
+
+import java.time.Duration;
+
+/**
+ * Параметры группового сохранения изменений (group commit).
+ * Изменения, пришедшие в пределах окна или до заполнения пачки,
+ * сохраняются одной записью на диск, после которой подтверждаются
+ * все вызывающие.
+ */
+public final class GroupCommitPolicy {
+
+    /** Размер пачки по умолчанию. */
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /**
+     * Окно ожидания по умолчанию: пачку составляют изменения,
+     * накопившиеся за время записи предыдущей пачки.
+     */
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ZERO;
+
+    /** Интервал периодического fsync по умолчанию. */
+    private static final Duration DEFAULT_FSYNC_INTERVAL =
+            Duration.ofMillis(100);
+
+    /** Максимальное число изменений в одной пачке. */
+    private final int maxBatchSize;
+
+    /** Сколько ждать добора пачки после первого изменения. */
+    private final Duration maxDelay;
+
+    /** Уровень надежности. */
+    private final Durability durability;
+
+    /** Интервал fsync для {@link Durability#PERIODIC_FSYNC}. */
+    private final Duration fsyncInterval;
+
+    /**
+     * Создает параметры группового сохранения.
+     *
+     * @param maxBatchSizeParam  максимальный размер пачки
+     * @param maxDelayParam      окно ожидания добора пачки
+     * @param durabilityParam    уровень надежности
+     * @param fsyncIntervalParam интервал периодического fsync
+     * @throws IllegalArgumentException если параметры некорректны
+     */
+    public GroupCommitPolicy(final int maxBatchSizeParam,
+                             final Duration maxDelayParam,
+                             final Durability durabilityParam,
+                             final Duration fsyncIntervalParam) {
+        if (maxBatchSizeParam < 1) {
+            throw new IllegalArgumentException(
+                    "Batch size must be positive.");
+        }
+        if (maxDelayParam == null || maxDelayParam.isNegative()) {
+            throw new IllegalArgumentException(
+                    "Batch delay must not be negative.");
+        }
+        if (durabilityParam == null) {
+            throw new IllegalArgumentException("Durability is required.");
+        }
+        if (fsyncIntervalParam == null || fsyncIntervalParam.isNegative()
+                || fsyncIntervalParam.isZero()) {
+            throw new IllegalArgumentException(
+                    "Fsync interval must be positive.");
+        }
+        this.maxBatchSize = maxBatchSizeParam;
+        this.maxDelay = maxDelayParam;
+        this.durability = durabilityParam;
+        this.fsyncInterval = fsyncIntervalParam;
+    }
+
+    /**
+     * Параметры по умолчанию для заданного уровня надежности.
+     *
+     * @param durability уровень надежности
+     * @return параметры группового сохранения
+     */
+    public static GroupCommitPolicy of(final Durability durability) {
+        return new GroupCommitPolicy(DEFAULT_MAX_BATCH_SIZE,
+                DEFAULT_MAX_DELAY, durability, DEFAULT_FSYNC_INTERVAL);
+    }
+
+    /**
+     * Возвращает максимальный размер пачки.
+     *
+     * @return размер пачки
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Возвращает окно ожидания добора пачки.
+     *
+     * @return окно ожидания
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Возвращает уровень надежности.
+     *
+     * @return уровень надежности
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Возвращает интервал периодического fsync.
+     *
+     * @return интервал fsync
+     */
+    public Duration getFsyncInterval() {
+        return fsyncInterval;
+    }
+}
@@ -0,0 +1,301 @@
+package ru.vsu.practice.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Групповое сохранение изменений.
+ * Изменения ставятся в очередь, фоновый поток собирает их в пачки
+ * и сохраняет каждую пачку одной записью на диск. Подтверждение
+ * вызывающему приходит после сохранения пачки, в которую попало
+ * его изменение. Изменения пачки, которую не удалось записать,
+ * уже применены в памяти, поэтому они не отбрасываются, а пишутся
+ * перед следующей пачкой: в журнале не остается пропуска.
+ */
+final class GroupCommitter implements AutoCloseable {
+
+    /**
+     * Приемник пачек изменений.
+     */
+    interface Sink {
+
+        /**
+         * Записывает пачку изменений.
+         *
+         * @param batch закодированные изменения в порядке поступления
+         * @throws IOException если запись не удалась
+         */
+        void write(List<byte[]> batch) throws IOException;
+
+        /**
+         * Сбрасывает записанные данные на физический носитель.
+         *
+         * @throws IOException если fsync не удался
+         */
+        void force() throws IOException;
+    }
+
+    /**
+     * Изменение, ожидающее сохранения.
+     *
+     * @param payload закодированное изменение
+     * @param done    подтверждение сохранения
+     */
+    private record Pending(byte[] payload, CompletableFuture<Void> done) { }
+
+    /** Маркер остановки потока записи. */
+    private static final Pending POISON = new Pending(null, null);
+
+    /** Параметры группового сохранения. */
+    private final GroupCommitPolicy policy;
+
+    /** Приемник пачек. */
+    private final Sink sink;
+
+    /** Очередь изменений, ожидающих записи. */
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    /** Поток записи пачек. */
+    private final Thread writer;
+
+    /** Планировщик периодического fsync; null для других режимов. */
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Делает проверку остановки и постановку в очередь атомарными
+     * относительно {@link #close()}: после маркера остановки
+     * в очередь ничего не попадает.
+     */
+    private final ReentrantLock submitLock = new ReentrantLock();
+
+    /** Признак остановки; под submitLock. */
+    private boolean closed;
+
+    /**
+     * Изменения пачек, которые не удалось записать, в порядке
+     * поступления; пишутся перед следующей пачкой. Только поток записи.
+     */
+    private final List<byte[]> unwritten = new ArrayList<>();
+
+    /**
+     * Создает и запускает групповое сохранение.
+     *
+     * @param policyParam параметры группового сохранения
+     * @param sinkParam   приемник пачек
+     * @param name        имя потока записи
+     */
+    GroupCommitter(final GroupCommitPolicy policyParam, final Sink sinkParam,
+                   final String name) {
+        this.policy = policyParam;
+        this.sink = sinkParam;
+        this.writer = new Thread(this::run, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        if (policy.getDurability() == Durability.PERIODIC_FSYNC) {
+            long interval = policy.getFsyncInterval().toNanos();
+            this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name + "-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::forceQuietly,
+                    interval, interval, TimeUnit.NANOSECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Ставит изменение в очередь на сохранение.
+     *
+     * @param payload закодированное изменение
+     * @return подтверждение, завершающееся после сохранения пачки
+     * @throws IllegalStateException если сохранение остановлено
+     */
+    CompletableFuture<Void> submit(final byte[] payload) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        submitLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Group committer is closed");
+            }
+            queue.add(new Pending(payload, done));
+        } finally {
+            submitLock.unlock();
+        }
+        return done;
+    }
+
+    /**
+     * Дожидается сохранения уже поставленных изменений
+     * и останавливает поток записи.
+     */
+    @Override
+    public void close() {
+        submitLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(POISON);
+        } finally {
+            submitLock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (syncer != null) {
+            syncer.shutdown();
+            forceQuietly();
+        }
+    }
+
+    /**
+     * Цикл потока записи: собирает пачку и сохраняет ее.
+     * При выходе поток еще раз пытается записать изменения
+     * неудавшихся пачек, закрывает прием новых изменений, а оставшиеся
+     * в очереди (поток прерван до маркера) завершает ошибкой,
+     * чтобы их не ждали вечно.
+     */
+    private void run() {
+        List<Pending> batch = new ArrayList<>(policy.getMaxBatchSize());
+        boolean stop = false;
+        while (!stop) {
+            try {
+                stop = collect(batch);
+            } catch (InterruptedException e) {
+                stop = true;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+        if (!unwritten.isEmpty()) {
+            flush(batch);
+        }
+        submitLock.lock();
+        try {
+            closed = true;
+        } finally {
+            submitLock.unlock();
+        }
+        IllegalStateException stopped =
+                new IllegalStateException("Group committer is closed");
+        for (Pending left = queue.poll(); left != null; left = queue.poll()) {
+            if (left != POISON) {
+                left.done().completeExceptionally(stopped);
+            }
+        }
+    }
+
+    /**
+     * Собирает пачку: ждет первое изменение, затем добирает остальные,
+     * пока пачка не заполнится или не истечет окно ожидания.
+     *
+     * @param batch пачка для заполнения
+     * @return true, если получен маркер остановки
+     * @throws InterruptedException если поток прерван
+     */
+    private boolean collect(final List<Pending> batch)
+            throws InterruptedException {
+        Pending first = queue.take();
+        if (first == POISON) {
+            return true;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + policy.getMaxDelay().toNanos();
+        while (batch.size() < policy.getMaxBatchSize()) {
+            Pending next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+            }
+            if (next == POISON) {
+                return true;
+            }
+            batch.add(next);
+        }
+        return false;
+    }
+
+    /**
+     * Сохраняет пачку вместе с изменениями прежних неудавшихся пачек
+     * и подтверждает всех ее участников. Если запись не удалась,
+     * изменения остаются в {@link #unwritten}; если не удался только
+     * fsync, данные уже дописаны и будут сброшены следующим fsync.
+     *
+     * @param batch пачка изменений
+     */
+    private void flush(final List<Pending> batch) {
+        List<byte[]> payloads =
+                new ArrayList<>(unwritten.size() + batch.size());
+        payloads.addAll(unwritten);
+        for (Pending pending : batch) {
+            payloads.add(pending.payload());
+        }
+        try {
+            sink.write(payloads);
+        } catch (IOException | RuntimeException e) {
+            unwritten.clear();
+            unwritten.addAll(payloads);
+            fail(batch, e);
+            return;
+        }
+        unwritten.clear();
+        try {
+            if (policy.getDurability() == Durability.FSYNC_PER_BATCH) {
+                sink.force();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(batch, e);
+            return;
+        }
+        for (Pending pending : batch) {
+            pending.done().complete(null);
+        }
+    }
+
+    /**
+     * Завершает ошибкой всех участников пачки.
+     *
+     * @param batch пачка изменений
+     * @param error ошибка сохранения
+     */
+    private static void fail(final List<Pending> batch,
+                             final Exception error) {
+        for (Pending pending : batch) {
+            pending.done().completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Выполняет fsync, не пробрасывая ошибки: следующая попытка
+     * произойдет по таймеру.
+     */
+    private void forceQuietly() {
+        try {
+            sink.force();
+        } catch (IOException | RuntimeException e) {
+            // повторим на следующем тике
+        }
+    }
+}
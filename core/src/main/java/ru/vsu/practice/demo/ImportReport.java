@@ -0,0 +1,25 @@
+package ru.vsu.practice.demo;
+
+import java.util.List;
+
+/**
+ * Итог потокового импорта пользователей.
+ *
+ * @param created число созданных пользователей
+ * @param failed  число отклоненных записей
+ * @param errors  первые ошибки с номерами записей во входном потоке
+ * @param error   ошибка разбора, на которой импорт остановился;
+ *                null, если поток прочитан до конца
+ */
+public record ImportReport(long created, long failed,
+                           List<BatchResult> errors, String error) {
+
+    /**
+     * Проверяет, прочитан ли поток до конца.
+     *
+     * @return true, если импорт не остановился на ошибке разбора
+     */
+    public boolean isComplete() {
+        return error == null;
+    }
+}
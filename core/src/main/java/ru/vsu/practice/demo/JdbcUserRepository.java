@@ -0,0 +1,694 @@
+package ru.vsu.practice.demo;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Хранилище пользователей во встраиваемой СУБД H2, работающей
+ * в том же процессе. Пользователи лежат в таблице users, друзья —
+ * в таблице friends с позицией в списке. Фильтры getAll,
+ * поиск друзей и постраничное чтение выполняются запросами
+ * к СУБД по индексам, изменения затрагивают только нужные строки.
+ * Порядок выдачи задает столбец seq — порядковый номер добавления.
+ */
+public final class JdbcUserRepository implements UserRepository {
+
+    /** Схема хранилища. */
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users ("
+                + "seq BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "id UUID NOT NULL UNIQUE, "
+                + "first_name VARCHAR NOT NULL, "
+                + "last_name VARCHAR NOT NULL, "
+                + "age INT NOT NULL, "
+                + "email VARCHAR NOT NULL, "
+                + "description VARCHAR)",
+        "CREATE TABLE IF NOT EXISTS friends ("
+                + "user_seq BIGINT NOT NULL "
+                + "REFERENCES users(seq) ON DELETE CASCADE, "
+                + "position INT NOT NULL, "
+                + "friend_id UUID NOT NULL, "
+                + "PRIMARY KEY (user_seq, position))",
+        "CREATE INDEX IF NOT EXISTS friends_by_friend ON friends(friend_id)",
+        "CREATE INDEX IF NOT EXISTS users_by_age ON users(age, seq)",
+    };
+
+    /** Код SQLSTATE нарушения уникальности. */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /**
+     * Столбец порядкового номера в выборке {@link #select}; за ним
+     * идут поля пользователя и UID друга из таблицы friends.
+     */
+    private static final int SEQ_COLUMN = 1;
+
+    /** Столбец UID пользователя. */
+    private static final int ID_COLUMN = 2;
+
+    /** Столбец имени. */
+    private static final int FIRST_NAME_COLUMN = 3;
+
+    /** Столбец фамилии. */
+    private static final int LAST_NAME_COLUMN = 4;
+
+    /** Столбец возраста. */
+    private static final int AGE_COLUMN = 5;
+
+    /** Столбец электронной почты. */
+    private static final int EMAIL_COLUMN = 6;
+
+    /** Столбец описания. */
+    private static final int DESCRIPTION_COLUMN = 7;
+
+    /** Столбец UID друга; NULL у пользователя без друзей. */
+    private static final int FRIEND_COLUMN = 8;
+
+    /** Начальная емкость упакованного списка друзей: два UID. */
+    private static final int INITIAL_FRIEND_LONGS = 4;
+
+    /** Условие выборки друзей пользователя с заданным seq. */
+    private static final String FRIEND_OF =
+            " AND u.id IN (SELECT f.friend_id FROM friends f"
+                    + " WHERE f.user_seq = ?)";
+
+    /** JDBC URL базы. */
+    private final String url;
+
+    /**
+     * Свободные соединения. Соединение берется на одну операцию
+     * и возвращается после нее, поэтому соединений не больше,
+     * чем одновременных операций, а сессия H2 с кешем разобранных
+     * запросов переиспользуется.
+     */
+    private final ConcurrentLinkedQueue<Connection> idle =
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * Открывает базу и создает схему, если ее нет.
+     *
+     * @param urlParam JDBC URL базы H2, например jdbc:h2:./users
+     */
+    public JdbcUserRepository(final String urlParam) {
+        this.url = urlParam;
+        run(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<User> getAll(final Map<String, String> filters) {
+        return run(connection -> {
+            List<Object> params = new ArrayList<>();
+            String where = where(filters, params);
+            return StoredUser.users(select(connection, where, params,
+                    UserSort.INSERTION, -1));
+        });
+    }
+
+    @Override
+    public User getById(final String uid) {
+        return run(connection -> {
+            List<StoredUser> found = byId(connection, uid);
+            if (found.isEmpty()) {
+                throw new NoSuchElementException("User not found: " + uid);
+            }
+            return found.get(0).user();
+        });
+    }
+
+    @Override
+    public List<User> getFriends(final String uid,
+                                 final Map<String, String> filters) {
+        return run(connection -> {
+            List<Object> params = new ArrayList<>();
+            String where = where(filters, params) + FRIEND_OF;
+            params.add(seqOf(connection, uid));
+            return StoredUser.users(select(connection, where, params,
+                    UserSort.INSERTION, -1));
+        });
+    }
+
+    @Override
+    public UserPage getPage(final Map<String, String> filters,
+                            final PageQuery query) {
+        PageCursor after = PageCursor.decode(query.getAfter(), query.getSort());
+        return run(connection -> {
+            List<Object> params = new ArrayList<>();
+            String where = where(filters, params) + after(after, params);
+            return StoredUser.toPage(select(connection, where, params,
+                    query.getSort(), query.getLimit() + 1), query);
+        });
+    }
+
+    @Override
+    public UserPage getFriendsPage(final String uid,
+                                   final Map<String, String> filters,
+                                   final PageQuery query) {
+        PageCursor after = PageCursor.decode(query.getAfter(), query.getSort());
+        return run(connection -> {
+            List<Object> params = new ArrayList<>();
+            String where = where(filters, params) + FRIEND_OF;
+            params.add(seqOf(connection, uid));
+            where += after(after, params);
+            return StoredUser.toPage(select(connection, where, params,
+                    query.getSort(), query.getLimit() + 1), query);
+        });
+    }
+
+    @Override
+    public User create(final User user) {
+        user.validate();
+        return transaction(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO users (id, first_name, last_name, age,"
+                            + " email, description) VALUES (?, ?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                insert.setObject(1, user.uuid());
+                bindFields(insert, user, 2);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    insertFriends(connection, keys.getLong(1), user);
+                }
+            } catch (SQLException e) {
+                if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                    throw new IllegalArgumentException(
+                            "User already exists: " + user.getId());
+                }
+                throw e;
+            }
+            return user;
+        });
+    }
+
+    @Override
+    public User update(final String uid, final User patch) {
+        return transaction(connection -> {
+            List<StoredUser> found = byId(connection, uid);
+            if (found.isEmpty()) {
+                throw new NoSuchElementException("User not found: " + uid);
+            }
+            long seq = found.get(0).seq();
+            User existing = found.get(0).user();
+            User updated = existing.copy();
+
+            if (patch.getFirstName() != null) {
+                updated.setFirstName(patch.getFirstName());
+            }
+            if (patch.getLastName() != null) {
+                updated.setLastName(patch.getLastName());
+            }
+            if (patch.getAge() != 0) {
+                updated.setAge(patch.getAge());
+            }
+            if (patch.getDescription() != null) {
+                updated.setDescription(patch.getDescription());
+            }
+            if (patch.getFriends() != null) {
+                updated.setFriends(patch.getFriends());
+            }
+            updated.validate();
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE users SET first_name = ?, last_name = ?,"
+                            + " age = ?, email = ?, description = ?"
+                            + " WHERE seq = ?")) {
+                int next = bindFields(statement, updated, 1);
+                statement.setLong(next, seq);
+                statement.executeUpdate();
+            }
+            if (!Arrays.equals(existing.friendBits(), 0,
+                    2 * existing.friendCount(), updated.friendBits(), 0,
+                    2 * updated.friendCount())) {
+                execute(connection,
+                        "DELETE FROM friends WHERE user_seq = ?", seq);
+                insertFriends(connection, seq, updated);
+            }
+            return updated;
+        });
+    }
+
+    @Override
+    public void delete(final String uid) {
+        UUID id = User.parseUuid(uid);
+        if (id == null) {
+            return;
+        }
+        transaction(connection -> {
+            execute(connection, "DELETE FROM users WHERE id = ?", id);
+            execute(connection, "DELETE FROM friends WHERE friend_id = ?", id);
+            return null;
+        });
+    }
+
+    /**
+     * Добавляет друга. Строка владельца блокируется до проверки
+     * повтора и выбора позиции: иначе одновременные добавления
+     * прочитали бы одну и ту же наибольшую позицию и второе нарушило бы
+     * первичный ключ (user_seq, position).
+     */
+    @Override
+    public void addFriend(final String uid, final String friendUid) {
+        transaction(connection -> {
+            long seq = lockSeqOf(connection, uid);
+            seqOf(connection, friendUid); // проверка существования
+            UUID friend = User.requireUuid(friendUid);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT 1 FROM friends WHERE user_seq = ?"
+                            + " AND friend_id = ?")) {
+                bind(statement, seq, friend);
+                try (ResultSet rows = statement.executeQuery()) {
+                    if (rows.next()) {
+                        return null;
+                    }
+                }
+            }
+            execute(connection, "INSERT INTO friends (user_seq, position,"
+                    + " friend_id) SELECT ?, COALESCE(MAX(position) + 1, 0), ?"
+                    + " FROM friends WHERE user_seq = ?", seq, friend, seq);
+            return null;
+        });
+    }
+
+    @Override
+    public void removeFriend(final String uid, final String friendUid) {
+        transaction(connection -> {
+            long seq = seqOf(connection, uid);
+            execute(connection, "DELETE FROM friends"
+                            + " WHERE user_seq = ? AND friend_id = ?",
+                    seq, User.requireUuid(friendUid));
+            return null;
+        });
+    }
+
+    /**
+     * Ничего не делает: H2 сам уплотняет файл базы в фоне.
+     */
+    @Override
+    public void compact() {
+    }
+
+    /**
+     * Закрывает соединения; база закрывается вместе с последним.
+     */
+    @Override
+    public void close() {
+        try {
+            for (Connection connection = idle.poll(); connection != null;
+                 connection = idle.poll()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to close user database", e);
+        }
+    }
+
+    /**
+     * Выбирает пользователей вместе с друзьями одним запросом.
+     * Строки пользователя идут подряд, по одной на друга;
+     * при ограничении числа пользователей оно применяется
+     * в подзапросе до соединения с друзьями.
+     *
+     * @param connection соединение
+     * @param where      условие на пользователей с псевдонимом u
+     * @param params     параметры условия
+     * @param sort       порядок выдачи
+     * @param limit      наибольшее число пользователей или -1
+     * @return пользователи с номерами в порядке выдачи
+     * @throws SQLException если запрос не выполнился
+     */
+    private static List<StoredUser> select(final Connection connection,
+                                           final String where,
+                                           final List<Object> params,
+                                           final UserSort sort,
+                                           final int limit)
+            throws SQLException {
+        String order = switch (sort) {
+            case INSERTION -> "u.seq";
+            case AGE -> "u.age, u.seq";
+            case AGE_DESC -> "u.age DESC, u.seq";
+        };
+        String source = limit < 0
+                ? "users u"
+                : "(SELECT * FROM users u WHERE " + where + " ORDER BY "
+                        + order + " LIMIT " + limit + ") u";
+        String sql = "SELECT u.seq, u.id, u.first_name, u.last_name, u.age,"
+                + " u.email, u.description, f.friend_id FROM " + source
+                + " LEFT JOIN friends f ON f.user_seq = u.seq"
+                + (limit < 0 ? " WHERE " + where : "")
+                + " ORDER BY " + order + ", f.position";
+        List<StoredUser> users = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, params.toArray());
+            try (ResultSet rows = statement.executeQuery()) {
+                boolean more = rows.next();
+                while (more) {
+                    long seq = rows.getLong(SEQ_COLUMN);
+                    UUID id = rows.getObject(ID_COLUMN, UUID.class);
+                    String firstName = rows.getString(FIRST_NAME_COLUMN);
+                    String lastName = rows.getString(LAST_NAME_COLUMN);
+                    int age = rows.getInt(AGE_COLUMN);
+                    String email = rows.getString(EMAIL_COLUMN);
+                    String description = rows.getString(DESCRIPTION_COLUMN);
+                    long[] friends = new long[0];
+                    int count = 0;
+                    do {
+                        UUID friend = rows.getObject(FRIEND_COLUMN,
+                                UUID.class);
+                        if (friend != null) {
+                            if (2 * count == friends.length) {
+                                friends = Arrays.copyOf(friends,
+                                        Math.max(INITIAL_FRIEND_LONGS,
+                                                friends.length * 2));
+                            }
+                            friends[2 * count] =
+                                    friend.getMostSignificantBits();
+                            friends[2 * count + 1] =
+                                    friend.getLeastSignificantBits();
+                            count++;
+                        }
+                        more = rows.next();
+                    } while (more && rows.getLong(SEQ_COLUMN) == seq);
+                    users.add(new StoredUser(seq, User.trusted(id, firstName,
+                            lastName, age, email, description,
+                            Arrays.copyOf(friends, 2 * count))));
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Ищет пользователя по ID.
+     *
+     * @param connection соединение
+     * @param uid        идентификатор
+     * @return найденный пользователь или пустой список
+     * @throws SQLException если запрос не выполнился
+     */
+    private static List<StoredUser> byId(final Connection connection,
+                                         final String uid)
+            throws SQLException {
+        UUID id = User.parseUuid(uid);
+        if (id == null) {
+            return List.of();
+        }
+        return select(connection, "u.id = ?", List.of(id),
+                UserSort.INSERTION, -1);
+    }
+
+    /**
+     * Ищет порядковый номер пользователя.
+     *
+     * @param connection соединение
+     * @param uid        идентификатор
+     * @return порядковый номер
+     * @throws SQLException если запрос не выполнился
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private static long seqOf(final Connection connection, final String uid)
+            throws SQLException {
+        return seqOf(connection, uid, "SELECT seq FROM users WHERE id = ?");
+    }
+
+    /**
+     * Ищет порядковый номер пользователя и блокирует его строку
+     * до конца транзакции.
+     *
+     * @param connection соединение в транзакции
+     * @param uid        идентификатор
+     * @return порядковый номер
+     * @throws SQLException если запрос не выполнился
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private static long lockSeqOf(final Connection connection,
+                                  final String uid) throws SQLException {
+        return seqOf(connection, uid,
+                "SELECT seq FROM users WHERE id = ? FOR UPDATE");
+    }
+
+    /**
+     * Ищет порядковый номер пользователя заданным запросом.
+     *
+     * @param connection соединение
+     * @param uid        идентификатор
+     * @param sql        запрос seq по id
+     * @return порядковый номер
+     * @throws SQLException если запрос не выполнился
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private static long seqOf(final Connection connection, final String uid,
+                              final String sql) throws SQLException {
+        UUID id = User.parseUuid(uid);
+        if (id != null) {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    sql)) {
+                statement.setObject(1, id);
+                try (ResultSet rows = statement.executeQuery()) {
+                    if (rows.next()) {
+                        return rows.getLong(1);
+                    }
+                }
+            }
+        }
+        throw new NoSuchElementException("User not found: " + uid);
+    }
+
+    /**
+     * Строит условие по фильтрам с семантикой {@link UserFilters}:
+     * подстрока без учета регистра для строк, точное значение
+     * для возраста, неизвестные ключи игнорируются.
+     *
+     * @param filters фильтры
+     * @param params  список, в который добавляются параметры
+     * @return условие на пользователей с псевдонимом u
+     */
+    private static String where(final Map<String, String> filters,
+                                final List<Object> params) {
+        StringBuilder where = new StringBuilder("TRUE");
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            String value = entry.getValue().toLowerCase();
+            String column = switch (entry.getKey()) {
+                case "firstName" -> "u.first_name";
+                case "lastName" -> "u.last_name";
+                case "email" -> "u.email";
+                default -> null;
+            };
+            if (column != null) {
+                where.append(" AND LOWER(").append(column)
+                        .append(") LIKE ? ESCAPE '\\'");
+                params.add("%" + value.replace("\\", "\\\\")
+                        .replace("%", "\\%").replace("_", "\\_") + "%");
+            } else if ("age".equals(entry.getKey())) {
+                Integer age = parseAge(value);
+                if (age == null) {
+                    where.append(" AND FALSE");
+                } else {
+                    where.append(" AND u.age = ?");
+                    params.add(age);
+                }
+            }
+        }
+        return where.toString();
+    }
+
+    /**
+     * Строит условие «строго после курсора».
+     *
+     * @param after  курсор или null
+     * @param params список, в который добавляются параметры
+     * @return условие, начинающееся с AND, или пустая строка
+     */
+    private static String after(final PageCursor after,
+                                final List<Object> params) {
+        if (after == null) {
+            return "";
+        }
+        if (after.sort() == UserSort.INSERTION) {
+            params.add(after.seq());
+            return " AND u.seq > ?";
+        }
+        params.add(after.age());
+        params.add(after.age());
+        params.add(after.seq());
+        return after.sort() == UserSort.AGE
+                ? " AND (u.age > ? OR u.age = ? AND u.seq > ?)"
+                : " AND (u.age < ? OR u.age = ? AND u.seq > ?)";
+    }
+
+    /**
+     * Разбирает фильтр возраста так же, как строковое сравнение
+     * в {@link UserFilters}: "07" не совпадает ни с одним возрастом.
+     *
+     * @param value значение фильтра
+     * @return возраст или null, если значение не может совпасть
+     */
+    private static Integer parseAge(final String value) {
+        try {
+            int age = Integer.parseInt(value);
+            return Integer.toString(age).equals(value) ? age : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Вставляет друзей пользователя по порядку.
+     *
+     * @param connection соединение
+     * @param seq        порядковый номер пользователя
+     * @param user       пользователь
+     * @throws SQLException если вставка не удалась
+     */
+    private static void insertFriends(final Connection connection,
+                                      final long seq, final User user)
+            throws SQLException {
+        if (user.friendCount() == 0) {
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO friends (user_seq, position, friend_id)"
+                        + " VALUES (?, ?, ?)")) {
+            for (int i = 0; i < user.friendCount(); i++) {
+                int at = 1;
+                insert.setLong(at++, seq);
+                insert.setInt(at++, i);
+                insert.setObject(at, user.friendAt(i));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Привязывает изменяемые поля пользователя начиная с позиции.
+     *
+     * @param statement запрос
+     * @param user      пользователь
+     * @param from      позиция первого поля
+     * @return позиция после последнего поля
+     * @throws SQLException если привязка не удалась
+     */
+    private static int bindFields(final PreparedStatement statement,
+                                  final User user, final int from)
+            throws SQLException {
+        int at = from;
+        statement.setString(at++, user.getFirstName());
+        statement.setString(at++, user.getLastName());
+        statement.setInt(at++, user.getAge());
+        statement.setString(at++, user.getEmail());
+        statement.setString(at++, user.getDescription());
+        return at;
+    }
+
+    /**
+     * Выполняет изменяющий запрос.
+     *
+     * @param connection соединение
+     * @param sql        запрос
+     * @param params     параметры
+     * @throws SQLException если запрос не выполнился
+     */
+    private static void execute(final Connection connection, final String sql,
+                                final Object... params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, params);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Привязывает параметры запроса по порядку.
+     *
+     * @param statement запрос
+     * @param params    параметры
+     * @throws SQLException если привязка не удалась
+     */
+    private static void bind(final PreparedStatement statement,
+                             final Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    /**
+     * Выполняет работу на соединении из пула в режиме автофиксации.
+     *
+     * @param work работа
+     * @param <T>  тип результата
+     * @return результат
+     */
+    private <T> T run(final SqlWork<T> work) {
+        try {
+            Connection connection = idle.poll();
+            if (connection == null) {
+                connection = DriverManager.getConnection(url, "sa", "");
+            }
+            try {
+                return work.apply(connection);
+            } finally {
+                idle.offer(connection);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to access user database", e);
+        }
+    }
+
+    /**
+     * Выполняет работу в одной транзакции; при исключении
+     * транзакция откатывается.
+     *
+     * @param work работа
+     * @param <T>  тип результата
+     * @return результат
+     */
+    private <T> T transaction(final SqlWork<T> work) {
+        return run(connection -> {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.apply(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * Работа с базой на одном соединении.
+     *
+     * @param <T> тип результата
+     */
+    @FunctionalInterface
+    private interface SqlWork<T> {
+
+        /**
+         * Выполняет работу.
+         *
+         * @param connection соединение
+         * @return результат
+         * @throws SQLException если запрос не выполнился
+         */
+        T apply(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,229 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Одна запись журнала изменений пользователей.
+ * Все операции идемпотентны: повторное проигрывание уже применённого
+ * журнала не меняет итоговое состояние.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+final class JournalRecord {
+
+    /**
+     * Тип операции над хранилищем.
+     */
+    enum Op {
+        /** Создание пользователя. */
+        CREATE,
+        /** Замена состояния пользователя после обновления. */
+        UPDATE,
+        /** Удаление пользователя. */
+        DELETE,
+        /** Добавление друга. */
+        ADD_FRIEND,
+        /** Удаление друга. */
+        REMOVE_FRIEND
+    }
+
+    /** Тип операции. */
+    private final Op op;
+
+    /** Идентификатор пользователя, к которому относится операция. */
+    private final String id;
+
+    /** Идентификатор друга для операций над друзьями. */
+    private final String friend;
+
+    /** Полное состояние пользователя для CREATE и UPDATE. */
+    private final User user;
+
+    /** Пользователи, из списков друзей которых убран удаленный. */
+    private final List<String> followers;
+
+    /**
+     * Создает запись журнала.
+     *
+     * @param opParam        тип операции
+     * @param idParam        идентификатор пользователя
+     * @param friendParam    идентификатор друга
+     * @param userParam      состояние пользователя
+     * @param followersParam пользователи, потерявшие друга при удалении
+     */
+    @JsonCreator
+    JournalRecord(@JsonProperty("op") final Op opParam,
+                  @JsonProperty("id") final String idParam,
+                  @JsonProperty("friend") final String friendParam,
+                  @JsonProperty("user") final User userParam,
+                  @JsonProperty("followers")
+                  final List<String> followersParam) {
+        this.op = opParam;
+        this.id = idParam;
+        this.friend = friendParam;
+        this.user = userParam;
+        this.followers = followersParam;
+    }
+
+    /**
+     * Запись о создании пользователя.
+     *
+     * @param user созданный пользователь
+     * @return запись журнала
+     */
+    static JournalRecord create(final User user) {
+        return new JournalRecord(Op.CREATE, null, null, user, null);
+    }
+
+    /**
+     * Запись о новом состоянии пользователя.
+     *
+     * @param user обновленный пользователь
+     * @return запись журнала
+     */
+    static JournalRecord update(final User user) {
+        return new JournalRecord(Op.UPDATE, null, null, user, null);
+    }
+
+    /**
+     * Запись об удалении пользователя.
+     *
+     * @param uid       идентификатор пользователя
+     * @param followers пользователи, из списков друзей которых он убран
+     * @return запись журнала
+     */
+    static JournalRecord delete(final UUID uid,
+                                final Collection<UUID> followers) {
+        List<String> followerIds = null;
+        if (!followers.isEmpty()) {
+            followerIds = new ArrayList<>(followers.size());
+            for (UUID follower : followers) {
+                followerIds.add(follower.toString());
+            }
+        }
+        return new JournalRecord(Op.DELETE, uid.toString(), null, null,
+                followerIds);
+    }
+
+    /**
+     * Запись о добавлении друга.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @return запись журнала
+     */
+    static JournalRecord addFriend(final UUID uid, final UUID friendUid) {
+        return new JournalRecord(Op.ADD_FRIEND, uid.toString(),
+                friendUid.toString(), null, null);
+    }
+
+    /**
+     * Запись об удалении друга.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @return запись журнала
+     */
+    static JournalRecord removeFriend(final UUID uid,
+                                      final UUID friendUid) {
+        return new JournalRecord(Op.REMOVE_FRIEND, uid.toString(),
+                friendUid.toString(), null, null);
+    }
+
+    /**
+     * Возвращает тип операции.
+     *
+     * @return тип операции
+     */
+    @JsonProperty("op")
+    Op getOp() {
+        return op;
+    }
+
+    /**
+     * Возвращает идентификатор пользователя.
+     *
+     * @return идентификатор пользователя
+     */
+    @JsonProperty("id")
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Возвращает идентификатор друга.
+     *
+     * @return идентификатор друга
+     */
+    @JsonProperty("friend")
+    String getFriend() {
+        return friend;
+    }
+
+    /**
+     * Возвращает состояние пользователя.
+     *
+     * @return пользователь
+     */
+    @JsonProperty("user")
+    User getUser() {
+        return user;
+    }
+
+    /**
+     * Возвращает пользователей, потерявших друга при удалении.
+     *
+     * @return UID пользователей или null
+     */
+    @JsonProperty("followers")
+    List<String> getFollowers() {
+        return followers;
+    }
+
+    /**
+     * Применяет запись к карте пользователей так же,
+     * как это делает соответствующий метод UserService.
+     *
+     * @param users карта пользователей по идентификатору
+     */
+    void applyTo(final Map<UUID, User> users) {
+        switch (op) {
+            case CREATE, UPDATE -> {
+                user.validate();
+                users.put(user.uuid(), user);
+            }
+            case DELETE -> {
+                UUID uid = UUID.fromString(id);
+                users.remove(uid);
+                if (followers != null) {
+                    for (String follower : followers) {
+                        User target = users.get(UUID.fromString(follower));
+                        if (target != null) {
+                            target.removeFriend(uid);
+                        }
+                    }
+                }
+            }
+            case ADD_FRIEND -> {
+                User target = users.get(UUID.fromString(id));
+                if (target != null) {
+                    target.addFriend(friend);
+                }
+            }
+            case REMOVE_FRIEND -> {
+                User target = users.get(UUID.fromString(id));
+                if (target != null) {
+                    target.removeFriend(friend);
+                }
+            }
+            default -> throw new IllegalStateException("Unknown op: " + op);
+        }
+    }
+}
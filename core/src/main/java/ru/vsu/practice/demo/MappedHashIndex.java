@@ -0,0 +1,265 @@
+package ru.vsu.practice.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Хеш-таблица UUID — long вне кучи, в отображенном в память файле.
+ * Открытая адресация с линейным пробированием; запись занимает
+ * 24 байта: старшие и младшие биты UUID и значение, увеличенное
+ * на единицу (ноль означает пустую ячейку). Удаление сдвигает
+ * следующие записи цепочки назад, поэтому надгробий нет
+ * и длина поиска не растет от удалений. При заполнении больше
+ * чем наполовину таблица перестраивается в файл вдвое большего размера.
+ * Потокобезопасность обеспечивает вызывающий.
+ */
+final class MappedHashIndex implements AutoCloseable {
+
+    /** Размер записи в байтах. */
+    private static final int ENTRY = 3 * Long.BYTES;
+
+    /** Двоичный логарифм начального числа ячеек. */
+    private static final int INITIAL_BITS = 16;
+
+    /** Двоичный логарифм размера окна отображения. */
+    private static final int CHUNK_SHIFT = 24;
+
+    /** Множитель фибоначчиева хеширования. */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /** Файл таблицы. */
+    private final Path path;
+
+    /** Отображенный файл таблицы. */
+    private MappedRegion table;
+
+    /** Двоичный логарифм числа ячеек. */
+    private int bits;
+
+    /** Число занятых ячеек. */
+    private long size;
+
+    /**
+     * Создает пустую таблицу, перезаписывая файл.
+     *
+     * @param pathParam файл таблицы
+     * @throws IOException если файл не создается
+     */
+    MappedHashIndex(final Path pathParam) throws IOException {
+        this.path = pathParam;
+        Files.deleteIfExists(path);
+        this.table = allocate(path, INITIAL_BITS);
+        this.bits = INITIAL_BITS;
+    }
+
+    /**
+     * Возвращает число записей.
+     *
+     * @return число записей
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Ищет значение по ключу.
+     *
+     * @param key ключ
+     * @return значение или -1, если ключа нет
+     */
+    long get(final UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        long mask = (1L << bits) - 1;
+        for (long i = home(msb, lsb); ; i = (i + 1) & mask) {
+            long at = i * ENTRY;
+            long stored = table.getLong(at + 2 * Long.BYTES);
+            if (stored == 0) {
+                return -1;
+            }
+            if (table.getLong(at) == msb
+                    && table.getLong(at + Long.BYTES) == lsb) {
+                return stored - 1;
+            }
+        }
+    }
+
+    /**
+     * Добавляет или заменяет значение.
+     *
+     * @param key   ключ
+     * @param value неотрицательное значение
+     * @throws IOException если не удалось увеличить таблицу
+     */
+    void put(final UUID key, final long value) throws IOException {
+        if (2 * (size + 1) > 1L << bits) {
+            grow();
+        }
+        if (insert(table, bits, key.getMostSignificantBits(),
+                key.getLeastSignificantBits(), value)) {
+            size++;
+        }
+    }
+
+    /**
+     * Удаляет ключ, сдвигая назад следующие записи его цепочки.
+     *
+     * @param key ключ
+     */
+    void remove(final UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        long mask = (1L << bits) - 1;
+        long hole = home(msb, lsb);
+        while (true) {
+            long at = hole * ENTRY;
+            if (table.getLong(at + 2 * Long.BYTES) == 0) {
+                return;
+            }
+            if (table.getLong(at) == msb
+                    && table.getLong(at + Long.BYTES) == lsb) {
+                break;
+            }
+            hole = (hole + 1) & mask;
+        }
+        for (long next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+            long at = next * ENTRY;
+            long stored = table.getLong(at + 2 * Long.BYTES);
+            if (stored == 0) {
+                break;
+            }
+            long nextMsb = table.getLong(at);
+            long nextLsb = table.getLong(at + Long.BYTES);
+            long ideal = home(nextMsb, nextLsb);
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                write(table, hole, nextMsb, nextLsb, stored);
+                hole = next;
+            }
+        }
+        write(table, hole, 0, 0, 0);
+        size--;
+    }
+
+    /**
+     * Удаляет файл таблицы.
+     *
+     * @throws IOException если закрытие не удалось
+     */
+    @Override
+    public void close() throws IOException {
+        table.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Перестраивает таблицу в файл вдвое большего размера.
+     *
+     * @throws IOException если новый файл не создается
+     */
+    private void grow() throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".grow");
+        Files.deleteIfExists(next);
+        MappedRegion grown = allocate(next, bits + 1);
+        for (long i = 0; i < 1L << bits; i++) {
+            long at = i * ENTRY;
+            long stored = table.getLong(at + 2 * Long.BYTES);
+            if (stored != 0) {
+                insert(grown, bits + 1, table.getLong(at),
+                        table.getLong(at + Long.BYTES), stored - 1);
+            }
+        }
+        table.close();
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING);
+        table = grown;
+        bits++;
+    }
+
+    /**
+     * Вставляет запись в таблицу заданного размера.
+     *
+     * @param target  таблица
+     * @param bitsArg двоичный логарифм числа ячеек
+     * @param msb     старшие биты ключа
+     * @param lsb     младшие биты ключа
+     * @param value   значение
+     * @return true, если ключ добавлен, а не заменен
+     */
+    private static boolean insert(final MappedRegion target, final int bitsArg,
+                                  final long msb, final long lsb,
+                                  final long value) {
+        long mask = (1L << bitsArg) - 1;
+        for (long i = home(msb, lsb, bitsArg); ; i = (i + 1) & mask) {
+            long at = i * ENTRY;
+            long stored = target.getLong(at + 2 * Long.BYTES);
+            if (stored == 0) {
+                write(target, i, msb, lsb, value + 1);
+                return true;
+            }
+            if (target.getLong(at) == msb
+                    && target.getLong(at + Long.BYTES) == lsb) {
+                target.putLong(at + 2 * Long.BYTES, value + 1);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Записывает ячейку.
+     *
+     * @param target таблица
+     * @param index  номер ячейки
+     * @param msb    старшие биты ключа
+     * @param lsb    младшие биты ключа
+     * @param stored значение, увеличенное на единицу, или 0
+     */
+    private static void write(final MappedRegion target, final long index,
+                              final long msb, final long lsb,
+                              final long stored) {
+        long at = index * ENTRY;
+        target.putLong(at, msb);
+        target.putLong(at + Long.BYTES, lsb);
+        target.putLong(at + 2 * Long.BYTES, stored);
+    }
+
+    /**
+     * Возвращает начальную ячейку ключа в текущей таблице.
+     *
+     * @param msb старшие биты ключа
+     * @param lsb младшие биты ключа
+     * @return номер ячейки
+     */
+    private long home(final long msb, final long lsb) {
+        return home(msb, lsb, bits);
+    }
+
+    /**
+     * Возвращает начальную ячейку ключа.
+     *
+     * @param msb     старшие биты ключа
+     * @param lsb     младшие биты ключа
+     * @param bitsArg двоичный логарифм числа ячеек
+     * @return номер ячейки
+     */
+    private static long home(final long msb, final long lsb,
+                             final int bitsArg) {
+        return ((msb ^ lsb) * GOLDEN) >>> (Long.SIZE - bitsArg);
+    }
+
+    /**
+     * Создает файл таблицы заданного размера.
+     *
+     * @param file    файл
+     * @param bitsArg двоичный логарифм числа ячеек
+     * @return отображенная таблица
+     * @throws IOException если файл не создается
+     */
+    private static MappedRegion allocate(final Path file, final int bitsArg)
+            throws IOException {
+        MappedRegion region = new MappedRegion(file, CHUNK_SHIFT);
+        region.ensureCapacity((1L << bitsArg) * ENTRY);
+        return region;
+    }
+}
@@ -0,0 +1,185 @@
+package ru.vsu.practice.demo;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Файл, отображенный в память окнами одинакового размера,
+ * с адресацией по смещению типа long. Файл растет окнами по мере
+ * записи, поэтому объем ограничен диском, а не кучей.
+ * Окно кратно 8 байтам: значения int и long по выровненным смещениям
+ * не пересекают границу окна, массивы байтов копируются по частям.
+ * Чтение потокобезопасно; рост и запись должны быть упорядочены
+ * вызывающим.
+ */
+final class MappedRegion implements AutoCloseable {
+
+    /** Канал файла. */
+    private final FileChannel channel;
+
+    /** Двоичный логарифм размера окна. */
+    private final int chunkShift;
+
+    /** Маска смещения внутри окна. */
+    private final long chunkMask;
+
+    /** Отображенные окна по порядку. */
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * Открывает или создает файл и отображает его текущее содержимое.
+     *
+     * @param path            файл
+     * @param chunkShiftParam двоичный логарифм размера окна, не меньше 3
+     * @throws IOException если файл не открывается
+     */
+    MappedRegion(final Path path, final int chunkShiftParam)
+            throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.chunkShift = chunkShiftParam;
+        this.chunkMask = (1L << chunkShiftParam) - 1;
+        ensureCapacity(Math.max(1, channel.size()));
+    }
+
+    /**
+     * Возвращает отображенный объем.
+     *
+     * @return объем в байтах, кратный размеру окна
+     */
+    long capacity() {
+        return (long) chunks.size() << chunkShift;
+    }
+
+    /**
+     * Отображает недостающие окна, чтобы вместить заданный объем.
+     *
+     * @param size требуемый объем в байтах
+     * @throws IOException если отображение не удалось
+     */
+    void ensureCapacity(final long size) throws IOException {
+        while (capacity() < size) {
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                    capacity(), 1L << chunkShift));
+        }
+    }
+
+    /**
+     * Читает int по смещению, кратному 4.
+     *
+     * @param position смещение
+     * @return значение
+     */
+    int getInt(final long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    /**
+     * Записывает int по смещению, кратному 4.
+     *
+     * @param position смещение
+     * @param value    значение
+     */
+    void putInt(final long position, final int value) {
+        chunk(position).putInt(offset(position), value);
+    }
+
+    /**
+     * Читает long по смещению, кратному 8.
+     *
+     * @param position смещение
+     * @return значение
+     */
+    long getLong(final long position) {
+        return chunk(position).getLong(offset(position));
+    }
+
+    /**
+     * Записывает long по смещению, кратному 8.
+     *
+     * @param position смещение
+     * @param value    значение
+     */
+    void putLong(final long position, final long value) {
+        chunk(position).putLong(offset(position), value);
+    }
+
+    /**
+     * Копирует байты из файла в массив.
+     *
+     * @param position смещение
+     * @param target   массив, заполняемый целиком
+     */
+    void get(final long position, final byte[] target) {
+        int done = 0;
+        while (done < target.length) {
+            long at = position + done;
+            int length = (int) Math.min(target.length - done,
+                    (1L << chunkShift) - offset(at));
+            chunk(at).get(offset(at), target, done, length);
+            done += length;
+        }
+    }
+
+    /**
+     * Копирует массив байтов в файл.
+     *
+     * @param position смещение
+     * @param source   массив
+     * @param length   число байтов с начала массива
+     */
+    void put(final long position, final byte[] source, final int length) {
+        int done = 0;
+        while (done < length) {
+            long at = position + done;
+            int part = (int) Math.min(length - done,
+                    (1L << chunkShift) - offset(at));
+            chunk(at).put(offset(at), source, done, part);
+            done += part;
+        }
+    }
+
+    /**
+     * Сбрасывает измененные страницы на диск.
+     */
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Закрывает файл. Окна освобождаются сборщиком мусора.
+     *
+     * @throws IOException если закрытие не удалось
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Возвращает окно, содержащее смещение.
+     *
+     * @param position смещение
+     * @return окно
+     */
+    private MappedByteBuffer chunk(final long position) {
+        return chunks.get((int) (position >>> chunkShift));
+    }
+
+    /**
+     * Возвращает смещение внутри окна.
+     *
+     * @param position смещение в файле
+     * @return смещение в окне
+     */
+    private int offset(final long position) {
+        return (int) (position & chunkMask);
+    }
+}
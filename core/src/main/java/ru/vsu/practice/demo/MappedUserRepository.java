@@ -0,0 +1,739 @@
+package ru.vsu.practice.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Хранилище пользователей вне кучи: записи лежат в отображенных
+ * в память файлах, и в куче живут только выданные объекты
+ * {@link User}. Объем данных ограничен диском и страничным кешем ОС,
+ * а не размером кучи, поэтому паузы сборщика мусора не растут
+ * с числом пользователей.
+ *
+ * <p>Файлы хранилища с общим префиксом пути:</p>
+ * <ul>
+ *     <li>{@code .data} — заголовок и записи пользователей, выровненные
+ *     по 8 байтам: выделенная длина, возраст, порядковый номер,
+ *     ID, число друзей, строковые поля и UID друзей парами long;</li>
+ *     <li>{@code .slots} — смещение записи по порядковому номеру
+ *     добавления (ноль — пользователь удален); задает порядок выдачи;</li>
+ *     <li>{@code .index} — хеш-таблица ID — порядковый номер
+ *     ({@link MappedHashIndex}), перестраивается при открытии.</li>
+ * </ul>
+ *
+ * <p>Возраст лежит по фиксированному смещению и меняется на месте.
+ * Запись, которая после изменения помещается в выделенное место,
+ * тоже переписывается на месте, иначе дописывается в конец файла
+ * с запасом, а прежнее место учитывается как мусор
+ * до {@link #compact()}. Вторичных индексов нет: фильтры, сортировка
+ * по возрасту и удаление из чужих списков друзей проходят по всем
+ * записям. Изменения попадают в страничный кеш сразу и переживают
+ * падение процесса; на диск они сбрасываются при {@link #close()}.</p>
+ */
+public final class MappedUserRepository implements UserRepository {
+
+    /** Сигнатура файла данных: "USRM". */
+    static final int MAGIC = 0x5553524D;
+
+    /** Версия формата. */
+    private static final int VERSION = 1;
+
+    /** Смещение следующего порядкового номера в заголовке. */
+    private static final long NEXT_SEQ_AT = 8;
+
+    /** Смещение конца данных в заголовке. */
+    private static final long DATA_END_AT = 16;
+
+    /** Смещение объема мусора в заголовке. */
+    private static final long GARBAGE_AT = 24;
+
+    /** Размер заголовка файла данных. */
+    private static final long HEADER_SIZE = 64;
+
+    /** Смещение возраста в записи; поле выделенной длины — по нулю. */
+    private static final int AGE_AT = 4;
+
+    /** Смещение ID в записи. */
+    private static final int ID_AT = 16;
+
+    /** Смещение числа друзей в записи. */
+    private static final int FRIEND_COUNT_AT = 32;
+
+    /** Смещение длины строковых полей в записи. */
+    private static final int TEXT_LENGTH_AT = 36;
+
+    /** Смещение строковых полей в записи. */
+    private static final int TEXT_AT = 40;
+
+    /** Двоичный логарифм окна файла данных. */
+    private static final int DATA_CHUNK_SHIFT = 26;
+
+    /** Двоичный логарифм окна файла номеров. */
+    private static final int SLOTS_CHUNK_SHIFT = 23;
+
+    /**
+     * Запас места при переносе выросшей записи: 1/HEADROOM_DIVISOR
+     * ее длины, чтобы следующий рост поместился на месте.
+     */
+    private static final int HEADROOM_DIVISOR = 4;
+
+    /** Файл данных. */
+    private final Path dataPath;
+
+    /** Отображенный файл данных. */
+    private MappedRegion data;
+
+    /** Смещения записей по порядковым номерам. */
+    private final MappedRegion slots;
+
+    /** ID — порядковый номер. */
+    private final MappedHashIndex index;
+
+    /** Блокировка: чтение разделяемое, изменения эксклюзивные. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Следующий порядковый номер. */
+    private long nextSeq;
+
+    /** Конец занятой части файла данных. */
+    private long dataEnd;
+
+    /** Байты устаревших записей. */
+    private long garbage;
+
+    /**
+     * Открывает хранилище или создает пустое.
+     *
+     * @param basePath общий префикс пути файлов хранилища
+     */
+    public MappedUserRepository(final String basePath) {
+        this.dataPath = Path.of(basePath + ".data");
+        try {
+            this.data = new MappedRegion(dataPath, DATA_CHUNK_SHIFT);
+            this.slots = new MappedRegion(Path.of(basePath + ".slots"),
+                    SLOTS_CHUNK_SHIFT);
+            this.index = new MappedHashIndex(Path.of(basePath + ".index"));
+            if (data.getInt(0) == 0) {
+                data.putInt(0, MAGIC);
+                data.putInt(Integer.BYTES, VERSION);
+                dataEnd = HEADER_SIZE;
+                writeHeader();
+            } else {
+                readHeader();
+            }
+            for (long seq = 0; seq < nextSeq; seq++) {
+                long offset = slot(seq);
+                if (offset != 0) {
+                    index.put(idAt(offset), seq);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open user store", e);
+        }
+    }
+
+    @Override
+    public List<User> getAll(final Map<String, String> filters) {
+        lock.readLock().lock();
+        try {
+            return StoredUser.users(scan(0, UserFilters.matching(filters),
+                    Integer.MAX_VALUE));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public User getById(final String uid) {
+        UUID id = User.parseUuid(uid);
+        lock.readLock().lock();
+        try {
+            long offset = id == null ? 0 : offsetOf(id);
+            if (offset == 0) {
+                throw new NoSuchElementException("User not found: " + uid);
+            }
+            return read(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<User> getFriends(final String uid,
+                                 final Map<String, String> filters) {
+        lock.readLock().lock();
+        try {
+            return StoredUser.users(
+                    friends(uid, UserFilters.matching(filters)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UserPage getPage(final Map<String, String> filters,
+                            final PageQuery query) {
+        PageCursor after = PageCursor.decode(query.getAfter(), query.getSort());
+        Predicate<User> filter = UserFilters.matching(filters);
+        lock.readLock().lock();
+        try {
+            if (query.getSort() == UserSort.INSERTION) {
+                return StoredUser.toPage(scan(
+                        after == null ? 0 : after.seq() + 1,
+                        filter, query.getLimit() + 1), query);
+            }
+            Comparator<StoredUser> order = order(query.getSort());
+            PriorityQueue<StoredUser> best =
+                    new PriorityQueue<>(order.reversed());
+            for (long seq = 0; seq < nextSeq; seq++) {
+                long offset = slot(seq);
+                if (offset == 0 || after != null && !after.isFollowedBy(
+                        data.getInt(offset + AGE_AT), seq)) {
+                    continue;
+                }
+                User user = read(offset);
+                if (filter.test(user)) {
+                    best.add(new StoredUser(seq, user));
+                    if (best.size() > query.getLimit() + 1) {
+                        best.poll();
+                    }
+                }
+            }
+            List<StoredUser> items = new ArrayList<>(best);
+            items.sort(order);
+            return StoredUser.toPage(items, query);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UserPage getFriendsPage(final String uid,
+                                   final Map<String, String> filters,
+                                   final PageQuery query) {
+        PageCursor after = PageCursor.decode(query.getAfter(), query.getSort());
+        lock.readLock().lock();
+        try {
+            List<StoredUser> friends = friends(uid,
+                    UserFilters.matching(filters));
+            friends.sort(order(query.getSort()));
+            return StoredUser.toPage(friends.stream()
+                    .filter(s -> after == null || after.isFollowedBy(
+                            s.user().getAge(), s.seq()))
+                    .limit(query.getLimit() + 1L)
+                    .toList(), query);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public User create(final User user) {
+        user.validate();
+        lock.writeLock().lock();
+        try {
+            if (index.get(user.uuid()) >= 0) {
+                throw new IllegalArgumentException(
+                        "User already exists: " + user.getId());
+            }
+            long seq = nextSeq++;
+            byte[] record = encode(user, seq);
+            slots.ensureCapacity((seq + 1) * Long.BYTES);
+            slots.putLong(seq * Long.BYTES, append(record, record.length));
+            index.put(user.uuid(), seq);
+            writeHeader();
+            return user;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write user store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public User update(final String uid, final User patch) {
+        lock.writeLock().lock();
+        try {
+            long seq = seqOf(uid);
+            User existing = read(slot(seq));
+            User updated = existing.copy();
+
+            if (patch.getFirstName() != null) {
+                updated.setFirstName(patch.getFirstName());
+            }
+            if (patch.getLastName() != null) {
+                updated.setLastName(patch.getLastName());
+            }
+            if (patch.getAge() != 0) {
+                updated.setAge(patch.getAge());
+            }
+            if (patch.getDescription() != null) {
+                updated.setDescription(patch.getDescription());
+            }
+            if (patch.getFriends() != null) {
+                updated.setFriends(patch.getFriends());
+            }
+            updated.validate();
+
+            store(seq, existing, updated);
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(final String uid) {
+        UUID id = User.parseUuid(uid);
+        if (id == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            long seq = index.get(id);
+            if (seq < 0) {
+                return;
+            }
+            garbage += data.getInt(slot(seq));
+            slots.putLong(seq * Long.BYTES, 0);
+            index.remove(id);
+            for (long other = 0; other < nextSeq; other++) {
+                long offset = slot(other);
+                if (offset != 0) {
+                    removeFriendAt(offset, id);
+                }
+            }
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addFriend(final String uid, final String friendUid) {
+        lock.writeLock().lock();
+        try {
+            long seq = seqOf(uid);
+            UUID friend = idAt(slot(seqOf(friendUid)));
+            User existing = read(slot(seq));
+            if (existing.hasFriend(friend)) {
+                return;
+            }
+            User updated = existing.copy();
+            updated.addFriend(friend);
+            store(seq, existing, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeFriend(final String uid, final String friendUid) {
+        lock.writeLock().lock();
+        try {
+            long seq = seqOf(uid);
+            removeFriendAt(slot(seq), User.requireUuid(friendUid));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Переписывает живые записи в новый файл данных подряд
+     * и без запаса, освобождая место устаревших записей.
+     */
+    @Override
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            if (garbage == 0) {
+                return;
+            }
+            Path next = dataPath.resolveSibling(
+                    dataPath.getFileName() + ".compact");
+            Files.deleteIfExists(next);
+            MappedRegion compacted = new MappedRegion(next, DATA_CHUNK_SHIFT);
+            byte[] header = new byte[(int) HEADER_SIZE];
+            data.get(0, header);
+            compacted.put(0, header, header.length);
+            long end = HEADER_SIZE;
+            for (long seq = 0; seq < nextSeq; seq++) {
+                long offset = slot(seq);
+                if (offset == 0) {
+                    continue;
+                }
+                byte[] record = new byte[contentLength(offset)];
+                data.get(offset, record);
+                compacted.ensureCapacity(end + record.length);
+                compacted.put(end, record, record.length);
+                compacted.putInt(end, record.length);
+                slots.putLong(seq * Long.BYTES, end);
+                end += record.length;
+            }
+            compacted.force();
+            data.close();
+            Files.move(next, dataPath, StandardCopyOption.REPLACE_EXISTING);
+            data = compacted;
+            dataEnd = end;
+            garbage = 0;
+            writeHeader();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compact user store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Сбрасывает данные на диск и закрывает файлы.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            data.force();
+            slots.force();
+            data.close();
+            slots.close();
+            index.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close user store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Перечисляет пользователей в порядке добавления.
+     *
+     * @param fromSeq первый порядковый номер
+     * @param filter  фильтр
+     * @param limit   наибольшее число результатов
+     * @return подходящие пользователи с их номерами
+     */
+    private List<StoredUser> scan(final long fromSeq,
+                              final Predicate<User> filter, final int limit) {
+        List<StoredUser> found = new ArrayList<>();
+        for (long seq = fromSeq; seq < nextSeq && found.size() < limit;
+             seq++) {
+            long offset = slot(seq);
+            if (offset != 0) {
+                User user = read(offset);
+                if (filter.test(user)) {
+                    found.add(new StoredUser(seq, user));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Читает друзей пользователя в порядке добавления.
+     * Вызывается под блокировкой чтения.
+     *
+     * @param uid    идентификатор пользователя
+     * @param filter фильтр
+     * @return друзья с их номерами
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private List<StoredUser> friends(final String uid,
+                                 final Predicate<User> filter) {
+        User user = read(slot(seqOf(uid)));
+        List<StoredUser> friends = new ArrayList<>(user.friendCount());
+        for (int i = 0; i < user.friendCount(); i++) {
+            long seq = index.get(user.friendAt(i));
+            if (seq >= 0) {
+                User friend = read(slot(seq));
+                if (filter.test(friend)) {
+                    friends.add(new StoredUser(seq, friend));
+                }
+            }
+        }
+        friends.sort(Comparator.comparingLong(StoredUser::seq));
+        return friends;
+    }
+
+    /**
+     * Возвращает порядок выдачи; при равном возрасте — порядок добавления.
+     *
+     * @param sort порядок выдачи
+     * @return компаратор
+     */
+    private static Comparator<StoredUser> order(final UserSort sort) {
+        Comparator<StoredUser> bySeq =
+                Comparator.comparingLong(StoredUser::seq);
+        return switch (sort) {
+            case INSERTION -> bySeq;
+            case AGE -> Comparator.<StoredUser>comparingInt(
+                    s -> s.user().getAge()).thenComparing(bySeq);
+            case AGE_DESC -> Comparator.<StoredUser>comparingInt(
+                    s -> -s.user().getAge()).thenComparing(bySeq);
+        };
+    }
+
+    /**
+     * Записывает новое состояние пользователя: при изменении только
+     * возраста — одним int на месте, иначе всю запись на месте или,
+     * если она не помещается, в конец файла.
+     *
+     * @param seq      порядковый номер
+     * @param previous прежнее состояние
+     * @param current  новое состояние
+     */
+    private void store(final long seq, final User previous,
+                       final User current) {
+        long offset = slot(seq);
+        if (sameExceptAge(previous, current)) {
+            data.putInt(offset + AGE_AT, current.getAge());
+            return;
+        }
+        byte[] record = encode(current, seq);
+        int allocated = data.getInt(offset);
+        if (record.length <= allocated) {
+            data.put(offset, record, record.length);
+            data.putInt(offset, allocated);
+            return;
+        }
+        try {
+            slots.putLong(seq * Long.BYTES,
+                    append(record, align(record.length
+                            + record.length / HEADROOM_DIVISOR)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write user store", e);
+        }
+        garbage += allocated;
+        writeHeader();
+    }
+
+    /**
+     * Удаляет друга из записи на месте, сохраняя порядок остальных.
+     *
+     * @param offset смещение записи
+     * @param friend UID друга
+     */
+    private void removeFriendAt(final long offset, final UUID friend) {
+        int count = data.getInt(offset + FRIEND_COUNT_AT);
+        long friendsAt = offset + align(
+                TEXT_AT + data.getInt(offset + TEXT_LENGTH_AT));
+        long msb = friend.getMostSignificantBits();
+        long lsb = friend.getLeastSignificantBits();
+        for (int i = 0; i < count; i++) {
+            long at = friendsAt + 2L * Long.BYTES * i;
+            if (data.getLong(at) == msb
+                    && data.getLong(at + Long.BYTES) == lsb) {
+                for (long from = at + 2 * Long.BYTES;
+                     from < friendsAt + 2L * Long.BYTES * count;
+                     from += Long.BYTES) {
+                    data.putLong(from - 2 * Long.BYTES, data.getLong(from));
+                }
+                data.putInt(offset + FRIEND_COUNT_AT, count - 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Дописывает запись в конец файла данных.
+     *
+     * @param record    запись
+     * @param allocated выделяемое место, не меньше длины записи
+     * @return смещение записи
+     * @throws IOException если файл не удалось увеличить
+     */
+    private long append(final byte[] record, final int allocated)
+            throws IOException {
+        long offset = dataEnd;
+        data.ensureCapacity(offset + allocated);
+        data.put(offset, record, record.length);
+        data.putInt(offset, allocated);
+        dataEnd += allocated;
+        return offset;
+    }
+
+    /**
+     * Кодирует пользователя в запись без запаса.
+     *
+     * @param user пользователь
+     * @param seq  порядковый номер
+     * @return запись; длина кратна 8
+     */
+    private static byte[] encode(final User user, final long seq) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(text)) {
+            BinarySnapshot.writeString(out, user.getFirstName());
+            BinarySnapshot.writeString(out, user.getLastName());
+            BinarySnapshot.writeString(out, user.getEmail());
+            BinarySnapshot.writeString(out, user.getDescription());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int friendsAt = align(TEXT_AT + text.size());
+        long[] friends = user.friendBits();
+        ByteBuffer record = ByteBuffer.allocate(
+                friendsAt + user.friendCount() * 2 * Long.BYTES);
+        record.putInt(record.capacity())
+                .putInt(user.getAge())
+                .putLong(seq)
+                .putLong(user.uuid().getMostSignificantBits())
+                .putLong(user.uuid().getLeastSignificantBits())
+                .putInt(user.friendCount())
+                .putInt(text.size())
+                .put(text.toByteArray())
+                .position(friendsAt);
+        for (int i = 0; i < user.friendCount() * 2; i++) {
+            record.putLong(friends[i]);
+        }
+        return record.array();
+    }
+
+    /**
+     * Читает пользователя из записи. Запись создана хранилищем
+     * из проверенного пользователя, поэтому поля не проверяются.
+     *
+     * @param offset смещение записи
+     * @return пользователь
+     */
+    private User read(final long offset) {
+        byte[] text = new byte[data.getInt(offset + TEXT_LENGTH_AT)];
+        data.get(offset + TEXT_AT, text);
+        ByteBuffer in = ByteBuffer.wrap(text);
+        String firstName = BinarySnapshot.readString(in);
+        String lastName = BinarySnapshot.readString(in);
+        String email = BinarySnapshot.readString(in);
+        String description = BinarySnapshot.readString(in);
+        long friendsAt = offset + align(TEXT_AT + text.length);
+        long[] friends = new long[2 * data.getInt(offset + FRIEND_COUNT_AT)];
+        for (int i = 0; i < friends.length; i++) {
+            friends[i] = data.getLong(friendsAt + (long) i * Long.BYTES);
+        }
+        return User.trusted(idAt(offset), firstName, lastName,
+                data.getInt(offset + AGE_AT), email, description, friends);
+    }
+
+    /**
+     * Возвращает длину содержимого записи без запаса.
+     *
+     * @param offset смещение записи
+     * @return длина в байтах
+     */
+    private int contentLength(final long offset) {
+        return align(TEXT_AT + data.getInt(offset + TEXT_LENGTH_AT))
+                + data.getInt(offset + FRIEND_COUNT_AT) * 2 * Long.BYTES;
+    }
+
+    /**
+     * Ищет порядковый номер пользователя.
+     *
+     * @param uid идентификатор пользователя
+     * @return порядковый номер
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private long seqOf(final String uid) {
+        UUID id = User.parseUuid(uid);
+        long seq = id == null ? -1 : index.get(id);
+        if (seq < 0) {
+            throw new NoSuchElementException("User not found: " + uid);
+        }
+        return seq;
+    }
+
+    /**
+     * Ищет смещение записи пользователя.
+     *
+     * @param id ID пользователя
+     * @return смещение или 0, если пользователя нет
+     */
+    private long offsetOf(final UUID id) {
+        long seq = index.get(id);
+        return seq < 0 ? 0 : slot(seq);
+    }
+
+    /**
+     * Возвращает смещение записи по порядковому номеру.
+     *
+     * @param seq порядковый номер
+     * @return смещение или 0 для удаленного пользователя
+     */
+    private long slot(final long seq) {
+        return slots.getLong(seq * Long.BYTES);
+    }
+
+    /**
+     * Читает ID из записи.
+     *
+     * @param offset смещение записи
+     * @return ID
+     */
+    private UUID idAt(final long offset) {
+        return new UUID(data.getLong(offset + ID_AT),
+                data.getLong(offset + ID_AT + Long.BYTES));
+    }
+
+    /** Записывает изменяемые поля заголовка. */
+    private void writeHeader() {
+        data.putLong(NEXT_SEQ_AT, nextSeq);
+        data.putLong(DATA_END_AT, dataEnd);
+        data.putLong(GARBAGE_AT, garbage);
+    }
+
+    /**
+     * Читает заголовок существующего файла данных.
+     *
+     * @throws IOException если файл не является хранилищем
+     */
+    private void readHeader() throws IOException {
+        if (data.getInt(0) != MAGIC) {
+            throw new IOException("Not a user store: " + dataPath);
+        }
+        int version = data.getInt(Integer.BYTES);
+        if (version != VERSION) {
+            throw new IOException("Unsupported user store version: "
+                    + version);
+        }
+        nextSeq = data.getLong(NEXT_SEQ_AT);
+        dataEnd = data.getLong(DATA_END_AT);
+        garbage = data.getLong(GARBAGE_AT);
+    }
+
+    /**
+     * Проверяет, что состояния отличаются не больше чем возрастом.
+     *
+     * @param a первое состояние
+     * @param b второе состояние
+     * @return true, если совпадают все поля, кроме возраста
+     */
+    private static boolean sameExceptAge(final User a, final User b) {
+        return Objects.equals(a.getFirstName(), b.getFirstName())
+                && Objects.equals(a.getLastName(), b.getLastName())
+                && Objects.equals(a.getEmail(), b.getEmail())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Arrays.equals(a.friendBits(), 0, 2 * a.friendCount(),
+                        b.friendBits(), 0, 2 * b.friendCount());
+    }
+
+    /**
+     * Округляет длину вверх до кратной 8.
+     *
+     * @param length длина
+     * @return выровненная длина
+     */
+    private static int align(final int length) {
+        return (length + Long.BYTES - 1) & -Long.BYTES;
+    }
+}
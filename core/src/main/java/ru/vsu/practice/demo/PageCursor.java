@@ -0,0 +1,73 @@
+package ru.vsu.practice.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция последнего выданного пользователя в порядке выдачи:
+ * значение ключа сортировки и порядковый номер добавления.
+ * В запросах передается как непрозрачная строка.
+ *
+ * @param sort порядок выдачи, для которого выдан курсор
+ * @param age  возраст последнего пользователя (для сортировки по возрасту)
+ * @param seq  порядковый номер добавления последнего пользователя
+ */
+record PageCursor(UserSort sort, int age, long seq) {
+
+    /** Число полей в строке курсора. */
+    private static final int FIELDS = 3;
+
+    /**
+     * Кодирует курсор в строку для клиента.
+     *
+     * @return непрозрачная строка курсора
+     */
+    String encode() {
+        String raw = sort.name() + ":" + age + ":" + seq;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Разбирает курсор из запроса.
+     *
+     * @param value строка курсора или null
+     * @param sort  ожидаемый порядок выдачи
+     * @return курсор или null для первой страницы
+     * @throws IllegalArgumentException если курсор поврежден
+     * или выдан для другого порядка
+     */
+    static PageCursor decode(final String value, final UserSort sort) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(value),
+                    StandardCharsets.US_ASCII);
+            String[] parts = raw.split(":");
+            if (parts.length != FIELDS || !parts[0].equals(sort.name())) {
+                throw new IllegalArgumentException(
+                        "Cursor does not match sort: " + value);
+            }
+            return new PageCursor(sort, Integer.parseInt(parts[1]),
+                    Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + value, e);
+        }
+    }
+
+    /**
+     * Проверяет, что позиция (age, seq) идет строго после курсора.
+     *
+     * @param userAge возраст пользователя
+     * @param userSeq порядковый номер добавления пользователя
+     * @return true, если пользователь идет после курсора
+     */
+    boolean isFollowedBy(final int userAge, final long userSeq) {
+        return switch (sort) {
+            case INSERTION -> userSeq > seq;
+            case AGE -> userAge > age || userAge == age && userSeq > seq;
+            case AGE_DESC -> userAge < age || userAge == age && userSeq > seq;
+        };
+    }
+}
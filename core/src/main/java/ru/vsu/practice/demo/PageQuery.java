@@ -0,0 +1,66 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Параметры постраничного чтения пользователей:
+ * размер страницы, курсор продолжения и порядок выдачи.
+ */
+public final class PageQuery {
+
+    /** Максимальный размер страницы. */
+    public static final int MAX_LIMIT = 1000;
+
+    /** Размер страницы. */
+    private final int limit;
+
+    /** Курсор из предыдущей страницы; null для первой страницы. */
+    private final String after;
+
+    /** Порядок выдачи. */
+    private final UserSort sort;
+
+    /**
+     * Создает параметры постраничного чтения.
+     *
+     * @param limitParam размер страницы от 1 до {@link #MAX_LIMIT}
+     * @param afterParam курсор продолжения или null
+     * @param sortParam  порядок выдачи
+     * @throws IllegalArgumentException если размер страницы вне диапазона
+     */
+    public PageQuery(final int limitParam, final String afterParam,
+                     final UserSort sortParam) {
+        if (limitParam < 1 || limitParam > MAX_LIMIT) {
+            throw new IllegalArgumentException(
+                    "Limit must be between 1 and " + MAX_LIMIT + ".");
+        }
+        this.limit = limitParam;
+        this.after = afterParam;
+        this.sort = sortParam == null ? UserSort.INSERTION : sortParam;
+    }
+
+    /**
+     * Возвращает размер страницы.
+     *
+     * @return размер страницы
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Возвращает курсор продолжения.
+     *
+     * @return курсор или null
+     */
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * Возвращает порядок выдачи.
+     *
+     * @return порядок выдачи
+     */
+    public UserSort getSort() {
+        return sort;
+    }
+}
@@ -0,0 +1,19 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Режим сохранения изменений пользователей на диск.
+ */
+public enum PersistenceMode {
+
+    /**
+     * Полная перезапись users.json при каждом изменении.
+     */
+    SNAPSHOT,
+
+    /**
+     * Дозапись одной компактной записи на изменение в журнал
+     * рядом с users.json. При старте журнал проигрывается поверх снимка,
+     * а фоновое сжатие периодически сворачивает его в новый снимок.
+     */
+    JOURNAL
+}
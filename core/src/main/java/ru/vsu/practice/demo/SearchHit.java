@@ -0,0 +1,9 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Результат полнотекстового поиска.
+ *
+ * @param user  найденный пользователь
+ * @param score релевантность: чем больше, тем выше в выдаче
+ */
+public record SearchHit(User user, double score) { }
@@ -0,0 +1,690 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище, разделенное по UID на независимые шарды {@link UserService}.
+ * Пользователь живет в шарде {@code floorMod(uid.hashCode(), N)};
+ * у каждого шарда своя блокировка, свои индексы и свой файл
+ * (например, {@code users-3of16.json} для шарда 3 из 16 с префиксом
+ * users), поэтому изменения пользователей из разных шардов не ждут
+ * друг друга.
+ *
+ * <p>Друг пользователя может жить в другом шарде. Операции,
+ * которые затрагивают несколько шардов, берут блокировки в одном
+ * порядке, поэтому взаимоблокировок нет:</p>
+ * <ol>
+ *     <li>сначала не больше одного охранника шарда — блокировки
+ *     существования его пользователей: добавление друга из другого
+ *     шарда берет охранника шарда друга на чтение, каскадное
+ *     удаление — охранника шарда удаляемого на запись;</li>
+ *     <li>затем блокировки состояния шардов, по одной за раз
+ *     и по возрастанию номера шарда.</li>
+ * </ol>
+ * Поэтому друг не может исчезнуть между проверкой и добавлением,
+ * а удаление убирает пользователя из списков друзей во всех шардах.
+ *
+ * <p>getAll и списки друзей выдают пользователей по шардам
+ * по возрастанию номера, внутри шарда — в порядке вставки.
+ * Страницы сливаются из страниц шардов, при равном ключе
+ * сортировки раньше идет шард с меньшим номером. Число шардов
+ * нельзя менять без перераспределения данных: при открытии
+ * файлы с другим числом шардов отклоняются.</p>
+ */
+public final class ShardedUserRepository implements UserRepository {
+
+    /** Системное свойство числа шардов в приложениях. */
+    public static final String SHARDS_PROPERTY = "users.shards";
+
+    /** Число шардов по умолчанию. */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /** Шарды по номеру. */
+    private final UserService[] shards;
+
+    /** Охранники существования пользователей шарда. */
+    private final ReentrantReadWriteLock[] guards;
+
+    /**
+     * Открывает хранилище с сохранением каждого изменения
+     * перезаписью файла шарда.
+     *
+     * @param prefix путь к файлам шардов без суффикса
+     * @param count  число шардов
+     */
+    public ShardedUserRepository(final String prefix, final int count) {
+        this(prefix, count, PersistenceMode.SNAPSHOT, null);
+    }
+
+    /**
+     * Открывает хранилище. При первом запуске пользователи
+     * из ресурса users.json раскладываются по шардам.
+     *
+     * @param prefix       путь к файлам шардов без суффикса
+     * @param count        число шардов
+     * @param mode         режим сохранения изменений в шардах
+     * @param commitPolicy параметры группового сохранения;
+     *                     null — сохранять каждое изменение синхронно
+     * @throws IllegalArgumentException если число шардов меньше 1
+     * @throws IllegalStateException    если файлы хранилища разложены
+     * на другое число шардов
+     */
+    public ShardedUserRepository(final String prefix, final int count,
+                                 final PersistenceMode mode,
+                                 final GroupCommitPolicy commitPolicy) {
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                    "Shard count must be positive");
+        }
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = new File(prefix + "-" + i + "of" + count + ".json");
+        }
+        checkLayout(new File(prefix), count);
+        seed(files);
+        shards = new UserService[count];
+        guards = new ReentrantReadWriteLock[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new UserService(files[i].getPath(), mode,
+                    commitPolicy);
+            guards[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    @Override
+    public List<User> getAll(final Map<String, String> filters) {
+        List<User> all = new ArrayList<>();
+        for (UserService shard : shards) {
+            all.addAll(shard.getAll(filters));
+        }
+        return all;
+    }
+
+    @Override
+    public User getById(final String uid) {
+        return shardOf(uid).getById(uid);
+    }
+
+    /**
+     * Получает пользователей по списку идентификаторов: по одному
+     * запросу на шард.
+     *
+     * @param uids идентификаторы пользователей
+     * @return найденные пользователи в порядке запроса
+     */
+    @Override
+    public List<User> getByIds(final List<String> uids) {
+        List<List<String>> byShard = groups();
+        for (String uid : uids) {
+            byShard.get(indexOf(uid)).add(uid);
+        }
+        Map<UUID, User> found = new HashMap<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (!byShard.get(i).isEmpty()) {
+                for (User user : shards[i].getByIds(byShard.get(i))) {
+                    found.put(user.uuid(), user);
+                }
+            }
+        }
+        List<User> ordered = new ArrayList<>(uids.size());
+        for (String uid : uids) {
+            UUID id = User.parseUuid(uid);
+            User user = id == null ? null : found.get(id);
+            if (user != null) {
+                ordered.add(user);
+            }
+        }
+        return ordered;
+    }
+
+    @Override
+    public List<User> getFriends(final String uid,
+                                 final Map<String, String> filters) {
+        List<List<UUID>> friends = friendsByShard(uid);
+        List<User> found = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (!friends.get(i).isEmpty()) {
+                found.addAll(shards[i].getAllOf(friends.get(i), filters));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public UserPage getPage(final Map<String, String> filters,
+                            final PageQuery query) {
+        return merged(query, (i, q) -> shards[i].getPage(filters, q));
+    }
+
+    @Override
+    public UserPage getFriendsPage(final String uid,
+                                   final Map<String, String> filters,
+                                   final PageQuery query) {
+        List<List<UUID>> friends = friendsByShard(uid);
+        return merged(query, (i, q) -> friends.get(i).isEmpty()
+                ? new UserPage(List.of(), null)
+                : shards[i].getPageOf(friends.get(i), filters, q));
+    }
+
+    /**
+     * Обходит пользователей всех шардов в порядке страниц: снимки
+     * шардов собираются по очереди и упорядочиваются устойчивой
+     * сортировкой, поэтому при равном возрасте шарды идут по номеру.
+     *
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return итератор пользователей
+     */
+    @Override
+    public Iterator<User> scan(final Map<String, String> filters,
+                               final UserSort sort) {
+        List<User> all = new ArrayList<>();
+        for (UserService shard : shards) {
+            shard.scan(filters, UserSort.INSERTION)
+                    .forEachRemaining(all::add);
+        }
+        UserFilterIndex.sortInsertionOrdered(all, sort);
+        return all.iterator();
+    }
+
+    @Override
+    public Iterator<User> scanFriends(final String uid,
+                                      final Map<String, String> filters,
+                                      final UserSort sort) {
+        List<User> friends = getFriends(uid, filters);
+        UserFilterIndex.sortInsertionOrdered(friends, sort);
+        return friends.iterator();
+    }
+
+    @Override
+    public User create(final User user) {
+        return shardOf(user.uuid()).create(user);
+    }
+
+    /**
+     * Создает пакет пользователей: элементы раскладываются по шардам,
+     * и каждый шард создает свою часть за одну блокировку.
+     *
+     * @param batch пользователи для создания
+     * @return результаты элементов в порядке пакета
+     */
+    @Override
+    public List<BatchResult> createAll(final List<User> batch) {
+        List<List<User>> byShard = groups();
+        List<List<Integer>> positions = groups();
+        for (int i = 0; i < batch.size(); i++) {
+            User user = batch.get(i);
+            int shard = user == null ? 0 : indexOf(user.uuid());
+            byShard.get(shard).add(user);
+            positions.get(shard).add(i);
+        }
+        BatchResult[] results = new BatchResult[batch.size()];
+        for (int i = 0; i < shards.length; i++) {
+            if (byShard.get(i).isEmpty()) {
+                continue;
+            }
+            for (BatchResult result : shards[i].createAll(byShard.get(i))) {
+                int position = positions.get(i).get(result.index());
+                results[position] = new BatchResult(position, result.id(),
+                        result.error());
+            }
+        }
+        return List.of(results);
+    }
+
+    @Override
+    public User update(final String uid, final User patch) {
+        return shardOf(uid).update(uid, patch);
+    }
+
+    @Override
+    public User update(final String uid, final User patch,
+                       final long expectedVersion) {
+        return shardOf(uid).update(uid, patch, expectedVersion);
+    }
+
+    /**
+     * Сумма версий шардов: растет при каждом изменении любого шарда.
+     *
+     * @return версия набора
+     */
+    @Override
+    public long version() {
+        long version = 0;
+        for (UserService shard : shards) {
+            version += shard.version();
+        }
+        return version;
+    }
+
+    /**
+     * Удаляет пользователя и убирает его из списков друзей во всех
+     * шардах. Охранник шарда пользователя удерживается на запись
+     * все удаление, поэтому добавить удаляемого в друзья из другого
+     * шарда в это время нельзя.
+     *
+     * @param uid идентификатор пользователя
+     */
+    @Override
+    public void delete(final String uid) {
+        UUID id = User.parseUuid(uid);
+        if (id == null) {
+            return;
+        }
+        Lock guard = guards[indexOf(id)].writeLock();
+        guard.lock();
+        try {
+            for (UserService shard : shards) {
+                shard.delete(uid);
+            }
+        } finally {
+            guard.unlock();
+        }
+    }
+
+    /**
+     * Добавляет друга пользователю. Если друг живет в другом шарде,
+     * его существование проверяется под охранником его шарда
+     * на чтение, и охранник удерживается до конца добавления.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @throws java.util.NoSuchElementException если пользователь
+     * или друг не найдены
+     */
+    @Override
+    public void addFriend(final String uid, final String friendUid) {
+        UUID friend = User.parseUuid(friendUid);
+        int home = indexOf(uid);
+        if (friend == null || indexOf(friend) == home) {
+            shards[home].addFriend(uid, friendUid);
+            return;
+        }
+        int other = indexOf(friend);
+        Lock guard = guards[other].readLock();
+        guard.lock();
+        try {
+            shards[other].getById(friendUid);
+            shards[home].addForeignFriend(uid, friend);
+        } finally {
+            guard.unlock();
+        }
+    }
+
+    @Override
+    public void removeFriend(final String uid, final String friendUid) {
+        shardOf(uid).removeFriend(uid, friendUid);
+    }
+
+    /**
+     * Ищет пользователей во всех шардах и сливает лучшие результаты.
+     * Частоты слов у каждого шарда свои; при равномерном
+     * разбиении по UID они близки, и оценки сравнимы.
+     *
+     * @param query строка запроса
+     * @param limit наибольшее число результатов
+     * @return найденные пользователи по убыванию релевантности
+     */
+    @Override
+    public List<SearchHit> search(final String query, final int limit) {
+        List<SearchHit> hits = new ArrayList<>();
+        for (UserService shard : shards) {
+            hits.addAll(shard.search(query, limit));
+        }
+        hits.sort(Comparator.comparingDouble(SearchHit::score).reversed());
+        return hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
+
+    /**
+     * Распределение по числу друзей из счетчиков всех шардов.
+     *
+     * @return распределение
+     */
+    @Override
+    public DegreeStats getDegreeStats() {
+        NavigableMap<Integer, Integer> degrees = new TreeMap<>();
+        for (UserService shard : shards) {
+            shard.degreeCounts().forEach(
+                    (degree, users) -> degrees.merge(degree, users,
+                            Integer::sum));
+        }
+        return DegreeStats.of(degrees);
+    }
+
+    @Override
+    public void compact() {
+        for (UserService shard : shards) {
+            shard.compact();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (UserService shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Номер шарда пользователя.
+     *
+     * @param id UID пользователя или null
+     * @return номер шарда; для null — 0, где запрос отклонит шард
+     */
+    int indexOf(final UUID id) {
+        return indexOf(id, shards.length);
+    }
+
+    /**
+     * Номер шарда пользователя при заданном числе шардов.
+     *
+     * @param id    UID пользователя или null
+     * @param count число шардов
+     * @return номер шарда; для null — 0
+     */
+    static int indexOf(final UUID id, final int count) {
+        return id == null ? 0 : Math.floorMod(id.hashCode(), count);
+    }
+
+    /**
+     * Номер шарда пользователя по строковому идентификатору.
+     *
+     * @param uid идентификатор пользователя
+     * @return номер шарда
+     */
+    private int indexOf(final String uid) {
+        return indexOf(User.parseUuid(uid));
+    }
+
+    /**
+     * Шард пользователя.
+     *
+     * @param id UID пользователя или null
+     * @return шард
+     */
+    private UserService shardOf(final UUID id) {
+        return shards[indexOf(id)];
+    }
+
+    /**
+     * Шард пользователя по строковому идентификатору.
+     *
+     * @param uid идентификатор пользователя
+     * @return шард
+     */
+    private UserService shardOf(final String uid) {
+        return shards[indexOf(uid)];
+    }
+
+    /**
+     * Пустые списки по числу шардов.
+     *
+     * @param <T> тип элементов
+     * @return списки по номеру шарда
+     */
+    private <T> List<List<T>> groups() {
+        List<List<T>> groups = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            groups.add(new ArrayList<>());
+        }
+        return groups;
+    }
+
+    /**
+     * UID друзей пользователя, разложенные по шардам.
+     *
+     * @param uid идентификатор пользователя
+     * @return UID друзей по номеру шарда
+     * @throws java.util.NoSuchElementException если пользователь не найден
+     */
+    private List<List<UUID>> friendsByShard(final String uid) {
+        User user = getById(uid);
+        List<List<UUID>> friends = groups();
+        for (int i = 0; i < user.friendCount(); i++) {
+            UUID friend = user.friendAt(i);
+            friends.get(indexOf(friend)).add(friend);
+        }
+        return friends;
+    }
+
+    /**
+     * Сливает страницы шардов в одну. Позиция в общем порядке —
+     * ключ сортировки, номер шарда и порядковый номер добавления
+     * в шарде; из курсора для каждого шарда выводится его курсор.
+     * Если последний пользователь страницы удален до того, как
+     * прочитана его позиция, страница собирается заново.
+     *
+     * @param query параметры страницы
+     * @param fetch страница шарда по номеру шарда и запросу к нему
+     * @return страница пользователей
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    private UserPage merged(final PageQuery query,
+                            final BiFunction<Integer, PageQuery,
+                                    UserPage> fetch) {
+        UserSort sort = query.getSort();
+        ShardCursor after = ShardCursor.decode(query.getAfter(), sort,
+                shards.length);
+        while (true) {
+            List<User> items = new ArrayList<>();
+            List<Integer> owners = new ArrayList<>();
+            boolean more = false;
+            for (int i = 0; i < shards.length; i++) {
+                if (after != null && sort == UserSort.INSERTION
+                        && i < after.shard()) {
+                    continue;
+                }
+                UserPage page = fetch.apply(i, new PageQuery(
+                        query.getLimit(), innerCursor(after, sort, i), sort));
+                more |= page.getNextCursor() != null;
+                for (User user : page.getItems()) {
+                    items.add(user);
+                    owners.add(i);
+                }
+            }
+            List<Integer> order = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                order.add(i);
+            }
+            if (sort == UserSort.AGE) {
+                order.sort(Comparator.comparingInt(i -> items.get(i).getAge()));
+            } else if (sort == UserSort.AGE_DESC) {
+                order.sort(Comparator.comparingInt(
+                        (Integer i) -> items.get(i).getAge()).reversed());
+            }
+            int size = Math.min(order.size(), query.getLimit());
+            List<User> page = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                page.add(items.get(order.get(i)));
+            }
+            if (!more && order.size() <= query.getLimit()) {
+                return new UserPage(page, null);
+            }
+            int lastIndex = order.get(size - 1);
+            int owner = owners.get(lastIndex);
+            PageCursor position = shards[owner].cursorOf(
+                    items.get(lastIndex), sort);
+            if (position != null) {
+                return new UserPage(page, new ShardCursor(sort,
+                        position.age(), owner, position.seq()).encode());
+            }
+        }
+    }
+
+    /**
+     * Курсор шарда, выведенный из общего курсора: шарды с меньшим
+     * номером продолжают после всех пользователей с тем же ключом,
+     * шарды с большим — с первого пользователя с тем же ключом.
+     *
+     * @param after общий курсор или null
+     * @param sort  порядок выдачи
+     * @param shard номер шарда
+     * @return курсор шарда или null для начала шарда
+     */
+    private static String innerCursor(final ShardCursor after,
+                                      final UserSort sort, final int shard) {
+        if (after == null || sort == UserSort.INSERTION
+                && shard > after.shard()) {
+            return null;
+        }
+        long seq;
+        if (shard == after.shard()) {
+            seq = after.seq();
+        } else {
+            seq = shard < after.shard() ? Long.MAX_VALUE : -1;
+        }
+        return new PageCursor(sort, after.age(), seq).encode();
+    }
+
+    /**
+     * Проверяет, что рядом нет файлов шардов с другим числом шардов.
+     *
+     * @param prefix путь к файлам шардов без суффикса
+     * @param count  число шардов
+     * @throws IllegalStateException если такие файлы есть
+     */
+    private static void checkLayout(final File prefix, final int count) {
+        File dir = prefix.getAbsoluteFile().getParentFile();
+        String[] names = dir == null ? null : dir.list();
+        if (names == null) {
+            return;
+        }
+        Pattern layout = Pattern.compile(Pattern.quote(prefix.getName())
+                + "-\\d+of(\\d+)\\.json");
+        for (String name : names) {
+            Matcher matcher = layout.matcher(name);
+            if (matcher.matches()
+                    && Integer.parseInt(matcher.group(1)) != count) {
+                throw new IllegalStateException("Storage " + name
+                        + " was written with another shard count, not "
+                        + count);
+            }
+        }
+    }
+
+    /**
+     * Создает недостающие файлы шардов. Если нет ни одного,
+     * по ним раскладываются пользователи из ресурса users.json,
+     * иначе недостающие шарды создаются пустыми: шард без файла
+     * сам заполнился бы всем ресурсом.
+     *
+     * @param files файлы шардов по номеру
+     */
+    private static void seed(final File[] files) {
+        ObjectMapper mapper = new ObjectMapper();
+        List<List<User>> byShard = new ArrayList<>(files.length);
+        boolean fresh = true;
+        for (File file : files) {
+            byShard.add(new ArrayList<>());
+            fresh &= !file.exists();
+        }
+        try {
+            try (InputStream is = ShardedUserRepository.class
+                    .getClassLoader().getResourceAsStream("users.json")) {
+                if (is != null && fresh) {
+                    for (User user : mapper.readValue(is,
+                            new TypeReference<List<User>>() { })) {
+                        byShard.get(indexOf(user.uuid(), files.length))
+                                .add(user);
+                    }
+                }
+            }
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].exists()) {
+                    continue;
+                }
+                files[i].getAbsoluteFile().getParentFile().mkdirs();
+                SnapshotFormat.JSON.write(byShard.get(i),
+                        files[i].toPath(), mapper);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize shards", e);
+        }
+    }
+
+    /**
+     * Позиция последнего выданного пользователя в общем порядке
+     * страниц: ключ сортировки, шард и порядковый номер в шарде.
+     *
+     * @param sort  порядок выдачи
+     * @param age   возраст последнего пользователя
+     * @param shard номер шарда последнего пользователя
+     * @param seq   порядковый номер добавления в шарде
+     */
+    private record ShardCursor(UserSort sort, int age, int shard, long seq) {
+
+        /** Число полей в строке курсора. */
+        private static final int FIELDS = 4;
+
+        /** Позиция порядкового номера в строке курсора. */
+        private static final int SEQ_FIELD = 3;
+
+        /**
+         * Кодирует курсор в строку для клиента.
+         *
+         * @return непрозрачная строка курсора
+         */
+        String encode() {
+            String raw = sort.name() + ":" + age + ":" + shard + ":" + seq;
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * Разбирает курсор из запроса.
+         *
+         * @param value  строка курсора или null
+         * @param sort   ожидаемый порядок выдачи
+         * @param shards число шардов
+         * @return курсор или null для первой страницы
+         * @throws IllegalArgumentException если курсор поврежден
+         */
+        static ShardCursor decode(final String value, final UserSort sort,
+                                  final int shards) {
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(value),
+                        StandardCharsets.US_ASCII);
+                String[] parts = raw.split(":");
+                if (parts.length != FIELDS
+                        || !parts[0].equals(sort.name())) {
+                    throw new IllegalArgumentException(
+                            "Cursor does not match sort: " + value);
+                }
+                int shard = Integer.parseInt(parts[2]);
+                if (shard < 0 || shard >= shards) {
+                    throw new IllegalArgumentException(
+                            "Cursor shard is out of range: " + value);
+                }
+                return new ShardCursor(sort, Integer.parseInt(parts[1]),
+                        shard, Long.parseLong(parts[SEQ_FIELD]));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        "Invalid cursor: " + value, e);
+            }
+        }
+    }
+}
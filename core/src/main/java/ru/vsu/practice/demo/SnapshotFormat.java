@@ -0,0 +1,97 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Формат файла снимка пользователей.
+ * При чтении формат определяется по содержимому файла,
+ * поэтому снимок в любом формате загружается независимо от настройки;
+ * настройка задает формат, в котором снимок записывается.
+ */
+public enum SnapshotFormat {
+
+    /**
+     * JSON-массив пользователей с отступами; формат импорта и экспорта.
+     */
+    JSON,
+
+    /**
+     * Компактные двоичные записи с префиксом длины, читаются
+     * через отображение файла в память.
+     */
+    BINARY;
+
+    /**
+     * Определяет формат существующего файла по первым байтам.
+     *
+     * @param path файл снимка
+     * @return формат; JSON для пустого файла
+     * @throws IOException если файл не читается
+     */
+    static SnapshotFormat detect(final Path path) throws IOException {
+        byte[] head = new byte[Integer.BYTES];
+        int read;
+        try (InputStream in = Files.newInputStream(path)) {
+            read = in.readNBytes(head, 0, head.length);
+        }
+        return read == head.length
+                && ByteBuffer.wrap(head).getInt() == BinarySnapshot.MAGIC
+                ? BINARY : JSON;
+    }
+
+    /**
+     * Читает снимок в любом формате. Двоичный снимок с совпавшей
+     * контрольной суммой загружается без проверки полей; JSON может
+     * быть отредактирован вручную, поэтому каждый пользователь
+     * из него проверяется.
+     *
+     * @param path   файл снимка
+     * @param mapper объект для разбора JSON
+     * @return пользователи в порядке вставки; пустой список
+     * для пустого файла
+     * @throws IOException если файл не читается или поврежден
+     * @throws IllegalArgumentException если данные пользователя некорректны
+     */
+    static List<User> read(final Path path, final ObjectMapper mapper)
+            throws IOException {
+        if (Files.size(path) == 0) {
+            return List.of();
+        }
+        if (detect(path) == BINARY) {
+            return BinarySnapshot.read(path);
+        }
+        List<User> users = mapper.readValue(path.toFile(),
+                new TypeReference<List<User>>() { });
+        for (User user : users) {
+            user.validate();
+        }
+        return users;
+    }
+
+    /**
+     * Записывает снимок в этом формате.
+     *
+     * @param users  пользователи в порядке вставки
+     * @param path   файл снимка
+     * @param mapper объект для сериализации JSON
+     * @throws IOException если запись не удалась
+     */
+    void write(final Collection<User> users, final Path path,
+               final ObjectMapper mapper) throws IOException {
+        if (this == BINARY) {
+            BinarySnapshot.write(users, path);
+        } else {
+            mapper.writerWithDefaultPrettyPrinter()
+                    .writeValue(path.toFile(), users);
+        }
+    }
+}
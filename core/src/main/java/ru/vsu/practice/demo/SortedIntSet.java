@@ -0,0 +1,115 @@
+package ru.vsu.practice.demo;
+
+import java.util.Arrays;
+
+/**
+ * Отсортированное множество int на растущем массиве.
+ * Используется как список вхождений во вторичных индексах:
+ * номера слотов выдаются по возрастанию, поэтому вставка
+ * нового пользователя — дописывание в конец.
+ */
+final class SortedIntSet {
+
+    /** Начальная емкость массива. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** Элементы по возрастанию; значимы первые size. */
+    private int[] values = new int[INITIAL_CAPACITY];
+
+    /** Число элементов. */
+    private int size;
+
+    /**
+     * Добавляет элемент.
+     *
+     * @param value элемент
+     */
+    void add(final int value) {
+        if (size > 0 && values[size - 1] < value) {
+            ensureCapacity();
+            values[size++] = value;
+            return;
+        }
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        if (pos >= 0) {
+            return;
+        }
+        int insert = -pos - 1;
+        ensureCapacity();
+        System.arraycopy(values, insert, values, insert + 1, size - insert);
+        values[insert] = value;
+        size++;
+    }
+
+    /**
+     * Удаляет элемент.
+     *
+     * @param value элемент
+     */
+    void remove(final int value) {
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        if (pos < 0) {
+            return;
+        }
+        System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+        size--;
+    }
+
+    /**
+     * Проверяет наличие элемента.
+     *
+     * @param value элемент
+     * @return true, если элемент есть в множестве
+     */
+    boolean contains(final int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    /**
+     * Возвращает порядковый номер первого элемента не меньше заданного.
+     *
+     * @param value граница
+     * @return порядковый номер от 0 до size
+     */
+    int lowerBound(final int value) {
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    /**
+     * Возвращает элемент по порядковому номеру.
+     *
+     * @param index порядковый номер
+     * @return элемент
+     */
+    int get(final int index) {
+        return values[index];
+    }
+
+    /**
+     * Возвращает число элементов.
+     *
+     * @return размер множества
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Проверяет, пусто ли множество.
+     *
+     * @return true, если элементов нет
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Увеличивает массив при заполнении.
+     */
+    private void ensureCapacity() {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ru.vsu.practice.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пользователь, прочитанный из внешнего хранилища,
+ * и его порядковый номер добавления, по которому строятся курсоры.
+ *
+ * @param seq  порядковый номер добавления
+ * @param user пользователь
+ */
+record StoredUser(long seq, User user) {
+
+    /**
+     * Собирает страницу из упорядоченного списка, в котором
+     * на одного пользователя больше размера страницы, если
+     * следующая страница есть.
+     *
+     * @param items пользователи в порядке выдачи после курсора
+     * @param query параметры страницы
+     * @return страница пользователей
+     */
+    static UserPage toPage(final List<StoredUser> items,
+                           final PageQuery query) {
+        if (items.size() <= query.getLimit()) {
+            return new UserPage(users(items), null);
+        }
+        List<StoredUser> page = items.subList(0, query.getLimit());
+        StoredUser last = page.get(page.size() - 1);
+        return new UserPage(users(page), new PageCursor(query.getSort(),
+                last.user().getAge(), last.seq()).encode());
+    }
+
+    /**
+     * Извлекает пользователей из найденных записей.
+     *
+     * @param stored записи с номерами
+     * @return пользователи
+     */
+    static List<User> users(final List<StoredUser> stored) {
+        List<User> users = new ArrayList<>(stored.size());
+        for (StoredUser s : stored) {
+            users.add(s.user());
+        }
+        return users;
+    }
+}
@@ -1,13 +1,21 @@
 package ru.vsu.practice.demo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
 /**
  * Класс, представляющий пользователя системы.
  * Включает базовые поля, валидацию данных и операции управления друзьями.
+ * Сеттеры только присваивают значения: проверка выполняется одним
+ * явным проходом {@link #validate()} — в конструкторе с параметрами
+ * и в сервисе при создании и обновлении пользователя.
+ * ID и UID друзей хранятся в двоичном виде (два long на UUID),
+ * строковая форма появляется только на границе JSON и REST.
  */
 public class User {
 
@@ -19,16 +27,38 @@ public class User {
     private static final Pattern NAME_PATTERN =
             Pattern.compile("^[A-Za-z]+$");
 
-    /** Паттерн для проверки UUID. */
-    private static final Pattern UUID_PATTERN =
-            Pattern.compile("^[0-9a-fA-F]{8}-"
-                    + "[0-9a-fA-F]{4}-"
-                    + "[1-5][0-9a-fA-F]{3}-"
-                    + "[89abAB][0-9a-fA-F]{3}-"
-                    + "[0-9a-fA-F]{12}$");
+    /** Длина строкового UUID. */
+    private static final int UUID_LENGTH = 36;
+
+    /** Позиции дефисов в строковом UUID, по возрастанию. */
+    private static final int[] UUID_DASHES = {8, 13, 18, 23};
+
+    /** Позиция цифры версии в строковом UUID. */
+    private static final int UUID_VERSION_AT = 14;
+
+    /** Позиция цифры варианта в строковом UUID. */
+    private static final int UUID_VARIANT_AT = 19;
+
+    /** Пустой список друзей. */
+    private static final long[] NO_FRIENDS = new long[0];
+
+    /** Начальная емкость упакованного списка друзей: два UID. */
+    private static final int INITIAL_FRIEND_LONGS = 4;
+
+    /** Число шестнадцатеричных цифр в каждой половине UUID. */
+    private static final int HALF_DIGITS = 16;
+
+    /** Число бит в шестнадцатеричной цифре. */
+    private static final int HEX_DIGIT_BITS = 4;
+
+    /** Значение шестнадцатеричной цифры a. */
+    private static final int HEX_A = 10;
+
+    /** Минимальный допустимый возраст. */
+    private static final int MIN_AGE = 12;
 
     /** Уникальный идентификатор пользователя. */
-    private String id;
+    private UUID id;
 
     /** Имя пользователя. */
     private String firstName;
@@ -45,15 +75,27 @@ public class User {
     /** Описание пользователя. */
     private String description;
 
-    /** Список UID друзей. */
-    private List<String> friends = new ArrayList<>();
+    /**
+     * UID друзей в порядке добавления: по два long (старшие и младшие
+     * биты UUID) на друга; значимы первые 2 * friendCount элементов.
+     */
+    private long[] friends = NO_FRIENDS;
+
+    /** Число друзей. */
+    private int friendCount;
+
+    /**
+     * Номер изменения хранилища, в котором опубликована эта копия;
+     * 0 — загружена при старте. В JSON и в файлы не записывается.
+     */
+    private long version;
 
     /**
      * Конструктор по умолчанию, необходимый
      * для корректной десериализации (Jackson).
      */
     public User() {
-        this.id = UUID.randomUUID().toString();
+        this.id = UUID.randomUUID();
     }
 
     /**
@@ -71,13 +113,81 @@ public class User {
                 final String lastNameParam, final int ageParam,
                 final String emailParam, final String descriptionParam,
                 final List<String> friendsParam) {
-        this.id = UUID.randomUUID().toString();
+        this.id = UUID.randomUUID();
         setFirstName(firstNameParam);
         setLastName(lastNameParam);
         setAge(ageParam);
         setEmail(emailParam);
         setDescription(descriptionParam);
         setFriends(friendsParam);
+        validate();
+    }
+
+    /**
+     * Создает пользователя из данных, записанных самим сервисом,
+     * без проверки полей и без генерации случайного ID.
+     *
+     * @param uid              ID
+     * @param firstNameParam   имя
+     * @param lastNameParam    фамилия
+     * @param ageParam         возраст
+     * @param emailParam       email
+     * @param descriptionParam описание
+     * @param friendBits       UID друзей парами long без повторов;
+     *                         массив переходит во владение пользователя
+     * @return пользователь
+     */
+    static User trusted(final UUID uid, final String firstNameParam,
+                        final String lastNameParam, final int ageParam,
+                        final String emailParam,
+                        final String descriptionParam,
+                        final long[] friendBits) {
+        User user = new User(uid);
+        user.firstName = firstNameParam;
+        user.lastName = lastNameParam;
+        user.age = ageParam;
+        user.email = emailParam;
+        user.description = descriptionParam;
+        user.friends = friendBits;
+        user.friendCount = friendBits.length / 2;
+        return user;
+    }
+
+    /**
+     * Создает пустого пользователя с заданным ID.
+     *
+     * @param uid ID
+     */
+    private User(final UUID uid) {
+        this.id = uid;
+    }
+
+    /**
+     * Копирующий конструктор без повторной валидации.
+     *
+     * @param source исходный пользователь
+     */
+    private User(final User source) {
+        this.id = source.id;
+        this.firstName = source.firstName;
+        this.lastName = source.lastName;
+        this.age = source.age;
+        this.email = source.email;
+        this.description = source.description;
+        this.friends = Arrays.copyOf(source.friends, source.friendCount * 2);
+        this.friendCount = source.friendCount;
+        this.version = source.version;
+    }
+
+    /**
+     * Возвращает независимую копию пользователя.
+     * Используется сервисом, чтобы не изменять уже выданные
+     * читателям объекты.
+     *
+     * @return копия пользователя
+     */
+    User copy() {
+        return new User(this);
     }
 
     /**
@@ -88,7 +198,7 @@ public class User {
      */
     public User create(final User user) {
         if (user.id == null) {
-            user.id = UUID.randomUUID().toString();
+            user.id = UUID.randomUUID();
         }
         return user;
     }
@@ -99,9 +209,39 @@ public class User {
      * @return ID пользователя
      */
     public String getId() {
+        return this.id == null ? null : this.id.toString();
+    }
+
+    /**
+     * Возвращает ID пользователя во внутреннем представлении.
+     *
+     * @return ID пользователя
+     */
+    UUID uuid() {
         return this.id;
     }
 
+    /**
+     * Возвращает номер изменения, в котором опубликована эта копия.
+     * Меняется при каждом изменении пользователя, поэтому служит
+     * его версией для условных запросов. Действует до перезапуска;
+     * хранилища без версий всегда возвращают 0.
+     *
+     * @return версия пользователя
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Задает номер изменения, в котором публикуется копия.
+     *
+     * @param versionParam номер изменения
+     */
+    void version(final long versionParam) {
+        this.version = versionParam;
+    }
+
     /**
      * Возвращает имя пользователя.
      *
@@ -153,31 +293,91 @@ public class User {
      * @return список UID друзей
      */
     public List<String> getFriends() {
-        return new ArrayList<>(friends);
+        List<String> result = new ArrayList<>(friendCount);
+        for (int i = 0; i < friendCount; i++) {
+            result.add(friendAt(i).toString());
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает число друзей.
+     *
+     * @return число друзей
+     */
+    int friendCount() {
+        return friendCount;
+    }
+
+    /**
+     * Возвращает UID друга по порядковому номеру.
+     *
+     * @param index порядковый номер от 0 до friendCount
+     * @return UID друга
+     */
+    UUID friendAt(final int index) {
+        return new UUID(friends[2 * index], friends[2 * index + 1]);
+    }
+
+    /**
+     * Возвращает UID друзей в порядке добавления.
+     *
+     * @return UID друзей
+     */
+    List<UUID> friendUuids() {
+        List<UUID> result = new ArrayList<>(friendCount);
+        for (int i = 0; i < friendCount; i++) {
+            result.add(friendAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает UID друзей парами long без копирования.
+     * Значимы первые 2 * friendCount элементов; массив не изменяется.
+     *
+     * @return UID друзей
+     */
+    long[] friendBits() {
+        return friends;
+    }
+
+    /**
+     * Проверяет, есть ли UID в списке друзей.
+     *
+     * @param uid UID
+     * @return true, если пользователь в списке друзей
+     */
+    boolean hasFriend(final UUID uid) {
+        return indexOfFriend(uid.getMostSignificantBits(),
+                uid.getLeastSignificantBits()) >= 0;
     }
 
     /**
      * Устанавливает ID пользователя.
      *
-     * @param uid уникальный идентификатор
+     * @param uid уникальный идентификатор в формате UUID или null
+     * @throws IllegalArgumentException если ID не является UUID
      */
     public void setId(final String uid) {
-        this.id = uid;
+        if (uid == null) {
+            this.id = null;
+            return;
+        }
+        UUID parsed = parseUuid(uid);
+        if (parsed == null) {
+            throw new IllegalArgumentException(
+                    "User ID must be a valid UUID: " + uid);
+        }
+        this.id = parsed;
     }
 
     /**
      * Устанавливает имя пользователя.
      *
      * @param firstNameParam имя
-     * @throws IllegalArgumentException если имя null
-     * или содержит недопустимые символы
      */
     public void setFirstName(final String firstNameParam) {
-        if (firstNameParam == null
-                || !NAME_PATTERN.matcher(firstNameParam).matches()) {
-            throw new IllegalArgumentException(
-                    "First name must contain only letters.");
-        }
         this.firstName = firstNameParam;
     }
 
@@ -185,15 +385,8 @@ public class User {
      * Устанавливает фамилию пользователя.
      *
      * @param lastNameParam фамилия
-     * @throws IllegalArgumentException если фамилия null
-     * или содержит недопустимые символы
      */
     public void setLastName(final String lastNameParam) {
-        if (lastNameParam == null
-                || !NAME_PATTERN.matcher(lastNameParam).matches()) {
-            throw new IllegalArgumentException(
-                    "Last name must contain only letters.");
-        }
         this.lastName = lastNameParam;
     }
 
@@ -201,14 +394,8 @@ public class User {
      * Устанавливает возраст пользователя.
      *
      * @param ageParam возраст
-     * @throws IllegalArgumentException если возраст меньше 12
      */
     public void setAge(final int ageParam) {
-        final int maxReqAge = 12;
-        if (ageParam < maxReqAge) {
-            throw new IllegalArgumentException(
-                    "Age must be at least 12. See site age policy.");
-        }
         this.age = ageParam;
     }
 
@@ -216,14 +403,8 @@ public class User {
      * Устанавливает email пользователя.
      *
      * @param emailParam email-адрес
-     * @throws IllegalArgumentException если email null
-     * или в некорректном формате
      */
     public void setEmail(final String emailParam) {
-        if (emailParam == null
-                || !EMAIL_PATTERN.matcher(emailParam).matches()) {
-            throw new IllegalArgumentException("Invalid email format.");
-        }
         this.email = emailParam;
     }
 
@@ -237,25 +418,63 @@ public class User {
     }
 
     /**
-     * Устанавливает список друзей.
+     * Устанавливает список друзей. Строки разбираются сразу, потому что
+     * UID хранятся в двоичном виде; повторы отбрасываются.
      *
-     * @param friendsParam список UID друзей
-     * @throws IllegalArgumentException если UID недопустим
+     * @param friendsParam список UID друзей; null — пустой список
+     * @throws IllegalArgumentException если UID не является UUID
      */
     public void setFriends(final List<String> friendsParam) {
+        this.friends = NO_FRIENDS;
+        this.friendCount = 0;
         if (friendsParam == null) {
-            this.friends = new ArrayList<>();
             return;
         }
-
+        Set<UUID> seen = new HashSet<>();
         for (String uid : friendsParam) {
-            if (uid == null || !UUID_PATTERN.matcher(uid).matches()) {
-                throw new IllegalArgumentException(
-                        "Friend UID must be a valid UUID: " + uid);
+            UUID parsed = requireUuid(uid);
+            if (seen.add(parsed)) {
+                appendFriend(parsed);
             }
         }
+    }
+
+    /**
+     * Заменяет список друзей списком другого пользователя.
+     *
+     * @param source пользователь, чьи друзья копируются
+     */
+    void copyFriendsFrom(final User source) {
+        this.friends = Arrays.copyOf(source.friends, source.friendCount * 2);
+        this.friendCount = source.friendCount;
+    }
 
-        this.friends = new ArrayList<>(friendsParam);
+    /**
+     * Проверяет все поля пользователя.
+     *
+     * @throws IllegalArgumentException если имя или фамилия пусты
+     * или содержат не только латинские буквы, возраст меньше 12,
+     * email некорректен или ID отсутствует
+     */
+    public void validate() {
+        if (id == null) {
+            throw new IllegalArgumentException("User ID must be set.");
+        }
+        if (firstName == null || !NAME_PATTERN.matcher(firstName).matches()) {
+            throw new IllegalArgumentException(
+                    "First name must contain only letters.");
+        }
+        if (lastName == null || !NAME_PATTERN.matcher(lastName).matches()) {
+            throw new IllegalArgumentException(
+                    "Last name must contain only letters.");
+        }
+        if (age < MIN_AGE) {
+            throw new IllegalArgumentException(
+                    "Age must be at least 12. See site age policy.");
+        }
+        if (email == null || !EMAIL_PATTERN.matcher(email).matches()) {
+            throw new IllegalArgumentException("Invalid email format.");
+        }
     }
 
     /**
@@ -265,12 +484,17 @@ public class User {
      * @throws IllegalArgumentException если UID недопустим
      */
     public void addFriend(final String uidPrams) {
-        if (uidPrams == null || !UUID_PATTERN.matcher(uidPrams).matches()) {
-            throw new IllegalArgumentException(
-                    "Friend UID must be a valid UUID: " + uidPrams);
-        }
-        if (!friends.contains(uidPrams)) {
-            friends.add(uidPrams);
+        addFriend(requireUuid(uidPrams));
+    }
+
+    /**
+     * Добавляет друга, если его еще нет в списке.
+     *
+     * @param uid UID друга
+     */
+    void addFriend(final UUID uid) {
+        if (!hasFriend(uid)) {
+            appendFriend(uid);
         }
     }
 
@@ -281,10 +505,144 @@ public class User {
      * @throws IllegalArgumentException если UID недопустим
      */
     public void removeFriend(final String uidParam) {
-        if (uidParam == null || !UUID_PATTERN.matcher(uidParam).matches()) {
+        removeFriend(requireUuid(uidParam));
+    }
+
+    /**
+     * Удаляет друга, сохраняя порядок остальных.
+     *
+     * @param uid UID друга
+     */
+    void removeFriend(final UUID uid) {
+        int index = indexOfFriend(uid.getMostSignificantBits(),
+                uid.getLeastSignificantBits());
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(friends, 2 * index + 2, friends, 2 * index,
+                2 * (friendCount - index - 1));
+        friendCount--;
+    }
+
+    /**
+     * Дописывает друга в конец списка.
+     *
+     * @param uid UID друга
+     */
+    private void appendFriend(final UUID uid) {
+        if (2 * friendCount == friends.length) {
+            friends = Arrays.copyOf(friends,
+                    Math.max(INITIAL_FRIEND_LONGS, friends.length * 2));
+        }
+        friends[2 * friendCount] = uid.getMostSignificantBits();
+        friends[2 * friendCount + 1] = uid.getLeastSignificantBits();
+        friendCount++;
+    }
+
+    /**
+     * Ищет друга линейным проходом по массиву.
+     *
+     * @param msb старшие биты UID
+     * @param lsb младшие биты UID
+     * @return порядковый номер друга или -1
+     */
+    private int indexOfFriend(final long msb, final long lsb) {
+        for (int i = 0; i < friendCount; i++) {
+            if (friends[2 * i] == msb && friends[2 * i + 1] == lsb) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Разбирает UID друга.
+     *
+     * @param uid UID
+     * @return разобранный UID
+     * @throws IllegalArgumentException если UID не является UUID
+     */
+    static UUID requireUuid(final String uid) {
+        UUID parsed = parseUuid(uid);
+        if (parsed == null) {
             throw new IllegalArgumentException(
-                    "Friend UID must be a valid UUID: " + uidParam);
+                    "Friend UID must be a valid UUID: " + uid);
+        }
+        return parsed;
+    }
+
+    /**
+     * Проверяет строку на формат UUID.
+     *
+     * @param value строка
+     * @return true, если строка является UUID
+     */
+    static boolean isUuid(final String value) {
+        return parseUuid(value) != null;
+    }
+
+    /**
+     * Разбирает UUID посимвольно, без регулярных выражений и
+     * промежуточных строк: группы 8-4-4-4-12 шестнадцатеричных цифр,
+     * версия 1–5 и вариант 8, 9, a или b.
+     *
+     * @param value строка
+     * @return UUID или null, если строка не является UUID
+     */
+    static UUID parseUuid(final String value) {
+        if (value == null || value.length() != UUID_LENGTH) {
+            return null;
+        }
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        int dash = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = value.charAt(i);
+            if (dash < UUID_DASHES.length && i == UUID_DASHES[dash]) {
+                if (c != '-') {
+                    return null;
+                }
+                dash++;
+                continue;
+            }
+            int nibble = hexValue(c);
+            if (nibble < 0) {
+                return null;
+            }
+            if (digits < HALF_DIGITS) {
+                msb = msb << HEX_DIGIT_BITS | nibble;
+            } else {
+                lsb = lsb << HEX_DIGIT_BITS | nibble;
+            }
+            digits++;
+        }
+        char version = value.charAt(UUID_VERSION_AT);
+        char variant = Character.toLowerCase(value.charAt(UUID_VARIANT_AT));
+        if (version < '1' || version > '5'
+                || variant != '8' && variant != '9'
+                        && variant != 'a' && variant != 'b') {
+            return null;
+        }
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Возвращает значение шестнадцатеричной цифры ASCII.
+     *
+     * @param c символ
+     * @return значение 0–15 или -1, если символ не 0–9, a–f, A–F
+     */
+    private static int hexValue(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + HEX_A;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + HEX_A;
         }
-        friends.remove(uidParam);
+        return -1;
     }
 }
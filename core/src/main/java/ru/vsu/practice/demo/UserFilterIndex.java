@@ -0,0 +1,629 @@
+package ru.vsu.practice.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Вторичные индексы для фильтров getAll.
+ * Каждому пользователю выдается слот в порядке вставки; по слотам
+ * строятся списки вхождений: триграммный индекс по firstName, lastName
+ * и email в нижнем регистре (для поиска подстроки) и отсортированный
+ * индекс по возрасту. Индекс только сужает множество кандидатов,
+ * окончательную проверку фильтра выполняет сервис.
+ * Кроме слота пользователь получает неизменный порядковый номер
+ * добавления, на который опираются курсоры постраничного чтения:
+ * слоты перенумеровываются при уплотнении, номера — нет.
+ * Для прохода по фильтрам поля хранятся и по столбцам: имя, фамилия
+ * и email в нижнем регистре и возраст в массивах по слоту. Проверка
+ * фильтра по столбцам не приводит регистр и не выделяет память.
+ */
+final class UserFilterIndex {
+
+    /** Длина n-граммы. */
+    private static final int GRAM = 3;
+
+    /** Минимальное число освобожденных слотов для перенумерации. */
+    private static final int MIN_FREED_TO_COMPACT = 1024;
+
+    /** Начальная емкость массивов по слоту. */
+    private static final int INITIAL_SLOTS = 16;
+
+    /** Слот пользователя по идентификатору. */
+    private final Map<UUID, Integer> slotById = new HashMap<>();
+
+    /** Пользователь по слоту; null для освобожденных слотов. */
+    private final List<User> bySlot = new ArrayList<>();
+
+    /** Порядковый номер добавления по слоту; возрастает вместе со слотом. */
+    private long[] seqBySlot = new long[INITIAL_SLOTS];
+
+    /** Имя в нижнем регистре по слоту; null для освобожденных слотов. */
+    private String[] firstNameBySlot = new String[INITIAL_SLOTS];
+
+    /** Фамилия в нижнем регистре по слоту. */
+    private String[] lastNameBySlot = new String[INITIAL_SLOTS];
+
+    /** Email в нижнем регистре по слоту. */
+    private String[] emailBySlot = new String[INITIAL_SLOTS];
+
+    /** Возраст по слоту. */
+    private int[] ageBySlot = new int[INITIAL_SLOTS];
+
+    /** Следующий порядковый номер добавления. */
+    private long nextSeq;
+
+    /** Триграммы имени. */
+    private final Map<Long, SortedIntSet> firstNameGrams = new HashMap<>();
+
+    /** Триграммы фамилии. */
+    private final Map<Long, SortedIntSet> lastNameGrams = new HashMap<>();
+
+    /** Триграммы email. */
+    private final Map<Long, SortedIntSet> emailGrams = new HashMap<>();
+
+    /** Слоты пользователей по возрасту. */
+    private final TreeMap<Integer, SortedIntSet> ages = new TreeMap<>();
+
+    /** Число освобожденных слотов. */
+    private int freed;
+
+    /**
+     * Перестраивает индекс по списку пользователей в порядке вставки.
+     *
+     * @param users пользователи
+     */
+    void rebuild(final Collection<User> users) {
+        Arrays.fill(firstNameBySlot, null);
+        Arrays.fill(lastNameBySlot, null);
+        Arrays.fill(emailBySlot, null);
+        slotById.clear();
+        bySlot.clear();
+        firstNameGrams.clear();
+        lastNameGrams.clear();
+        emailGrams.clear();
+        ages.clear();
+        freed = 0;
+        nextSeq = 0;
+        for (User user : users) {
+            add(user);
+        }
+    }
+
+    /**
+     * Добавляет нового пользователя в конец порядка вставки.
+     *
+     * @param user пользователь
+     */
+    void add(final User user) {
+        addWithSeq(user, nextSeq++);
+    }
+
+    /**
+     * Добавляет пользователя с заданным порядковым номером.
+     *
+     * @param user пользователь
+     * @param seq  порядковый номер добавления
+     */
+    private void addWithSeq(final User user, final long seq) {
+        int slot = bySlot.size();
+        bySlot.add(user);
+        if (slot == seqBySlot.length) {
+            seqBySlot = Arrays.copyOf(seqBySlot, slot * 2);
+            firstNameBySlot = Arrays.copyOf(firstNameBySlot, slot * 2);
+            lastNameBySlot = Arrays.copyOf(lastNameBySlot, slot * 2);
+            emailBySlot = Arrays.copyOf(emailBySlot, slot * 2);
+            ageBySlot = Arrays.copyOf(ageBySlot, slot * 2);
+        }
+        seqBySlot[slot] = seq;
+        slotById.put(user.uuid(), slot);
+        firstNameBySlot[slot] = indexText(firstNameGrams,
+                user.getFirstName(), slot);
+        lastNameBySlot[slot] = indexText(lastNameGrams,
+                user.getLastName(), slot);
+        emailBySlot[slot] = indexText(emailGrams, user.getEmail(), slot);
+        ageBySlot[slot] = user.getAge();
+        ages.computeIfAbsent(user.getAge(), a -> new SortedIntSet()).add(slot);
+    }
+
+    /**
+     * Заменяет состояние пользователя, сохраняя его место в порядке
+     * вставки. Списки вхождений меняются только для измененных полей.
+     *
+     * @param user новое состояние пользователя
+     */
+    void replace(final User user) {
+        Integer slot = slotById.get(user.uuid());
+        if (slot == null) {
+            add(user);
+            return;
+        }
+        User previous = bySlot.set(slot, user);
+        firstNameBySlot[slot] = reindexText(firstNameGrams,
+                previous.getFirstName(), user.getFirstName(),
+                firstNameBySlot[slot], slot);
+        lastNameBySlot[slot] = reindexText(lastNameGrams,
+                previous.getLastName(), user.getLastName(),
+                lastNameBySlot[slot], slot);
+        emailBySlot[slot] = reindexText(emailGrams, previous.getEmail(),
+                user.getEmail(), emailBySlot[slot], slot);
+        ageBySlot[slot] = user.getAge();
+        if (previous.getAge() != user.getAge()) {
+            unindexAge(previous.getAge(), slot);
+            ages.computeIfAbsent(user.getAge(), a -> new SortedIntSet())
+                    .add(slot);
+        }
+    }
+
+    /**
+     * Удаляет пользователя из индекса.
+     *
+     * @param uid идентификатор пользователя
+     */
+    void remove(final UUID uid) {
+        Integer slot = slotById.remove(uid);
+        if (slot == null) {
+            return;
+        }
+        User previous = bySlot.set(slot, null);
+        unindexText(firstNameGrams, firstNameBySlot[slot], slot);
+        unindexText(lastNameGrams, lastNameBySlot[slot], slot);
+        unindexText(emailGrams, emailBySlot[slot], slot);
+        firstNameBySlot[slot] = null;
+        lastNameBySlot[slot] = null;
+        emailBySlot[slot] = null;
+        unindexAge(previous.getAge(), slot);
+        freed++;
+        if (freed >= MIN_FREED_TO_COMPACT && freed > slotById.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Перенумеровывает слоты без дыр, сохраняя порядковые номера.
+     */
+    private void compact() {
+        List<User> live = new ArrayList<>(slotById.size());
+        long[] liveSeqs = new long[slotById.size()];
+        for (int slot = 0; slot < bySlot.size(); slot++) {
+            User user = bySlot.get(slot);
+            if (user != null) {
+                liveSeqs[live.size()] = seqBySlot[slot];
+                live.add(user);
+            }
+        }
+        long savedNextSeq = nextSeq;
+        rebuild(List.of());
+        for (int i = 0; i < live.size(); i++) {
+            addWithSeq(live.get(i), liveSeqs[i]);
+        }
+        nextSeq = savedNextSeq;
+    }
+
+    /**
+     * Возвращает позицию пользователя в порядке вставки.
+     *
+     * @param user пользователь
+     * @return номер слота или {@link Integer#MAX_VALUE}, если его нет
+     */
+    int slotOf(final User user) {
+        Integer slot = slotById.get(user.uuid());
+        return slot == null ? Integer.MAX_VALUE : slot;
+    }
+
+    /**
+     * Возвращает курсор, указывающий на пользователя.
+     *
+     * @param sort порядок выдачи
+     * @param user пользователь
+     * @return курсор
+     */
+    PageCursor cursorOf(final UserSort sort, final User user) {
+        return new PageCursor(sort, user.getAge(),
+                seqBySlot[slotById.get(user.uuid())]);
+    }
+
+    /**
+     * Проверяет, что пользователь идет в порядке выдачи после курсора.
+     *
+     * @param after курсор или null
+     * @param user  пользователь
+     * @return true, если курсора нет или пользователь идет после него
+     */
+    boolean isAfter(final PageCursor after, final User user) {
+        return after == null || after.isFollowedBy(user.getAge(),
+                seqBySlot[slotById.get(user.uuid())]);
+    }
+
+    /**
+     * Упорядочивает пользователей, уже расположенных в порядке вставки.
+     * Сортировка устойчива, поэтому при равном возрасте сохраняется
+     * порядок добавления.
+     *
+     * @param users пользователи в порядке вставки
+     * @param sort  порядок выдачи
+     */
+    static void sortInsertionOrdered(final List<User> users,
+                                     final UserSort sort) {
+        switch (sort) {
+            case AGE -> users.sort(Comparator.comparingInt(User::getAge));
+            case AGE_DESC -> users.sort(
+                    Comparator.comparingInt(User::getAge).reversed());
+            default -> { }
+        }
+    }
+
+    /**
+     * Отбирает первых пользователей в порядке выдачи без сортировки
+     * всего списка: для сортировки по возрасту отбор идет через кучу
+     * размера count, поэтому страница из n кандидатов стоит
+     * O(n log count). При равном возрасте раньше идет пользователь,
+     * добавленный раньше.
+     *
+     * @param users пользователи в порядке вставки
+     * @param sort  порядок выдачи
+     * @param count наибольшее число пользователей
+     * @return первые пользователи в порядке выдачи
+     */
+    List<User> firstInOrder(final List<User> users, final UserSort sort,
+                            final int count) {
+        if (sort == UserSort.INSERTION) {
+            return users.subList(0, Math.min(count, users.size()));
+        }
+        Comparator<User> byAge = Comparator.comparingInt(User::getAge);
+        Comparator<User> order = (sort == UserSort.AGE
+                ? byAge : byAge.reversed()).thenComparingInt(this::slotOf);
+        PriorityQueue<User> top = new PriorityQueue<>(order.reversed());
+        for (User user : users) {
+            if (top.size() < count) {
+                top.add(user);
+            } else if (order.compare(user, top.peek()) < 0) {
+                top.poll();
+                top.add(user);
+            }
+        }
+        List<User> result = new ArrayList<>(top);
+        result.sort(order);
+        return result;
+    }
+
+    /**
+     * Лениво перечисляет всех пользователей в порядке выдачи строго после
+     * курсора. Для сортировки по возрасту используется индекс возраста,
+     * поэтому полная сортировка не нужна.
+     *
+     * @param sort  порядок выдачи
+     * @param after курсор или null
+     * @return поток пользователей
+     */
+    Stream<User> ordered(final UserSort sort, final PageCursor after) {
+        int fromSlot = after == null ? 0 : firstSlotAfter(after.seq());
+        if (sort == UserSort.INSERTION) {
+            return IntStream.range(fromSlot, bySlot.size())
+                    .mapToObj(bySlot::get)
+                    .filter(Objects::nonNull);
+        }
+        NavigableMap<Integer, SortedIntSet> buckets;
+        if (sort == UserSort.AGE) {
+            buckets = after == null ? ages : ages.tailMap(after.age(), true);
+        } else {
+            buckets = after == null ? ages.descendingMap()
+                    : ages.headMap(after.age(), true).descendingMap();
+        }
+        return buckets.entrySet().stream().flatMap(bucket -> {
+            SortedIntSet slots = bucket.getValue();
+            int from = after != null && bucket.getKey() == after.age()
+                    ? slots.lowerBound(fromSlot) : 0;
+            return IntStream.range(from, slots.size())
+                    .mapToObj(i -> bySlot.get(slots.get(i)));
+        });
+    }
+
+    /**
+     * Находит первый слот с порядковым номером больше заданного.
+     *
+     * @param seq порядковый номер
+     * @return номер слота от 0 до числа слотов
+     */
+    private int firstSlotAfter(final long seq) {
+        int pos = Arrays.binarySearch(seqBySlot, 0, bySlot.size(), seq);
+        return pos >= 0 ? pos + 1 : -pos - 1;
+    }
+
+    /**
+     * Подбирает кандидатов под фильтры по индексам.
+     * Фильтры по тексту короче триграммы и неизвестные ключи
+     * не сужают выборку.
+     *
+     * @param filters фильтры firstName, lastName, email, age
+     * @return кандидаты в порядке вставки или null,
+     * если ни один фильтр не покрывается индексом
+     */
+    List<User> select(final Map<String, String> filters) {
+        int[] slots = candidateSlots(filters);
+        if (slots == null) {
+            return null;
+        }
+        List<User> candidates = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            candidates.add(bySlot.get(slot));
+        }
+        return candidates;
+    }
+
+    /**
+     * Подбирает слоты кандидатов под фильтры по индексам.
+     *
+     * @param filters фильтры firstName, lastName, email, age
+     * @return слоты кандидатов по возрастанию или null,
+     * если ни один фильтр не покрывается индексом
+     */
+    int[] candidateSlots(final Map<String, String> filters) {
+        List<SortedIntSet> postings = new ArrayList<>();
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            String value = entry.getValue().toLowerCase();
+            boolean matchable = switch (entry.getKey()) {
+                case "firstName" ->
+                        collectGrams(firstNameGrams, value, postings);
+                case "lastName" ->
+                        collectGrams(lastNameGrams, value, postings);
+                case "email" -> collectGrams(emailGrams, value, postings);
+                case "age" -> collectAge(value, postings);
+                default -> true;
+            };
+            if (!matchable) {
+                return new int[0];
+            }
+        }
+        if (postings.isEmpty()) {
+            return null;
+        }
+
+        postings.sort(Comparator.comparingInt(SortedIntSet::size));
+        SortedIntSet smallest = postings.get(0);
+        int[] candidates = new int[smallest.size()];
+        int count = 0;
+        for (int i = 0; i < smallest.size(); i++) {
+            int slot = smallest.get(i);
+            boolean inAll = true;
+            for (int p = 1; p < postings.size() && inAll; p++) {
+                inAll = postings.get(p).contains(slot);
+            }
+            if (inAll) {
+                candidates[count++] = slot;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Разбирает фильтры в проверку слота по столбцам. Значения
+     * приводятся к нижнему регистру один раз; проверка слота
+     * не выделяет память. Освобожденные слоты не проходят.
+     * Вызывается и проверяется под блокировкой чтения.
+     *
+     * @param filters фильтры firstName, lastName, email, age
+     * @return проверка слота
+     */
+    IntPredicate matcher(final Map<String, String> filters) {
+        List<IntPredicate> checks = new ArrayList<>(filters.size() + 1);
+        checks.add(slot -> bySlot.get(slot) != null);
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            String value = entry.getValue().toLowerCase();
+            switch (entry.getKey()) {
+                case "firstName" -> checks.add(
+                        slot -> firstNameBySlot[slot].contains(value));
+                case "lastName" -> checks.add(
+                        slot -> lastNameBySlot[slot].contains(value));
+                case "email" -> checks.add(
+                        slot -> emailBySlot[slot].contains(value));
+                case "age" -> {
+                    int age = canonicalAge(value);
+                    checks.add(slot -> age >= 0 && ageBySlot[slot] == age);
+                }
+                default -> {
+                    // неизвестные параметры не фильтруют
+                }
+            }
+        }
+        if (checks.size() == 1) {
+            return checks.get(0);
+        }
+        IntPredicate[] all = checks.toArray(new IntPredicate[0]);
+        return slot -> {
+            for (IntPredicate check : all) {
+                if (!check.test(slot)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Число слотов, включая освобожденные: граница полного прохода.
+     *
+     * @return число слотов
+     */
+    int slotCount() {
+        return bySlot.size();
+    }
+
+    /**
+     * Пользователь в слоте.
+     *
+     * @param slot номер слота
+     * @return пользователь или null, если слот освобожден
+     */
+    User userAt(final int slot) {
+        return bySlot.get(slot);
+    }
+
+    /**
+     * Добавляет списки вхождений всех триграмм значения фильтра.
+     *
+     * @param grams    триграммный индекс поля
+     * @param value    значение фильтра в нижнем регистре
+     * @param postings накопленные списки вхождений
+     * @return false, если какой-то триграммы нет ни у одного пользователя
+     */
+    private static boolean collectGrams(final Map<Long, SortedIntSet> grams,
+                                        final String value,
+                                        final List<SortedIntSet> postings) {
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            SortedIntSet posting = grams.get(gram(value, i));
+            if (posting == null || posting.isEmpty()) {
+                return false;
+            }
+            postings.add(posting);
+        }
+        return true;
+    }
+
+    /**
+     * Добавляет список вхождений возраста. Фильтр совпадает только
+     * с канонической десятичной записью возраста.
+     *
+     * @param value    значение фильтра
+     * @param postings накопленные списки вхождений
+     * @return false, если под фильтр не подходит ни один пользователь
+     */
+    private boolean collectAge(final String value,
+                               final List<SortedIntSet> postings) {
+        int age = canonicalAge(value);
+        if (age < 0) {
+            return false;
+        }
+        SortedIntSet posting = ages.get(age);
+        if (posting == null || posting.isEmpty()) {
+            return false;
+        }
+        postings.add(posting);
+        return true;
+    }
+
+    /**
+     * Разбирает значение фильтра возраста. Фильтр совпадает только
+     * с канонической десятичной записью возраста, поэтому "030"
+     * не совпадает ни с кем.
+     *
+     * @param value значение фильтра
+     * @return возраст или -1, если запись не каноническая
+     */
+    private static int canonicalAge(final String value) {
+        int age;
+        try {
+            age = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return age >= 0 && Integer.toString(age).equals(value) ? age : -1;
+    }
+
+    /**
+     * Индексирует триграммы значения поля.
+     *
+     * @param grams триграммный индекс поля
+     * @param text  значение поля
+     * @param slot  слот пользователя
+     * @return значение в нижнем регистре или null
+     */
+    private static String indexText(final Map<Long, SortedIntSet> grams,
+                                    final String text, final int slot) {
+        if (text == null) {
+            return null;
+        }
+        String lower = text.toLowerCase();
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            grams.computeIfAbsent(gram(lower, i), g -> new SortedIntSet())
+                    .add(slot);
+        }
+        return lower;
+    }
+
+    /**
+     * Удаляет триграммы значения поля из индекса.
+     *
+     * @param grams триграммный индекс поля
+     * @param lower значение поля в нижнем регистре
+     * @param slot  слот пользователя
+     */
+    private static void unindexText(final Map<Long, SortedIntSet> grams,
+                                    final String lower, final int slot) {
+        if (lower == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM <= lower.length(); i++) {
+            long key = gram(lower, i);
+            SortedIntSet posting = grams.get(key);
+            if (posting != null) {
+                posting.remove(slot);
+                if (posting.isEmpty()) {
+                    grams.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Переиндексирует поле, если его значение изменилось.
+     *
+     * @param grams     триграммный индекс поля
+     * @param previous  прежнее значение
+     * @param current   новое значение
+     * @param lower     прежнее значение в нижнем регистре
+     * @param slot      слот пользователя
+     * @return новое значение в нижнем регистре
+     */
+    private static String reindexText(final Map<Long, SortedIntSet> grams,
+                                      final String previous,
+                                      final String current,
+                                      final String lower, final int slot) {
+        if (previous != null && previous.equals(current)) {
+            return lower;
+        }
+        unindexText(grams, lower, slot);
+        return indexText(grams, current, slot);
+    }
+
+    /**
+     * Удаляет слот из индекса возраста.
+     *
+     * @param age  возраст
+     * @param slot слот пользователя
+     */
+    private void unindexAge(final int age, final int slot) {
+        SortedIntSet posting = ages.get(age);
+        if (posting != null) {
+            posting.remove(slot);
+            if (posting.isEmpty()) {
+                ages.remove(age);
+            }
+        }
+    }
+
+    /**
+     * Упаковывает три символа строки в ключ триграммы.
+     *
+     * @param text строка
+     * @param from позиция первого символа
+     * @return ключ триграммы
+     */
+    private static long gram(final String text, final int from) {
+        return ((long) text.charAt(from) << 2 * Character.SIZE)
+                | ((long) text.charAt(from + 1) << Character.SIZE)
+                | text.charAt(from + 2);
+    }
+}
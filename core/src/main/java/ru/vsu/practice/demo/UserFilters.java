@@ -0,0 +1,79 @@
+package ru.vsu.practice.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Фильтры списков пользователей, общие для всех хранилищ.
+ */
+final class UserFilters {
+
+    private UserFilters() {
+    }
+
+    /**
+     * Возвращает предикат фильтрации пользователей
+     * на основе переданных параметров. Фильтры разбираются один раз:
+     * значения приводятся к нижнему регистру и возраст разбирается
+     * при построении предиката, а не для каждого пользователя.
+     *
+     * @param filters фильтры для firstName, lastName, email, age
+     * @return предикат фильтрации
+     */
+    static Predicate<User> matching(final Map<String, String> filters) {
+        List<Predicate<User>> checks = new ArrayList<>(filters.size());
+        for (Map.Entry<String, String> entry : filters.entrySet()) {
+            String value = entry.getValue().toLowerCase();
+            switch (entry.getKey()) {
+                case "firstName" -> checks.add(
+                        u -> u.getFirstName().toLowerCase().contains(value));
+                case "lastName" -> checks.add(
+                        u -> u.getLastName().toLowerCase().contains(value));
+                case "email" -> checks.add(
+                        u -> u.getEmail().toLowerCase().contains(value));
+                case "age" -> checks.add(age(value));
+                default -> {
+                    // неизвестные параметры не фильтруют
+                }
+            }
+        }
+        if (checks.isEmpty()) {
+            return u -> true;
+        }
+        if (checks.size() == 1) {
+            return checks.get(0);
+        }
+        @SuppressWarnings("unchecked")
+        Predicate<User>[] all = checks.toArray(new Predicate[0]);
+        return u -> {
+            for (Predicate<User> check : all) {
+                if (!check.test(u)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Проверка возраста: значение совпадает с записью возраста
+     * в десятичном виде, поэтому "030" не совпадает ни с кем.
+     *
+     * @param value значение фильтра
+     * @return предикат возраста
+     */
+    private static Predicate<User> age(final String value) {
+        int age;
+        try {
+            age = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return u -> false;
+        }
+        if (!Integer.toString(age).equals(value)) {
+            return u -> false;
+        }
+        return u -> u.getAge() == age;
+    }
+}
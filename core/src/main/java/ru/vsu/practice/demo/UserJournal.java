@@ -0,0 +1,409 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Журнал изменений пользователей (write-ahead log).
+ * Каждая мутация дописывается в конец файла users.json.log одной
+ * компактной JSON-строкой. При старте журнал проигрывается поверх
+ * последнего снимка, а фоновое сжатие сворачивает его в новый снимок.
+ */
+final class UserJournal implements GroupCommitter.Sink, AutoCloseable {
+
+    /** Размер журнала в байтах, после которого запускается сжатие. */
+    static final long DEFAULT_COMPACTION_THRESHOLD = 8L * 1024 * 1024;
+
+    /** Суффикс файла активного журнала. */
+    private static final String LOG_SUFFIX = ".log";
+
+    /** Суффикс журнала, который в данный момент сворачивается в снимок. */
+    private static final String COMPACTING_SUFFIX = ".log.compacting";
+
+    /** Суффикс временного файла нового снимка. */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** Символ конца записи. */
+    private static final int NEWLINE = '\n';
+
+    /** Файл снимка users.json. */
+    private final Path snapshotPath;
+
+    /** Файл активного журнала. */
+    private final Path logPath;
+
+    /** Журнал, вынесенный из активного на время сжатия. */
+    private final Path compactingPath;
+
+    /** Объект для сериализации записей и снимков. */
+    private final ObjectMapper mapper;
+
+    /** Формат, в котором сжатие записывает снимок. */
+    private final SnapshotFormat snapshotFormat;
+
+    /** Порог размера журнала для запуска сжатия. */
+    private final long compactionThreshold;
+
+    /** Однопоточный исполнитель фонового сжатия. */
+    private final ExecutorService compactor;
+
+    /** Признак того, что сжатие уже поставлено в очередь. */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * Защищает канал активного журнала. Под ней идет файловый
+     * ввод-вывод, поэтому это {@link ReentrantLock}, а не монитор:
+     * виртуальный поток, ожидающий ее, не занимает поток-носитель.
+     */
+    private final ReentrantLock channelLock = new ReentrantLock();
+
+    /** Канал дозаписи в активный журнал. */
+    private FileChannel channel;
+
+    /**
+     * Создает журнал рядом с файлом снимка.
+     *
+     * @param snapshotFile             файл снимка users.json
+     * @param mapperParam              объект для сериализации
+     * @param snapshotFormatParam      формат записи снимка
+     * @param compactionThresholdParam порог размера журнала в байтах
+     */
+    UserJournal(final File snapshotFile, final ObjectMapper mapperParam,
+                final SnapshotFormat snapshotFormatParam,
+                final long compactionThresholdParam) {
+        this.snapshotPath = snapshotFile.toPath();
+        this.logPath = Path.of(snapshotFile.getPath() + LOG_SUFFIX);
+        this.compactingPath =
+                Path.of(snapshotFile.getPath() + COMPACTING_SUFFIX);
+        this.mapper = mapperParam;
+        this.snapshotFormat = snapshotFormatParam;
+        this.compactionThreshold = compactionThresholdParam;
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "user-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Проигрывает журналы поверх загруженного снимка
+     * и открывает активный журнал на дозапись.
+     *
+     * @param users карта пользователей, загруженная из снимка
+     * @throws IOException если журнал не удалось прочитать или открыть
+     */
+    void open(final Map<UUID, User> users) throws IOException {
+        channelLock.lock();
+        try {
+            if (Files.exists(compactingPath)) {
+                replay(compactingPath, users);
+            }
+            if (Files.exists(logPath)) {
+                long validLength = replay(logPath, users);
+                try (FileChannel log = FileChannel.open(logPath,
+                        StandardOpenOption.WRITE)) {
+                    log.truncate(validLength);
+                }
+            }
+            channel = openLog();
+        } finally {
+            channelLock.unlock();
+        }
+        if (Files.exists(compactingPath)) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Дописывает запись в конец журнала.
+     *
+     * @param record запись журнала
+     */
+    void append(final JournalRecord record) {
+        try {
+            write(List.of(encode(record)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to journal", e);
+        }
+    }
+
+    /**
+     * Кодирует запись журнала в одну компактную JSON-строку.
+     *
+     * @param record запись журнала
+     * @return строка записи без символа конца строки
+     */
+    byte[] encode(final JournalRecord record) {
+        try {
+            return mapper.writeValueAsBytes(record);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize journal record", e);
+        }
+    }
+
+    /**
+     * Кодирует несколько записей журнала в строки, разделенные
+     * символом конца строки, чтобы записать их одним изменением.
+     *
+     * @param records записи журнала
+     * @return строки записей без завершающего символа конца строки
+     */
+    byte[] encode(final List<JournalRecord> records) {
+        if (records.size() == 1) {
+            return encode(records.get(0));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (JournalRecord record : records) {
+            if (out.size() > 0) {
+                out.write(NEWLINE);
+            }
+            out.writeBytes(encode(record));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Дописывает пачку закодированных записей одной операцией записи.
+     * При сбое журнал обрезается до прежней длины, чтобы недописанная
+     * строка не оборвала проигрывание последующих записей.
+     *
+     * @param batch закодированные записи
+     * @throws IOException если запись не удалась
+     */
+    @Override
+    public void write(final List<byte[]> batch) throws IOException {
+        int length = 0;
+        for (byte[] line : batch) {
+            length += line.length + 1;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] line : batch) {
+            buffer.put(line).put((byte) NEWLINE);
+        }
+        buffer.flip();
+        long size;
+        channelLock.lock();
+        try {
+            long before = channel.size();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                try {
+                    channel.truncate(before);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            size = channel.size();
+        } finally {
+            channelLock.unlock();
+        }
+        if (size >= compactionThreshold) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Сбрасывает активный журнал на физический носитель.
+     *
+     * @throws IOException если fsync не удался
+     */
+    @Override
+    public void force() throws IOException {
+        FileChannel current;
+        channelLock.lock();
+        try {
+            current = channel;
+        } finally {
+            channelLock.unlock();
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // журнал переключен сжатием, старый файл уже сброшен при закрытии
+        }
+    }
+
+    /**
+     * Ставит сжатие журнала в очередь фонового исполнителя,
+     * если оно еще не запланировано.
+     */
+    void scheduleCompaction() {
+        if (compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                compactionScheduled.set(false);
+                compactQuietly();
+            });
+        }
+    }
+
+    /**
+     * Синхронно сворачивает журнал в новый снимок.
+     *
+     * @throws IOException если снимок не удалось записать
+     */
+    void compact() throws IOException {
+        try {
+            compactor.submit(() -> {
+                compact0();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Journal compaction interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Journal compaction failed", e.getCause());
+        }
+    }
+
+    /**
+     * Останавливает фоновое сжатие и закрывает журнал.
+     */
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channelLock.lock();
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close journal", e);
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Выполняет сжатие, не пробрасывая ошибки:
+     * при сбое журнал остается на диске и будет свернут позже.
+     */
+    private void compactQuietly() {
+        try {
+            compact0();
+        } catch (IOException | RuntimeException e) {
+            // журнал и снимок остаются согласованными, повторим позже
+        }
+    }
+
+    /**
+     * Переносит активный журнал в сторону, проигрывает его поверх
+     * снимка на диске и атомарно заменяет снимок.
+     * Работающий сервис при этом не блокируется: дозапись продолжается
+     * в новый активный журнал.
+     *
+     * @throws IOException если снимок не удалось записать
+     */
+    private void compact0() throws IOException {
+        channelLock.lock();
+        try {
+            if (!Files.exists(compactingPath)) {
+                if (channel.size() == 0) {
+                    return;
+                }
+                channel.force(false);
+                channel.close();
+                Files.move(logPath, compactingPath,
+                        StandardCopyOption.ATOMIC_MOVE);
+                channel = openLog();
+            }
+        } finally {
+            channelLock.unlock();
+        }
+
+        Map<UUID, User> folded = new LinkedHashMap<>();
+        if (Files.exists(snapshotPath)) {
+            for (User user : SnapshotFormat.read(snapshotPath, mapper)) {
+                folded.put(user.uuid(), user);
+            }
+        }
+        replay(compactingPath, folded);
+
+        Path tmp = Path.of(snapshotPath + TMP_SUFFIX);
+        snapshotFormat.write(folded.values(), tmp, mapper);
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(compactingPath);
+    }
+
+    /**
+     * Проигрывает файл журнала. Недописанная последняя запись
+     * (например, после аварийного завершения) отбрасывается.
+     *
+     * @param path  файл журнала
+     * @param users карта пользователей
+     * @return длина корректной части журнала в байтах
+     * @throws IOException если файл не удалось прочитать
+     */
+    private long replay(final Path path, final Map<UUID, User> users)
+            throws IOException {
+        long validLength = 0;
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(path))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != NEWLINE) {
+                    line.write(b);
+                    continue;
+                }
+                if (line.size() > 0) {
+                    JournalRecord record;
+                    try {
+                        record = mapper.readValue(line.toByteArray(),
+                                JournalRecord.class);
+                    } catch (JsonProcessingException e) {
+                        return validLength;
+                    }
+                    record.applyTo(users);
+                }
+                validLength += line.size() + 1;
+                line.reset();
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Открывает активный журнал на дозапись.
+     *
+     * @return канал журнала
+     * @throws IOException если файл не удалось открыть
+     */
+    private FileChannel openLog() throws IOException {
+        return FileChannel.open(logPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
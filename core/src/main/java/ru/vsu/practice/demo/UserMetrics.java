@@ -0,0 +1,72 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Приемник измерений {@link UserService}: длительность операций,
+ * ожидание и удержание блокировок, запись на диск, размер набора
+ * данных и селективность фильтров. Ядро не зависит от библиотеки
+ * метрик; реализация подключается приложением. Методы вызываются
+ * на пути запроса, в том числе под блокировками, и не должны
+ * блокироваться сами. Длительности передаются в наносекундах.
+ */
+public interface UserMetrics {
+
+    /** Приемник, отбрасывающий все измерения. */
+    UserMetrics NONE = new UserMetrics() {
+    };
+
+    /**
+     * Операция хранилища завершена.
+     *
+     * @param operation имя операции, например getById или update
+     * @param nanos     длительность
+     * @param failed    завершилась ли операция исключением
+     */
+    default void operation(String operation, long nanos, boolean failed) {
+    }
+
+    /**
+     * Блокировка получена.
+     *
+     * @param lock  имя блокировки: read, write или persist
+     * @param nanos время ожидания
+     */
+    default void lockWait(String lock, long nanos) {
+    }
+
+    /**
+     * Блокировка освобождена.
+     *
+     * @param lock  имя блокировки: read, write или persist
+     * @param nanos время удержания
+     */
+    default void lockHold(String lock, long nanos) {
+    }
+
+    /**
+     * Изменения записаны на диск.
+     *
+     * @param mode  snapshot — перезапись снимка, journal — дозапись журнала
+     * @param nanos длительность записи
+     * @param bytes записано байт
+     */
+    default void saved(String mode, long nanos, long bytes) {
+    }
+
+    /**
+     * Фильтр применен к кандидатам.
+     *
+     * @param operation имя операции
+     * @param scanned   проверено пользователей
+     * @param matched   из них подошло
+     */
+    default void filtered(String operation, long scanned, long matched) {
+    }
+
+    /**
+     * Изменилось число пользователей.
+     *
+     * @param users число пользователей
+     */
+    default void size(int users) {
+    }
+}
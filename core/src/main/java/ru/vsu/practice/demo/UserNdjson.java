@@ -0,0 +1,208 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Потоковый импорт и экспорт пользователей в NDJSON:
+ * по одному JSON-объекту на строку. Пользователи разбираются
+ * и пишутся по одному через потоковые JsonParser и JsonGenerator,
+ * поэтому память не зависит от размера выгрузки.
+ */
+public final class UserNdjson {
+
+    /** Размер пакета импорта по умолчанию. */
+    public static final int DEFAULT_BATCH = 10_000;
+
+    /** Сколько ошибок импорта перечисляется в отчете. */
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    /**
+     * Сериализатор пользователей. Сброс после каждого объекта
+     * отключен: поток сбрасывается буфером генератора.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private UserNdjson() {
+        // utility class constructor to satisfy Checkstyle
+    }
+
+    /**
+     * Пишет пользователей в поток по одному на строку.
+     * Поток не закрывается.
+     *
+     * @param users пользователи
+     * @param out   выходной поток
+     * @return число записанных пользователей
+     * @throws IOException если запись не удалась
+     */
+    public static long write(final Iterator<User> users,
+                             final OutputStream out) throws IOException {
+        long count = 0;
+        try (JsonGenerator generator = MAPPER.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            while (users.hasNext()) {
+                MAPPER.writeValue(generator, users.next());
+                count++;
+            }
+            if (count > 0) {
+                generator.writeRaw('\n');
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Читает пользователей из потока NDJSON или JSON-массива
+     * и создает их в хранилище пакетами. В памяти одновременно
+     * находится не больше одного пакета. Записи, которые не удалось
+     * преобразовать в пользователя или проверить, пропускаются
+     * и попадают в отчет. Если поток перестает быть корректным JSON,
+     * дальше его разобрать нельзя: уже прочитанные записи создаются,
+     * и отчет возвращается с ошибкой разбора. Поток не закрывается.
+     *
+     * @param in         входной поток
+     * @param repository хранилище
+     * @param batchSize  размер пакета создания
+     * @return итог импорта
+     * @throws IOException если поток не читается
+     */
+    public static ImportReport read(final InputStream in,
+                                    final UserRepository repository,
+                                    final int batchSize) throws IOException {
+        Importer importer = new Importer(repository, batchSize);
+        String error = null;
+        try (JsonParser parser = MAPPER.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser,
+                            "Expected user object");
+                }
+                importer.accept(parser.readValueAsTree());
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            error = "Malformed record " + importer.index + ": "
+                    + e.getOriginalMessage();
+        }
+        importer.flush();
+        return new ImportReport(importer.created, importer.failed,
+                List.copyOf(importer.errors), error);
+    }
+
+    /**
+     * Состояние импорта: текущий пакет и счетчики.
+     */
+    private static final class Importer {
+
+        /** Хранилище. */
+        private final UserRepository repository;
+
+        /** Размер пакета. */
+        private final int batchSize;
+
+        /** Пользователи текущего пакета. */
+        private final List<User> batch;
+
+        /** Номера записей текущего пакета во входном потоке. */
+        private final List<Integer> positions;
+
+        /** Первые ошибки. */
+        private final List<BatchResult> errors = new ArrayList<>();
+
+        /** Номер следующей записи. */
+        private int index;
+
+        /** Число созданных пользователей. */
+        private long created;
+
+        /** Число отклоненных записей. */
+        private long failed;
+
+        /**
+         * Создает состояние импорта.
+         *
+         * @param repositoryParam хранилище
+         * @param batchSizeParam  размер пакета
+         */
+        Importer(final UserRepository repositoryParam,
+                 final int batchSizeParam) {
+            this.repository = repositoryParam;
+            this.batchSize = batchSizeParam;
+            this.batch = new ArrayList<>(batchSizeParam);
+            this.positions = new ArrayList<>(batchSizeParam);
+        }
+
+        /**
+         * Разбирает запись и добавляет ее в пакет.
+         *
+         * @param node запись
+         */
+        void accept(final JsonNode node) {
+            int position = index++;
+            try {
+                batch.add(MAPPER.treeToValue(node, User.class));
+                positions.add(position);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                fail(new BatchResult(position, node.path("id").asText(null),
+                        e.getMessage()));
+            }
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Создает пользователей текущего пакета.
+         */
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            for (BatchResult result : repository.createAll(batch)) {
+                if (result.isOk()) {
+                    created++;
+                } else {
+                    fail(new BatchResult(positions.get(result.index()),
+                            result.id(), result.error()));
+                }
+            }
+            batch.clear();
+            positions.clear();
+        }
+
+        /**
+         * Учитывает отклоненную запись.
+         *
+         * @param error ошибка записи
+         */
+        private void fail(final BatchResult error) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.vsu.practice.demo;
+
+import java.util.List;
+
+/**
+ * Страница пользователей и курсор следующей страницы.
+ */
+public final class UserPage {
+
+    /** Пользователи страницы. */
+    private final List<User> items;
+
+    /** Курсор следующей страницы; null, если страница последняя. */
+    private final String nextCursor;
+
+    /**
+     * Создает страницу.
+     *
+     * @param itemsParam      пользователи страницы
+     * @param nextCursorParam курсор следующей страницы или null
+     */
+    public UserPage(final List<User> itemsParam,
+                    final String nextCursorParam) {
+        this.items = List.copyOf(itemsParam);
+        this.nextCursor = nextCursorParam;
+    }
+
+    /**
+     * Возвращает пользователей страницы.
+     *
+     * @return пользователи
+     */
+    public List<User> getItems() {
+        return items;
+    }
+
+    /**
+     * Возвращает курсор следующей страницы.
+     *
+     * @return курсор или null
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,511 @@
+package ru.vsu.practice.demo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Хранилище пользователей: CRUD-операции, список друзей
+ * и постраничное чтение. Реализации отличаются тем, где лежат данные:
+ * {@link UserService} держит всех пользователей в куче,
+ * {@link MappedUserRepository} — в отображенных в память файлах.
+ * Пакетные операции по умолчанию применяют элементы по одному;
+ * реализации переопределяют их, чтобы применить пакет целиком
+ * за одну блокировку и одно сохранение.
+ */
+public interface UserRepository extends AutoCloseable {
+
+    /**
+     * Системное свойство выбора хранилища в приложениях:
+     * значение передается в {@link #open(String)}.
+     */
+    String STORAGE_PROPERTY = "users.storage";
+
+    /**
+     * Системное свойство режима сохранения users.json и шардов
+     * в приложениях: snapshot (по умолчанию) или journal.
+     */
+    String PERSISTENCE_PROPERTY = "users.persistence";
+
+    /**
+     * Системное свойство группового сохранения в приложениях:
+     * уровень надежности {@link Durability} (none, periodic_fsync,
+     * fsync_per_batch). Если свойство не задано, каждое изменение
+     * сохраняется синхронно.
+     */
+    String GROUP_COMMIT_PROPERTY = "users.groupCommit";
+
+    /**
+     * Открывает хранилище по имени: mapped — файлы users.data,
+     * users.slots и users.index вне кучи, h2 — встраиваемая база
+     * users.mv.db, sharded — шарды users-&lt;i&gt;of&lt;N&gt;.json в куче
+     * (N задает {@link ShardedUserRepository#SHARDS_PROPERTY}),
+     * иначе users.json в куче с полной перезаписью файла.
+     *
+     * @param storage имя хранилища
+     * @return хранилище в текущем каталоге
+     */
+    static UserRepository open(final String storage) {
+        return open(storage, PersistenceMode.SNAPSHOT);
+    }
+
+    /**
+     * Открывает хранилище по имени с заданным режимом сохранения
+     * users.json и шардов; на остальные хранилища режим не влияет.
+     *
+     * @param storage имя хранилища: mapped, h2, sharded или json
+     * @param mode    режим сохранения users.json
+     * @return хранилище в текущем каталоге
+     */
+    static UserRepository open(final String storage,
+                               final PersistenceMode mode) {
+        return open(storage, mode, UserMetrics.NONE);
+    }
+
+    /**
+     * Открывает хранилище по имени с приемником измерений.
+     * Измерения сообщает только users.json в куче ({@link UserService}).
+     *
+     * @param storage имя хранилища: mapped, h2, sharded или json
+     * @param mode    режим сохранения users.json и шардов
+     * @param metrics приемник измерений
+     * @return хранилище в текущем каталоге
+     */
+    static UserRepository open(final String storage,
+                               final PersistenceMode mode,
+                               final UserMetrics metrics) {
+        return open(storage, mode, null, metrics);
+    }
+
+    /**
+     * Открывает хранилище по имени с групповым сохранением
+     * и приемником измерений.
+     *
+     * @param storage      имя хранилища: mapped, h2, sharded или json
+     * @param mode         режим сохранения users.json и шардов
+     * @param commitPolicy параметры группового сохранения users.json
+     *                     и шардов; null — сохранять каждое изменение
+     *                     синхронно
+     * @param metrics      приемник измерений
+     * @return хранилище в текущем каталоге
+     */
+    static UserRepository open(final String storage,
+                               final PersistenceMode mode,
+                               final GroupCommitPolicy commitPolicy,
+                               final UserMetrics metrics) {
+        return switch (storage) {
+            case "mapped" -> new MappedUserRepository("users");
+            case "h2" -> new JdbcUserRepository("jdbc:h2:./users");
+            case "sharded" -> new ShardedUserRepository("users",
+                    Integer.getInteger(ShardedUserRepository.SHARDS_PROPERTY,
+                            ShardedUserRepository.DEFAULT_SHARDS),
+                    mode, commitPolicy);
+            default -> new UserService("users.json", mode, commitPolicy,
+                    SnapshotFormat.JSON, metrics);
+        };
+    }
+
+    /**
+     * Открывает хранилище по системным свойствам приложения:
+     * {@value #STORAGE_PROPERTY}, {@value #PERSISTENCE_PROPERTY}
+     * и {@value #GROUP_COMMIT_PROPERTY}.
+     *
+     * @param metrics приемник измерений
+     * @return хранилище в текущем каталоге
+     * @throws IllegalArgumentException если значение свойства
+     * неизвестно
+     */
+    static UserRepository openConfigured(final UserMetrics metrics) {
+        PersistenceMode mode = PersistenceMode.valueOf(System.getProperty(
+                PERSISTENCE_PROPERTY, "snapshot").toUpperCase(Locale.ROOT));
+        String durability = System.getProperty(GROUP_COMMIT_PROPERTY);
+        GroupCommitPolicy commitPolicy = durability == null ? null
+                : GroupCommitPolicy.of(Durability.valueOf(
+                        durability.toUpperCase(Locale.ROOT)));
+        return open(System.getProperty(STORAGE_PROPERTY, "json"), mode,
+                commitPolicy, metrics);
+    }
+
+    /**
+     * Получает список всех пользователей с применением фильтров.
+     *
+     * @param filters карта фильтров: firstName, lastName, email, age
+     * @return отфильтрованный список пользователей в порядке вставки
+     */
+    List<User> getAll(Map<String, String> filters);
+
+    /**
+     * Получает пользователя по идентификатору.
+     *
+     * @param uid идентификатор пользователя
+     * @return пользователь
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    User getById(String uid);
+
+    /**
+     * Получает список друзей пользователя с возможностью фильтрации.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @return список друзей в порядке вставки пользователей
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    List<User> getFriends(String uid, Map<String, String> filters);
+
+    /**
+     * Получает страницу пользователей с применением фильтров.
+     *
+     * @param filters карта фильтров: firstName, lastName, email, age
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница пользователей
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    UserPage getPage(Map<String, String> filters, PageQuery query);
+
+    /**
+     * Получает страницу друзей пользователя с возможностью фильтрации.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница друзей
+     * @throws NoSuchElementException если пользователь не найден
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    UserPage getFriendsPage(String uid, Map<String, String> filters,
+                            PageQuery query);
+
+    /**
+     * Создает нового пользователя.
+     *
+     * @param user объект пользователя
+     * @return созданный пользователь
+     * @throws IllegalArgumentException если данные некорректны
+     * или пользователь с таким ID уже существует
+     */
+    User create(User user);
+
+    /**
+     * Обновляет данные пользователя.
+     *
+     * @param uid   идентификатор пользователя
+     * @param patch объект с обновленными полями
+     * @return обновленный пользователь
+     * @throws IllegalArgumentException если данные некорректны
+     */
+    User update(String uid, User patch);
+
+    /**
+     * Обновляет пользователя, только если его версия
+     * ({@link User#version()}) не изменилась: проверка и изменение
+     * выполняются атомарно.
+     *
+     * @param uid             идентификатор пользователя
+     * @param patch           объект с обновленными полями
+     * @param expectedVersion версия, от которой клиент строил изменение
+     * @return обновленный пользователь
+     * @throws java.util.ConcurrentModificationException если версия изменилась
+     * @throws UnsupportedOperationException   если хранилище не ведет версий
+     */
+    default User update(String uid, User patch, long expectedVersion) {
+        throw new UnsupportedOperationException(
+                "Storage does not track versions");
+    }
+
+    /**
+     * Номер последнего изменения хранилища: растет при каждом
+     * изменении, поэтому служит версией всего набора для условных
+     * запросов к спискам.
+     *
+     * @return версия набора или -1, если хранилище не ведет версий
+     */
+    default long version() {
+        return -1;
+    }
+
+    /**
+     * Удаляет пользователя и убирает его из списков друзей.
+     *
+     * @param uid идентификатор пользователя
+     */
+    void delete(String uid);
+
+    /**
+     * Добавляет друга пользователю.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @throws IllegalArgumentException если пользователь или друг не найдены
+     */
+    void addFriend(String uid, String friendUid);
+
+    /**
+     * Удаляет друга из списка пользователя.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @throws IllegalArgumentException если пользователь не найден
+     */
+    void removeFriend(String uid, String friendUid);
+
+    /**
+     * Обходит всех пользователей в порядке вставки для выгрузки.
+     * По умолчанию пользователи читаются страницами по курсору:
+     * память не зависит от размера набора, а изменения во время
+     * обхода видны так же, как при постраничном чтении.
+     *
+     * @return итератор пользователей
+     */
+    default Iterator<User> scanAll() {
+        return scan(Map.of(), UserSort.INSERTION);
+    }
+
+    /**
+     * Обходит пользователей, прошедших фильтры, в заданном порядке
+     * для потоковой выдачи. По умолчанию пользователи читаются
+     * страницами наибольшего размера по курсору.
+     *
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return итератор пользователей
+     */
+    default Iterator<User> scan(final Map<String, String> filters,
+                                final UserSort sort) {
+        return paged(after -> getPage(filters,
+                new PageQuery(PageQuery.MAX_LIMIT, after, sort)));
+    }
+
+    /**
+     * Обходит друзей пользователя, прошедших фильтры, в заданном
+     * порядке для потоковой выдачи. По умолчанию друзья читаются
+     * страницами наибольшего размера по курсору.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return итератор друзей
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    default Iterator<User> scanFriends(final String uid,
+                                       final Map<String, String> filters,
+                                       final UserSort sort) {
+        getById(uid);
+        return paged(after -> getFriendsPage(uid, filters,
+                new PageQuery(PageQuery.MAX_LIMIT, after, sort)));
+    }
+
+    /**
+     * Итератор по страницам, которые читаются по мере обхода.
+     *
+     * @param pages чтение страницы по курсору (null — первая страница)
+     * @return итератор пользователей
+     */
+    private Iterator<User> paged(final Function<String, UserPage> pages) {
+        return new Iterator<>() {
+            private Iterator<User> page = List.<User>of().iterator();
+            private String after;
+            private boolean last;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !last) {
+                    UserPage next = pages.apply(after);
+                    page = next.getItems().iterator();
+                    after = next.getNextCursor();
+                    last = after == null;
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+
+    /**
+     * Получает пользователей по списку идентификаторов.
+     *
+     * @param uids идентификаторы пользователей
+     * @return найденные пользователи в порядке запроса;
+     * неизвестные идентификаторы пропускаются
+     */
+    default List<User> getByIds(final List<String> uids) {
+        List<User> found = new ArrayList<>(uids.size());
+        for (String uid : uids) {
+            try {
+                found.add(getById(uid));
+            } catch (NoSuchElementException e) {
+                // неизвестный идентификатор не попадает в ответ
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Получает общих друзей двух пользователей. По умолчанию
+     * пересекаются их списки друзей.
+     *
+     * @param uid      идентификатор первого пользователя
+     * @param otherUid идентификатор второго пользователя
+     * @return общие друзья в порядке вставки пользователей
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    default List<User> getMutualFriends(final String uid,
+                                        final String otherUid) {
+        Set<String> others = new HashSet<>();
+        for (User friend : getFriends(otherUid, Map.of())) {
+            others.add(friend.getId());
+        }
+        List<User> mutual = new ArrayList<>();
+        for (User friend : getFriends(uid, Map.of())) {
+            if (others.contains(friend.getId())) {
+                mutual.add(friend);
+            }
+        }
+        return mutual;
+    }
+
+    /**
+     * Предлагает друзей друзей, которых еще нет в списке пользователя,
+     * по убыванию числа общих друзей. По умолчанию читаются списки
+     * друзей всех друзей пользователя.
+     *
+     * @param uid   идентификатор пользователя
+     * @param limit наибольшее число кандидатов
+     * @return кандидаты с числом общих друзей
+     * @throws NoSuchElementException   если пользователь не найден
+     * @throws IllegalArgumentException если limit меньше 1
+     */
+    default List<FriendSuggestion> suggestFriends(final String uid,
+                                                  final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        List<User> friends = getFriends(uid, Map.of());
+        Set<String> excluded = new HashSet<>();
+        excluded.add(getById(uid).getId());
+        friends.forEach(friend -> excluded.add(friend.getId()));
+        Map<String, Integer> mutual = new LinkedHashMap<>();
+        Map<String, User> candidates = new HashMap<>();
+        for (User friend : friends) {
+            for (User candidate : getFriends(friend.getId(), Map.of())) {
+                if (!excluded.contains(candidate.getId())) {
+                    mutual.merge(candidate.getId(), 1, Integer::sum);
+                    candidates.putIfAbsent(candidate.getId(), candidate);
+                }
+            }
+        }
+        return mutual.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue()
+                        .reversed())
+                .limit(limit)
+                .map(e -> new FriendSuggestion(candidates.get(e.getKey()),
+                        e.getValue()))
+                .toList();
+    }
+
+    /**
+     * Получает распределение пользователей по числу друзей.
+     * По умолчанию обходит всех пользователей.
+     *
+     * @return распределение
+     */
+    default DegreeStats getDegreeStats() {
+        NavigableMap<Integer, Integer> degrees = new TreeMap<>();
+        Iterator<User> all = scanAll();
+        while (all.hasNext()) {
+            degrees.merge(all.next().getFriends().size(), 1, Integer::sum);
+        }
+        return DegreeStats.of(degrees);
+    }
+
+    /**
+     * Ищет пользователей по словам имени, фамилии, email и описания.
+     * Найденные пользователи содержат все слова запроса; слово
+     * со звездочкой на конце ищется как префикс.
+     *
+     * @param query строка запроса
+     * @param limit наибольшее число результатов
+     * @return найденные пользователи по убыванию релевантности
+     * @throws IllegalArgumentException      если limit меньше 1
+     * @throws UnsupportedOperationException если хранилище не ведет
+     * поискового индекса
+     */
+    default List<SearchHit> search(final String query, final int limit) {
+        throw new UnsupportedOperationException(
+                "Storage does not support search");
+    }
+
+    /**
+     * Создает пакет пользователей. Некорректные элементы и повторы
+     * пропускаются с ошибкой в результате, остальные создаются.
+     *
+     * @param batch пользователи для создания
+     * @return результаты элементов в порядке пакета
+     */
+    default List<BatchResult> createAll(final List<User> batch) {
+        List<BatchResult> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            results.add(BatchResult.attempt(i, batch.get(i), User::getId,
+                    this::create));
+        }
+        return results;
+    }
+
+    /**
+     * Добавляет пакет связей дружбы.
+     *
+     * @param edges связи для добавления
+     * @return результаты элементов в порядке пакета
+     */
+    default List<BatchResult> addFriends(final List<FriendEdge> edges) {
+        List<BatchResult> results = new ArrayList<>(edges.size());
+        for (int i = 0; i < edges.size(); i++) {
+            results.add(BatchResult.attempt(i, edges.get(i), FriendEdge::uid,
+                    e -> addFriend(e.uid(), e.friendUid())));
+        }
+        return results;
+    }
+
+    /**
+     * Удаляет пакет связей дружбы.
+     *
+     * @param edges связи для удаления
+     * @return результаты элементов в порядке пакета
+     */
+    default List<BatchResult> removeFriends(final List<FriendEdge> edges) {
+        List<BatchResult> results = new ArrayList<>(edges.size());
+        for (int i = 0; i < edges.size(); i++) {
+            results.add(BatchResult.attempt(i, edges.get(i), FriendEdge::uid,
+                    e -> removeFriend(e.uid(), e.friendUid())));
+        }
+        return results;
+    }
+
+    /**
+     * Освобождает место, занятое устаревшими данными.
+     */
+    void compact();
+
+    /**
+     * Освобождает файловые ресурсы хранилища.
+     */
+    @Override
+    void close();
+}
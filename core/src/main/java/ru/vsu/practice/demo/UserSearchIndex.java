@@ -0,0 +1,670 @@
+package ru.vsu.practice.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Обратный индекс полнотекстового поиска по имени, фамилии, email
+ * и описанию. Текст разбивается на слова из букв и цифр в нижнем
+ * регистре; для каждого слова хранится список документов
+ * по возрастанию номера с весом вхождений: слово в имени или фамилии
+ * весит {@value #NAME_WEIGHT}, в email — {@value #EMAIL_WEIGHT},
+ * в описании — {@value #DESCRIPTION_WEIGHT}. Словарь упорядочен,
+ * поэтому префиксный запрос — обход диапазона словаря.
+ * Документ — версия текста пользователя. Изменение текста выдает
+ * пользователю новый номер, а старый помечается удаленным, поэтому
+ * списки только дописываются в конец. Удаленные номера вычищаются,
+ * когда их становится больше живых. Релевантность — BM25.
+ */
+final class UserSearchIndex {
+
+    /** Вес слова из имени и фамилии. */
+    static final int NAME_WEIGHT = 3;
+
+    /** Вес слова из email. */
+    static final int EMAIL_WEIGHT = 2;
+
+    /** Вес слова из описания. */
+    static final int DESCRIPTION_WEIGHT = 1;
+
+    /** Насыщение BM25 по числу вхождений. */
+    private static final double K1 = 1.2;
+
+    /** Нормировка BM25 по длине документа. */
+    private static final double B = 0.75;
+
+    /** Минимум удаленных документов для уплотнения. */
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    /** Сглаживание обратной частоты BM25. */
+    private static final double IDF_SMOOTHING = 0.5;
+
+    /** Начальная емкость массивов по номеру документа. */
+    private static final int INITIAL_DOCS = 16;
+
+    /** Начальная емкость списка документов слова. */
+    private static final int INITIAL_POSTING = 4;
+
+    /** Младшие 32 бита: оценка в упакованной паре документ—оценка. */
+    private static final long SCORE_MASK = 0xFFFF_FFFFL;
+
+    /** Множитель хеширования номеров документов (золотое сечение). */
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    /** Пустой набор списков: слова нет в словаре. */
+    private static final Posting[] NO_POSTINGS = new Posting[0];
+
+    /** Списки документов по слову. */
+    private final TreeMap<String, Posting> postings = new TreeMap<>();
+
+    /** Номер документа по UID пользователя. */
+    private final Map<UUID, Integer> docById = new HashMap<>();
+
+    /** UID по номеру документа; null у удаленных документов. */
+    private UUID[] uuidByDoc = new UUID[INITIAL_DOCS];
+
+    /** Слова документа: нужны, чтобы убрать документ из счетчиков. */
+    private Posting[][] termsByDoc = new Posting[INITIAL_DOCS][];
+
+    /** Взвешенная длина документа. */
+    private int[] lengthByDoc = new int[INITIAL_DOCS];
+
+    /** Число выданных номеров документов. */
+    private int docs;
+
+    /** Сумма длин живых документов. */
+    private long totalLength;
+
+    /** Число удаленных документов, еще не вычищенных из списков. */
+    private int dead;
+
+    /**
+     * Перестраивает индекс по всем пользователям.
+     *
+     * @param users пользователи в порядке вставки
+     */
+    void rebuild(final Collection<User> users) {
+        postings.clear();
+        docById.clear();
+        Arrays.fill(uuidByDoc, 0, docs, null);
+        Arrays.fill(termsByDoc, 0, docs, null);
+        docs = 0;
+        totalLength = 0;
+        dead = 0;
+        for (User user : users) {
+            add(user);
+        }
+    }
+
+    /**
+     * Индексирует нового пользователя.
+     *
+     * @param user пользователь
+     */
+    void add(final User user) {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        collect(terms, user.getFirstName(), NAME_WEIGHT);
+        collect(terms, user.getLastName(), NAME_WEIGHT);
+        collect(terms, user.getEmail(), EMAIL_WEIGHT);
+        collect(terms, user.getDescription(), DESCRIPTION_WEIGHT);
+        int doc = docs++;
+        if (doc == uuidByDoc.length) {
+            uuidByDoc = Arrays.copyOf(uuidByDoc, doc * 2);
+            termsByDoc = Arrays.copyOf(termsByDoc, doc * 2);
+            lengthByDoc = Arrays.copyOf(lengthByDoc, doc * 2);
+        }
+        Posting[] docTerms = new Posting[terms.size()];
+        int length = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> term : terms.entrySet()) {
+            Posting posting = postings.computeIfAbsent(term.getKey(),
+                    Posting::new);
+            posting.append(doc, term.getValue());
+            docTerms[i++] = posting;
+            length += term.getValue();
+        }
+        uuidByDoc[doc] = user.uuid();
+        termsByDoc[doc] = docTerms;
+        lengthByDoc[doc] = length;
+        totalLength += length;
+        docById.put(user.uuid(), doc);
+    }
+
+    /**
+     * Переиндексирует пользователя, если изменился его текст.
+     *
+     * @param previous прежняя версия пользователя
+     * @param current  новая версия пользователя
+     */
+    void replace(final User previous, final User current) {
+        if (Objects.equals(previous.getFirstName(), current.getFirstName())
+                && Objects.equals(previous.getLastName(),
+                        current.getLastName())
+                && Objects.equals(previous.getEmail(), current.getEmail())
+                && Objects.equals(previous.getDescription(),
+                        current.getDescription())) {
+            return;
+        }
+        remove(previous.uuid());
+        add(current);
+    }
+
+    /**
+     * Помечает документ пользователя удаленным.
+     *
+     * @param id UID пользователя
+     */
+    void remove(final UUID id) {
+        Integer doc = docById.remove(id);
+        if (doc == null) {
+            return;
+        }
+        for (Posting posting : termsByDoc[doc]) {
+            posting.live--;
+            if (posting.live == 0) {
+                postings.remove(posting.term);
+            }
+        }
+        uuidByDoc[doc] = null;
+        termsByDoc[doc] = NO_POSTINGS;
+        totalLength -= lengthByDoc[doc];
+        dead++;
+        if (dead >= MIN_DEAD_TO_COMPACT && dead > docById.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Ищет пользователей, у которых есть все слова запроса.
+     * Слово со звездочкой на конце ищется как префикс. Результат
+     * упорядочен по убыванию релевантности, при равенстве —
+     * в порядке индексации.
+     *
+     * @param query строка запроса
+     * @param limit наибольшее число результатов
+     * @return найденные пользователи с релевантностью
+     */
+    List<Hit> search(final String query, final int limit) {
+        List<Posting[]> clauses = new ArrayList<>();
+        for (String term : parse(query)) {
+            Posting[] clause = expand(term);
+            if (clause.length == 0) {
+                return List.of();
+            }
+            clauses.add(clause);
+        }
+        if (clauses.isEmpty()) {
+            return List.of();
+        }
+        clauses.sort(Comparator.comparingLong(UserSearchIndex::size));
+        Matches matches = drive(clauses.get(0));
+        for (int c = 1; c < clauses.size() && matches.count > 0; c++) {
+            matches.narrow(clauses.get(c));
+        }
+        return matches.top(limit);
+    }
+
+    /**
+     * Разбирает запрос на слова; префиксные слова оканчиваются на *.
+     *
+     * @param query строка запроса
+     * @return слова запроса в нижнем регистре
+     */
+    static List<String> parse(final String query) {
+        List<String> terms = new ArrayList<>();
+        String lower = query.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letter = i < lower.length()
+                    && Character.isLetterOrDigit(lower.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                boolean prefix = i < lower.length() && lower.charAt(i) == '*';
+                terms.add(lower.substring(start, i) + (prefix ? "*" : ""));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Собирает слова текста с весом поля.
+     *
+     * @param terms  вес по слову
+     * @param text   текст поля или null
+     * @param weight вес поля
+     */
+    private static void collect(final Map<String, Integer> terms,
+                                final String text, final int weight) {
+        if (text == null) {
+            return;
+        }
+        for (String term : parse(text)) {
+            if (term.endsWith("*")) {
+                term = term.substring(0, term.length() - 1);
+            }
+            terms.merge(term, weight, Integer::sum);
+        }
+    }
+
+    /**
+     * Списки документов слова запроса: одно слово или все слова
+     * словаря с заданным префиксом.
+     *
+     * @param term слово запроса
+     * @return списки документов
+     */
+    private Posting[] expand(final String term) {
+        if (!term.endsWith("*")) {
+            Posting posting = postings.get(term);
+            return posting == null ? NO_POSTINGS : new Posting[] {posting};
+        }
+        String prefix = term.substring(0, term.length() - 1);
+        return postings.subMap(prefix, true,
+                prefix + Character.MAX_VALUE, false)
+                .values().toArray(NO_POSTINGS);
+    }
+
+    /**
+     * Суммарная длина списков слова запроса.
+     *
+     * @param clause списки документов
+     * @return число вхождений
+     */
+    private static long size(final Posting[] clause) {
+        long size = 0;
+        for (Posting posting : clause) {
+            size += posting.size;
+        }
+        return size;
+    }
+
+    /**
+     * Кандидаты по самому редкому слову запроса. Список одного слова
+     * уже отсортирован; списки слов префикса сливаются в один
+     * с суммой оценок.
+     *
+     * @param clause списки документов самого редкого слова
+     * @return кандидаты
+     */
+    private Matches drive(final Posting[] clause) {
+        double average = averageLength();
+        if (clause.length == 1) {
+            Posting posting = clause[0];
+            double idf = posting.idf(docById.size());
+            Matches matches = new Matches(posting.size);
+            for (int j = 0; j < posting.size; j++) {
+                int doc = posting.docs[j];
+                if (uuidByDoc[doc] != null) {
+                    matches.docs[matches.count] = doc;
+                    matches.scores[matches.count++] = score(idf,
+                            posting.weights[j], doc, average);
+                }
+            }
+            return matches;
+        }
+        long[] entries = new long[(int) size(clause)];
+        int count = 0;
+        for (Posting posting : clause) {
+            double idf = posting.idf(docById.size());
+            for (int j = 0; j < posting.size; j++) {
+                int doc = posting.docs[j];
+                if (uuidByDoc[doc] != null) {
+                    float score = (float) score(idf, posting.weights[j],
+                            doc, average);
+                    entries[count++] = ((long) doc << Integer.SIZE)
+                            | (Float.floatToIntBits(score) & SCORE_MASK);
+                }
+            }
+        }
+        Arrays.sort(entries, 0, count);
+        Matches matches = new Matches(count);
+        for (int i = 0; i < count; i++) {
+            int doc = (int) (entries[i] >>> Integer.SIZE);
+            float score = Float.intBitsToFloat((int) entries[i]);
+            int last = matches.count - 1;
+            if (last >= 0 && matches.docs[last] == doc) {
+                matches.scores[last] += score;
+            } else {
+                matches.docs[matches.count] = doc;
+                matches.scores[matches.count++] = score;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Средняя взвешенная длина живого документа.
+     *
+     * @return средняя длина
+     */
+    private double averageLength() {
+        return docById.isEmpty() ? 1 : (double) totalLength / docById.size();
+    }
+
+    /**
+     * Оценка BM25 вхождения слова в документ.
+     *
+     * @param idf     обратная частота слова
+     * @param weight  взвешенное число вхождений
+     * @param doc     номер документа
+     * @param average средняя длина документа
+     * @return оценка
+     */
+    private double score(final double idf, final int weight, final int doc,
+                         final double average) {
+        double norm = K1 * (1 - B + B * lengthByDoc[doc] / average);
+        return idf * weight * (K1 + 1) / (weight + norm);
+    }
+
+    /**
+     * Вычищает удаленные документы: живые документы получают номера
+     * подряд в прежнем порядке, списки слов переписываются на месте.
+     */
+    private void compact() {
+        int[] remap = new int[docs];
+        int next = 0;
+        for (int doc = 0; doc < docs; doc++) {
+            if (uuidByDoc[doc] == null) {
+                remap[doc] = -1;
+                continue;
+            }
+            remap[doc] = next;
+            uuidByDoc[next] = uuidByDoc[doc];
+            termsByDoc[next] = termsByDoc[doc];
+            lengthByDoc[next] = lengthByDoc[doc];
+            docById.put(uuidByDoc[next], next);
+            next++;
+        }
+        Arrays.fill(uuidByDoc, next, docs, null);
+        Arrays.fill(termsByDoc, next, docs, null);
+        for (Posting posting : postings.values()) {
+            posting.remap(remap);
+        }
+        docs = next;
+        dead = 0;
+    }
+
+    /**
+     * Найденный пользователь.
+     *
+     * @param uid   UID пользователя
+     * @param score релевантность
+     */
+    record Hit(UUID uid, double score) { }
+
+    /**
+     * Список документов одного слова: номера по возрастанию
+     * и взвешенное число вхождений.
+     */
+    private static final class Posting {
+
+        /** Слово. */
+        private final String term;
+
+        /** Номера документов по возрастанию; значимы первые size. */
+        private int[] docs = new int[INITIAL_POSTING];
+
+        /** Взвешенное число вхождений по документу. */
+        private int[] weights = new int[INITIAL_POSTING];
+
+        /** Число вхождений, включая удаленные документы. */
+        private int size;
+
+        /** Число живых документов со словом. */
+        private int live;
+
+        /**
+         * Создает пустой список слова.
+         *
+         * @param termParam слово
+         */
+        Posting(final String termParam) {
+            this.term = termParam;
+        }
+
+        /**
+         * Дописывает документ с наибольшим номером.
+         *
+         * @param doc    номер документа
+         * @param weight взвешенное число вхождений
+         */
+        void append(final int doc, final int weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size++] = weight;
+            live++;
+        }
+
+        /**
+         * Обратная частота слова по BM25.
+         *
+         * @param total число живых документов
+         * @return обратная частота
+         */
+        double idf(final int total) {
+            return Math.log(1 + (total - live + IDF_SMOOTHING)
+                    / (live + IDF_SMOOTHING));
+        }
+
+        /**
+         * Переписывает номера документов после уплотнения
+         * и выбрасывает удаленные.
+         *
+         * @param remap новый номер по старому или -1
+         */
+        void remap(final int[] remap) {
+            int kept = 0;
+            for (int j = 0; j < size; j++) {
+                int doc = remap[docs[j]];
+                if (doc >= 0) {
+                    docs[kept] = doc;
+                    weights[kept++] = weights[j];
+                }
+            }
+            size = kept;
+        }
+    }
+
+    /**
+     * Кандидаты запроса: номера документов по возрастанию
+     * и накопленная оценка.
+     */
+    private final class Matches {
+
+        /** Номера документов; значимы первые count. */
+        private final int[] docs;
+
+        /** Оценка по документу. */
+        private final double[] scores;
+
+        /** Число кандидатов. */
+        private int count;
+
+        /**
+         * Создает пустой набор заданной емкости.
+         *
+         * @param capacity наибольшее число кандидатов
+         */
+        Matches(final int capacity) {
+            this.docs = new int[capacity];
+            this.scores = new double[capacity];
+        }
+
+        /**
+         * Оставляет кандидатов, у которых есть слово запроса,
+         * и прибавляет его оценку. Список одного слова пересекается
+         * с кандидатами: по порядку проходится более короткий,
+         * в более длинном позиция ищется галопирующим поиском.
+         * Слов префикса может быть тысячи, поэтому для них кандидаты
+         * раскладываются в хеш-таблицу, и каждое вхождение
+         * проверяется за одно обращение.
+         *
+         * @param clause списки документов слова
+         */
+        void narrow(final Posting[] clause) {
+            double[] added = new double[count];
+            boolean[] hit = new boolean[count];
+            double average = averageLength();
+            int[] table = clause.length > 1 ? table() : null;
+            for (Posting posting : clause) {
+                double idf = posting.idf(docById.size());
+                if (table != null) {
+                    for (int j = 0; j < posting.size; j++) {
+                        int i = find(table, posting.docs[j]);
+                        if (i >= 0) {
+                            added[i] += score(idf, posting.weights[j],
+                                    docs[i], average);
+                            hit[i] = true;
+                        }
+                    }
+                    continue;
+                }
+                int i = 0;
+                int j = 0;
+                boolean shorter = posting.size < count;
+                while (i < count && j < posting.size) {
+                    int doc = posting.docs[j];
+                    if (docs[i] < doc) {
+                        i = shorter ? gallop(docs, i, count, doc) : i + 1;
+                    } else if (docs[i] > doc) {
+                        j = shorter ? j + 1 : gallop(posting.docs, j,
+                                posting.size, docs[i]);
+                    } else {
+                        added[i] += score(idf, posting.weights[j],
+                                docs[i], average);
+                        hit[i++] = true;
+                        j++;
+                    }
+                }
+            }
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (hit[i]) {
+                    docs[kept] = docs[i];
+                    scores[kept++] = scores[i] + added[i];
+                }
+            }
+            count = kept;
+        }
+
+        /**
+         * Хеш-таблица с открытой адресацией: позиция кандидата плюс
+         * один по номеру документа; таблица заполнена не больше
+         * чем наполовину.
+         *
+         * @return таблица размером в степень двойки
+         */
+        private int[] table() {
+            int[] table = new int[Integer.highestOneBit(
+                    Math.max(count, 1)) << 2];
+            for (int i = 0; i < count; i++) {
+                int slot = hash(docs[i], table.length);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & (table.length - 1);
+                }
+                table[slot] = i + 1;
+            }
+            return table;
+        }
+
+        /**
+         * Позиция кандидата в хеш-таблице.
+         *
+         * @param table хеш-таблица кандидатов
+         * @param doc   номер документа
+         * @return позиция кандидата или -1
+         */
+        private int find(final int[] table, final int doc) {
+            int slot = hash(doc, table.length);
+            while (table[slot] != 0) {
+                int i = table[slot] - 1;
+                if (docs[i] == doc) {
+                    return i;
+                }
+                slot = (slot + 1) & (table.length - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * Лучшие кандидаты по убыванию оценки, при равенстве —
+         * по возрастанию номера документа.
+         *
+         * @param limit наибольшее число результатов
+         * @return найденные пользователи
+         */
+        List<Hit> top(final int limit) {
+            Comparator<Integer> better = Comparator
+                    .<Integer>comparingDouble(i -> scores[i])
+                    .thenComparing(i -> docs[i], Comparator.reverseOrder());
+            PriorityQueue<Integer> best = new PriorityQueue<>(better);
+            for (int i = 0; i < count; i++) {
+                if (best.size() < limit) {
+                    best.add(i);
+                } else if (better.compare(i, best.peek()) > 0) {
+                    best.poll();
+                    best.add(i);
+                }
+            }
+            Hit[] hits = new Hit[best.size()];
+            for (int i = hits.length - 1; i >= 0; i--) {
+                int index = best.poll();
+                hits[i] = new Hit(uuidByDoc[docs[index]], scores[index]);
+            }
+            return Arrays.asList(hits);
+        }
+    }
+
+    /**
+     * Ячейка хеш-таблицы по номеру документа: мультипликативный хеш.
+     *
+     * @param doc      номер документа
+     * @param capacity размер таблицы, степень двойки
+     * @return номер ячейки
+     */
+    private static int hash(final int doc, final int capacity) {
+        return (doc * GOLDEN_RATIO) >>> (Integer.SIZE
+                - Integer.numberOfTrailingZeros(capacity));
+    }
+
+    /**
+     * Первая позиция в отсортированном массиве со значением
+     * не меньше заданного: экспоненциальный шаг от начальной позиции,
+     * затем двоичный поиск.
+     *
+     * @param values отсортированный массив
+     * @param from   начальная позиция
+     * @param to     граница поиска
+     * @param value  искомое значение
+     * @return позиция от from до to
+     */
+    private static int gallop(final int[] values, final int from,
+                              final int to, final int value) {
+        int low = from;
+        int step = 1;
+        int high = from;
+        while (high < to && values[high] < value) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        int pos = Arrays.binarySearch(values, low, Math.min(high + 1, to),
+                value);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+}
@@ -1,27 +1,54 @@
 package ru.vsu.practice.demo;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NoSuchElementException;
-import java.util.Objects;
-import java.util.function.Predicate;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Сервис для управления пользователями.
  * Загружает список пользователей из файла users.json при старте
- * и сохраняет при каждом изменении.
+ * и сохраняет при каждом изменении: целиком перезаписывая файл
+ * ({@link PersistenceMode#SNAPSHOT}) или дописывая запись в журнал
+ * ({@link PersistenceMode#JOURNAL}). При заданной
+ * {@link GroupCommitPolicy} одновременные изменения сохраняются
+ * общими пачками. Снимок хранится в JSON или в компактном двоичном
+ * формате ({@link SnapshotFormat}).
+ * Чтение идет под разделяемой блокировкой и не ждет записи на диск:
+ * изменение заменяет объект пользователя новой копией, а уже выданные
+ * объекты не меняются, поэтому сохранение работает со списком ссылок
+ * без удержания блокировки состояния.
  * Реализует CRUD-операции и управление списком друзей.
  */
-public class UserService {
+public class UserService implements UserRepository {
 
     /** Файл для хранения данных пользователей в формате JSON. */
     private final File storageFile;
@@ -29,8 +56,84 @@ public class UserService {
     /** Объект для сериализации и десериализации пользователей. */
     private final ObjectMapper mapper;
 
-    /** Список всех пользователей, загруженных из хранилища. */
-    private List<User> users;
+    /**
+     * Наибольшее число связей второго уровня, просматриваемых
+     * при подборе кандидатов в друзья.
+     */
+    private static final int SUGGESTION_BUDGET = 65_536;
+
+    /**
+     * Системное свойство: число проверяемых пользователей, начиная
+     * с которого getAll проверяет фильтры параллельно в общем пуле
+     * fork-join; 0 или меньше — всегда последовательно.
+     */
+    public static final String PARALLEL_SCAN_PROPERTY =
+            "users.parallelScanThreshold";
+
+    /** Порог параллельной проверки фильтров по умолчанию. */
+    public static final int DEFAULT_PARALLEL_SCAN_THRESHOLD = 50_000;
+
+    /** Пустое изменение для групповой перезаписи снимка. */
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    /** Формат записи снимка. */
+    private final SnapshotFormat snapshotFormat;
+
+    /** Журнал изменений; null в режиме полной перезаписи файла. */
+    private final UserJournal journal;
+
+    /** Групповое сохранение; null при синхронном сохранении. */
+    private final GroupCommitter committer;
+
+    /** Блокировка состояния: чтение разделяемое, изменения эксклюзивные. */
+    private final ReentrantReadWriteLock stateLock =
+            new ReentrantReadWriteLock();
+
+    /** Упорядочивает синхронную запись изменений на диск. */
+    private final ReentrantLock persistLock = new ReentrantLock();
+
+    /** Номер последнего изменения в памяти; под блокировкой состояния. */
+    private long appliedVersion;
+
+    /** Номер последнего сохраненного изменения; под persistLock. */
+    private long persistedVersion;
+
+    /**
+     * Закодированные записи журнала, еще не дописанные на диск,
+     * в порядке изменений. Пополняются под блокировкой записи,
+     * копируются под блокировкой чтения и persistLock и убираются
+     * только после успешной дозаписи: при сбое они уйдут на диск
+     * со следующим изменением, и журнал не получит пропуска.
+     */
+    private final List<byte[]> pendingLines = new ArrayList<>();
+
+    /**
+     * Первичный индекс пользователей по идентификатору.
+     * Сохраняет порядок вставки, поэтому getAll возвращает пользователей
+     * в том же порядке, в котором они лежат в хранилище.
+     */
+    private Map<UUID, User> users;
+
+    /** Вторичные индексы для фильтров getAll. */
+    private final UserFilterIndex filterIndex = new UserFilterIndex();
+
+    /** Индекс дружбы для каскадного удаления и запросов к графу. */
+    private final FriendIndex friendIndex = new FriendIndex();
+
+    /** Обратный индекс полнотекстового поиска. */
+    private final UserSearchIndex searchIndex = new UserSearchIndex();
+
+    /** Приемник измерений операций, блокировок и записи на диск. */
+    private final UserMetrics metrics;
+
+    /** Нужно ли засекать время: без приемника измерения пропускаются. */
+    private final boolean metered;
+
+    /**
+     * Число проверяемых пользователей, начиная с которого фильтры
+     * проверяются параллельно; Integer.MAX_VALUE — никогда.
+     */
+    private final int parallelScanThreshold;
 
     /**
      * Конструктор сервиса пользователей. Загружает данные из файла
@@ -39,19 +142,94 @@ public class UserService {
      * @param externalPath путь к файлу хранения users.json
      */
     public UserService(final String externalPath) {
+        this(externalPath, PersistenceMode.SNAPSHOT);
+    }
+
+    /**
+     * Конструктор сервиса пользователей с выбором режима сохранения.
+     * В режиме журнала поверх загруженного снимка проигрывается
+     * журнал изменений users.json.log.
+     *
+     * @param externalPath путь к файлу хранения users.json
+     * @param mode         режим сохранения изменений
+     */
+    public UserService(final String externalPath,
+                       final PersistenceMode mode) {
+        this(externalPath, mode, null);
+    }
+
+    /**
+     * Конструктор сервиса пользователей с групповым сохранением.
+     *
+     * @param externalPath путь к файлу хранения users.json
+     * @param mode         режим сохранения изменений
+     * @param commitPolicy параметры группового сохранения;
+     *                     null — сохранять каждое изменение синхронно
+     */
+    public UserService(final String externalPath,
+                       final PersistenceMode mode,
+                       final GroupCommitPolicy commitPolicy) {
+        this(externalPath, mode, commitPolicy, SnapshotFormat.JSON);
+    }
+
+    /**
+     * Конструктор сервиса пользователей с выбором формата снимка.
+     * Снимок в другом формате (например, users.json при двоичном
+     * формате) загружается и сразу переписывается в заданном формате.
+     *
+     * @param externalPath путь к файлу снимка
+     * @param mode         режим сохранения изменений
+     * @param commitPolicy параметры группового сохранения;
+     *                     null — сохранять каждое изменение синхронно
+     * @param format       формат записи снимка
+     */
+    public UserService(final String externalPath,
+                       final PersistenceMode mode,
+                       final GroupCommitPolicy commitPolicy,
+                       final SnapshotFormat format) {
+        this(externalPath, mode, commitPolicy, format, UserMetrics.NONE);
+    }
+
+    /**
+     * Конструктор сервиса пользователей с приемником измерений.
+     *
+     * @param externalPath путь к файлу снимка
+     * @param mode         режим сохранения изменений
+     * @param commitPolicy параметры группового сохранения;
+     *                     null — сохранять каждое изменение синхронно
+     * @param format       формат записи снимка
+     * @param metricsParam приемник измерений
+     */
+    public UserService(final String externalPath,
+                       final PersistenceMode mode,
+                       final GroupCommitPolicy commitPolicy,
+                       final SnapshotFormat format,
+                       final UserMetrics metricsParam) {
         this.storageFile = new File(externalPath);
         this.mapper = new ObjectMapper();
+        this.snapshotFormat = format;
+        this.metrics = metricsParam;
+        this.metered = metricsParam != UserMetrics.NONE;
+        int threshold = Integer.getInteger(PARALLEL_SCAN_PROPERTY,
+                DEFAULT_PARALLEL_SCAN_THRESHOLD);
+        this.parallelScanThreshold = threshold > 0
+                && ForkJoinPool.getCommonPoolParallelism() > 1
+                ? threshold : Integer.MAX_VALUE;
+        this.journal = mode == PersistenceMode.JOURNAL
+                ? new UserJournal(storageFile, mapper, snapshotFormat,
+                        UserJournal.DEFAULT_COMPACTION_THRESHOLD)
+                : null;
 
         if (!storageFile.exists()) {
             try {
                 try (InputStream is = getClass().getClassLoader()
                         .getResourceAsStream("users.json")) {
                     if (is == null) {
-                        storageFile.getParentFile().mkdirs();
-                        storageFile.createNewFile();
-                        mapper.writeValue(storageFile, new ArrayList<User>());
+                        storageFile.getAbsoluteFile().getParentFile().mkdirs();
+                        snapshotFormat.write(List.of(), storageFile.toPath(),
+                                mapper);
                     } else {
-                        storageFile.getParentFile().mkdirs();
+                        storageFile.getAbsoluteFile().getParentFile().mkdirs();
                         Files.copy(is, storageFile.toPath());
                     }
                 }
@@ -63,18 +241,70 @@ public class UserService {
         } else {
             loadUsers();
         }
+
+        if (journal != null) {
+            try {
+                journal.open(users);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to replay journal", e);
+            }
+        }
+        filterIndex.rebuild(users.values());
+        friendIndex.rebuild(users.values());
+        searchIndex.rebuild(users.values());
+        metrics.size(users.size());
+
+        if (commitPolicy == null) {
+            this.committer = null;
+        } else {
+            GroupCommitter.Sink sink = journal != null
+                    ? new JournalSink() : new SnapshotSink();
+            this.committer = new GroupCommitter(commitPolicy, sink,
+                    "user-group-commit");
+        }
     }
 
     /**
      * Получает список всех пользователей с применением фильтров.
+     * Кандидаты подбираются по вторичным индексам, полный проход
+     * выполняется только если ни один фильтр не покрывается индексом.
+     * Фильтры проверяются по столбцам индекса с полями в нижнем
+     * регистре, без приведения регистра и выделения памяти на каждого
+     * пользователя.
+     * Если кандидатов не меньше порога (свойство
+     * {@value #PARALLEL_SCAN_PROPERTY}), они делятся на части
+     * и проверяются в общем пуле fork-join, а результат собирается
+     * в исходном порядке. Части читаются
+     * под блокировкой чтения вызывающего потока: изменения ждут
+     * конца прохода, как и при последовательной проверке.
      *
      * @param filters карта фильтров: firstName, lastName, email, age
      * @return отфильтрованный список пользователей
      */
-    public synchronized List<User> getAll(final Map<String, String> filters) {
-        return users.stream()
-                .filter(applyFilters(filters))
-                .collect(Collectors.toList());
+    @Override
+    public List<User> getAll(final Map<String, String> filters) {
+        return timed("getAll", () -> {
+            long locked = lockRead();
+            try {
+                int[] candidates = filterIndex.candidateSlots(filters);
+                int scanned = candidates != null
+                        ? candidates.length : users.size();
+                IntStream slots = candidates != null
+                        ? Arrays.stream(candidates)
+                        : IntStream.range(0, filterIndex.slotCount());
+                if (scanned >= parallelScanThreshold) {
+                    slots = slots.parallel();
+                }
+                List<User> matched = slots
+                        .filter(filterIndex.matcher(filters))
+                        .mapToObj(filterIndex::userAt)
+                        .collect(Collectors.toList());
+                filtered("getAll", filters, scanned, matched.size());
+                return matched;
+            } finally {
+                unlockRead(locked);
+            }
+        });
     }
 
     /**
@@ -84,30 +314,522 @@ public class UserService {
      * @return пользователь
      * @throws NoSuchElementException если пользователь не найден
      */
-    public synchronized User getById(final String uid) {
-        return users.stream()
-                .filter(u -> Objects.equals(u.getId(), uid))
-                .findFirst()
-                .orElseThrow(() ->
-                        new NoSuchElementException("User not found: " + uid));
+    @Override
+    public User getById(final String uid) {
+        return timed("getById", () -> {
+            long locked = lockRead();
+            try {
+                return find(uid);
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Получает пользователей по списку идентификаторов
+     * за одну блокировку чтения.
+     *
+     * @param uids идентификаторы пользователей
+     * @return найденные пользователи в порядке запроса;
+     * неизвестные идентификаторы пропускаются
+     */
+    @Override
+    public List<User> getByIds(final List<String> uids) {
+        return timed("getByIds", () -> {
+            List<User> found = new ArrayList<>(uids.size());
+            long locked = lockRead();
+            try {
+                for (String uid : uids) {
+                    UUID id = User.parseUuid(uid);
+                    User user = id == null ? null : users.get(id);
+                    if (user != null) {
+                        found.add(user);
+                    }
+                }
+            } finally {
+                unlockRead(locked);
+            }
+            return found;
+        });
     }
 
     /**
      * Получает список друзей пользователя с возможностью фильтрации.
+     * Друзья находятся прямыми обращениями к первичному индексу
+     * и возвращаются в порядке вставки пользователей.
      *
      * @param uid     идентификатор пользователя
      * @param filters карта фильтров
      * @return список друзей
      */
-    public synchronized List<User> getFriends(
+    @Override
+    public List<User> getFriends(
             final String uid,
             final Map<String, String> filters
     ) {
-        User user = getById(uid);
-        return users.stream()
-                .filter(u -> user.getFriends().contains(u.getId()))
-                .filter(applyFilters(filters))
+        return timed("getFriends", () -> {
+            long locked = lockRead();
+            try {
+                return friendsOf(uid, filters, "getFriends");
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Получает общих друзей двух пользователей пересечением
+     * отсортированных списков индекса дружбы, без обращения
+     * к спискам друзей в объектах пользователей.
+     *
+     * @param uid      идентификатор первого пользователя
+     * @param otherUid идентификатор второго пользователя
+     * @return общие друзья в порядке вставки пользователей
+     */
+    @Override
+    public List<User> getMutualFriends(final String uid,
+                                       final String otherUid) {
+        return timed("getMutualFriends", () -> {
+            long locked = lockRead();
+            try {
+                User user = find(uid);
+                User other = find(otherUid);
+                List<User> mutual = new ArrayList<>();
+                for (UUID id : friendIndex.mutual(user.uuid(), other.uuid())) {
+                    User friend = users.get(id);
+                    if (friend != null) {
+                        mutual.add(friend);
+                    }
+                }
+                mutual.sort(Comparator.comparingInt(filterIndex::slotOf));
+                return mutual;
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Предлагает друзей друзей по индексу дружбы. Просматривается
+     * не больше {@value #SUGGESTION_BUDGET} связей второго уровня,
+     * начиная с друзей с наименьшим числом друзей, поэтому время
+     * ответа ограничено и у пользователей с тысячами друзей.
+     *
+     * @param uid   идентификатор пользователя
+     * @param limit наибольшее число кандидатов
+     * @return кандидаты по убыванию числа общих друзей
+     */
+    @Override
+    public List<FriendSuggestion> suggestFriends(final String uid,
+                                                 final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        return timed("suggestFriends", () -> {
+            long locked = lockRead();
+            try {
+                User user = find(uid);
+                List<FriendSuggestion> suggestions = new ArrayList<>();
+                for (FriendIndex.Candidate candidate : friendIndex.suggest(
+                        user.uuid(), limit, SUGGESTION_BUDGET)) {
+                    suggestions.add(new FriendSuggestion(
+                            users.get(candidate.uid()), candidate.mutual()));
+                }
+                return suggestions;
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Распределение по числу друзей из счетчиков индекса дружбы,
+     * которые обновляются при каждом изменении.
+     *
+     * @return распределение
+     */
+    @Override
+    public DegreeStats getDegreeStats() {
+        return timed("getDegreeStats", () -> {
+            long locked = lockRead();
+            try {
+                return DegreeStats.of(friendIndex.degrees());
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Ищет пользователей по обратному индексу имени, фамилии, email
+     * и описания. Индекс обновляется при каждом изменении,
+     * поэтому запрос не проходит по всем пользователям.
+     *
+     * @param query строка запроса; слово со * на конце — префикс
+     * @param limit наибольшее число результатов
+     * @return найденные пользователи по убыванию релевантности
+     */
+    @Override
+    public List<SearchHit> search(final String query, final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        return timed("search", () -> {
+            long locked = lockRead();
+            try {
+                List<SearchHit> hits = new ArrayList<>();
+                for (UserSearchIndex.Hit hit
+                        : searchIndex.search(query, limit)) {
+                    hits.add(new SearchHit(users.get(hit.uid()),
+                            hit.score()));
+                }
+                return hits;
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Получает страницу пользователей с применением фильтров.
+     * Страница начинается строго после курсора, поэтому добавление
+     * и удаление пользователей между запросами не приводит к пропускам
+     * и повторам уже выданных записей.
+     *
+     * @param filters карта фильтров: firstName, lastName, email, age
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница пользователей
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    @Override
+    public UserPage getPage(final Map<String, String> filters,
+                            final PageQuery query) {
+        return timed("getPage", () -> {
+            PageCursor after = PageCursor.decode(query.getAfter(),
+                    query.getSort());
+            long locked = lockRead();
+            try {
+                List<User> candidates = filterIndex.select(filters);
+                long[] scanned = new long[1];
+                Stream<User> source;
+                if (candidates == null) {
+                    source = filterIndex.ordered(query.getSort(), after)
+                            .peek(u -> scanned[0]++)
+                            .filter(UserFilters.matching(filters));
+                } else {
+                    List<User> matched = candidates.stream()
+                            .filter(u -> filterIndex.isAfter(after, u))
+                            .peek(u -> scanned[0]++)
+                            .filter(UserFilters.matching(filters))
+                            .collect(Collectors.toList());
+                    source = filterIndex.firstInOrder(matched,
+                            query.getSort(), query.getLimit() + 1).stream();
+                }
+                UserPage page = toPage(source, query);
+                filtered("getPage", filters, scanned[0],
+                        page.getItems().size()
+                                + (page.getNextCursor() == null ? 0 : 1));
+                return page;
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Получает страницу друзей пользователя с возможностью фильтрации.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница друзей
+     * @throws NoSuchElementException если пользователь не найден
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    @Override
+    public UserPage getFriendsPage(final String uid,
+                                   final Map<String, String> filters,
+                                   final PageQuery query) {
+        return timed("getFriendsPage", () -> {
+            PageCursor after = PageCursor.decode(query.getAfter(),
+                    query.getSort());
+            long locked = lockRead();
+            try {
+                List<User> friends = friendsOf(uid, filters,
+                        "getFriendsPage");
+                return toPage(firstAfter(friends, after, query), query);
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Находит пользователя в первичном индексе.
+     * Вызывается под блокировкой состояния.
+     *
+     * @param uid идентификатор пользователя
+     * @return пользователь
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private User find(final String uid) {
+        UUID id = User.parseUuid(uid);
+        User user = id == null ? null : users.get(id);
+        if (user == null) {
+            throw new NoSuchElementException("User not found: " + uid);
+        }
+        return user;
+    }
+
+    /**
+     * Друзья пользователя, прошедшие фильтры, в порядке вставки.
+     * Вызывается под блокировкой чтения.
+     *
+     * @param uid       идентификатор пользователя
+     * @param filters   карта фильтров
+     * @param operation имя операции для измерения селективности
+     * @return список друзей
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private List<User> friendsOf(final String uid,
+                                 final Map<String, String> filters,
+                                 final String operation) {
+        User user = find(uid);
+        return inOrder(user.friendCount(), user::friendAt, filters,
+                operation);
+    }
+
+    /**
+     * Пользователи из набора UID, прошедшие фильтры, в порядке вставки;
+     * UID, которых нет в сервисе, пропускаются. Вызывается
+     * под блокировкой чтения.
+     *
+     * @param count     число UID
+     * @param idAt      UID по порядковому номеру
+     * @param filters   карта фильтров
+     * @param operation имя операции для измерения селективности
+     * @return найденные пользователи
+     */
+    private List<User> inOrder(final int count, final IntFunction<UUID> idAt,
+                               final Map<String, String> filters,
+                               final String operation) {
+        int[] slots = new int[count];
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            User friend = users.get(idAt.apply(i));
+            if (friend != null) {
+                slots[found++] = filterIndex.slotOf(friend);
+            }
+        }
+        Arrays.sort(slots, 0, found);
+        List<User> matched = Arrays.stream(slots, 0, found)
+                .filter(filterIndex.matcher(filters))
+                .mapToObj(filterIndex::userAt)
+                .collect(Collectors.toList());
+        filtered(operation, filters, found, matched.size());
+        return matched;
+    }
+
+    /**
+     * Получает пользователей из списка UID, прошедших фильтры,
+     * в порядке вставки. Нужно {@link ShardedUserRepository}:
+     * друзья пользователя лежат в разных шардах.
+     *
+     * @param ids     UID пользователей
+     * @param filters карта фильтров
+     * @return найденные пользователи; отсутствующие UID пропускаются
+     */
+    List<User> getAllOf(final List<UUID> ids,
+                        final Map<String, String> filters) {
+        return timed("getFriends", () -> {
+            long locked = lockRead();
+            try {
+                return inOrder(ids.size(), ids::get, filters, "getFriends");
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Получает страницу пользователей из списка UID так же,
+     * как {@link #getFriendsPage}.
+     *
+     * @param ids     UID пользователей
+     * @param filters карта фильтров
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница пользователей
+     * @throws IllegalArgumentException если курсор поврежден
+     */
+    UserPage getPageOf(final List<UUID> ids,
+                       final Map<String, String> filters,
+                       final PageQuery query) {
+        return timed("getFriendsPage", () -> {
+            PageCursor after = PageCursor.decode(query.getAfter(),
+                    query.getSort());
+            long locked = lockRead();
+            try {
+                List<User> found = inOrder(ids.size(), ids::get, filters,
+                        "getFriendsPage");
+                return toPage(firstAfter(found, after, query), query);
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Первые пользователи страницы после курсора из списка в порядке
+     * вставки. Вызывается под блокировкой чтения.
+     *
+     * @param inserted пользователи в порядке вставки; список меняется
+     * @param after    курсор или null
+     * @param query    параметры страницы
+     * @return пользователи в порядке выдачи, на одного больше страницы
+     */
+    private Stream<User> firstAfter(final List<User> inserted,
+                                    final PageCursor after,
+                                    final PageQuery query) {
+        inserted.removeIf(u -> !filterIndex.isAfter(after, u));
+        return filterIndex.firstInOrder(inserted, query.getSort(),
+                query.getLimit() + 1).stream();
+    }
+
+    /**
+     * Обходит пользователей, прошедших фильтры, в заданном порядке.
+     * Под одной блокировкой чтения собирается упорядоченный снимок
+     * ссылок на пользователей: поток любой длины стоит одной выборки
+     * и одной сортировки, а обход не блокирует изменения.
+     *
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return итератор пользователей
+     */
+    @Override
+    public Iterator<User> scan(final Map<String, String> filters,
+                               final UserSort sort) {
+        return timed("scan", () -> {
+            long locked = lockRead();
+            try {
+                List<User> candidates = filterIndex.select(filters);
+                long[] scanned = new long[1];
+                List<User> matched;
+                if (candidates == null) {
+                    matched = filterIndex.ordered(sort, null)
+                            .peek(u -> scanned[0]++)
+                            .filter(UserFilters.matching(filters))
+                            .collect(Collectors.toList());
+                } else {
+                    scanned[0] = candidates.size();
+                    matched = candidates.stream()
+                            .filter(UserFilters.matching(filters))
+                            .collect(Collectors.toList());
+                    UserFilterIndex.sortInsertionOrdered(matched, sort);
+                }
+                filtered("scan", filters, scanned[0], matched.size());
+                return matched.iterator();
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Обходит друзей пользователя, прошедших фильтры, в заданном
+     * порядке по снимку, собранному под одной блокировкой чтения.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return итератор друзей
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    @Override
+    public Iterator<User> scanFriends(final String uid,
+                                      final Map<String, String> filters,
+                                      final UserSort sort) {
+        return timed("scanFriends", () -> {
+            long locked = lockRead();
+            try {
+                List<User> friends = friendsOf(uid, filters, "scanFriends");
+                UserFilterIndex.sortInsertionOrdered(friends, sort);
+                return friends.iterator();
+            } finally {
+                unlockRead(locked);
+            }
+        });
+    }
+
+    /**
+     * Позиция пользователя в порядке выдачи страниц.
+     *
+     * @param user пользователь
+     * @param sort порядок выдачи
+     * @return позиция или null, если пользователь уже удален
+     */
+    PageCursor cursorOf(final User user, final UserSort sort) {
+        long locked = lockRead();
+        try {
+            return users.containsKey(user.uuid())
+                    ? filterIndex.cursorOf(sort, user) : null;
+        } finally {
+            unlockRead(locked);
+        }
+    }
+
+    /**
+     * Счетчики «число друзей → число пользователей» индекса дружбы.
+     *
+     * @return копия счетчиков
+     */
+    NavigableMap<Integer, Integer> degreeCounts() {
+        long locked = lockRead();
+        try {
+            return friendIndex.degrees();
+        } finally {
+            unlockRead(locked);
+        }
+    }
+
+    /**
+     * Журнал изменений; нужен тестам, чтобы имитировать сбой записи.
+     *
+     * @return журнал или null вне режима журнала
+     */
+    UserJournal journal() {
+        return journal;
+    }
+
+    /**
+     * Индекс дружбы; нужен тестам, чтобы проверить освобождение
+     * номеров вершин.
+     *
+     * @return индекс дружбы
+     */
+    FriendIndex friendIndex() {
+        return friendIndex;
+    }
+
+    /**
+     * Собирает страницу из упорядоченного потока. Берется на одного
+     * пользователя больше размера страницы, чтобы узнать, есть ли
+     * следующая страница. Вызывается под блокировкой чтения.
+     *
+     * @param source пользователи в порядке выдачи после курсора
+     * @param query  параметры страницы
+     * @return страница пользователей
+     */
+    private UserPage toPage(final Stream<User> source, final PageQuery query) {
+        List<User> items = source.limit(query.getLimit() + 1L)
                 .collect(Collectors.toList());
+        if (items.size() <= query.getLimit()) {
+            return new UserPage(items, null);
+        }
+        items.remove(items.size() - 1);
+        User last = items.get(items.size() - 1);
+        return new UserPage(items,
+                filterIndex.cursorOf(query.getSort(), last).encode());
     }
 
     /**
@@ -116,13 +838,25 @@ public class UserService {
      * @param user объект пользователя
      * @return созданный пользователь
      * @throws IllegalArgumentException если данные некорректны
+     * или пользователь с таким ID уже существует
      */
-    public synchronized User create(final User user)
-            throws IllegalArgumentException {
-        validateUser(user);
-        users.add(user);
-        saveUsers();
-        return user;
+    @Override
+    public User create(final User user) throws IllegalArgumentException {
+        return timed("create",
+                () -> mutate(() -> new Change<>(user, applyCreate(user))));
+    }
+
+    /**
+     * Создает пакет пользователей за одну блокировку записи
+     * и одно сохранение на диск.
+     *
+     * @param batch пользователи для создания
+     * @return результаты элементов в порядке пакета
+     */
+    @Override
+    public List<BatchResult> createAll(final List<User> batch) {
+        return timed("createAll",
+                () -> mutateAll(batch, User::getId, this::applyCreate));
     }
 
     /**
@@ -133,39 +867,84 @@ public class UserService {
      * @return обновленный пользователь
      * @throws IllegalArgumentException если данные некорректны
      */
-    public synchronized User update(final String uid, final User patch)
+    @Override
+    public User update(final String uid, final User patch)
             throws IllegalArgumentException {
-        User existingUser = getById(uid);
+        return timed("update",
+                () -> mutate(() -> applyUpdate(uid, patch, null)));
+    }
 
-        if (patch.getFirstName() != null) {
-            existingUser.setFirstName(patch.getFirstName());
-        }
-        if (patch.getLastName() != null) {
-            existingUser.setLastName(patch.getLastName());
-        }
-        if (patch.getAge() != 0) {
-            existingUser.setAge(patch.getAge());
-        }
-        if (patch.getDescription() != null) {
-            existingUser.setDescription(patch.getDescription());
-        }
-        if (patch.getFriends() != null) {
-            existingUser.setFriends(patch.getFriends());
-        }
+    /**
+     * Обновляет пользователя, если его версия не изменилась.
+     * Версия сверяется под той же блокировкой записи, под которой
+     * применяется изменение, поэтому клиент может читать и готовить
+     * изменение без блокировок.
+     *
+     * @param uid             идентификатор пользователя
+     * @param patch           объект с обновленными полями
+     * @param expectedVersion версия, от которой клиент строил изменение
+     * @return обновленный пользователь
+     * @throws ConcurrentModificationException если версия изменилась
+     * @throws IllegalArgumentException если данные некорректны
+     */
+    @Override
+    public User update(final String uid, final User patch,
+                       final long expectedVersion) {
+        return timed("update", () -> mutate(
+                () -> applyUpdate(uid, patch, expectedVersion)));
+    }
 
-        saveUsers();
-        return existingUser;
+    /**
+     * Номер последнего изменения в памяти.
+     *
+     * @return версия набора
+     */
+    @Override
+    public long version() {
+        long locked = lockRead();
+        try {
+            return appliedVersion;
+        } finally {
+            unlockRead(locked);
+        }
     }
 
     /**
      * Удаляет пользователя по идентификатору и удаляет его из списков друзей.
+     * Затрагиваются только пользователи с входящей связью на удаляемого.
+     * Если нет ни пользователя, ни входящих связей, ничего не сохраняется.
      *
      * @param uid идентификатор пользователя
      */
-    public synchronized void delete(final String uid) {
-        users.removeIf(u -> Objects.equals(u.getId(), uid));
-        users.forEach(u -> u.getFriends().remove(uid));
-        saveUsers();
+    @Override
+    public void delete(final String uid) {
+        UUID id = User.parseUuid(uid);
+        if (id == null) {
+            return;
+        }
+        timed("delete", () -> mutate(() -> {
+            User removed = users.remove(id);
+            if (removed != null) {
+                filterIndex.remove(id);
+                friendIndex.unlink(removed);
+                friendIndex.remove(id);
+                searchIndex.remove(id);
+            }
+            Set<UUID> followers = friendIndex.followersOf(id);
+            for (UUID followerUid : followers) {
+                User follower = users.get(followerUid).copy();
+                follower.removeFriend(id);
+                follower.version(nextVersion());
+                users.put(followerUid, follower);
+                filterIndex.replace(follower);
+                friendIndex.unlink(followerUid, id);
+            }
+            if (removed == null && followers.isEmpty()) {
+                return new Change<Void>(null, List.of());
+            }
+            return new Change<Void>(null,
+                    JournalRecord.delete(id, followers));
+        }));
     }
 
     /**
@@ -175,12 +954,38 @@ public class UserService {
      * @param friendUid идентификатор друга
      * @throws IllegalArgumentException если пользователь или друг не найдены
      */
-    public synchronized void addFriend(final String uid, final String friendUid)
+    @Override
+    public void addFriend(final String uid, final String friendUid)
             throws IllegalArgumentException {
-        User user = getById(uid);
-        getById(friendUid); // проверка существования
-        user.addFriend(friendUid);
-        saveUsers();
+        timed("addFriend", () -> mutate(() -> new Change<Void>(null,
+                applyAddFriend(uid, find(friendUid).uuid()))));
+    }
+
+    /**
+     * Добавляет пользователю друга из другого шарда, не проверяя,
+     * что друг есть в этом сервисе: его существование проверяет
+     * и удерживает вызывающий ({@link ShardedUserRepository}).
+     *
+     * @param uid    идентификатор пользователя
+     * @param friend UID друга
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    void addForeignFriend(final String uid, final UUID friend) {
+        timed("addFriend", () -> mutate(
+                () -> new Change<Void>(null, applyAddFriend(uid, friend))));
+    }
+
+    /**
+     * Добавляет пакет связей дружбы за одну блокировку записи
+     * и одно сохранение на диск.
+     *
+     * @param edges связи для добавления
+     * @return результаты элементов в порядке пакета
+     */
+    @Override
+    public List<BatchResult> addFriends(final List<FriendEdge> edges) {
+        return timed("addFriends", () -> mutateAll(edges, FriendEdge::uid,
+                e -> applyAddFriend(e.uid(), find(e.friendUid()).uuid())));
     }
 
     /**
@@ -190,24 +995,259 @@ public class UserService {
      * @param friendUid идентификатор друга
      * @throws IllegalArgumentException если пользователь не найден
      */
-    public synchronized void removeFriend(final String uid,
-                                          final String friendUid)
+    @Override
+    public void removeFriend(final String uid, final String friendUid)
             throws IllegalArgumentException {
-        User user = getById(uid);
-        user.removeFriend(friendUid);
-        saveUsers();
+        timed("removeFriend", () -> mutate(() -> new Change<Void>(null,
+                applyRemoveFriend(uid, friendUid))));
+    }
+
+    /**
+     * Удаляет пакет связей дружбы за одну блокировку записи
+     * и одно сохранение на диск.
+     *
+     * @param edges связи для удаления
+     * @return результаты элементов в порядке пакета
+     */
+    @Override
+    public List<BatchResult> removeFriends(final List<FriendEdge> edges) {
+        return timed("removeFriends", () -> mutateAll(edges, FriendEdge::uid,
+                e -> applyRemoveFriend(e.uid(), e.friendUid())));
     }
 
     /**
-     * Загружает пользователей из JSON-файла.
+     * Сворачивает журнал изменений в новый снимок users.json.
+     * В режиме полной перезаписи файла ничего не делает.
+     */
+    @Override
+    public void compact() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.compact();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compact journal", e);
+        }
+    }
+
+    /**
+     * Освобождает файловые ресурсы сервиса.
+     */
+    @Override
+    public void close() {
+        if (committer != null) {
+            committer.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Обходит снимок пользователей на момент вызова. Под блокировкой
+     * чтения копируется только список ссылок: объекты пользователей
+     * не меняются после публикации, поэтому обход не блокирует
+     * изменения и не видит их.
+     *
+     * @return итератор пользователей в порядке вставки
+     */
+    @Override
+    public Iterator<User> scanAll() {
+        long locked = lockRead();
+        try {
+            return new ArrayList<>(users.values()).iterator();
+        } finally {
+            unlockRead(locked);
+        }
+    }
+
+    /**
+     * Выгружает всех пользователей в JSON-файл с отступами,
+     * в том же виде, что и users.json. Файловый ввод-вывод идет
+     * без удержания блокировки состояния.
+     *
+     * @param target файл для выгрузки
+     */
+    public void exportJson(final File target) {
+        List<User> snapshot;
+        long locked = lockRead();
+        try {
+            snapshot = new ArrayList<>(users.values());
+        } finally {
+            unlockRead(locked);
+        }
+        try {
+            SnapshotFormat.JSON.write(snapshot, target.toPath(), mapper);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to export users", e);
+        }
+    }
+
+    /**
+     * Добавляет пользователя в память и индексы.
+     * Вызывается под блокировкой записи.
+     *
+     * @param user объект пользователя
+     * @return запись журнала
+     * @throws IllegalArgumentException если данные некорректны
+     * или пользователь с таким ID уже существует
+     */
+    private JournalRecord applyCreate(final User user) {
+        user.validate();
+        if (users.containsKey(user.uuid())) {
+            throw new IllegalArgumentException(
+                    "User already exists: " + user.getId());
+        }
+        user.version(nextVersion());
+        users.put(user.uuid(), user);
+        filterIndex.add(user);
+        friendIndex.link(user);
+        searchIndex.add(user);
+        return JournalRecord.create(user);
+    }
+
+    /**
+     * Применяет изменение полей к копии пользователя и публикует ее.
+     * Вызывается под блокировкой записи.
+     *
+     * @param uid             идентификатор пользователя
+     * @param patch           объект с обновленными полями
+     * @param expectedVersion ожидаемая версия; null — без проверки
+     * @return изменение
+     * @throws ConcurrentModificationException если версия изменилась
+     * @throws IllegalArgumentException если данные некорректны
+     */
+    private Change<User> applyUpdate(final String uid, final User patch,
+                                     final Long expectedVersion) {
+        User existing = find(uid);
+        if (expectedVersion != null
+                && existing.version() != expectedVersion) {
+            throw new ConcurrentModificationException("User " + uid
+                    + " has version " + existing.version()
+                    + ", expected " + expectedVersion);
+        }
+        User updated = existing.copy();
+
+        if (patch.getFirstName() != null) {
+            updated.setFirstName(patch.getFirstName());
+        }
+        if (patch.getLastName() != null) {
+            updated.setLastName(patch.getLastName());
+        }
+        if (patch.getAge() != 0) {
+            updated.setAge(patch.getAge());
+        }
+        if (patch.getDescription() != null) {
+            updated.setDescription(patch.getDescription());
+        }
+        if (patch.getFriends() != null) {
+            updated.setFriends(patch.getFriends());
+        }
+        updated.validate();
+        updated.version(nextVersion());
+
+        users.put(updated.uuid(), updated);
+        filterIndex.replace(updated);
+        friendIndex.relink(existing, updated);
+        searchIndex.replace(existing, updated);
+        return new Change<>(updated, JournalRecord.update(updated));
+    }
+
+    /**
+     * Добавляет друга в копию пользователя и публикует ее.
+     * Вызывается под блокировкой записи.
+     *
+     * @param uid    идентификатор пользователя
+     * @param friend UID друга
+     * @return запись журнала
+     * @throws NoSuchElementException если пользователь не найден
+     */
+    private JournalRecord applyAddFriend(final String uid,
+                                         final UUID friend) {
+        User user = find(uid).copy();
+        user.addFriend(friend);
+        user.version(nextVersion());
+        users.put(user.uuid(), user);
+        filterIndex.replace(user);
+        friendIndex.link(user.uuid(), friend);
+        return JournalRecord.addFriend(user.uuid(), friend);
+    }
+
+    /**
+     * Удаляет друга из копии пользователя и публикует ее.
+     * Вызывается под блокировкой записи.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @return запись журнала
+     * @throws NoSuchElementException если пользователь не найден
+     * @throws IllegalArgumentException если ID друга некорректен
+     */
+    private JournalRecord applyRemoveFriend(final String uid,
+                                            final String friendUid) {
+        User user = find(uid).copy();
+        UUID friend = User.requireUuid(friendUid);
+        user.removeFriend(friend);
+        user.version(nextVersion());
+        users.put(user.uuid(), user);
+        filterIndex.replace(user);
+        friendIndex.unlink(user.uuid(), friend);
+        return JournalRecord.removeFriend(user.uuid(), friend);
+    }
+
+    /**
+     * Номер изменения, которое сейчас применяется: им помечаются
+     * публикуемые копии пользователей. Вызывается под блокировкой записи.
+     *
+     * @return номер текущего изменения
+     */
+    private long nextVersion() {
+        return appliedVersion + 1;
+    }
+
+    /**
+     * Применяет пакет изменений под одной блокировкой записи
+     * и сохраняет все примененные элементы одной записью на диск.
+     * Элемент с ошибкой пропускается, не затрагивая остальные.
+     *
+     * @param batch  элементы пакета
+     * @param id     извлечение идентификатора пользователя из элемента
+     * @param action изменение по элементу, возвращающее запись журнала
+     * @param <T>    тип элемента
+     * @return результаты элементов в порядке пакета
+     */
+    private <T> List<BatchResult> mutateAll(
+            final List<T> batch, final Function<T, String> id,
+            final Function<T, JournalRecord> action) {
+        return mutate(() -> {
+            List<BatchResult> results = new ArrayList<>(batch.size());
+            List<JournalRecord> records = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                results.add(BatchResult.attempt(i, batch.get(i), id,
+                        item -> records.add(action.apply(item))));
+            }
+            return new Change<>(results, records);
+        });
+    }
+
+    /**
+     * Загружает пользователей из файла снимка. Если снимок записан
+     * в другом формате, он переписывается в заданном.
      */
     private void loadUsers() {
         try {
+            users = new LinkedHashMap<>();
             if (storageFile.exists()) {
-                users = mapper.readValue(storageFile,
-                        new TypeReference<List<User>>() { });
-            } else {
-                users = new ArrayList<>();
+                Path path = storageFile.toPath();
+                List<User> loaded = SnapshotFormat.read(path, mapper);
+                for (User user : loaded) {
+                    users.put(user.uuid(), user);
+                }
+                if (Files.size(path) > 0
+                        && SnapshotFormat.detect(path) != snapshotFormat) {
+                    snapshotFormat.write(loaded, path, mapper);
+                }
             }
         } catch (IOException e) {
             throw new RuntimeException("Failed to load users from file", e);
@@ -215,52 +1255,293 @@ public class UserService {
     }
 
     /**
-     * Сохраняет текущий список пользователей в файл.
+     * Применяет изменение в памяти под блокировкой записи и сохраняет его.
+     * Блокировка записи удерживается только на время изменения в памяти,
+     * файловый ввод-вывод идет после ее снятия, поэтому читатели
+     * и следующие изменения его не ждут. Изменение без записей журнала
+     * (пакет, в котором не применен ни один элемент) не сохраняется.
+     *
+     * @param mutation изменение состояния
+     * @param <T>      тип результата
+     * @return результат изменения
+     */
+    private <T> T mutate(final Supplier<Change<T>> mutation) {
+        Change<T> change;
+        CompletableFuture<Void> saved = null;
+        long version;
+        long start = System.nanoTime();
+        stateLock.writeLock().lock();
+        long locked = System.nanoTime();
+        metrics.lockWait("write", locked - start);
+        try {
+            change = mutation.get();
+            if (change.records().isEmpty()) {
+                return change.result();
+            }
+            version = ++appliedVersion;
+            if (committer != null) {
+                saved = committer.submit(journal != null
+                        ? journal.encode(change.records()) : NO_PAYLOAD);
+            } else if (journal != null) {
+                pendingLines.add(journal.encode(change.records()));
+            }
+            metrics.size(users.size());
+        } finally {
+            stateLock.writeLock().unlock();
+            metrics.lockHold("write", System.nanoTime() - locked);
+        }
+
+        if (saved != null) {
+            awaitSaved(saved);
+        } else {
+            persist(version);
+        }
+        return change.result();
+    }
+
+    /**
+     * Синхронно сохраняет состояние не старее заданного изменения.
+     * Записи идут на диск по одной под persistLock в порядке изменений:
+     * каждая забирает все накопленные строки журнала или текущий
+     * снимок, поэтому изменение, уже покрытое записью другого потока,
+     * возвращается без ввода-вывода.
+     *
+     * @param version номер изменения, которое должно попасть на диск
+     */
+    private void persist(final long version) {
+        long start = System.nanoTime();
+        persistLock.lock();
+        long locked = System.nanoTime();
+        metrics.lockWait("persist", locked - start);
+        try {
+            if (persistedVersion >= version) {
+                return;
+            }
+            long upTo;
+            List<byte[]> lines = null;
+            List<User> snapshot = null;
+            long readLocked = lockRead();
+            try {
+                upTo = appliedVersion;
+                if (journal != null) {
+                    lines = new ArrayList<>(pendingLines);
+                } else {
+                    snapshot = new ArrayList<>(users.values());
+                }
+            } finally {
+                unlockRead(readLocked);
+            }
+            if (journal != null) {
+                try {
+                    appendJournal(lines);
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Failed to append to journal", e);
+                }
+                long relocked = lockRead();
+                try {
+                    pendingLines.subList(0, lines.size()).clear();
+                } finally {
+                    unlockRead(relocked);
+                }
+            } else {
+                saveUsers(snapshot);
+            }
+            persistedVersion = upTo;
+        } finally {
+            persistLock.unlock();
+            metrics.lockHold("persist", System.nanoTime() - locked);
+        }
+    }
+
+    /**
+     * Дожидается группового сохранения изменения.
+     *
+     * @param saved подтверждение сохранения
+     */
+    private static void awaitSaved(final CompletableFuture<Void> saved) {
+        try {
+            saved.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Failed to save users to file",
+                    e.getCause());
+        }
+    }
+
+    /**
+     * Сохраняет список пользователей в файл.
+     *
+     * @param snapshot пользователи для сохранения
      */
-    private void saveUsers() {
+    private void saveUsers(final List<User> snapshot) {
         try {
-            mapper.writerWithDefaultPrettyPrinter()
-                    .writeValue(storageFile, users);
+            writeSnapshot(snapshot);
         } catch (IOException e) {
             throw new RuntimeException("Failed to save users to file", e);
         }
     }
 
     /**
-     * Возвращает предикат фильтрации пользователей
-     * на основе переданных параметров.
+     * Перезаписывает файл снимка и сообщает длительность и размер записи.
      *
-     * @param filters фильтры для firstName, lastName, email, age
-     * @return предикат фильтрации
+     * @param snapshot пользователи для сохранения
+     * @throws IOException если запись не удалась
      */
-    private Predicate<User> applyFilters(final Map<String, String> filters) {
-        return u -> filters.entrySet().stream().allMatch(entry -> {
-            String key = entry.getKey();
-            String value = entry.getValue().toLowerCase();
-            return switch (key) {
-                case "firstName" ->
-                        u.getFirstName().toLowerCase().contains(value);
-                case "lastName" ->
-                        u.getLastName().toLowerCase().contains(value);
-                case "email" -> u.getEmail().toLowerCase().contains(value);
-                case "age" -> Integer.toString(u.getAge()).equals(value);
-                default -> true;
-            };
-        });
+    private void writeSnapshot(final List<User> snapshot) throws IOException {
+        long start = System.nanoTime();
+        snapshotFormat.write(snapshot, storageFile.toPath(), mapper);
+        metrics.saved("snapshot", System.nanoTime() - start,
+                Files.size(storageFile.toPath()));
     }
 
     /**
-     * Валидирует и нормализует данные пользователя.
+     * Дописывает строки в журнал и сообщает длительность и размер записи.
      *
-     * @param user объект пользователя
-     * @throws IllegalArgumentException если данные некорректны
+     * @param lines закодированные записи журнала
+     * @throws IOException если запись не удалась
+     */
+    private void appendJournal(final List<byte[]> lines) throws IOException {
+        long start = System.nanoTime();
+        journal.write(lines);
+        long bytes = 0;
+        for (byte[] line : lines) {
+            bytes += line.length + 1;
+        }
+        metrics.saved("journal", System.nanoTime() - start, bytes);
+    }
+
+    /**
+     * Выполняет операцию и сообщает ее длительность.
+     *
+     * @param operation имя операции
+     * @param call      операция
+     * @param <T>       тип результата
+     * @return результат операции
+     */
+    private <T> T timed(final String operation, final Supplier<T> call) {
+        if (!metered) {
+            return call.get();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            metrics.operation(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Берет блокировку чтения и сообщает время ожидания.
+     *
+     * @return момент получения блокировки по System.nanoTime
+     */
+    private long lockRead() {
+        if (!metered) {
+            stateLock.readLock().lock();
+            return 0;
+        }
+        long start = System.nanoTime();
+        stateLock.readLock().lock();
+        long locked = System.nanoTime();
+        metrics.lockWait("read", locked - start);
+        return locked;
+    }
+
+    /**
+     * Снимает блокировку чтения и сообщает время удержания.
+     *
+     * @param locked момент получения блокировки
+     */
+    private void unlockRead(final long locked) {
+        stateLock.readLock().unlock();
+        if (metered) {
+            metrics.lockHold("read", System.nanoTime() - locked);
+        }
+    }
+
+    /**
+     * Сообщает селективность фильтров; без фильтров не сообщается.
+     *
+     * @param operation имя операции
+     * @param filters   карта фильтров
+     * @param scanned   проверено пользователей
+     * @param matched   из них подошло
+     */
+    private void filtered(final String operation,
+                          final Map<String, String> filters,
+                          final long scanned, final long matched) {
+        if (!filters.isEmpty()) {
+            metrics.filtered(operation, scanned, matched);
+        }
+    }
+
+    /**
+     * Изменение состояния: результат для вызывающего
+     * и записи для сохранения.
+     *
+     * @param result  результат изменения
+     * @param records записи журнала
+     * @param <T>     тип результата
      */
-    private void validateUser(final User user) throws IllegalArgumentException {
-        user.setFirstName(user.getFirstName());
-        user.setLastName(user.getLastName());
-        user.setAge(user.getAge());
-        user.setEmail(user.getEmail());
-        user.setDescription(user.getDescription());
-        user.setFriends(user.getFriends());
+    private record Change<T>(T result, List<JournalRecord> records) {
+
+        /**
+         * Изменение с одной записью журнала.
+         *
+         * @param resultParam результат изменения
+         * @param record      запись журнала
+         */
+        Change(final T resultParam, final JournalRecord record) {
+            this(resultParam, List.of(record));
+        }
+    }
+
+    /**
+     * Приемник групповых изменений в режиме полной перезаписи:
+     * одна перезапись файла на всю пачку. Под блокировкой чтения
+     * копируется только список ссылок, сериализация и запись
+     * на диск идут уже без блокировок.
+     */
+    private final class SnapshotSink implements GroupCommitter.Sink {
+
+        @Override
+        public void write(final List<byte[]> batch) throws IOException {
+            List<User> snapshot;
+            long locked = lockRead();
+            try {
+                snapshot = new ArrayList<>(users.values());
+            } finally {
+                unlockRead(locked);
+            }
+            writeSnapshot(snapshot);
+        }
+
+        @Override
+        public void force() throws IOException {
+            try (FileChannel channel = FileChannel.open(
+                    storageFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Приемник групповых изменений в режиме журнала: пачка дописывается
+     * в журнал одной записью с измерением ее длительности и размера.
+     */
+    private final class JournalSink implements GroupCommitter.Sink {
+
+        @Override
+        public void write(final List<byte[]> batch) throws IOException {
+            appendJournal(batch);
+        }
+
+        @Override
+        public void force() throws IOException {
+            journal.force();
+        }
     }
 }
@@ -0,0 +1,36 @@
+package ru.vsu.practice.demo;
+
+/**
+ * Порядок выдачи пользователей при постраничном чтении.
+ * Поддерживаются только поля, по которым есть упорядоченный индекс.
+ */
+public enum UserSort {
+
+    /** Порядок добавления пользователей (как в getAll). */
+    INSERTION,
+
+    /** По возрастанию возраста, при равенстве — порядок добавления. */
+    AGE,
+
+    /** По убыванию возраста, при равенстве — порядок добавления. */
+    AGE_DESC;
+
+    /**
+     * Разбирает параметр sort запроса: пусто, "age" или "-age".
+     *
+     * @param value значение параметра
+     * @return порядок выдачи
+     * @throws IllegalArgumentException если поле не поддерживается
+     */
+    public static UserSort parse(final String value) {
+        if (value == null || value.isEmpty()) {
+            return INSERTION;
+        }
+        return switch (value) {
+            case "age" -> AGE;
+            case "-age" -> AGE_DESC;
+            default -> throw new IllegalArgumentException(
+                    "Unsupported sort: " + value);
+        };
+    }
+}
@@ -0,0 +1,103 @@
+package ru.vsu.practice.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedUserRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MappedUserRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        repository = new MappedUserRepository(tempDir.resolve("users").toString());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        repository.close();
+    }
+
+    private static User user(final String firstName, final int age) {
+        return new User(firstName, "Doe", age,
+                firstName.toLowerCase() + "@example.com", "desc", List.of());
+    }
+
+    /**
+     * Проверяет CRUD-операции и то, что данные и порядок вставки
+     * сохраняются после повторного открытия хранилища.
+     */
+    @Test
+    public void testCrudSurvivesReopen() {
+        User john = repository.create(user("John", 30));
+        User jane = repository.create(user("Jane", 25));
+        assertThrows(IllegalArgumentException.class, () -> repository.create(john));
+
+        User patch = new User();
+        patch.setAge(31);
+        repository.update(john.getId(), patch);
+        repository.addFriend(john.getId(), jane.getId());
+        patch = new User();
+        patch.setDescription("a much longer description that no longer fits in place");
+        repository.update(jane.getId(), patch);
+
+        repository.close();
+        repository = new MappedUserRepository(tempDir.resolve("users").toString());
+
+        User loaded = repository.getById(john.getId());
+        assertEquals(31, loaded.getAge());
+        assertEquals(List.of(jane.getId()), loaded.getFriends());
+        assertEquals(List.of(john.getId(), jane.getId()),
+                repository.getAll(Map.of()).stream().map(User::getId).toList());
+        assertEquals("a much longer description that no longer fits in place",
+                repository.getById(jane.getId()).getDescription());
+        assertEquals(List.of(jane.getId()),
+                repository.getFriends(john.getId(), Map.of("firstName", "jan"))
+                        .stream().map(User::getId).toList());
+
+        repository.delete(jane.getId());
+        assertThrows(NoSuchElementException.class, () -> repository.getById(jane.getId()));
+        assertEquals(List.of(), repository.getById(john.getId()).getFriends());
+    }
+
+    /**
+     * Проверяет, что после сжатия данные и курсоры остаются прежними.
+     */
+    @Test
+    public void testCompactKeepsUsersAndCursors() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(repository.create(user("User" + (char) ('a' + i % 26), 20 + i % 7)).getId());
+        }
+        for (int i = 1; i < 50; i++) {
+            repository.addFriend(ids.get(0), ids.get(i));
+        }
+        for (int i = 0; i < 50; i += 3) {
+            repository.delete(ids.get(i == 0 ? 1 : i));
+        }
+        UserPage first = repository.getPage(Map.of(), new PageQuery(10, null, UserSort.AGE));
+        List<User> before = repository.getAll(Map.of());
+
+        repository.compact();
+
+        assertEquals(before.stream().map(User::getId).toList(),
+                repository.getAll(Map.of()).stream().map(User::getId).toList());
+        assertEquals(before.get(0).getFriends(), repository.getById(ids.get(0)).getFriends());
+        UserPage second = repository.getPage(Map.of(),
+                new PageQuery(10, first.getNextCursor(), UserSort.AGE));
+        User lastOfFirst = first.getItems().get(9);
+        assertTrue(second.getItems().get(0).getAge() >= lastOfFirst.getAge());
+    }
+}
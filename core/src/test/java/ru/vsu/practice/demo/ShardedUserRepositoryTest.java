@@ -0,0 +1,213 @@
+package ru.vsu.practice.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedUserRepositoryTest {
+
+    private static final int SHARDS = 4;
+
+    @TempDir
+    Path tempDir;
+
+    private ShardedUserRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        repository = open();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        repository.close();
+    }
+
+    private ShardedUserRepository open() {
+        return new ShardedUserRepository(tempDir.resolve("users").toString(), SHARDS);
+    }
+
+    private static User user(final String firstName, final int age) {
+        return new User(firstName, "Doe", age,
+                firstName.toLowerCase() + "@example.com", "desc", List.of());
+    }
+
+    /**
+     * Создает пользователей, пока в каждом шарде их не окажется
+     * хотя бы по одному.
+     */
+    private List<User> usersInEveryShard() {
+        List<User> created = new ArrayList<>();
+        Set<Integer> covered = new HashSet<>();
+        Random random = new Random(3);
+        while (covered.size() < SHARDS) {
+            User user = repository.create(user("Name" + (char) ('a' + random.nextInt(26)),
+                    18 + random.nextInt(40)));
+            covered.add(repository.indexOf(user.uuid()));
+            created.add(user);
+        }
+        return created;
+    }
+
+    /**
+     * Проверяет дружбу между шардами: добавление проверяет друга
+     * в его шарде, удаление убирает пользователя из списков друзей
+     * во всех шардах, данные переживают повторное открытие.
+     */
+    @Test
+    public void testCrossShardFriendsAndCascadeDelete() {
+        List<User> users = usersInEveryShard();
+        User hub = users.get(0);
+        User foreign = users.stream()
+                .filter(u -> repository.indexOf(u.uuid()) != repository.indexOf(hub.uuid()))
+                .findFirst().orElseThrow();
+        for (User user : users) {
+            if (user != hub) {
+                repository.addFriend(hub.getId(), user.getId());
+                repository.addFriend(user.getId(), hub.getId());
+            }
+        }
+        UUID missing = UUID.randomUUID();
+        while (repository.indexOf(missing) == repository.indexOf(hub.uuid())) {
+            missing = UUID.randomUUID();
+        }
+        String missingId = missing.toString();
+        assertThrows(NoSuchElementException.class,
+                () -> repository.addFriend(hub.getId(), missingId));
+        assertEquals(users.size() - 1, repository.getFriends(hub.getId(), Map.of()).size());
+        assertEquals(users.size() - 1, repository.getDegreeStats().max());
+
+        repository.close();
+        repository = open();
+        assertEquals(users.size() - 1, repository.getById(hub.getId()).getFriends().size());
+
+        repository.delete(foreign.getId());
+        assertThrows(NoSuchElementException.class, () -> repository.getById(foreign.getId()));
+        assertFalse(repository.getById(hub.getId()).getFriends().contains(foreign.getId()));
+        assertThrows(NoSuchElementException.class,
+                () -> repository.addFriend(hub.getId(), foreign.getId()));
+
+        repository.delete(hub.getId());
+        for (User user : users) {
+            if (user != hub && user != foreign) {
+                assertTrue(repository.getById(user.getId()).getFriends().isEmpty());
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что страницы по всем шардам выдают каждого
+     * пользователя ровно один раз и в порядке сортировки.
+     */
+    @Test
+    public void testPagesMergeShards() {
+        Random random = new Random(11);
+        for (int i = 0; i < 60; i++) {
+            repository.create(user("Page" + (char) ('a' + random.nextInt(26)), 18 + random.nextInt(5)));
+        }
+        List<String> all = repository.getAll(Map.of()).stream().map(User::getId).toList();
+        for (UserSort sort : UserSort.values()) {
+            List<User> seen = new ArrayList<>();
+            String cursor = null;
+            do {
+                UserPage page = repository.getPage(Map.of(), new PageQuery(7, cursor, sort));
+                seen.addAll(page.getItems());
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            List<String> ids = seen.stream().map(User::getId).toList();
+            assertEquals(new HashSet<>(all), new HashSet<>(ids), sort.name());
+            assertEquals(all.size(), ids.size(), sort.name());
+            for (int i = 1; i < seen.size(); i++) {
+                int previous = seen.get(i - 1).getAge();
+                int current = seen.get(i).getAge();
+                switch (sort) {
+                    case AGE -> assertTrue(previous <= current);
+                    case AGE_DESC -> assertTrue(previous >= current);
+                    default -> { }
+                }
+            }
+            if (sort == UserSort.INSERTION) {
+                assertEquals(all, ids);
+            }
+            List<String> scanned = new ArrayList<>();
+            repository.scan(Map.of(), sort).forEachRemaining(u -> scanned.add(u.getId()));
+            assertEquals(ids, scanned, sort.name());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> repository.getPage(Map.of(), new PageQuery(7, "broken", UserSort.AGE)));
+    }
+
+    /**
+     * Проверяет, что встречные добавления в друзья и удаления
+     * из разных шардов не блокируют друг друга навсегда и не
+     * оставляют ссылок на удаленных пользователей.
+     */
+    @Test
+    public void testConcurrentCrossShardWritesDoNotDeadlock() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            users.add(repository.create(user("Race" + (char) ('a' + i % 26), 20 + i)));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                tasks.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 200; i++) {
+                        String uid = users.get(random.nextInt(users.size())).getId();
+                        String friend = users.get(random.nextInt(users.size())).getId();
+                        try {
+                            if (random.nextInt(20) == 0) {
+                                repository.delete(friend);
+                            } else {
+                                repository.addFriend(uid, friend);
+                            }
+                        } catch (NoSuchElementException e) {
+                            // пользователь уже удален другим потоком
+                        }
+                    }
+                }));
+            }
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        Set<String> alive = new HashSet<>();
+        repository.getAll(Map.of()).forEach(u -> alive.add(u.getId()));
+        for (User user : repository.getAll(Map.of())) {
+            assertTrue(alive.containsAll(user.getFriends()), user.getId());
+        }
+    }
+
+    /**
+     * Проверяет, что файлы с другим числом шардов не открываются.
+     */
+    @Test
+    public void testRejectsAnotherShardCount() {
+        assertThrows(IllegalStateException.class,
+                () -> new ShardedUserRepository(tempDir.resolve("users").toString(), SHARDS * 2));
+    }
+}
@@ -0,0 +1,136 @@
+package ru.vsu.practice.demo;
+
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Combinators;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.From;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import net.jqwik.api.constraints.Size;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Property-based проверка вторичных индексов: getAll с индексами должен
+ * возвращать ровно то же, что полный проход с исходной семантикой фильтров
+ * (подстрока без учета регистра, точный возраст), в том же порядке.
+ */
+public class UserFilterIndexPropertiesTest {
+
+    /**
+     * Данные пользователя без идентификатора.
+     */
+    record Profile(String firstName, String lastName, int age, String email) {
+        User toUser() {
+            return new User(firstName, lastName, age, email, "desc", List.of());
+        }
+    }
+
+    @Property(tries = 200)
+    void indexedGetAllMatchesFullScan(
+            @ForAll @Size(max = 40) List<@From("profiles") Profile> initial,
+            @ForAll @Size(max = 10) List<@From("profiles") Profile> updates,
+            @ForAll @Size(max = 10) List<Integer> deletions,
+            @ForAll("filters") Map<String, String> filters) throws IOException {
+        Path dir = Files.createTempDirectory("users-props");
+        try (UserService service = new UserService(dir.resolve("users.json").toString(), PersistenceMode.JOURNAL)) {
+            for (User existing : service.getAll(Map.of())) {
+                service.delete(existing.getId());
+            }
+            for (Profile profile : initial) {
+                service.create(profile.toUser());
+            }
+
+            List<User> current = service.getAll(Map.of());
+            for (int i = 0; i < updates.size() && !current.isEmpty(); i++) {
+                User target = current.get(i % current.size());
+                service.update(target.getId(), updates.get(i).toUser());
+            }
+            for (int deletion : deletions) {
+                current = service.getAll(Map.of());
+                if (!current.isEmpty()) {
+                    service.delete(current.get(Math.floorMod(deletion, current.size())).getId());
+                }
+            }
+            for (Profile profile : updates) {
+                service.create(profile.toUser());
+            }
+
+            List<String> expected = service.getAll(Map.of()).stream()
+                    .filter(u -> matchesByScan(u, filters))
+                    .map(User::getId)
+                    .collect(Collectors.toList());
+            List<String> actual = service.getAll(filters).stream()
+                    .map(User::getId)
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual, "filters: " + filters);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Provide
+    Arbitrary<Profile> profiles() {
+        Arbitrary<String> names = Arbitraries.strings().withChars("abnANB").ofMinLength(1).ofMaxLength(6);
+        Arbitrary<String> emails = Combinators.combine(
+                Arbitraries.strings().withChars("abn.AB1").ofMinLength(1).ofMaxLength(5),
+                Arbitraries.of("example.com", "Example.org", "ab.ru"))
+                .as((local, domain) -> local + "@" + domain);
+        Arbitrary<Integer> ages = Arbitraries.integers().between(12, 16);
+        return Combinators.combine(names, names, ages, emails).as(Profile::new);
+    }
+
+    @Provide
+    Arbitrary<Map<String, String>> filters() {
+        Arbitrary<String> text = Arbitraries.strings().withChars("abnANB.@1").ofMinLength(0).ofMaxLength(5);
+        Arbitrary<String> age = Arbitraries.of("12", "13", "14", "16", "012", "+13", "abc", "");
+        return Combinators.combine(
+                text.injectNull(0.5), text.injectNull(0.5), text.injectNull(0.5),
+                age.injectNull(0.5), text.injectNull(0.8))
+                .as((firstName, lastName, email, ageValue, unknown) -> {
+                    Map<String, String> filters = new HashMap<>();
+                    putIfPresent(filters, "firstName", firstName);
+                    putIfPresent(filters, "lastName", lastName);
+                    putIfPresent(filters, "email", email);
+                    putIfPresent(filters, "age", ageValue);
+                    putIfPresent(filters, "unknown", unknown);
+                    return filters;
+                });
+    }
+
+    private static void putIfPresent(Map<String, String> filters, String key, String value) {
+        if (value != null) {
+            filters.put(key, value);
+        }
+    }
+
+    /**
+     * Исходная семантика фильтров UserService до появления индексов.
+     */
+    private static boolean matchesByScan(User u, Map<String, String> filters) {
+        return filters.entrySet().stream().allMatch(entry -> {
+            String value = entry.getValue().toLowerCase();
+            return switch (entry.getKey()) {
+                case "firstName" -> u.getFirstName().toLowerCase().contains(value);
+                case "lastName" -> u.getLastName().toLowerCase().contains(value);
+                case "email" -> u.getEmail().toLowerCase().contains(value);
+                case "age" -> Integer.toString(u.getAge()).equals(value);
+                default -> true;
+            };
+        });
+    }
+}
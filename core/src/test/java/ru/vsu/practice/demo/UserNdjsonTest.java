@@ -0,0 +1,110 @@
+package ru.vsu.practice.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserNdjsonTest {
+
+    @TempDir
+    Path tempDir;
+
+    private UserService emptyService(final String name) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.writeString(file, "[]");
+        return new UserService(file.toString());
+    }
+
+    /**
+     * Проверяет, что выгрузка и загрузка NDJSON сохраняют пользователей,
+     * их порядок и друзей, а загрузка пакетами не зависит от размера пакета.
+     */
+    @Test
+    public void testExportImportRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<User> expected;
+        try (UserService source = emptyService("source.json")) {
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                users.add(new User("User", "Number" + (char) ('a' + i), 20 + i,
+                        "user" + i + "@example.com", "desc", new ArrayList<>()));
+            }
+            source.createAll(users);
+            source.addFriend(users.get(0).getId(), users.get(1).getId());
+            expected = source.getAll(Map.of());
+
+            Iterator<User> snapshot = source.scanAll();
+            source.delete(users.get(5).getId());
+            assertEquals(25, UserNdjson.write(snapshot, out));
+        }
+        String ndjson = out.toString(StandardCharsets.UTF_8);
+        assertEquals(25, ndjson.lines().count());
+        assertTrue(ndjson.endsWith("}\n"));
+
+        try (UserService target = emptyService("target.json")) {
+            ImportReport report = UserNdjson.read(
+                    new ByteArrayInputStream(out.toByteArray()), target, 7);
+            assertEquals(new ImportReport(25, 0, List.of(), null), report);
+            assertEquals(expected.stream().map(User::getId).toList(),
+                    target.getAll(Map.of()).stream().map(User::getId).toList());
+            assertEquals(expected.get(0).getFriends(),
+                    target.getById(expected.get(0).getId()).getFriends());
+        }
+    }
+
+    /**
+     * Проверяет, что некорректные записи пропускаются с номером записи
+     * в отчете, а JSON-массив загружается так же, как NDJSON.
+     */
+    @Test
+    public void testImportReportsBadRecords() throws IOException {
+        String input = "[{\"firstName\":\"Ann\",\"lastName\":\"Lee\",\"age\":30,\"email\":\"ann@example.com\"},"
+                + "{\"id\":\"not-a-uuid\",\"firstName\":\"Bob\"},"
+                + "{\"firstName\":\"\",\"lastName\":\"Lee\",\"email\":\"x@example.com\"},"
+                + "{\"firstName\":\"Cid\",\"lastName\":\"Lee\",\"age\":40,\"email\":\"cid@example.com\"}]";
+        try (UserService target = emptyService("target.json")) {
+            ImportReport report = UserNdjson.read(new ByteArrayInputStream(
+                    input.getBytes(StandardCharsets.UTF_8)), target, 2);
+            assertEquals(2, report.created());
+            assertEquals(2, report.failed());
+            assertEquals(List.of(1, 2), report.errors().stream().map(BatchResult::index).toList());
+            assertEquals("not-a-uuid", report.errors().get(0).id());
+            assertEquals(List.of("Ann", "Cid"), target.getAll(Map.of()).stream()
+                    .map(User::getFirstName).toList());
+        }
+    }
+
+    /**
+     * Проверяет, что при обрыве JSON посреди потока записи до ошибки
+     * создаются и отчет содержит ошибку разбора.
+     */
+    @Test
+    public void testImportStopsAtMalformedJson() throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            input.append("{\"firstName\":\"User\",\"lastName\":\"Number").append((char) ('a' + i))
+                    .append("\",\"age\":30,\"email\":\"user").append(i).append("@example.com\"}\n");
+        }
+        input.append("{\"firstName\": oops}\n");
+        try (UserService target = emptyService("target.json")) {
+            ImportReport report = UserNdjson.read(new ByteArrayInputStream(
+                    input.toString().getBytes(StandardCharsets.UTF_8)), target, 2);
+            assertEquals(5, report.created());
+            assertFalse(report.isComplete());
+            assertTrue(report.error().startsWith("Malformed record 5"), report.error());
+            assertEquals(5, target.getAll(Map.of()).size());
+        }
+    }
+}
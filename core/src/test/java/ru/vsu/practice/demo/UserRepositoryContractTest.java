@@ -0,0 +1,225 @@
+package ru.vsu.practice.demo;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверяет, что внешние хранилища ведут себя так же,
+ * как {@link UserService} в памяти.
+ */
+public class UserRepositoryContractTest {
+
+    @TempDir
+    Path tempDir;
+
+    private UserRepository open(final String backend) {
+        return switch (backend) {
+            case "mapped" -> new MappedUserRepository(tempDir.resolve("users").toString());
+            case "h2" -> new JdbcUserRepository("jdbc:h2:" + tempDir.resolve("users"));
+            default -> throw new IllegalArgumentException(backend);
+        };
+    }
+
+    private static User user(final String firstName, final int age) {
+        return new User(firstName, "Doe", age,
+                firstName.toLowerCase() + "_x@example.com", "desc", List.of());
+    }
+
+    /**
+     * Сравнивает хранилище с {@link UserService} на случайной
+     * последовательности операций: состояние, списки друзей, фильтры
+     * и страницы должны совпадать, в том числе после повторного открытия.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"mapped", "h2"})
+    public void testMatchesInMemoryService(final String backend) throws IOException {
+        Files.createFile(tempDir.resolve("users.json"));
+        UserService reference = new UserService(tempDir.resolve("users.json").toString());
+        UserRepository repository = open(backend);
+        Random random = new Random(7);
+        List<String> ids = new ArrayList<>();
+        for (int step = 0; step < 500; step++) {
+            List<UserRepository> both = List.of(reference, repository);
+            int op = ids.size() < 5 ? 0 : random.nextInt(7);
+            String uid = ids.isEmpty() ? null : ids.get(random.nextInt(ids.size()));
+            String other = ids.isEmpty() ? null : ids.get(random.nextInt(ids.size()));
+            switch (op) {
+                case 0 -> {
+                    User created = user("Name" + (char) ('a' + random.nextInt(26)),
+                            18 + random.nextInt(40));
+                    for (UserRepository r : both) {
+                        r.create(created.copy());
+                    }
+                    ids.add(created.getId());
+                }
+                case 1 -> both.forEach(r -> r.addFriend(uid, other));
+                case 2 -> both.forEach(r -> r.removeFriend(uid, other));
+                case 3 -> {
+                    User patch = new User();
+                    patch.setAge(18 + random.nextInt(40));
+                    if (random.nextBoolean()) {
+                        patch.setLastName("Longer" + "x".repeat(random.nextInt(30)));
+                    }
+                    both.forEach(r -> r.update(uid, patch));
+                }
+                case 4 -> {
+                    both.forEach(r -> r.delete(uid));
+                    ids.remove(uid);
+                }
+                case 5 -> repository.compact();
+                default -> {
+                    repository.close();
+                    repository = open(backend);
+                }
+            }
+        }
+
+        assertEquals(ids(reference.getAll(Map.of())), ids(repository.getAll(Map.of())));
+        for (String uid : ids) {
+            assertEquals(reference.getById(uid).getFriends(), repository.getById(uid).getFriends());
+            assertEquals(reference.getById(uid).getAge(), repository.getById(uid).getAge());
+            assertEquals(ids(reference.getFriends(uid, Map.of("firstName", "e"))),
+                    ids(repository.getFriends(uid, Map.of("firstName", "e"))));
+        }
+        for (Map<String, String> filters : List.of(Map.of("firstName", "NAMEA"),
+                Map.of("age", "30"), Map.of("age", "030"), Map.of("email", "_x@"),
+                Map.of("email", "%"), Map.of("lastName", "longer", "age", "25"))) {
+            assertEquals(ids(reference.getAll(filters)), ids(repository.getAll(filters)),
+                    filters.toString());
+        }
+        Map<String, String> indexed = Map.of("email", "_x@");
+        for (UserSort sort : UserSort.values()) {
+            assertEquals(pages(reference, Map.of(), sort), pages(repository, Map.of(), sort),
+                    sort.name());
+            List<String> filtered = pages(reference, indexed, sort);
+            assertEquals(filtered, pages(repository, indexed, sort), sort.name());
+            assertEquals(filtered, scanned(reference.scan(indexed, sort)), sort.name());
+            assertEquals(filtered, scanned(repository.scan(indexed, sort)), sort.name());
+        }
+        String hub = ids.get(0);
+        assertEquals(friendPages(reference, hub), friendPages(repository, hub));
+        assertEquals(friendPages(reference, hub),
+                scanned(reference.scanFriends(hub, Map.of(), UserSort.AGE_DESC)));
+        assertEquals(friendPages(reference, hub),
+                scanned(repository.scanFriends(hub, Map.of(), UserSort.AGE_DESC)));
+        for (int i = 0; i + 1 < ids.size(); i++) {
+            String uid = ids.get(i);
+            String other = ids.get(i + 1);
+            assertEquals(ids(reference.getMutualFriends(uid, other)),
+                    ids(repository.getMutualFriends(uid, other)));
+            assertEquals(suggestions(reference, uid), suggestions(repository, uid));
+        }
+        assertEquals(reference.getDegreeStats(), repository.getDegreeStats());
+        reference.close();
+        repository.close();
+    }
+
+    /**
+     * Проверяет одновременные добавления в друзья одному пользователю:
+     * каждый поток добавляет своих друзей и одного общего, ни одно
+     * добавление не падает, и каждый друг попадает в список ровно один раз.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"mapped", "h2"})
+    public void testConcurrentAddFriend(final String backend) throws Exception {
+        UserRepository repository = open(backend);
+        String hub = repository.create(user("Hub", 30)).getId();
+        String shared = repository.create(user("Shared", 30)).getId();
+        List<List<String>> own = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            List<String> friends = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                friends.add(repository.create(user("Friend" + (char) ('a' + t), 20 + i)).getId());
+            }
+            own.add(friends);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(own.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> tasks = new ArrayList<>();
+            for (List<String> friends : own) {
+                tasks.add(pool.submit(() -> {
+                    start.await();
+                    repository.addFriend(hub, shared);
+                    for (String friend : friends) {
+                        repository.addFriend(hub, friend);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<String> friends = repository.getById(hub).getFriends();
+        Set<String> expected = new HashSet<>();
+        expected.add(shared);
+        own.forEach(expected::addAll);
+        assertEquals(expected.size(), friends.size());
+        assertEquals(expected, new HashSet<>(friends));
+        repository.close();
+    }
+
+    private static List<String> ids(final List<User> users) {
+        return users.stream().map(User::getId).toList();
+    }
+
+    private static Map<String, Integer> suggestions(final UserRepository repository,
+                                                    final String uid) {
+        return repository.suggestFriends(uid, 1000).stream().collect(Collectors.toMap(
+                s -> s.user().getId(), FriendSuggestion::mutualFriends));
+    }
+
+    private static List<String> scanned(final Iterator<User> users) {
+        List<String> seen = new ArrayList<>();
+        users.forEachRemaining(u -> seen.add(u.getId()));
+        return seen;
+    }
+
+    private static List<String> pages(final UserRepository repository,
+                                      final Map<String, String> filters, final UserSort sort) {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            UserPage page = repository.getPage(filters, new PageQuery(7, cursor, sort));
+            seen.addAll(ids(page.getItems()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return seen;
+    }
+
+    private static List<String> friendPages(final UserRepository repository, final String uid) {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            UserPage page = repository.getFriendsPage(uid, Map.of(),
+                    new PageQuery(2, cursor, UserSort.AGE_DESC));
+            seen.addAll(ids(page.getItems()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return seen;
+    }
+}
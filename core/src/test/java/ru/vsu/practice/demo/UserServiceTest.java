@@ -12,6 +12,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -126,6 +128,24 @@ public class UserServiceTest {
         assertTrue(emailExceptionThrown, "Expected IllegalArgumentException for invalid email");
     }
 
+    /**
+     * Проверяет, что getAll сохраняет порядок вставки,
+     * а повторное создание пользователя с тем же ID запрещено.
+     */
+    @Test
+    public void testCreateKeepsOrderAndRejectsDuplicateId() {
+        User newUser = new User("Alice", "Wonder", 28, "alice@example.com", "desc", new ArrayList<>());
+        userService.create(newUser);
+
+        List<String> ids = userService.getAll(Collections.emptyMap()).stream()
+                .map(User::getId)
+                .collect(Collectors.toList());
+        assertEquals(List.of(user1Id, user2Id, newUser.getId()), ids);
+
+        assertThrows(IllegalArgumentException.class, () -> userService.create(newUser));
+        assertEquals(3, userService.getAll(Collections.emptyMap()).size());
+    }
+
     /**
      * Проверяет, что метод update корректно обновляет данные пользователя.
      */
@@ -152,6 +172,27 @@ public class UserServiceTest {
         assertThrows(NoSuchElementException.class, () -> userService.getById(user1Id));
     }
 
+    /**
+     * Проверяет, что удаление пользователя убирает его из чужих списков друзей,
+     * в том числе после перезапуска в режиме журнала.
+     */
+    @Test
+    public void testDeleteRemovesUserFromFriendLists() {
+        userService.addFriend(user1Id, user2Id);
+        userService.delete(user2Id);
+        assertTrue(userService.getById(user1Id).getFriends().isEmpty());
+        assertTrue(userService.getFriends(user1Id, Collections.emptyMap()).isEmpty());
+
+        try (UserService journaled = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            User friend = journaled.create(new User("Jane", "Smith", 25, "jane.smith@example.com", "desc", new ArrayList<>()));
+            journaled.addFriend(user1Id, friend.getId());
+            journaled.delete(friend.getId());
+        }
+        try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            assertTrue(reloaded.getById(user1Id).getFriends().isEmpty());
+        }
+    }
+
     /**
      * Проверяет, что методы addFriend и removeFriend корректно добавляют и удаляют друга.
      */
@@ -173,6 +214,30 @@ public class UserServiceTest {
         assertFalse(friendsIds.contains(user2Id));
     }
 
+    /**
+     * Проверяет, что ID приводятся к нижнему регистру, а список друзей
+     * отбрасывает повторы и сохраняет порядок при удалении из середины.
+     */
+    @Test
+    public void testIdsAreCanonicalAndFriendsKeepOrder() {
+        User user = userService.getById(user1Id.toUpperCase());
+        assertEquals(user1Id, user.getId());
+        assertThrows(NoSuchElementException.class,
+                () -> userService.getById("not-a-uuid"));
+
+        String a = UUID.randomUUID().toString();
+        String b = UUID.randomUUID().toString();
+        String c = UUID.randomUUID().toString();
+        User copy = user.copy();
+        copy.setFriends(List.of(a, b, a.toUpperCase(), c, b));
+        assertEquals(List.of(a, b, c), copy.getFriends());
+        copy.removeFriend(b);
+        assertEquals(List.of(a, c), copy.getFriends());
+        assertThrows(IllegalArgumentException.class,
+                () -> copy.setFriends(List.of("bad")));
+        assertEquals(List.of(), user.getFriends());
+    }
+
     /**
      * Проверяет, что метод getFriends возвращает список друзей пользователя.
      */
@@ -190,11 +255,699 @@ public class UserServiceTest {
         assertEquals("jane.smith@example.com", friend.getEmail());
     }
 
+    /**
+     * Проверяет, что в режиме журнала изменения дописываются в users.json.log,
+     * не трогая снимок, и восстанавливаются при повторном запуске.
+     */
+    @Test
+    public void testJournalModeReplaysLogOverSnapshot() throws IOException {
+        byte[] snapshotBefore = Files.readAllBytes(jsonFile.toPath());
+        File logFile = new File(jsonFile.getPath() + ".log");
+
+        try (UserService journaled = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            User newUser = new User("Alice", "Wonder", 28, "alice@example.com", "desc", new ArrayList<>());
+            journaled.create(newUser);
+            journaled.addFriend(user1Id, user2Id);
+            journaled.delete(newUser.getId());
+        }
+
+        assertArrayEquals(snapshotBefore, Files.readAllBytes(jsonFile.toPath()));
+        assertEquals(3, Files.readAllLines(logFile.toPath()).size());
+
+        try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            assertEquals(2, reloaded.getAll(Collections.emptyMap()).size());
+            assertEquals(List.of(user2Id), reloaded.getById(user1Id).getFriends());
+        }
+    }
+
+    /**
+     * Проверяет, что записи, которые не удалось дописать в журнал,
+     * не теряются: они уходят на диск со следующим изменением,
+     * и повторный запуск восстанавливает оба изменения.
+     */
+    @Test
+    public void testFailedJournalAppendIsRetried() throws IOException {
+        User alice = new User("Alice", "Wonder", 28, "alice@example.com", "desc", new ArrayList<>());
+        User bob = new User("Bob", "Builder", 35, "bob@example.com", "desc", new ArrayList<>());
+
+        try (UserService journaled = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            journaled.journal().close();
+            assertThrows(RuntimeException.class, () -> journaled.create(alice));
+
+            journaled.journal().open(new HashMap<>());
+            journaled.create(bob);
+        }
+
+        try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            assertEquals("Alice", reloaded.getById(alice.getId()).getFirstName());
+            assertEquals("Bob", reloaded.getById(bob.getId()).getFirstName());
+        }
+    }
+
+    /**
+     * Проверяет пакетные операции: ошибки отдельных элементов
+     * попадают в результат, а примененные элементы пакета
+     * дописываются в журнал и восстанавливаются при повторном запуске.
+     */
+    @Test
+    public void testBatchOperationsReportPerItemErrors() throws IOException {
+        File logFile = new File(jsonFile.getPath() + ".log");
+        User alice = new User("Alice", "Wonder", 28, "alice@example.com", "desc", new ArrayList<>());
+        User invalid = new User();
+
+        try (UserService journaled = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            List<BatchResult> created = journaled.createAll(Arrays.asList(alice, invalid, null));
+            assertEquals(List.of(true, false, false), created.stream().map(BatchResult::isOk).toList());
+            assertEquals(alice.getId(), created.get(0).id());
+            assertEquals(1, Files.readAllLines(logFile.toPath()).size());
+
+            List<BatchResult> added = journaled.addFriends(List.of(
+                    new FriendEdge(user1Id, user2Id),
+                    new FriendEdge(user1Id, alice.getId()),
+                    new FriendEdge(user2Id, UUID.randomUUID().toString())));
+            assertEquals(List.of(true, true, false), added.stream().map(BatchResult::isOk).toList());
+            assertEquals(2, added.get(2).index());
+            assertNotNull(added.get(2).error());
+
+            List<BatchResult> removed = journaled.removeFriends(List.of(new FriendEdge(user1Id, user2Id)));
+            assertTrue(removed.get(0).isOk());
+            assertEquals(4, Files.readAllLines(logFile.toPath()).size());
+
+            assertEquals(List.of(user2Id, alice.getId()), journaled.getByIds(
+                    List.of(user2Id, "missing", alice.getId())).stream().map(User::getId).toList());
+        }
+
+        try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            assertEquals(3, reloaded.getAll(Collections.emptyMap()).size());
+            assertEquals(List.of(alice.getId()), reloaded.getById(user1Id).getFriends());
+        }
+    }
+
+    /**
+     * Проверяет, что сжатие сворачивает журнал в снимок,
+     * который читается и в режиме полной перезаписи.
+     */
+    @Test
+    public void testJournalCompactionFoldsLogIntoSnapshot() throws IOException {
+        File logFile = new File(jsonFile.getPath() + ".log");
+
+        try (UserService journaled = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            journaled.addFriend(user2Id, user1Id);
+            journaled.addFriend(user1Id, user2Id);
+            journaled.delete(user2Id);
+            journaled.compact();
+        }
+
+        assertEquals(0, Files.size(logFile.toPath()));
+        List<User> snapshot = readUsersFromJsonFile(jsonFile);
+        assertEquals(1, snapshot.size());
+        assertTrue(snapshot.get(0).getFriends().isEmpty());
+
+        UserService plain = new UserService(jsonFile.getAbsolutePath());
+        assertEquals(user1Id, plain.getAll(Collections.emptyMap()).get(0).getId());
+    }
+
+    /**
+     * Проверяет, что JSON-снимок переводится в двоичный формат при старте,
+     * двоичный снимок переживает изменения, сжатие журнала и перезапуск,
+     * а выгрузка в JSON возвращает исходных пользователей.
+     */
+    @Test
+    public void testBinarySnapshotRoundTripAndJsonExport(@TempDir Path tempDir) throws IOException {
+        User alice = new User("Alice", "Wonder", 28, "alice@example.com", null, new ArrayList<>());
+        try (UserService binary = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.SNAPSHOT,
+                null, SnapshotFormat.BINARY)) {
+            assertEquals(SnapshotFormat.BINARY, SnapshotFormat.detect(jsonFile.toPath()));
+            binary.create(alice);
+            binary.addFriend(user1Id, alice.getId());
+        }
+
+        try (UserService journaled = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL,
+                null, SnapshotFormat.BINARY)) {
+            journaled.update(user2Id, new User("Jane", "Doe", 26, "jane.smith@example.com", "desc", null));
+            journaled.compact();
+        }
+        assertEquals(SnapshotFormat.BINARY, SnapshotFormat.detect(jsonFile.toPath()));
+
+        File exported = tempDir.resolve("export.json").toFile();
+        try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.SNAPSHOT,
+                null, SnapshotFormat.BINARY)) {
+            assertEquals(List.of(user1Id, user2Id, alice.getId()), reloaded.getAll(Collections.emptyMap())
+                    .stream().map(User::getId).collect(Collectors.toList()));
+            assertEquals(List.of(alice.getId()), reloaded.getById(user1Id).getFriends());
+            assertEquals("Doe", reloaded.getById(user2Id).getLastName());
+            assertNull(reloaded.getById(alice.getId()).getDescription());
+            reloaded.exportJson(exported);
+        }
+
+        List<User> json = readUsersFromJsonFile(exported);
+        assertEquals(3, json.size());
+        assertEquals("alice@example.com", json.get(2).getEmail());
+    }
+
+    /**
+     * Проверяет, что двоичный снимок с нарушенной контрольной суммой
+     * не загружается, а некорректный пользователь в JSON-снимке
+     * отклоняется однократной проверкой при загрузке.
+     */
+    @Test
+    public void testTamperedSnapshotsAreRejected() throws IOException {
+        new UserService(jsonFile.getAbsolutePath(), PersistenceMode.SNAPSHOT, null, SnapshotFormat.BINARY).close();
+        byte[] bytes = Files.readAllBytes(jsonFile.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(jsonFile.toPath(), bytes);
+        assertThrows(RuntimeException.class, () -> new UserService(jsonFile.getAbsolutePath(),
+                PersistenceMode.SNAPSHOT, null, SnapshotFormat.BINARY));
+
+        Files.writeString(jsonFile.toPath(), "[{\"id\":\"" + user1Id + "\",\"firstName\":\"J0hn\","
+                + "\"lastName\":\"Doe\",\"age\":30,\"email\":\"john.doe@example.com\",\"friends\":[]}]");
+        assertThrows(IllegalArgumentException.class, () -> new UserService(jsonFile.getAbsolutePath()));
+    }
+
+    /**
+     * Проверяет, что при групповом сохранении одновременные изменения
+     * подтверждаются после записи и переживают перезапуск в обоих режимах.
+     */
+    @Test
+    public void testGroupCommitPersistsConcurrentWrites() throws Exception {
+        for (PersistenceMode mode : PersistenceMode.values()) {
+            setUp(Files.createDirectories(jsonFile.getParentFile().toPath().resolve(mode.name())));
+            GroupCommitPolicy policy = GroupCommitPolicy.of(Durability.FSYNC_PER_BATCH);
+            List<String> createdIds = Collections.synchronizedList(new ArrayList<>());
+
+            try (UserService grouped = new UserService(jsonFile.getAbsolutePath(), mode, policy)) {
+                List<Thread> writers = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    int n = i;
+                    Thread writer = new Thread(() -> {
+                        User user = new User("Writer", "Thread", 20 + n, "writer" + n + "@example.com", "desc", List.of());
+                        grouped.create(user);
+                        createdIds.add(user.getId());
+                    });
+                    writer.start();
+                    writers.add(writer);
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+                assertEquals(10, grouped.getAll(Collections.emptyMap()).size());
+            }
+
+            try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), mode)) {
+                for (String id : createdIds) {
+                    assertEquals("Writer", reloaded.getById(id).getFirstName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что изменение, пришедшее одновременно с закрытием
+     * сервиса, либо сохраняется, либо завершается ошибкой,
+     * но не ждет подтверждения вечно.
+     */
+    @Test
+    public void testGroupCommitCloseDoesNotStrandWriters() throws Exception {
+        GroupCommitPolicy policy = GroupCommitPolicy.of(Durability.NONE);
+        for (int round = 0; round < 20; round++) {
+            UserService grouped = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL, policy);
+            List<Thread> writers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int n = i;
+                Thread writer = new Thread(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        try {
+                            grouped.create(new User("Closing", "Race", 20 + n, "race" + n + "@example.com",
+                                    "desc", List.of()));
+                        } catch (IllegalStateException e) {
+                            return;
+                        }
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            grouped.close();
+            for (Thread writer : writers) {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+                assertFalse(writer.isAlive(), "Writer is stuck after close");
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что изменения пачки, которую приемник не смог записать,
+     * пишутся перед следующей пачкой, а после сбоя одного fsync
+     * уже записанные изменения не повторяются.
+     */
+    @Test
+    public void testGroupCommitRetriesFailedBatch() throws Exception {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        boolean[] failWrite = {true};
+        boolean[] failForce = {false};
+        GroupCommitter.Sink sink = new GroupCommitter.Sink() {
+            @Override
+            public void write(final List<byte[]> batch) throws IOException {
+                if (failWrite[0]) {
+                    failWrite[0] = false;
+                    throw new IOException("disk full");
+                }
+                batch.forEach(payload -> written.add(new String(payload)));
+            }
+
+            @Override
+            public void force() throws IOException {
+                if (failForce[0]) {
+                    failForce[0] = false;
+                    throw new IOException("fsync failed");
+                }
+            }
+        };
+        GroupCommitPolicy policy = GroupCommitPolicy.of(Durability.FSYNC_PER_BATCH);
+        try (GroupCommitter committer = new GroupCommitter(policy, sink, "test-commit")) {
+            assertThrows(CompletionException.class, () -> committer.submit("a".getBytes()).join());
+            committer.submit("b".getBytes()).join();
+            assertEquals(List.of("a", "b"), written);
+
+            failForce[0] = true;
+            assertThrows(CompletionException.class, () -> committer.submit("c".getBytes()).join());
+            committer.submit("d".getBytes()).join();
+            assertEquals(List.of("a", "b", "c", "d"), written);
+        }
+    }
+
+    /**
+     * Проверяет, что при групповом сохранении изменение, которое
+     * не удалось дописать в журнал, уходит на диск со следующим
+     * изменением и переживает перезапуск.
+     */
+    @Test
+    public void testGroupCommitFailedJournalAppendIsRetried() throws IOException {
+        User alice = new User("Alice", "Wonder", 28, "alice@example.com", "desc", new ArrayList<>());
+        User bob = new User("Bob", "Builder", 35, "bob@example.com", "desc", new ArrayList<>());
+        GroupCommitPolicy policy = GroupCommitPolicy.of(Durability.FSYNC_PER_BATCH);
+
+        try (UserService grouped = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL, policy)) {
+            grouped.journal().close();
+            assertThrows(RuntimeException.class, () -> grouped.create(alice));
+
+            grouped.journal().open(new HashMap<>());
+            grouped.create(bob);
+        }
+
+        try (UserService reloaded = new UserService(jsonFile.getAbsolutePath(), PersistenceMode.JOURNAL)) {
+            assertEquals("Alice", reloaded.getById(alice.getId()).getFirstName());
+            assertEquals("Bob", reloaded.getById(bob.getId()).getFirstName());
+        }
+    }
+
+    /**
+     * Стресс-тест: пока писатель непрерывно перезаписывает большой users.json,
+     * задержка чтения не должна повторять задержку записи.
+     */
+    @Test
+    public void testReadLatencyDoesNotTrackWriteLatency(@TempDir Path tempDir) throws Exception {
+        List<User> initial = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            initial.add(new User("Load", "Test", 20 + i % 50, "load" + i + "@example.com", "desc", List.of()));
+        }
+        File bigFile = tempDir.resolve("users.json").toFile();
+        new ObjectMapper().writeValue(bigFile, initial);
+        UserService service = new UserService(bigFile.getAbsolutePath());
+
+        String readId = initial.get(0).getId();
+        String writeId = initial.get(1).getId();
+        User patch = new User();
+        patch.setAge(40);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1500);
+        List<Long> writeNanos = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = new Thread(() -> {
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                service.update(writeId, patch);
+                writeNanos.add(System.nanoTime() - start);
+            }
+        });
+        writer.start();
+
+        List<Long> readNanos = new ArrayList<>();
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            service.getById(readId);
+            readNanos.add(System.nanoTime() - start);
+        }
+        writer.join();
+
+        Collections.sort(readNanos);
+        List<Long> writes = new ArrayList<>(writeNanos);
+        Collections.sort(writes);
+        long readP99 = readNanos.get((int) (readNanos.size() * 0.99));
+        long writeMedian = writes.get(writes.size() / 2);
+
+        assertTrue(writes.size() > 1, "Writer must complete several writes");
+        assertTrue(readP99 * 10 < writeMedian,
+                "read p99 " + readP99 + "ns must stay far below write median " + writeMedian + "ns");
+    }
+
     private List<User> readUsersFromJsonFile(File file) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         return Arrays.asList(mapper.readValue(file, User[].class));
     }
 
+    /**
+     * Проверяет, что страницы по курсору покрывают всех пользователей
+     * без повторов, даже если между запросами пользователи удаляются
+     * и добавляются.
+     */
+    @Test
+    public void testPagesByCursorSurviveConcurrentChanges() {
+        List<String> created = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            User user = new User("Page" + (char) ('a' + i), "User", 20 + i % 3, "page" + i + "@example.com", "desc", new ArrayList<>());
+            created.add(userService.create(user).getId());
+        }
+
+        UserPage first = userService.getPage(Map.of(), new PageQuery(5, null, UserSort.INSERTION));
+        assertEquals(List.of(user1Id, user2Id, created.get(0), created.get(1), created.get(2)),
+                first.getItems().stream().map(User::getId).collect(Collectors.toList()));
+        assertNotNull(first.getNextCursor());
+
+        userService.delete(created.get(2));
+        userService.delete(created.get(3));
+        User late = userService.create(new User("Late", "User", 21, "late@example.com", "desc", new ArrayList<>()));
+
+        List<String> rest = new ArrayList<>();
+        String after = first.getNextCursor();
+        while (after != null) {
+            UserPage page = userService.getPage(Map.of(), new PageQuery(3, after, UserSort.INSERTION));
+            page.getItems().forEach(u -> rest.add(u.getId()));
+            after = page.getNextCursor();
+        }
+        List<String> expected = new ArrayList<>(created.subList(4, 10));
+        expected.add(late.getId());
+        assertEquals(expected, rest);
+    }
+
+    /**
+     * Проверяет сортировку по возрасту в обе стороны: при равном возрасте
+     * сохраняется порядок вставки, фильтры и курсор учитываются.
+     */
+    @Test
+    public void testPagesSortedByAge() {
+        for (int i = 0; i < 6; i++) {
+            userService.create(new User("Sorted" + (char) ('a' + i), "User", 20 + i % 3, "sorted" + i + "@example.com", "desc", new ArrayList<>()));
+        }
+        for (UserSort sort : List.of(UserSort.AGE, UserSort.AGE_DESC)) {
+            for (Map<String, String> filters : List.<Map<String, String>>of(Map.of(), Map.of("firstName", "sorted"))) {
+                List<User> expected = new ArrayList<>(userService.getAll(filters));
+                Comparator<User> byAge = Comparator.comparingInt(User::getAge);
+                expected.sort(sort == UserSort.AGE ? byAge : byAge.reversed());
+
+                List<User> actual = new ArrayList<>();
+                String after = null;
+                do {
+                    UserPage page = userService.getPage(filters, new PageQuery(4, after, sort));
+                    actual.addAll(page.getItems());
+                    after = page.getNextCursor();
+                } while (after != null);
+                assertEquals(expected, actual, sort + " " + filters);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> userService.getPage(Map.of(),
+                new PageQuery(4, userService.getPage(Map.of(), new PageQuery(1, null, UserSort.AGE)).getNextCursor(),
+                        UserSort.INSERTION)));
+    }
+
+    /**
+     * Проверяет постраничное чтение друзей.
+     */
+    @Test
+    public void testFriendsPage() {
+        List<String> friendIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            User friend = userService.create(new User("Friend" + (char) ('a' + i), "User", 40 - i, "friend" + i + "@example.com", "desc", new ArrayList<>()));
+            friendIds.add(friend.getId());
+            userService.addFriend(user1Id, friend.getId());
+        }
+
+        UserPage first = userService.getFriendsPage(user1Id, Map.of(), new PageQuery(2, null, UserSort.AGE));
+        assertEquals(List.of(friendIds.get(4), friendIds.get(3)),
+                first.getItems().stream().map(User::getId).collect(Collectors.toList()));
+        UserPage second = userService.getFriendsPage(user1Id, Map.of(), new PageQuery(10, first.getNextCursor(), UserSort.AGE));
+        assertEquals(List.of(friendIds.get(2), friendIds.get(1), friendIds.get(0)),
+                second.getItems().stream().map(User::getId).collect(Collectors.toList()));
+        assertNull(second.getNextCursor());
+    }
+
+    /**
+     * Проверяет, что параллельная проверка фильтров дает тот же
+     * результат и в том же порядке, что и последовательная.
+     */
+    @Test
+    public void testParallelScanKeepsOrder(@TempDir Path tempDir) {
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            batch.add(new User(i % 3 == 0 ? "Anna" : "Bob", "Scan", 18 + i % 40,
+                    "scan" + i + "@example.com", "desc", List.of()));
+        }
+        userService.createAll(batch);
+        userService.close();
+
+        System.setProperty(UserService.PARALLEL_SCAN_PROPERTY, "1");
+        try (UserService parallel = new UserService(jsonFile.getAbsolutePath());
+             UserService sequential = new UserService(jsonFile.getAbsolutePath())) {
+            System.clearProperty(UserService.PARALLEL_SCAN_PROPERTY);
+            for (Map<String, String> filters : List.of(Map.<String, String>of(),
+                    Map.of("firstName", "n"), Map.of("age", "20"),
+                    Map.of("firstName", "an", "age", "21"), Map.of("email", "9@"))) {
+                List<String> expected = sequential.getAll(filters).stream()
+                        .map(User::getId).toList();
+                assertFalse(expected.isEmpty(), filters.toString());
+                assertEquals(expected, parallel.getAll(filters).stream()
+                        .map(User::getId).toList(), filters.toString());
+            }
+        } finally {
+            System.clearProperty(UserService.PARALLEL_SCAN_PROPERTY);
+        }
+    }
+
+    /**
+     * Проверяет, что при постоянных созданиях и удалениях друзей
+     * индекс дружбы переиспользует номера вершин и не растет.
+     */
+    @Test
+    public void testFriendIndexNodesAreReused() {
+        String hub = userService.create(new User("Hub", "User", 40,
+                "hub@example.com", "desc", List.of())).getId();
+        for (int round = 0; round < 100; round++) {
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String id = userService.create(new User("Churn", "User", 20 + i,
+                        "churn" + round + "_" + i + "@example.com", "desc", List.of())).getId();
+                userService.addFriend(hub, id);
+                userService.addFriend(id, hub);
+                ids.add(id);
+            }
+            userService.addFriend(ids.get(0), ids.get(1));
+            for (String id : ids) {
+                userService.delete(id);
+            }
+        }
+        FriendIndex index = userService.friendIndex();
+        assertEquals(3, index.nodeCount());
+        assertTrue(index.nodeCapacity() <= 3 + 4, "capacity " + index.nodeCapacity());
+        assertTrue(userService.getById(hub).getFriends().isEmpty());
+        assertEquals(3, userService.getDegreeStats().users());
+        assertEquals(0, userService.getDegreeStats().max());
+    }
+
+    /**
+     * Проверяет общих друзей, кандидатов в друзья и распределение
+     * по числу друзей, в том числе после удаления общего друга.
+     */
+    @Test
+    public void testFriendGraphQueries() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(userService.create(new User("Graph", "User" + (char) ('a' + i), 20 + i,
+                    "graph" + i + "@example.com", "desc", List.of())).getId());
+        }
+        String a = ids.get(0);
+        String b = ids.get(1);
+        for (String friend : List.of(ids.get(2), ids.get(3), ids.get(4))) {
+            userService.addFriend(a, friend);
+            userService.addFriend(b, friend);
+        }
+        userService.addFriend(ids.get(2), ids.get(5));
+        userService.addFriend(ids.get(3), ids.get(5));
+        userService.addFriend(ids.get(4), b);
+
+        assertEquals(List.of(ids.get(2), ids.get(3), ids.get(4)),
+                userService.getMutualFriends(a, b).stream().map(User::getId).toList());
+        List<FriendSuggestion> suggestions = userService.suggestFriends(a, 10);
+        assertEquals(List.of(ids.get(5), b),
+                suggestions.stream().map(s -> s.user().getId()).toList());
+        assertEquals(List.of(2, 1),
+                suggestions.stream().map(FriendSuggestion::mutualFriends).toList());
+        assertEquals(1, userService.suggestFriends(a, 1).size());
+        assertThrows(IllegalArgumentException.class, () -> userService.suggestFriends(a, 0));
+        assertThrows(NoSuchElementException.class, () -> userService.getMutualFriends(a, "missing"));
+
+        DegreeStats before = userService.getDegreeStats();
+        assertEquals(userService.getAll(Collections.emptyMap()).size(), before.users());
+        assertEquals(3, before.max());
+
+        userService.delete(ids.get(3));
+        assertEquals(List.of(ids.get(2), ids.get(4)),
+                userService.getMutualFriends(a, b).stream().map(User::getId).toList());
+        assertEquals(1, userService.suggestFriends(a, 10).get(0).mutualFriends());
+        DegreeStats after = userService.getDegreeStats();
+        assertEquals(before.users() - 1, after.users());
+        assertEquals(before.friendships() - 3, after.friendships());
+    }
+
+    /**
+     * Проверяет полнотекстовый поиск: все слова запроса обязательны,
+     * префикс со звездочкой, совпадение в имени выше совпадения
+     * в описании, индекс следует за изменениями и удалением.
+     */
+    @Test
+    public void testFullTextSearch() {
+        String ivan = userService.create(new User("Ivan", "Searchov", 30,
+                "ivan.searchov@example.com", "Loves chess and hiking", List.of())).getId();
+        String anna = userService.create(new User("Anna", "Chessova", 25,
+                "anna@example.com", "Plays the violin", List.of())).getId();
+        String petr = userService.create(new User("Petr", "Hikov", 40,
+                "petr@example.com", "Chess coach", List.of())).getId();
+
+        assertEquals(3, userService.search("chess*", 10).size());
+        assertEquals(anna, userService.search("chess*", 10).get(0).user().getId());
+        assertEquals(List.of(ivan), ids(userService.search("CHESS hiking", 10)));
+        assertEquals(Set.of(ivan, petr), new HashSet<>(ids(userService.search("chess", 10))));
+        assertEquals(List.of(ivan), ids(userService.search("searchov", 10)));
+        assertEquals(Set.of(ivan, petr), new HashSet<>(ids(userService.search("chess* hik*", 10))));
+        assertEquals(1, userService.search("chess*", 1).size());
+        assertTrue(userService.search("chess nothing", 10).isEmpty());
+        assertTrue(userService.search("  ", 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> userService.search("chess", 0));
+
+        User patch = new User();
+        patch.setDescription("Collects stamps");
+        userService.update(ivan, patch);
+        assertEquals(List.of(petr), ids(userService.search("chess", 10)));
+        assertEquals(List.of(ivan), ids(userService.search("stamp*", 10)));
+        for (int i = 0; i < 1100; i++) {
+            patch.setDescription("Collects stamps " + i);
+            userService.update(petr, patch);
+        }
+        assertEquals(Set.of(ivan, petr), new HashSet<>(ids(userService.search("stamps", 10))));
+        assertEquals(List.of(petr), ids(userService.search("1099", 10)));
+        assertTrue(userService.search("1098", 10).isEmpty());
+
+        userService.delete(anna);
+        assertTrue(userService.search("violin", 10).isEmpty());
+    }
+
+    /**
+     * Идентификаторы найденных пользователей в порядке выдачи.
+     *
+     * @param hits результаты поиска
+     * @return идентификаторы
+     */
+    private static List<String> ids(List<SearchHit> hits) {
+        return hits.stream().map(hit -> hit.user().getId()).toList();
+    }
+
+    /**
+     * Проверяет версии: каждое изменение пользователя меняет его версию
+     * и версию набора, а условное обновление по устаревшей версии
+     * отклоняется без изменений.
+     */
+    @Test
+    public void testConditionalUpdateChecksVersion() {
+        List<User> users = userService.getAll(Collections.emptyMap());
+        String uid = users.get(0).getId();
+        String friendUid = users.get(1).getId();
+        long datasetVersion = userService.version();
+        long version = userService.getById(uid).version();
+
+        User patch = new User();
+        patch.setDescription("first");
+        User updated = userService.update(uid, patch, version);
+        assertTrue(updated.version() > version);
+        assertTrue(userService.version() > datasetVersion);
+
+        patch.setDescription("stale");
+        assertThrows(ConcurrentModificationException.class,
+                () -> userService.update(uid, patch, version));
+        assertEquals("first", userService.getById(uid).getDescription());
+
+        userService.addFriend(uid, friendUid);
+        assertTrue(userService.getById(uid).version() > updated.version());
+        assertThrows(ConcurrentModificationException.class,
+                () -> userService.update(uid, patch, updated.version()));
+
+        long unchanged = userService.version();
+        userService.getAll(Collections.emptyMap());
+        assertEquals(unchanged, userService.version());
+    }
+
+    /**
+     * Проверяет, что сервис сообщает длительность операций, блокировки,
+     * запись на диск, размер набора и селективность фильтров.
+     */
+    @Test
+    public void testMetricsAreReported(@TempDir Path tempDir) {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        int[] size = {-1};
+        UserMetrics metrics = new UserMetrics() {
+            @Override
+            public void operation(String operation, long nanos, boolean failed) {
+                events.add(operation + (failed ? ":error" : ""));
+            }
+
+            @Override
+            public void lockHold(String lock, long nanos) {
+                events.add("hold:" + lock);
+            }
+
+            @Override
+            public void saved(String mode, long nanos, long bytes) {
+                assertTrue(bytes > 0);
+                events.add("saved:" + mode);
+            }
+
+            @Override
+            public void filtered(String operation, long scanned, long matched) {
+                events.add("filtered:" + operation + ":" + scanned + ":" + matched);
+            }
+
+            @Override
+            public void size(int users) {
+                size[0] = users;
+            }
+        };
+        UserService service = new UserService(tempDir.resolve("metered.json").toString(),
+                PersistenceMode.JOURNAL, null, SnapshotFormat.JSON, metrics);
+        assertEquals(10, size[0]);
+
+        User user = service.create(new User("Metered", "User", 20, "metered@example.com", "desc", List.of()));
+        assertEquals(11, size[0]);
+        assertThrows(NoSuchElementException.class, () -> service.getById("missing"));
+        service.getAll(Map.of("firstName", "metered"));
+        service.getAll(Map.of());
+
+        assertTrue(events.containsAll(List.of("create", "hold:write", "hold:persist",
+                "saved:journal", "getById:error", "hold:read", "getAll",
+                "filtered:getAll:1:1")));
+        assertEquals(1, events.stream().filter(e -> e.startsWith("filtered:")).count());
+
+        service.delete(user.getId());
+        assertEquals(10, size[0]);
+        service.close();
+    }
+
     /**
      * Тест проверяет загрузку пользователей из resources/users.json, их корректное чтение,
      * удаление одного пользователя, сохранение и восстановление.
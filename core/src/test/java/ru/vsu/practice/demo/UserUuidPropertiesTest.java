@@ -0,0 +1,61 @@
+package ru.vsu.practice.demo;
+
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Property-based проверка посимвольного разбора UUID:
+ * результат должен совпадать с прежним регулярным выражением
+ * и с разбором {@link UUID#fromString}.
+ */
+public class UserUuidPropertiesTest {
+
+    /**
+     * Регулярное выражение, которое использовалось до посимвольного разбора.
+     */
+    private static final Pattern UUID_PATTERN =
+            Pattern.compile("^[0-9a-fA-F]{8}-"
+                    + "[0-9a-fA-F]{4}-"
+                    + "[1-5][0-9a-fA-F]{3}-"
+                    + "[89abAB][0-9a-fA-F]{3}-"
+                    + "[0-9a-fA-F]{12}$");
+
+    @Property(tries = 2000)
+    void isUuidMatchesRegex(@ForAll("candidates") String value) {
+        assertEquals(UUID_PATTERN.matcher(value).matches(), User.isUuid(value), value);
+    }
+
+    @Property(tries = 2000)
+    void parseUuidMatchesJdk(@ForAll("candidates") String value) {
+        UUID parsed = User.parseUuid(value);
+        if (UUID_PATTERN.matcher(value).matches()) {
+            assertEquals(UUID.fromString(value), parsed, value);
+            assertEquals(value.toLowerCase(), parsed.toString(), value);
+        } else {
+            assertNull(parsed, value);
+        }
+    }
+
+    @Provide
+    Arbitrary<String> candidates() {
+        Arbitrary<String> random = Arbitraries.create(() -> UUID.randomUUID().toString());
+        Arbitrary<String> mutated = Arbitraries.integers().between(0, 35)
+                .flatMap(pos -> Arbitraries.of('0', '5', '9', 'a', 'b', 'c', 'f', 'g', 'A', 'F', 'G', '-', 'z', '٣', 'Ａ')
+                        .map(c -> {
+                            char[] chars = UUID.randomUUID().toString().toCharArray();
+                            chars[pos] = c;
+                            return new String(chars);
+                        }));
+        Arbitrary<String> noise = Arbitraries.strings().withChars("0123456789abcdefABCDEF-").ofMinLength(30).ofMaxLength(40);
+        return Arbitraries.oneOf(random, mutated, noise);
+    }
+}
@@ -0,0 +1,42 @@
+package ru.vsu.practice.demo;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+
+import java.util.Map;
+
+/**
+ * Запуск неблокирующего варианта API на Spring WebFlux и Netty.
+ * Хранилище, режим сохранения и групповое сохранение выбираются
+ * теми же системными свойствами, что и в основном приложении:
+ * {@value UserRepository#STORAGE_PROPERTY},
+ * {@value UserRepository#PERSISTENCE_PROPERTY} и
+ * {@value UserRepository#GROUP_COMMIT_PROPERTY}.
+ */
+@SpringBootApplication
+public class ReactiveApplication {
+
+    /**
+     * Неблокирующий фасад над выбранным хранилищем.
+     *
+     * @return фасад хранилища
+     */
+    @Bean(destroyMethod = "close")
+    public ReactiveUserService reactiveUserService() {
+        return new ReactiveUserService(
+                UserRepository.openConfigured(UserMetrics.NONE));
+    }
+
+    /**
+     * Точка входа в приложение.
+     *
+     * @param args аргументы командной строки
+     */
+    public static void main(final String[] args) {
+        SpringApplication app = new SpringApplication(
+                ReactiveApplication.class);
+        app.setDefaultProperties(Map.of("server.port", "5051"));
+        app.run(args);
+    }
+}
@@ -0,0 +1,619 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Неблокирующий контроллер пользователей с теми же маршрутами /api/v1,
+ * что и {@code UserController}. Списки без limit и after отдаются
+ * потоком с учетом обратного давления: в JSON-массиве или в NDJSON
+ * при заголовке Accept: application/x-ndjson. Некорректные данные
+ * дают 400, отсутствующий пользователь — 404.
+ */
+@RestController
+@RequestMapping("/api/v1")
+public final class ReactiveUserController {
+
+    /**
+     * Инстантс логгера.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(
+            ReactiveUserController.class);
+
+    /**
+     * Тип содержимого потоковой выдачи: по одному JSON-объекту на строку.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * Размер страницы по умолчанию, если задан только курсор.
+     */
+    private static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * Наибольшее число элементов в пакетном запросе.
+     */
+    private static final int MAX_BATCH = 10_000;
+
+    /**
+     * Число кандидатов в друзья по умолчанию.
+     */
+    private static final int DEFAULT_SUGGESTIONS = 10;
+
+    /**
+     * Наибольшее число кандидатов в друзья в одном ответе.
+     */
+    private static final int MAX_SUGGESTIONS = 100;
+
+    /**
+     * Число результатов поиска по умолчанию.
+     */
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+
+    /**
+     * Наибольшее число результатов поиска в одном ответе.
+     */
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    /**
+     * Параметры постраничного чтения; в фильтры не передаются.
+     */
+    private static final List<String> PAGE_PARAMS =
+            List.of("limit", "after", "sort");
+
+    /**
+     * Маркер подробных строк журнала запросов, как в
+     * {@code UserController}; предупреждения и ошибки идут без маркера.
+     */
+    private static final Marker REQUEST = MarkerFactory.getMarker("REQUEST");
+
+    /**
+     * Сериализатор тел запросов для журнала.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Неблокирующий фасад хранилища.
+     */
+    private final ReactiveUserService users;
+
+    /**
+     * Конструктор с внедрением фасада хранилища.
+     *
+     * @param usersParam фасад хранилища
+     */
+    public ReactiveUserController(final ReactiveUserService usersParam) {
+        this.users = usersParam;
+    }
+
+    /**
+     * Получить всех пользователей с возможной фильтрацией.
+     * При заданных limit или after возвращается одна страница
+     * с курсором следующей в заголовках X-Next-Cursor и Link.
+     *
+     * @param params  параметры фильтрации и постраничного чтения
+     * @param request запрос, из которого строится ссылка на страницу
+     * @return пользователи
+     */
+    @GetMapping("/users")
+    public Mono<ResponseEntity<Flux<User>>> getAllUsers(
+            final @RequestParam Map<String, String> params,
+            final ServerHttpRequest request) {
+        LOG.info(REQUEST, "GET /users with filters: {}", params);
+        return list(params, request, users::getAll, users::getPage,
+                "getAllUsers");
+    }
+
+    /**
+     * Потоково выдать всех пользователей в формате NDJSON.
+     *
+     * @param params параметры фильтрации и порядок sort
+     * @return поток пользователей
+     */
+    @GetMapping(value = "/users", produces = APPLICATION_NDJSON)
+    public Mono<ResponseEntity<Flux<User>>> streamAllUsers(
+            final @RequestParam Map<String, String> params) {
+        LOG.info(REQUEST, "GET /users as NDJSON with filters: {}", params);
+        return Mono.fromCallable(() -> ResponseEntity.ok(users.getAll(
+                        withoutPageParams(params),
+                        UserSort.parse(params.get("sort")))))
+                .onErrorResume(e -> failure(e, "streamAllUsers"));
+    }
+
+    /**
+     * Получить пользователя по ID.
+     *
+     * @param uid идентификатор пользователя
+     * @return пользователь
+     */
+    @GetMapping("/user/{uid}")
+    public Mono<ResponseEntity<User>> getUserById(
+            final @PathVariable("uid") String uid) {
+        LOG.info(REQUEST, "GET /user/{}", uid);
+        return users.getById(uid).map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "getUserById"));
+    }
+
+    /**
+     * Получить пользователей по списку ID.
+     *
+     * @param ids идентификаторы через запятую
+     * @return найденные пользователи в порядке запроса
+     */
+    @GetMapping("/users/batch")
+    public Mono<ResponseEntity<Flux<User>>> getUsersByIds(
+            final @RequestParam("ids") List<String> ids) {
+        LOG.info(REQUEST, "GET /users/batch with {} ids", ids.size());
+        if (ids.size() > MAX_BATCH) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return Mono.just(ResponseEntity.ok(users.getByIds(ids)));
+    }
+
+    /**
+     * Выгрузить всех пользователей в формате NDJSON из снимка
+     * на момент запроса.
+     *
+     * @return поток пользователей
+     */
+    @GetMapping(value = "/users/export", produces = APPLICATION_NDJSON)
+    public Flux<User> exportUsers() {
+        LOG.info(REQUEST, "GET /users/export");
+        return users.export();
+    }
+
+    /**
+     * Получить список друзей пользователя.
+     * Поддерживает те же параметры постраничного чтения, что и /users.
+     *
+     * @param uid     идентификатор пользователя
+     * @param params  фильтры и параметры постраничного чтения
+     * @param request запрос, из которого строится ссылка на страницу
+     * @return друзья
+     */
+    @GetMapping("/user/{uid}/friends")
+    public Mono<ResponseEntity<Flux<User>>> getUserFriends(
+            final @PathVariable("uid") String uid,
+            final @RequestParam Map<String, String> params,
+            final ServerHttpRequest request) {
+        LOG.info(REQUEST, "GET /user/{}/friends with filters: {}", uid, params);
+        return users.getById(uid).then(list(params, request,
+                (filters, sort) -> users.getFriends(uid, filters, sort),
+                (filters, query) -> users.getFriendsPage(uid, filters, query),
+                "getUserFriends"))
+                .onErrorResume(e -> failure(e, "getUserFriends"));
+    }
+
+    /**
+     * Потоково выдать друзей пользователя в формате NDJSON.
+     *
+     * @param uid    идентификатор пользователя
+     * @param params фильтры и порядок sort
+     * @return поток друзей
+     */
+    @GetMapping(value = "/user/{uid}/friends", produces = APPLICATION_NDJSON)
+    public Mono<ResponseEntity<Flux<User>>> streamUserFriends(
+            final @PathVariable("uid") String uid,
+            final @RequestParam Map<String, String> params) {
+        LOG.info(REQUEST, "GET /user/{}/friends as NDJSON with filters: {}",
+                uid, params);
+        return users.getById(uid)
+                .map(user -> ResponseEntity.ok(users.getFriends(uid,
+                        withoutPageParams(params),
+                        UserSort.parse(params.get("sort")))))
+                .onErrorResume(e -> failure(e, "streamUserFriends"));
+    }
+
+    /**
+     * Получить общих друзей двух пользователей.
+     *
+     * @param uid      идентификатор пользователя
+     * @param otherUid идентификатор второго пользователя
+     * @return общие друзья в порядке добавления пользователей
+     */
+    @GetMapping("/user/{uid}/friends/mutual/{otherUid}")
+    public Mono<ResponseEntity<List<User>>> getMutualFriends(
+            final @PathVariable("uid") String uid,
+            final @PathVariable("otherUid") String otherUid) {
+        LOG.info(REQUEST, "GET /user/{}/friends/mutual/{}", uid, otherUid);
+        return users.getMutualFriends(uid, otherUid)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "getMutualFriends"));
+    }
+
+    /**
+     * Предложить друзей друзей по убыванию числа общих друзей.
+     *
+     * @param uid   идентификатор пользователя
+     * @param limit число кандидатов: от 1 до {@value #MAX_SUGGESTIONS}
+     * @return кандидаты с числом общих друзей
+     */
+    @GetMapping("/user/{uid}/friends/suggestions")
+    public Mono<ResponseEntity<List<FriendSuggestion>>> suggestFriends(
+            final @PathVariable("uid") String uid,
+            final @RequestParam(value = "limit",
+                    required = false) Integer limit) {
+        LOG.info(REQUEST, "GET /user/{}/friends/suggestions", uid);
+        int size = limit == null ? DEFAULT_SUGGESTIONS : limit;
+        if (size < 1 || size > MAX_SUGGESTIONS) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return users.suggestFriends(uid, size)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "suggestFriends"));
+    }
+
+    /**
+     * Получить распределение пользователей по числу друзей.
+     *
+     * @return число пользователей и связей, перцентили и гистограмма
+     */
+    @GetMapping("/users/degrees")
+    public Mono<ResponseEntity<DegreeStats>> getDegreeStats() {
+        LOG.info(REQUEST, "GET /users/degrees");
+        return users.getDegreeStats()
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "getDegreeStats"));
+    }
+
+    /**
+     * Найти пользователей по словам имени, фамилии, email и описания.
+     *
+     * @param q     слова запроса; слово со * на конце — префикс
+     * @param limit число результатов: от 1 до {@value #MAX_SEARCH_RESULTS}
+     * @return найденные пользователи по убыванию релевантности
+     */
+    @GetMapping("/users/search")
+    public Mono<ResponseEntity<List<SearchHit>>> searchUsers(
+            final @RequestParam("q") String q,
+            final @RequestParam(value = "limit",
+                    required = false) Integer limit) {
+        LOG.info(REQUEST, "GET /users/search?q={}", q);
+        int size = limit == null ? DEFAULT_SEARCH_RESULTS : limit;
+        if (q.isBlank() || size < 1 || size > MAX_SEARCH_RESULTS) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return users.search(q, size)
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "searchUsers"));
+    }
+
+    /**
+     * Удалить пользователя по ID.
+     *
+     * @param uid идентификатор пользователя
+     * @return статус удаления
+     */
+    @DeleteMapping("/user/{uid}")
+    public Mono<ResponseEntity<Void>> deleteUser(
+            final @PathVariable("uid") String uid) {
+        LOG.info(REQUEST, "DELETE /user/{}", uid);
+        return users.delete(uid)
+                .then(Mono.just(ResponseEntity.noContent().<Void>build()))
+                .onErrorResume(e -> failure(e, "deleteUser"));
+    }
+
+    /**
+     * Создать нового пользователя.
+     *
+     * @param user данные пользователя
+     * @return созданный пользователь
+     */
+    @PostMapping("/user")
+    public Mono<ResponseEntity<User>> createUser(
+            final @RequestBody User user) {
+        LOG.info(REQUEST, "POST /user with uid {}", user.getId());
+        LOG.atDebug().setMessage("POST /user body: {}")
+                .addArgument(() -> payload(user)).log();
+        return users.create(user).map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "createUser"));
+    }
+
+    /**
+     * Создать пакет пользователей.
+     *
+     * @param batch данные пользователей
+     * @return результаты по каждому пользователю в порядке пакета
+     */
+    @PostMapping("/users/batch")
+    public Mono<ResponseEntity<List<BatchResult>>> createUsers(
+            final @RequestBody List<User> batch) {
+        LOG.info(REQUEST, "POST /users/batch with {} users", batch.size());
+        return applyBatch(batch, users::createAll, "createUsers");
+    }
+
+    /**
+     * Обновить информацию о пользователе.
+     *
+     * @param uid   идентификатор пользователя
+     * @param patch данные для обновления
+     * @return обновлённый пользователь
+     */
+    @PutMapping("/user/{uid}")
+    public Mono<ResponseEntity<User>> updateUser(
+            final @PathVariable("uid") String uid,
+            final @RequestBody User patch) {
+        LOG.info(REQUEST, "PUT /user/{}", uid);
+        LOG.atDebug().setMessage("PUT /user/{} body: {}").addArgument(uid)
+                .addArgument(() -> payload(patch)).log();
+        return users.update(uid, patch).map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, "updateUser"));
+    }
+
+    /**
+     * Добавить друга пользователю.
+     *
+     * @param uid     идентификатор пользователя
+     * @param payload JSON с ключом friendUid
+     * @return статус выполнения
+     */
+    @PatchMapping("/user/{uid}/friends/add")
+    public Mono<ResponseEntity<Void>> addFriend(
+            final @PathVariable("uid") String uid,
+            final @RequestBody Map<String, String> payload) {
+        String friendUid = payload.get("friendUid");
+        LOG.info(REQUEST, "PATCH /user/{}/friends/add with friendUid: {}",
+                uid, friendUid);
+        return users.addFriend(uid, friendUid)
+                .then(Mono.just(ResponseEntity.noContent().<Void>build()))
+                .onErrorResume(e -> failure(e, "addFriend"));
+    }
+
+    /**
+     * Удалить друга у пользователя.
+     *
+     * @param uid     идентификатор пользователя
+     * @param payload JSON с ключом friendUid
+     * @return статус выполнения
+     */
+    @PatchMapping("/user/{uid}/friends/rm")
+    public Mono<ResponseEntity<Void>> removeFriend(
+            final @PathVariable("uid") String uid,
+            final @RequestBody Map<String, String> payload) {
+        String friendUid = payload.get("friendUid");
+        LOG.info(REQUEST, "PATCH /user/{}/friends/rm with friendUid: {}",
+                uid, friendUid);
+        return users.removeFriend(uid, friendUid)
+                .then(Mono.just(ResponseEntity.noContent().<Void>build()))
+                .onErrorResume(e -> failure(e, "removeFriend"));
+    }
+
+    /**
+     * Добавить пакет связей дружбы.
+     *
+     * @param edges связи: uid и friendUid
+     * @return результаты по каждой связи в порядке пакета
+     */
+    @PatchMapping("/users/friends/add")
+    public Mono<ResponseEntity<List<BatchResult>>> addFriends(
+            final @RequestBody List<FriendEdge> edges) {
+        LOG.info(REQUEST, "PATCH /users/friends/add with {} edges",
+                edges.size());
+        return applyBatch(edges, users::addFriends, "addFriends");
+    }
+
+    /**
+     * Удалить пакет связей дружбы.
+     *
+     * @param edges связи: uid и friendUid
+     * @return результаты по каждой связи в порядке пакета
+     */
+    @PatchMapping("/users/friends/rm")
+    public Mono<ResponseEntity<List<BatchResult>>> removeFriends(
+            final @RequestBody List<FriendEdge> edges) {
+        LOG.info(REQUEST, "PATCH /users/friends/rm with {} edges",
+                edges.size());
+        return applyBatch(edges, users::removeFriends, "removeFriends");
+    }
+
+    /**
+     * Список целиком потоком или одна страница, если задан limit
+     * или after.
+     *
+     * @param params  параметры запроса
+     * @param request запрос, из которого строится ссылка на страницу
+     * @param all     поток всего списка по фильтрам и порядку
+     * @param page    чтение страницы по фильтрам и параметрам страницы
+     * @param name    имя операции для журнала
+     * @return ответ
+     */
+    private static Mono<ResponseEntity<Flux<User>>> list(
+            final Map<String, String> params,
+            final ServerHttpRequest request,
+            final ListQuery all,
+            final PageRead page,
+            final String name) {
+        return Mono.defer(() -> {
+            Map<String, String> filters = withoutPageParams(params);
+            if (!isPaged(params)) {
+                return Mono.just(ResponseEntity.ok(all.apply(filters,
+                        UserSort.parse(params.get("sort")))));
+            }
+            return page.apply(filters, pageQuery(params))
+                    .map(result -> pageResponse(result, request));
+        }).onErrorResume(e -> failure(e, name));
+    }
+
+    /**
+     * Применяет пакетную операцию и формирует ответ с результатами.
+     *
+     * @param batch     элементы пакета
+     * @param operation пакетная операция
+     * @param name      имя операции для журнала
+     * @param <T>       тип элемента
+     * @return результаты элементов или 400, если пакет слишком велик
+     */
+    private static <T> Mono<ResponseEntity<List<BatchResult>>> applyBatch(
+            final List<T> batch,
+            final Function<List<T>, Mono<List<BatchResult>>> operation,
+            final String name) {
+        if (batch.size() > MAX_BATCH) {
+            LOG.warn("Batch of {} items exceeds {}", batch.size(), MAX_BATCH);
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return operation.apply(batch).map(ResponseEntity::ok)
+                .onErrorResume(e -> failure(e, name));
+    }
+
+    /**
+     * Отвечает на ошибку: 400 для некорректных данных,
+     * 404 для отсутствующего пользователя, 501 для операции,
+     * которую хранилище не поддерживает, иначе 500.
+     *
+     * @param error ошибка
+     * @param name  имя операции для журнала
+     * @param <T>   тип тела ответа
+     * @return ответ с кодом ошибки
+     */
+    private static <T> Mono<ResponseEntity<T>> failure(
+            final Throwable error, final String name) {
+        if (error instanceof IllegalArgumentException) {
+            LOG.warn("Bad request in {}: {}", name, error.getMessage());
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        if (error instanceof NoSuchElementException) {
+            LOG.warn("Not found in {}: {}", name, error.getMessage());
+            return Mono.just(ResponseEntity.notFound().build());
+        }
+        if (error instanceof UnsupportedOperationException) {
+            LOG.warn("Not supported in {}: {}", name, error.getMessage());
+            return Mono.just(ResponseEntity.status(
+                    HttpStatus.NOT_IMPLEMENTED).build());
+        }
+        LOG.error("Error in {}: ", name, error);
+        return Mono.just(ResponseEntity.status(
+                HttpStatus.INTERNAL_SERVER_ERROR).build());
+    }
+
+    /**
+     * Проверяет, запрошено ли постраничное чтение.
+     *
+     * @param params параметры запроса
+     * @return true, если задан limit или after
+     */
+    private static boolean isPaged(final Map<String, String> params) {
+        return params.containsKey("limit") || params.containsKey("after");
+    }
+
+    /**
+     * Отделяет фильтры от параметров постраничного чтения.
+     *
+     * @param params параметры запроса
+     * @return только фильтры
+     */
+    private static Map<String, String> withoutPageParams(
+            final Map<String, String> params) {
+        Map<String, String> filters = new HashMap<>(params);
+        PAGE_PARAMS.forEach(filters::remove);
+        return filters;
+    }
+
+    /**
+     * Собирает параметры страницы из запроса.
+     *
+     * @param params параметры запроса
+     * @return параметры страницы
+     * @throws IllegalArgumentException если параметры некорректны
+     */
+    private static PageQuery pageQuery(final Map<String, String> params) {
+        String limit = params.get("limit");
+        return new PageQuery(
+                limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit),
+                params.get("after"),
+                UserSort.parse(params.get("sort")));
+    }
+
+    /**
+     * Формирует ответ со страницей и ссылкой на следующую.
+     *
+     * @param page    страница пользователей
+     * @param request текущий запрос
+     * @return ответ
+     */
+    private static ResponseEntity<Flux<User>> pageResponse(
+            final UserPage page, final ServerHttpRequest request) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            String next = UriComponentsBuilder.fromUri(request.getURI())
+                    .replaceQueryParam("after", page.getNextCursor())
+                    .toUriString();
+            response.header("X-Next-Cursor", page.getNextCursor());
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(Flux.fromIterable(page.getItems()));
+    }
+
+    /**
+     * Поток всего списка по фильтрам и порядку.
+     */
+    @FunctionalInterface
+    private interface ListQuery {
+
+        /**
+         * Открывает поток.
+         *
+         * @param filters фильтры
+         * @param sort    порядок выдачи
+         * @return поток пользователей
+         */
+        Flux<User> apply(Map<String, String> filters, UserSort sort);
+    }
+
+    /**
+     * Чтение одной страницы.
+     */
+    @FunctionalInterface
+    private interface PageRead {
+
+        /**
+         * Читает страницу.
+         *
+         * @param filters фильтры
+         * @param query   параметры страницы
+         * @return страница
+         */
+        Mono<UserPage> apply(Map<String, String> filters, PageQuery query);
+    }
+
+    /**
+     * Тело запроса в JSON для журнала. Вызывается только
+     * при включенном DEBUG, когда строка действительно пишется.
+     *
+     * @param value объект
+     * @return JSON-строка
+     */
+    private static String payload(final Object value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            return String.valueOf(value);
+        }
+    }
+}
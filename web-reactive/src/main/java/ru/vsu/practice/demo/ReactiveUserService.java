@@ -0,0 +1,321 @@
+package ru.vsu.practice.demo;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/**
+ * Неблокирующий фасад хранилища пользователей: операции возвращают
+ * {@link Mono} и {@link Flux}. Изменения сохраняются на диск,
+ * поэтому выполняются на планировщике для блокирующих задач,
+ * а не в потоках цикла событий. Чтение тоже уходит на этот
+ * планировщик, включая поиск по ID: фильтры, поиск и запросы
+ * к графу друзей нагружают процессор, а блокировка чтения ждет
+ * идущее изменение, например пакет из 10 000 пользователей.
+ * Потоки списков обходят
+ * упорядоченный снимок, который хранилище собирает один раз
+ * при подписке, и выдают пользователей по запросу подписчика.
+ */
+public final class ReactiveUserService implements AutoCloseable {
+
+    /** Хранилище пользователей. */
+    private final UserRepository repository;
+
+    /** Планировщик чтения. */
+    private final Scheduler reads;
+
+    /** Планировщик изменений. */
+    private final Scheduler writes;
+
+    /**
+     * Создает фасад с планировщиками по умолчанию.
+     *
+     * @param repositoryParam хранилище пользователей
+     */
+    public ReactiveUserService(final UserRepository repositoryParam) {
+        this(repositoryParam, Schedulers.boundedElastic(),
+                Schedulers.boundedElastic());
+    }
+
+    /**
+     * Создает фасад с заданными планировщиками.
+     *
+     * @param repositoryParam хранилище пользователей
+     * @param readsParam      планировщик чтения
+     * @param writesParam     планировщик изменений
+     */
+    public ReactiveUserService(final UserRepository repositoryParam,
+                               final Scheduler readsParam,
+                               final Scheduler writesParam) {
+        this.repository = repositoryParam;
+        this.reads = readsParam;
+        this.writes = writesParam;
+    }
+
+    /**
+     * Все пользователи с фильтрами в заданном порядке.
+     *
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return поток пользователей
+     */
+    public Flux<User> getAll(final Map<String, String> filters,
+                             final UserSort sort) {
+        return scan(() -> repository.scan(filters, sort));
+    }
+
+    /**
+     * Страница пользователей.
+     *
+     * @param filters карта фильтров
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница
+     */
+    public Mono<UserPage> getPage(final Map<String, String> filters,
+                                  final PageQuery query) {
+        return read(() -> repository.getPage(filters, query));
+    }
+
+    /**
+     * Пользователь по ID.
+     *
+     * @param uid идентификатор пользователя
+     * @return пользователь или ошибка NoSuchElementException
+     */
+    public Mono<User> getById(final String uid) {
+        return read(() -> repository.getById(uid));
+    }
+
+    /**
+     * Пользователи по списку ID; неизвестные пропускаются.
+     *
+     * @param uids идентификаторы
+     * @return поток найденных пользователей в порядке запроса
+     */
+    public Flux<User> getByIds(final List<String> uids) {
+        return read(() -> repository.getByIds(uids))
+                .flatMapIterable(Function.identity());
+    }
+
+    /**
+     * Друзья пользователя с фильтрами в заданном порядке.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @param sort    порядок выдачи
+     * @return поток друзей или ошибка NoSuchElementException
+     */
+    public Flux<User> getFriends(final String uid,
+                                 final Map<String, String> filters,
+                                 final UserSort sort) {
+        return scan(() -> repository.scanFriends(uid, filters, sort));
+    }
+
+    /**
+     * Общие друзья двух пользователей.
+     *
+     * @param uid      идентификатор пользователя
+     * @param otherUid идентификатор второго пользователя
+     * @return общие друзья или ошибка NoSuchElementException
+     */
+    public Mono<List<User>> getMutualFriends(final String uid,
+                                             final String otherUid) {
+        return read(() -> repository.getMutualFriends(uid, otherUid));
+    }
+
+    /**
+     * Кандидаты в друзья по убыванию числа общих друзей.
+     *
+     * @param uid   идентификатор пользователя
+     * @param limit наибольшее число кандидатов
+     * @return кандидаты или ошибка NoSuchElementException
+     */
+    public Mono<List<FriendSuggestion>> suggestFriends(final String uid,
+                                                       final int limit) {
+        return read(() -> repository.suggestFriends(uid, limit));
+    }
+
+    /**
+     * Полнотекстовый поиск пользователей.
+     *
+     * @param query строка запроса
+     * @param limit наибольшее число результатов
+     * @return найденные пользователи по убыванию релевантности
+     */
+    public Mono<List<SearchHit>> search(final String query, final int limit) {
+        return read(() -> repository.search(query, limit));
+    }
+
+    /**
+     * Распределение пользователей по числу друзей.
+     *
+     * @return распределение
+     */
+    public Mono<DegreeStats> getDegreeStats() {
+        return read(repository::getDegreeStats);
+    }
+
+    /**
+     * Страница друзей пользователя.
+     *
+     * @param uid     идентификатор пользователя
+     * @param filters карта фильтров
+     * @param query   размер страницы, курсор и порядок выдачи
+     * @return страница
+     */
+    public Mono<UserPage> getFriendsPage(final String uid,
+                                         final Map<String, String> filters,
+                                         final PageQuery query) {
+        return read(() -> repository.getFriendsPage(uid, filters, query));
+    }
+
+    /**
+     * Все пользователи из снимка на момент подписки, для выгрузки.
+     *
+     * @return поток пользователей в порядке вставки
+     */
+    public Flux<User> export() {
+        return scan(repository::scanAll);
+    }
+
+    /**
+     * Создает пользователя.
+     *
+     * @param user данные пользователя
+     * @return созданный пользователь
+     */
+    public Mono<User> create(final User user) {
+        return write(() -> repository.create(user));
+    }
+
+    /**
+     * Создает пакет пользователей.
+     *
+     * @param batch пользователи
+     * @return результаты элементов
+     */
+    public Mono<List<BatchResult>> createAll(final List<User> batch) {
+        return write(() -> repository.createAll(batch));
+    }
+
+    /**
+     * Обновляет пользователя.
+     *
+     * @param uid   идентификатор пользователя
+     * @param patch изменяемые поля
+     * @return обновленный пользователь
+     */
+    public Mono<User> update(final String uid, final User patch) {
+        return write(() -> repository.update(uid, patch));
+    }
+
+    /**
+     * Удаляет пользователя.
+     *
+     * @param uid идентификатор пользователя
+     * @return завершение удаления
+     */
+    public Mono<Void> delete(final String uid) {
+        return run(() -> repository.delete(uid));
+    }
+
+    /**
+     * Добавляет друга.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @return завершение изменения
+     */
+    public Mono<Void> addFriend(final String uid, final String friendUid) {
+        return run(() -> repository.addFriend(uid, friendUid));
+    }
+
+    /**
+     * Добавляет пакет связей дружбы.
+     *
+     * @param edges связи
+     * @return результаты элементов
+     */
+    public Mono<List<BatchResult>> addFriends(final List<FriendEdge> edges) {
+        return write(() -> repository.addFriends(edges));
+    }
+
+    /**
+     * Удаляет друга.
+     *
+     * @param uid       идентификатор пользователя
+     * @param friendUid идентификатор друга
+     * @return завершение изменения
+     */
+    public Mono<Void> removeFriend(final String uid, final String friendUid) {
+        return run(() -> repository.removeFriend(uid, friendUid));
+    }
+
+    /**
+     * Удаляет пакет связей дружбы.
+     *
+     * @param edges связи
+     * @return результаты элементов
+     */
+    public Mono<List<BatchResult>> removeFriends(
+            final List<FriendEdge> edges) {
+        return write(() -> repository.removeFriends(edges));
+    }
+
+    /**
+     * Закрывает хранилище.
+     */
+    @Override
+    public void close() {
+        repository.close();
+    }
+
+    /**
+     * Поток пользователей по обходу хранилища; обход начинается
+     * при подписке на планировщике чтения.
+     *
+     * @param source начало обхода
+     * @return поток пользователей
+     */
+    private Flux<User> scan(final Iterable<User> source) {
+        return Flux.fromIterable(source).subscribeOn(reads);
+    }
+
+    /**
+     * Чтение на планировщике чтения.
+     *
+     * @param call чтение
+     * @param <T>  тип результата
+     * @return результат
+     */
+    private <T> Mono<T> read(final Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(reads);
+    }
+
+    /**
+     * Изменение на планировщике изменений.
+     *
+     * @param call изменение
+     * @param <T>  тип результата
+     * @return результат
+     */
+    private <T> Mono<T> write(final Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(writes);
+    }
+
+    /**
+     * Изменение без результата на планировщике изменений.
+     *
+     * @param action изменение
+     * @return завершение изменения
+     */
+    private Mono<Void> run(final Runnable action) {
+        return Mono.fromRunnable(action).subscribeOn(writes).then();
+    }
+}
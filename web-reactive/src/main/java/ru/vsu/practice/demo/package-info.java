@@ -0,0 +1,4 @@
+/**
+ * Неблокирующий вариант API пользователей на Spring WebFlux.
+ */
+package ru.vsu.practice.demo;
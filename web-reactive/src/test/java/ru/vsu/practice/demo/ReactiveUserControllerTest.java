@@ -0,0 +1,274 @@
+package ru.vsu.practice.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ReactiveUserControllerTest {
+
+    private static final MediaType NDJSON =
+            MediaType.parseMediaType(ReactiveUserController.APPLICATION_NDJSON);
+
+    /** Как spring.codec.max-in-memory-size в application.properties. */
+    private static final int MAX_IN_MEMORY_SIZE = 16 * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private UserService service;
+    private WebTestClient client;
+    private String aliceId;
+    private String bobId;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, "[]");
+        service = new UserService(file.toString());
+        aliceId = service.create(user("Alice", 30)).getId();
+        bobId = service.create(user("Bob", 25)).getId();
+        service.addFriend(aliceId, bobId);
+        client = client(service);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+    }
+
+    private static WebTestClient client(final UserRepository repository) {
+        return WebTestClient.bindToController(
+                        new ReactiveUserController(new ReactiveUserService(repository)))
+                .httpMessageCodecs(codecs -> codecs.defaultCodecs()
+                        .maxInMemorySize(MAX_IN_MEMORY_SIZE))
+                .build();
+    }
+
+    private static User user(final String firstName, final int age) {
+        return new User(firstName, "Doe", age,
+                firstName.toLowerCase() + "@example.com", "likes chess", new ArrayList<>());
+    }
+
+    private List<String> stream(final String uri) {
+        List<User> users = client.get().uri(uri).accept(NDJSON).exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(NDJSON)
+                .returnResult(User.class).getResponseBody()
+                .collectList().block();
+        return users.stream().map(User::getId).toList();
+    }
+
+    /**
+     * Проверяет коды ответа на чтение пользователя: 200 для
+     * существующего, 404 для отсутствующего.
+     */
+    @Test
+    public void testGetUserById() {
+        client.get().uri("/api/v1/user/{uid}", aliceId).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.firstName").isEqualTo("Alice");
+        client.get().uri("/api/v1/user/{uid}", UUID.randomUUID()).exchange()
+                .expectStatus().isNotFound();
+        client.get().uri("/api/v1/user/{uid}/friends", UUID.randomUUID()).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    /**
+     * Проверяет, что поиск по ID в {@link UserService} не выполняется
+     * в подписавшемся потоке: блокировка чтения может ждать изменение,
+     * и поток цикла событий ждал бы вместе с ней.
+     */
+    @Test
+    public void testGetByIdLeavesCallerThread() {
+        UserService spied = spy(service);
+        List<Thread> threads = new ArrayList<>();
+        doAnswer(invocation -> {
+            threads.add(Thread.currentThread());
+            return invocation.callRealMethod();
+        }).when(spied).getById(aliceId);
+
+        User alice = new ReactiveUserService(spied).getById(aliceId).block();
+        assertEquals("Alice", alice.getFirstName());
+        assertEquals(1, threads.size());
+        assertNotSame(Thread.currentThread(), threads.get(0));
+    }
+
+    /**
+     * Проверяет постраничное чтение: курсор следующей страницы
+     * в заголовках X-Next-Cursor и Link, его отсутствие на последней
+     * странице и 400 для испорченного курсора или порядка.
+     */
+    @Test
+    public void testPagedListHasNextCursor() {
+        String cursor = client.get().uri("/api/v1/users?limit=1&sort=age").exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.LINK)
+                .expectBody().jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].id").isEqualTo(bobId)
+                .returnResult().getResponseHeaders().getFirst("X-Next-Cursor");
+        assertNotNull(cursor);
+
+        client.get().uri("/api/v1/users?limit=1&sort=age&after={after}", cursor).exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist("X-Next-Cursor")
+                .expectBody().jsonPath("$[0].id").isEqualTo(aliceId);
+
+        client.get().uri("/api/v1/users?after=broken").exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/api/v1/users?sort=name").exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Проверяет потоковую выдачу NDJSON: пользователи и друзья
+     * в заданном порядке, 400 для неизвестного порядка и 404
+     * для отсутствующего пользователя.
+     */
+    @Test
+    public void testNdjsonStreams() {
+        assertEquals(List.of(bobId, aliceId), stream("/api/v1/users?sort=age"));
+        assertEquals(List.of(aliceId), stream("/api/v1/users?firstName=ali"));
+        assertEquals(List.of(bobId), stream("/api/v1/user/" + aliceId + "/friends"));
+
+        client.get().uri("/api/v1/users?sort=name").accept(NDJSON).exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/api/v1/user/{uid}/friends", UUID.randomUUID())
+                .accept(NDJSON).exchange()
+                .expectStatus().isNotFound();
+    }
+
+    /**
+     * Проверяет выгрузку NDJSON: все пользователи в порядке добавления.
+     */
+    @Test
+    public void testExport() {
+        assertEquals(List.of(aliceId, bobId), stream("/api/v1/users/export"));
+    }
+
+    /**
+     * Проверяет пакетные операции: результат по каждому элементу
+     * в порядке пакета и 400 для слишком большого пакета.
+     */
+    @Test
+    public void testBatchEndpoints() {
+        User carol = user("Carol", 35);
+        client.post().uri("/api/v1/users/batch")
+                .bodyValue(List.of(carol, carol)).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].id").isEqualTo(carol.getId())
+                .jsonPath("$[0].error").doesNotExist()
+                .jsonPath("$[1].index").isEqualTo(1)
+                .jsonPath("$[1].error").exists();
+
+        client.patch().uri("/api/v1/users/friends/add")
+                .bodyValue(List.of(new FriendEdge(carol.getId(), aliceId),
+                        new FriendEdge(carol.getId(), "missing"))).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[0].error").doesNotExist()
+                .jsonPath("$[1].error").exists();
+        assertEquals(List.of(aliceId), service.getById(carol.getId()).getFriends());
+
+        client.get().uri("/api/v1/users/batch?ids={ids}",
+                        carol.getId() + ",missing," + aliceId).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].firstName").isEqualTo("Carol")
+                .jsonPath("$[1].firstName").isEqualTo("Alice");
+
+        List<FriendEdge> tooMany = new ArrayList<>();
+        for (int i = 0; i <= 10_000; i++) {
+            tooMany.add(new FriendEdge(aliceId, bobId));
+        }
+        client.patch().uri("/api/v1/users/friends/add")
+                .bodyValue(tooMany).exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Проверяет маршруты графа дружбы: общие друзья, кандидаты
+     * с числом общих друзей, 400 для недопустимого limit, 404
+     * для отсутствующего пользователя и распределение по числу друзей.
+     */
+    @Test
+    public void testGraphEndpoints() {
+        String carolId = service.create(user("Carol", 35)).getId();
+        service.addFriend(carolId, bobId);
+        service.addFriend(bobId, carolId);
+
+        client.get().uri("/api/v1/user/{uid}/friends/mutual/{other}", aliceId, carolId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].id").isEqualTo(bobId);
+        client.get().uri("/api/v1/user/{uid}/friends/suggestions", aliceId).exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].user.id").isEqualTo(carolId)
+                .jsonPath("$[0].mutualFriends").isEqualTo(1);
+        client.get().uri("/api/v1/user/{uid}/friends/suggestions?limit=0", aliceId)
+                .exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/api/v1/user/{uid}/friends/suggestions", UUID.randomUUID())
+                .exchange()
+                .expectStatus().isNotFound();
+        client.get().uri("/api/v1/users/degrees").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.users").isEqualTo(3)
+                .jsonPath("$.friendships").isEqualTo(3)
+                .jsonPath("$.max").isEqualTo(1);
+    }
+
+    /**
+     * Проверяет поиск: 200 с найденными, 400 для пустого запроса
+     * или недопустимого limit, 501 для хранилища без поиска.
+     */
+    @Test
+    public void testSearch() {
+        client.get().uri("/api/v1/users/search?q={q}", "ali*").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].user.id").isEqualTo(aliceId);
+        client.get().uri("/api/v1/users/search?q={q}", " ").exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri("/api/v1/users/search?q=chess&limit=0").exchange()
+                .expectStatus().isBadRequest();
+
+        UserRepository unsearchable = mock(UserRepository.class, CALLS_REAL_METHODS);
+        client(unsearchable).get().uri("/api/v1/users/search?q=chess").exchange()
+                .expectStatus().isEqualTo(501);
+    }
+
+    /**
+     * Проверяет изменения: 400 для некорректных данных, 404 для
+     * отсутствующего пользователя, 204 после удаления.
+     */
+    @Test
+    public void testWrites() {
+        client.post().uri("/api/v1/user").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"firstName\":\"Eve\",\"lastName\":\"Doe\","
+                        + "\"age\":20,\"email\":\"not-an-email\"}").exchange()
+                .expectStatus().isBadRequest();
+        client.patch().uri("/api/v1/user/{uid}/friends/add", UUID.randomUUID())
+                .bodyValue(Map.of("friendUid", bobId)).exchange()
+                .expectStatus().isNotFound();
+        client.delete().uri("/api/v1/user/{uid}", bobId).exchange()
+                .expectStatus().isNoContent();
+        assertTrue(service.getById(aliceId).getFriends().isEmpty());
+    }
+}
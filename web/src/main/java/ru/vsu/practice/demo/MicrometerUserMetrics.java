@@ -0,0 +1,158 @@
+package ru.vsu.practice.demo;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Измерения хранилища в Micrometer. Все таймеры и распределения
+ * публикуют гистограммы, поэтому в Prometheus по ним считаются
+ * перцентили:
+ * <ul>
+ *     <li>users.operation — операции, теги operation и outcome;</li>
+ *     <li>users.lock.wait и users.lock.hold — ожидание и удержание
+ *     блокировок, тег lock: read, write или persist;</li>
+ *     <li>users.save и users.save.bytes — длительность и объем записи
+ *     на диск, тег mode: snapshot или journal;</li>
+ *     <li>users.filter.selectivity — доля подошедших под фильтр
+ *     среди проверенных, тег operation;</li>
+ *     <li>users.count — число пользователей.</li>
+ * </ul>
+ * Метры создаются при первом измерении и кешируются по тегам.
+ */
+public final class MicrometerUserMetrics implements UserMetrics {
+
+    /** Границы гистограммы селективности фильтров. */
+    private static final double[] SELECTIVITY_BUCKETS =
+            {0.001, 0.01, 0.1, 0.5, 1.0};
+
+    /** Реестр метрик. */
+    private final MeterRegistry registry;
+
+    /** Таймеры успешных операций по имени операции. */
+    private final Map<String, Timer> succeeded = new ConcurrentHashMap<>();
+
+    /** Таймеры операций, завершившихся исключением. */
+    private final Map<String, Timer> failed = new ConcurrentHashMap<>();
+
+    /** Таймеры ожидания блокировок. */
+    private final Map<String, Timer> lockWaits = new ConcurrentHashMap<>();
+
+    /** Таймеры удержания блокировок. */
+    private final Map<String, Timer> lockHolds = new ConcurrentHashMap<>();
+
+    /** Таймеры записи на диск. */
+    private final Map<String, Timer> saves = new ConcurrentHashMap<>();
+
+    /** Объем записи на диск. */
+    private final Map<String, DistributionSummary> savedBytes =
+            new ConcurrentHashMap<>();
+
+    /** Селективность фильтров. */
+    private final Map<String, DistributionSummary> selectivity =
+            new ConcurrentHashMap<>();
+
+    /** Последнее сообщенное число пользователей. */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Создает измерения в заданном реестре.
+     *
+     * @param registryParam реестр метрик
+     */
+    public MicrometerUserMetrics(final MeterRegistry registryParam) {
+        this.registry = registryParam;
+        Gauge.builder("users.count", count, AtomicInteger::get)
+                .description("Number of stored users")
+                .register(registry);
+    }
+
+    @Override
+    public void operation(final String operation, final long nanos,
+                          final boolean error) {
+        Map<String, Timer> timers = error ? failed : succeeded;
+        timer(timers, operation, name -> Timer.builder("users.operation")
+                .description("UserService operation latency")
+                .tag("operation", name)
+                .tag("outcome", error ? "error" : "success"))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void lockWait(final String lock, final long nanos) {
+        timer(lockWaits, lock, name -> Timer.builder("users.lock.wait")
+                .description("Time spent waiting for a lock")
+                .tag("lock", name))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void lockHold(final String lock, final long nanos) {
+        timer(lockHolds, lock, name -> Timer.builder("users.lock.hold")
+                .description("Time a lock was held")
+                .tag("lock", name))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void saved(final String mode, final long nanos, final long bytes) {
+        timer(saves, mode, name -> Timer.builder("users.save")
+                .description("Disk write duration")
+                .tag("mode", name))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        savedBytes.computeIfAbsent(mode, name -> DistributionSummary
+                        .builder("users.save.bytes")
+                        .description("Bytes written per disk write")
+                        .baseUnit("bytes")
+                        .tag("mode", name)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(bytes);
+    }
+
+    @Override
+    public void filtered(final String operation, final long scanned,
+                         final long matched) {
+        if (scanned == 0) {
+            return;
+        }
+        selectivity.computeIfAbsent(operation, name -> DistributionSummary
+                        .builder("users.filter.selectivity")
+                        .description("Share of scanned users that matched")
+                        .tag("operation", name)
+                        .serviceLevelObjectives(SELECTIVITY_BUCKETS)
+                        .register(registry))
+                .record((double) matched / scanned);
+    }
+
+    @Override
+    public void size(final int users) {
+        count.set(users);
+    }
+
+    /**
+     * Таймер из кеша или новый с гистограммой перцентилей.
+     *
+     * @param timers  кеш таймеров
+     * @param key     значение тега
+     * @param builder построение таймера по значению тега
+     * @return таймер
+     */
+    private Timer timer(final Map<String, Timer> timers, final String key,
+                        final Function<String, Timer.Builder> builder) {
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, name -> builder.apply(name)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        return timer;
+    }
+}
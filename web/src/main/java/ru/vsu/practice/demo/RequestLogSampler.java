@@ -0,0 +1,117 @@
+package ru.vsu.practice.demo;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничение частоты подробных строк журнала запросов.
+ * Строки с маркером {@link #setMarker(String) marker} уровня INFO
+ * и ниже пропускаются не чаще {@link #setPerSecond(int) perSecond}
+ * раз в секунду для каждого шаблона сообщения; у каждого обработчика
+ * свои шаблоны, поэтому лимит действует отдельно на каждую точку
+ * входа. Решение принимается до форматирования сообщения и создания
+ * события, поэтому отброшенная строка ничего не стоит. WARN и ERROR
+ * не ограничиваются. Подключается в logback.xml элементом turboFilter.
+ */
+public final class RequestLogSampler extends TurboFilter {
+
+    /** Лимит строк одного шаблона в секунду по умолчанию. */
+    private static final int DEFAULT_PER_SECOND = 10;
+
+    /** Число младших бит счетчика окна, отведенных под число строк. */
+    private static final int COUNT_BITS = 32;
+
+    /** Маска младших бит счетчика окна. */
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    /** Имя маркера ограничиваемых строк. */
+    private String marker = "REQUEST";
+
+    /** Сколько строк одного шаблона пропускать в секунду. */
+    private int perSecond = DEFAULT_PER_SECOND;
+
+    /** Счетчики по шаблону сообщения. */
+    private final Map<String, AtomicLong> windows = new ConcurrentHashMap<>();
+
+    /** Число отброшенных строк с момента запуска. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Override
+    public FilterReply decide(final Marker markerParam, final Logger logger,
+                              final Level level, final String format,
+                              final Object[] params, final Throwable t) {
+        if (!isStarted() || format == null || markerParam == null
+                || level.isGreaterOrEqual(Level.WARN)
+                || !markerParam.contains(marker)) {
+            return FilterReply.NEUTRAL;
+        }
+        AtomicLong window = windows.get(format);
+        if (window == null) {
+            window = windows.computeIfAbsent(format, f -> new AtomicLong());
+        }
+        if (tryAcquire(window, TimeUnit.MILLISECONDS.toSeconds(
+                System.currentTimeMillis()))) {
+            return FilterReply.NEUTRAL;
+        }
+        dropped.incrementAndGet();
+        return FilterReply.DENY;
+    }
+
+    /**
+     * Занимает место в окне текущей секунды. В старших 32 битах
+     * счетчика — номер секунды, в младших — число строк за нее.
+     *
+     * @param window счетчик шаблона
+     * @param second текущая секунда
+     * @return true, если лимит секунды не исчерпан
+     */
+    private boolean tryAcquire(final AtomicLong window, final long second) {
+        while (true) {
+            long current = window.get();
+            long count = (current >>> COUNT_BITS) == (second & COUNT_MASK)
+                    ? current & COUNT_MASK : 0;
+            if (count >= perSecond) {
+                return false;
+            }
+            long next = (second << COUNT_BITS) | (count + 1);
+            if (window.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Число отброшенных строк с момента запуска.
+     *
+     * @return отброшено строк
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Задает имя маркера ограничиваемых строк.
+     *
+     * @param markerParam имя маркера
+     */
+    public void setMarker(final String markerParam) {
+        this.marker = markerParam;
+    }
+
+    /**
+     * Задает число строк одного шаблона в секунду.
+     *
+     * @param perSecondParam строк в секунду
+     */
+    public void setPerSecond(final int perSecondParam) {
+        this.perSecond = perSecondParam;
+    }
+}
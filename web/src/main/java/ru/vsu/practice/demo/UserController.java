@@ -1,8 +1,16 @@
 package ru.vsu.practice.demo;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -11,12 +19,23 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 
 /**
  * Контроллер для управления пользователями и их друзьями.
@@ -32,40 +51,151 @@ public final class UserController {
             UserController.class);
 
     /**
-     * Инстантс сервисного класса для вазимодействия с пользователем.
+     * Тип содержимого потоковой выдачи: по одному JSON-объекту на строку.
      */
-    private final UserService userService;
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
 
     /**
-     * Конструктор по умолчанию, использующий файл users.json.
+     * Размер страницы по умолчанию, если задан только курсор.
+     */
+    private static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * Наибольшее число элементов в пакетном запросе: пакет применяется
+     * под одной блокировкой записи, и чтение ждет его целиком.
+     */
+    private static final int MAX_BATCH = 10_000;
+
+    /**
+     * Число кандидатов в друзья по умолчанию.
+     */
+    private static final int DEFAULT_SUGGESTIONS = 10;
+
+    /**
+     * Наибольшее число кандидатов в друзья в одном ответе.
+     */
+    private static final int MAX_SUGGESTIONS = 100;
+
+    /**
+     * Число результатов поиска по умолчанию.
+     */
+    private static final int DEFAULT_SEARCH_RESULTS = 20;
+
+    /**
+     * Наибольшее число результатов поиска в одном ответе.
+     */
+    private static final int MAX_SEARCH_RESULTS = 100;
+
+    /**
+     * Параметры постраничного чтения; в фильтры не передаются.
+     */
+    private static final List<String> PAGE_PARAMS =
+            List.of("limit", "after", "sort");
+
+    /**
+     * Маркер подробных строк журнала запросов: их частоту ограничивает
+     * {@link RequestLogSampler}, предупреждения и ошибки идут без маркера.
+     */
+    private static final Marker REQUEST = MarkerFactory.getMarker("REQUEST");
+
+    /**
+     * Сериализатор строк потоковой выдачи.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Системное свойство выбора хранилища: mapped — файлы users.data,
+     * users.slots и users.index вне кучи, h2 — встраиваемая база
+     * users.mv.db, иначе users.json в куче.
+     */
+    public static final String STORAGE_PROPERTY =
+            UserRepository.STORAGE_PROPERTY;
+
+    /**
+     * Инстантс хранилища для вазимодействия с пользователем.
+     */
+    private final UserRepository userService;
+
+    /**
+     * Ведет ли хранилище версии; без них ETag не выдаются.
+     */
+    private final boolean versioned;
+
+    /**
+     * Префикс ETag: версии действуют до перезапуска, поэтому ETag
+     * прежнего запуска с тем же номером версии не совпадет.
+     */
+    private final String etagPrefix = Long.toString(
+            System.currentTimeMillis(), Character.MAX_RADIX) + "-";
+
+    /**
+     * Конструктор по умолчанию: хранилище выбирается системным
+     * свойством {@value #STORAGE_PROPERTY}, по умолчанию users.json;
+     * режим сохранения — свойством
+     * {@value UserRepository#PERSISTENCE_PROPERTY}, групповое
+     * сохранение — {@value UserRepository#GROUP_COMMIT_PROPERTY}.
      */
     public UserController() {
-        this.userService = new UserService("users.json");
+        this(UserRepository.openConfigured(UserMetrics.NONE));
     }
 
     /**
-     * Конструктор с внедрением зависимости UserService.
+     * Конструктор приложения: хранилище выбирается так же, как
+     * в конструкторе по умолчанию, и сообщает измерения в реестр
+     * метрик, откуда их забирает Actuator (/actuator/prometheus).
      *
-     * @param userServiceParam сервис пользователей
+     * @param registry реестр метрик
      */
-    public UserController(final UserService userServiceParam) {
+    @Autowired
+    public UserController(final MeterRegistry registry) {
+        this(UserRepository.openConfigured(
+                new MicrometerUserMetrics(registry)));
+    }
+
+    /**
+     * Конструктор с внедрением зависимости хранилища.
+     *
+     * @param userServiceParam хранилище пользователей
+     */
+    public UserController(final UserRepository userServiceParam) {
         this.userService = userServiceParam;
+        this.versioned = userServiceParam.version() >= 0;
     }
 
     /**
      * Получить всех пользователей с возможной фильтрацией.
+     * При заданных limit или after возвращается одна страница,
+     * курсор следующей страницы передается в заголовках
+     * X-Next-Cursor и Link. Параметр sort задает порядок: age или -age.
+     * ETag ответа — версия всего набора: при If-None-Match с ней
+     * ответ 304 отдается без выборки и сериализации.
      *
-     * @param filters параметры фильтрации
+     * @param params  параметры фильтрации и постраничного чтения
+     * @param request запрос с условными заголовками
      * @return список пользователей
      */
     @GetMapping("/users")
     public ResponseEntity<List<User>> getAllUsers(
-            final @RequestParam Map<String, String> filters) {
-        LOG.info("GET /users with filters: {}", filters);
+            final @RequestParam Map<String, String> params,
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /users with filters: {}", params);
         try {
-            List<User> users = userService.getAll(filters);
-            LOG.info("Returned {} users", users.size());
-            return ResponseEntity.ok(users);
+            if (notModified(request, userService.version())) {
+                return null;
+            }
+            Map<String, String> filters = withoutPageParams(params);
+            if (!isPaged(params)) {
+                List<User> users = userService.getAll(filters);
+                LOG.info(REQUEST, "Returned {} users", users.size());
+                return ResponseEntity.ok(users);
+            }
+            UserPage page = userService.getPage(filters, pageQuery(params));
+            LOG.info(REQUEST, "Returned page of {} users",
+                    page.getItems().size());
+            return pageResponse(page);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad paging parameters for /users: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             LOG.error("Error in getAllUsers: ", e);
             return ResponseEntity.status(
@@ -74,18 +204,26 @@ public final class UserController {
     }
 
     /**
-     * Получить пользователя по ID.
+     * Получить пользователя по ID. ETag ответа — версия пользователя:
+     * при If-None-Match с ней ответ 304 отдается без сериализации.
      *
-     * @param uid идентификатор пользователя
+     * @param uid     идентификатор пользователя
+     * @param request запрос с условными заголовками
      * @return пользователь
      */
     @GetMapping("/user/{uid}")
     public ResponseEntity<User> getUserById(
-            final @PathVariable("uid") String uid) {
-        LOG.info("GET /user/{}", uid);
+            final @PathVariable("uid") String uid,
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /user/{}", uid);
         try {
             User user = userService.getById(uid);
-            LOG.info("Found user: {}", user);
+            LOG.info(REQUEST, "Found user {}", uid);
+            if (notModified(request, user.version())) {
+                return null;
+            }
+            LOG.atDebug().setMessage("User {}: {}").addArgument(uid)
+                    .addArgument(() -> payload(user)).log();
             return ResponseEntity.ok(user);
         } catch (Exception e) {
             LOG.error("Error in getUserById for uid {}: ", uid, e);
@@ -94,22 +232,140 @@ public final class UserController {
         }
     }
 
+    /**
+     * Получить пользователей по списку ID.
+     *
+     * @param ids идентификаторы через запятую
+     * @return найденные пользователи в порядке запроса
+     */
+    @GetMapping("/users/batch")
+    public ResponseEntity<List<User>> getUsersByIds(
+            final @RequestParam("ids") List<String> ids) {
+        LOG.info(REQUEST, "GET /users/batch with {} ids", ids.size());
+        if (ids.size() > MAX_BATCH) {
+            LOG.warn("Batch of {} ids exceeds {}", ids.size(), MAX_BATCH);
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            List<User> users = userService.getByIds(ids);
+            LOG.info(REQUEST, "Found {} of {} users", users.size(), ids.size());
+            return ResponseEntity.ok(users);
+        } catch (Exception e) {
+            LOG.error("Error in getUsersByIds: ", e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Потоково выдать всех пользователей в формате NDJSON.
+     * Упорядоченный снимок пользователей берется один раз при запросе
+     * и пишется в сокет по мере обхода, блокировка сервиса на время
+     * записи не удерживается.
+     *
+     * @param params параметры фильтрации и порядок sort
+     * @return поток пользователей
+     */
+    @GetMapping(value = "/users", produces = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(
+            final @RequestParam Map<String, String> params) {
+        LOG.info(REQUEST, "GET /users as NDJSON with filters: {}", params);
+        try {
+            Map<String, String> filters = withoutPageParams(params);
+            UserSort sort = UserSort.parse(params.get("sort"));
+            return streamResponse(userService.scan(filters, sort));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad parameters for /users: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Выгрузить всех пользователей в формате NDJSON из снимка
+     * на момент запроса. Пользователи пишутся в сокет по одному,
+     * изменения во время выгрузки не ждут ее окончания.
+     *
+     * @return поток пользователей
+     */
+    @GetMapping(value = "/users/export", produces = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        LOG.info(REQUEST, "GET /users/export");
+        StreamingResponseBody body = (OutputStream out) -> {
+            long count = UserNdjson.write(userService.scanAll(), out);
+            LOG.info(REQUEST, "Exported {} users", count);
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(body);
+    }
+
+    /**
+     * Загрузить пользователей из тела запроса в формате NDJSON
+     * или JSON-массива. Тело читается потоком, пользователи создаются
+     * пакетами по {@value UserNdjson#DEFAULT_BATCH}. Если тело
+     * перестает быть корректным JSON, ответ 400 содержит отчет
+     * о записях, созданных до ошибки, и саму ошибку.
+     *
+     * @param body тело запроса
+     * @return число созданных и отклоненных записей и первые ошибки
+     */
+    @PostMapping(value = "/users/import", consumes = {APPLICATION_NDJSON,
+            MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ImportReport> importUsers(final InputStream body) {
+        LOG.info(REQUEST, "POST /users/import");
+        try {
+            ImportReport report = UserNdjson.read(body, userService,
+                    UserNdjson.DEFAULT_BATCH);
+            LOG.info(REQUEST, "Imported {} users, rejected {}",
+                    report.created(), report.failed());
+            if (!report.isComplete()) {
+                LOG.warn("Malformed import body: {}", report.error());
+                return ResponseEntity.badRequest().body(report);
+            }
+            return ResponseEntity.ok(report);
+        } catch (Exception e) {
+            LOG.error("Error in importUsers: ", e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     /**
      * Получить список друзей пользователя.
+     * Поддерживает те же параметры постраничного чтения и тот же
+     * ETag версии набора, что и /users.
      *
      * @param uid     идентификатор пользователя
-     * @param filters фильтры
+     * @param params  фильтры и параметры постраничного чтения
+     * @param request запрос с условными заголовками
      * @return список друзей
      */
     @GetMapping("/user/{uid}/friends")
     public ResponseEntity<List<User>> getUserFriends(
             final @PathVariable("uid") String uid,
-            final @RequestParam Map<String, String> filters) {
-        LOG.info("GET /user/{}/friends with filters: {}", uid, filters);
+            final @RequestParam Map<String, String> params,
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /user/{}/friends with filters: {}", uid, params);
         try {
-            List<User> friends = userService.getFriends(uid, filters);
-            LOG.info("Returned {} friends for user {}", friends.size(), uid);
-            return ResponseEntity.ok(friends);
+            if (notModified(request, userService.version())) {
+                return null;
+            }
+            Map<String, String> filters = withoutPageParams(params);
+            if (!isPaged(params)) {
+                List<User> friends = userService.getFriends(uid, filters);
+                LOG.info(REQUEST, "Returned {} friends for user {}",
+                        friends.size(), uid);
+                return ResponseEntity.ok(friends);
+            }
+            UserPage page = userService.getFriendsPage(uid, filters,
+                    pageQuery(params));
+            LOG.info(REQUEST, "Returned page of {} friends for user {}",
+                    page.getItems().size(), uid);
+            return pageResponse(page);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad paging parameters for /user/{}/friends: {}",
+                    uid, e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             LOG.error("Error in getUserFriends for uid {}: ", uid, e);
             return ResponseEntity.status(
@@ -117,6 +373,161 @@ public final class UserController {
         }
     }
 
+    /**
+     * Потоково выдать друзей пользователя в формате NDJSON.
+     *
+     * @param uid    идентификатор пользователя
+     * @param params фильтры и порядок sort
+     * @return поток друзей
+     */
+    @GetMapping(value = "/user/{uid}/friends", produces = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamUserFriends(
+            final @PathVariable("uid") String uid,
+            final @RequestParam Map<String, String> params) {
+        LOG.info(REQUEST, "GET /user/{}/friends as NDJSON with filters: {}",
+                uid, params);
+        try {
+            Map<String, String> filters = withoutPageParams(params);
+            UserSort sort = UserSort.parse(params.get("sort"));
+            return streamResponse(
+                    userService.scanFriends(uid, filters, sort));
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Bad parameters for /user/{}/friends: {}",
+                    uid, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (NoSuchElementException e) {
+            LOG.error("Error in streamUserFriends for uid {}: ", uid, e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Получить общих друзей двух пользователей.
+     *
+     * @param uid      идентификатор пользователя
+     * @param otherUid идентификатор второго пользователя
+     * @param request  запрос с условными заголовками
+     * @return общие друзья в порядке добавления пользователей
+     */
+    @GetMapping("/user/{uid}/friends/mutual/{otherUid}")
+    public ResponseEntity<List<User>> getMutualFriends(
+            final @PathVariable("uid") String uid,
+            final @PathVariable("otherUid") String otherUid,
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /user/{}/friends/mutual/{}", uid, otherUid);
+        try {
+            if (notModified(request, userService.version())) {
+                return null;
+            }
+            List<User> mutual = userService.getMutualFriends(uid, otherUid);
+            LOG.info(REQUEST, "Returned {} mutual friends of {} and {}",
+                    mutual.size(), uid, otherUid);
+            return ResponseEntity.ok(mutual);
+        } catch (Exception e) {
+            LOG.error("Error in getMutualFriends for {} and {}: ",
+                    uid, otherUid, e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Предложить друзей друзей по убыванию числа общих друзей.
+     *
+     * @param uid     идентификатор пользователя
+     * @param limit   число кандидатов: от 1 до {@value #MAX_SUGGESTIONS}
+     * @param request запрос с условными заголовками
+     * @return кандидаты с числом общих друзей
+     */
+    @GetMapping("/user/{uid}/friends/suggestions")
+    public ResponseEntity<List<FriendSuggestion>> suggestFriends(
+            final @PathVariable("uid") String uid,
+            final @RequestParam(value = "limit",
+                    required = false) Integer limit,
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /user/{}/friends/suggestions", uid);
+        int size = limit == null ? DEFAULT_SUGGESTIONS : limit;
+        if (size < 1 || size > MAX_SUGGESTIONS) {
+            LOG.warn("Suggestion limit {} is out of range", size);
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            if (notModified(request, userService.version())) {
+                return null;
+            }
+            List<FriendSuggestion> suggestions =
+                    userService.suggestFriends(uid, size);
+            LOG.info(REQUEST, "Returned {} suggestions for user {}",
+                    suggestions.size(), uid);
+            return ResponseEntity.ok(suggestions);
+        } catch (Exception e) {
+            LOG.error("Error in suggestFriends for uid {}: ", uid, e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Получить распределение пользователей по числу друзей.
+     *
+     * @param request запрос с условными заголовками
+     * @return число пользователей и связей, перцентили и гистограмма
+     */
+    @GetMapping("/users/degrees")
+    public ResponseEntity<DegreeStats> getDegreeStats(
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /users/degrees");
+        try {
+            if (notModified(request, userService.version())) {
+                return null;
+            }
+            return ResponseEntity.ok(userService.getDegreeStats());
+        } catch (Exception e) {
+            LOG.error("Error in getDegreeStats: ", e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Найти пользователей по словам имени, фамилии, email и описания.
+     *
+     * @param q       слова запроса; слово со * на конце — префикс
+     * @param limit   число результатов: от 1 до {@value #MAX_SEARCH_RESULTS}
+     * @param request запрос с условными заголовками
+     * @return найденные пользователи по убыванию релевантности
+     */
+    @GetMapping("/users/search")
+    public ResponseEntity<List<SearchHit>> searchUsers(
+            final @RequestParam("q") String q,
+            final @RequestParam(value = "limit",
+                    required = false) Integer limit,
+            final WebRequest request) {
+        LOG.info(REQUEST, "GET /users/search?q={}", q);
+        int size = limit == null ? DEFAULT_SEARCH_RESULTS : limit;
+        if (q.isBlank() || size < 1 || size > MAX_SEARCH_RESULTS) {
+            LOG.warn("Search query '{}' or limit {} is invalid", q, size);
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            if (notModified(request, userService.version())) {
+                return null;
+            }
+            List<SearchHit> hits = userService.search(q, size);
+            LOG.info(REQUEST, "Returned {} search results for '{}'",
+                    hits.size(), q);
+            return ResponseEntity.ok(hits);
+        } catch (UnsupportedOperationException e) {
+            LOG.warn("Search is not supported: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        } catch (Exception e) {
+            LOG.error("Error in searchUsers for '{}': ", q, e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     /**
      * Удалить пользователя по ID.
      *
@@ -126,10 +537,10 @@ public final class UserController {
     @DeleteMapping("/user/{uid}")
     public ResponseEntity<Void> deleteUser(
             final @PathVariable("uid") String uid) {
-        LOG.info("DELETE /user/{}", uid);
+        LOG.info(REQUEST, "DELETE /user/{}", uid);
         try {
             userService.delete(uid);
-            LOG.info("Deleted user with uid {}", uid);
+            LOG.info(REQUEST, "Deleted user with uid {}", uid);
             return ResponseEntity.noContent().build();
         } catch (Exception e) {
             LOG.error("Error deleting user {}: ", uid, e);
@@ -146,10 +557,12 @@ public final class UserController {
      */
     @PostMapping("/user")
     public ResponseEntity<User> createUser(final @RequestBody User user) {
-        LOG.info("POST /user with user: {}", user);
+        LOG.info(REQUEST, "POST /user with uid {}", user.getId());
+        LOG.atDebug().setMessage("POST /user body: {}")
+                .addArgument(() -> payload(user)).log();
         try {
             User created = userService.create(user);
-            LOG.info("Created user with uid {}", created.getId());
+            LOG.info(REQUEST, "Created user with uid {}", created.getId());
             return ResponseEntity.ok(created);
         } catch (Exception e) {
             LOG.error("Error creating user: ", e);
@@ -159,21 +572,61 @@ public final class UserController {
     }
 
     /**
-     * Обновить информацию о пользователе.
+     * Создать пакет пользователей. Пакет сохраняется на диск один раз,
+     * ошибка отдельного пользователя не отменяет остальных.
+     *
+     * @param users данные пользователей
+     * @return результаты по каждому пользователю в порядке пакета
+     */
+    @PostMapping("/users/batch")
+    public ResponseEntity<List<BatchResult>> createUsers(
+            final @RequestBody List<User> users) {
+        LOG.info(REQUEST, "POST /users/batch with {} users", users.size());
+        return applyBatch(users, userService::createAll, "createUsers");
+    }
+
+    /**
+     * Обновить информацию о пользователе. С заголовком If-Match
+     * обновление применяется, только если пользователь не менялся
+     * с момента чтения ETag, иначе ответ 412.
      *
-     * @param uid   идентификатор пользователя
-     * @param patch данные для обновления
-     * @return обновлённый пользователь
+     * @param uid     идентификатор пользователя
+     * @param patch   данные для обновления
+     * @param ifMatch ETag, полученный при чтении пользователя, или *
+     * @return обновлённый пользователь с новым ETag
      */
     @PutMapping("/user/{uid}")
     public ResponseEntity<User> updateUser(
             final @PathVariable("uid") String uid,
-            final @RequestBody User patch) {
-        LOG.info("PUT /user/{} with patch: {}", uid, patch);
+            final @RequestBody User patch,
+            final @RequestHeader(value = HttpHeaders.IF_MATCH,
+                    required = false) String ifMatch) {
+        LOG.info(REQUEST, "PUT /user/{}", uid);
+        LOG.atDebug().setMessage("PUT /user/{} body: {}").addArgument(uid)
+                .addArgument(() -> payload(patch)).log();
         try {
-            User updated = userService.update(uid, patch);
-            LOG.info("Updated user with uid {}", uid);
-            return ResponseEntity.ok(updated);
+            User updated;
+            if (ifMatch == null || "*".equals(ifMatch.trim())) {
+                updated = userService.update(uid, patch);
+            } else {
+                Long expected = versionOf(ifMatch);
+                if (expected == null) {
+                    LOG.warn("Unknown If-Match for user {}: {}", uid, ifMatch);
+                    return ResponseEntity.status(
+                            HttpStatus.PRECONDITION_FAILED).build();
+                }
+                updated = userService.update(uid, patch, expected);
+            }
+            LOG.info(REQUEST, "Updated user with uid {}", uid);
+            if (!versioned) {
+                return ResponseEntity.ok(updated);
+            }
+            return ResponseEntity.ok().eTag(etag(updated.version()))
+                    .body(updated);
+        } catch (ConcurrentModificationException e) {
+            LOG.warn("Conflicting update of user {}: {}", uid, e.getMessage());
+            return ResponseEntity.status(
+                    HttpStatus.PRECONDITION_FAILED).build();
         } catch (Exception e) {
             LOG.error("Error updating user {}: ", uid, e);
             return ResponseEntity.status(
@@ -193,11 +646,11 @@ public final class UserController {
             final @PathVariable("uid") String uid,
             final @RequestBody Map<String, String> payload) {
         String friendUid = payload.get("friendUid");
-        LOG.info("PATCH /user/{}/friends/add with friendUid: {}",
+        LOG.info(REQUEST, "PATCH /user/{}/friends/add with friendUid: {}",
                 uid, friendUid);
         try {
             userService.addFriend(uid, friendUid);
-            LOG.info("Added friend {} to user {}", friendUid, uid);
+            LOG.info(REQUEST, "Added friend {} to user {}", friendUid, uid);
             return ResponseEntity.noContent().build();
         } catch (Exception e) {
             LOG.error("Error adding friend {} to user {}: ",
@@ -219,11 +672,11 @@ public final class UserController {
             final @PathVariable("uid") String uid,
             final @RequestBody Map<String, String> payload) {
         String friendUid = payload.get("friendUid");
-        LOG.info("PATCH /user/{}/friends/rm with friendUid: {}",
+        LOG.info(REQUEST, "PATCH /user/{}/friends/rm with friendUid: {}",
                 uid, friendUid);
         try {
             userService.removeFriend(uid, friendUid);
-            LOG.info("Removed friend {} from user {}", friendUid, uid);
+            LOG.info(REQUEST, "Removed friend {} from user {}", friendUid, uid);
             return ResponseEntity.noContent().build();
         } catch (Exception e) {
             LOG.error("Error removing friend {} from user {}: ",
@@ -232,4 +685,204 @@ public final class UserController {
                     HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    /**
+     * Добавить пакет связей дружбы.
+     *
+     * @param edges связи: uid и friendUid
+     * @return результаты по каждой связи в порядке пакета
+     */
+    @PatchMapping("/users/friends/add")
+    public ResponseEntity<List<BatchResult>> addFriends(
+            final @RequestBody List<FriendEdge> edges) {
+        LOG.info(REQUEST, "PATCH /users/friends/add with {} edges",
+                edges.size());
+        return applyBatch(edges, userService::addFriends, "addFriends");
+    }
+
+    /**
+     * Удалить пакет связей дружбы.
+     *
+     * @param edges связи: uid и friendUid
+     * @return результаты по каждой связи в порядке пакета
+     */
+    @PatchMapping("/users/friends/rm")
+    public ResponseEntity<List<BatchResult>> removeFriends(
+            final @RequestBody List<FriendEdge> edges) {
+        LOG.info(REQUEST, "PATCH /users/friends/rm with {} edges",
+                edges.size());
+        return applyBatch(edges, userService::removeFriends,
+                "removeFriends");
+    }
+
+    /**
+     * Применяет пакетную операцию и формирует ответ с результатами.
+     *
+     * @param batch     элементы пакета
+     * @param operation пакетная операция хранилища
+     * @param name      имя операции для журнала
+     * @param <T>       тип элемента
+     * @return результаты элементов или 400, если пакет слишком велик
+     */
+    private <T> ResponseEntity<List<BatchResult>> applyBatch(
+            final List<T> batch,
+            final Function<List<T>, List<BatchResult>> operation,
+            final String name) {
+        if (batch.size() > MAX_BATCH) {
+            LOG.warn("Batch of {} items exceeds {}", batch.size(), MAX_BATCH);
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            List<BatchResult> results = operation.apply(batch);
+            long failed = results.stream().filter(r -> !r.isOk()).count();
+            LOG.info(REQUEST, "Applied {} of {} items in {}",
+                    results.size() - failed, results.size(), name);
+            return ResponseEntity.ok(results);
+        } catch (Exception e) {
+            LOG.error("Error in {}: ", name, e);
+            return ResponseEntity.status(
+                    HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Проверяет, запрошено ли постраничное чтение.
+     *
+     * @param params параметры запроса
+     * @return true, если задан limit или after
+     */
+    private static boolean isPaged(final Map<String, String> params) {
+        return params.containsKey("limit") || params.containsKey("after");
+    }
+
+    /**
+     * Отделяет фильтры от параметров постраничного чтения.
+     *
+     * @param params параметры запроса
+     * @return только фильтры
+     */
+    private static Map<String, String> withoutPageParams(
+            final Map<String, String> params) {
+        Map<String, String> filters = new HashMap<>(params);
+        PAGE_PARAMS.forEach(filters::remove);
+        return filters;
+    }
+
+    /**
+     * Собирает параметры страницы из запроса.
+     *
+     * @param params параметры запроса
+     * @return параметры страницы
+     * @throws IllegalArgumentException если параметры некорректны
+     */
+    private static PageQuery pageQuery(final Map<String, String> params) {
+        String limit = params.get("limit");
+        return new PageQuery(
+                limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit),
+                params.get("after"),
+                UserSort.parse(params.get("sort")));
+    }
+
+    /**
+     * Формирует ответ со страницей и ссылкой на следующую.
+     *
+     * @param page страница пользователей
+     * @return ответ
+     */
+    private static ResponseEntity<List<User>> pageResponse(
+            final UserPage page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.getNextCursor())
+                    .toUriString();
+            response.header("X-Next-Cursor", page.getNextCursor());
+            response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(page.getItems());
+    }
+
+    /**
+     * Формирует потоковый ответ: пишет каждого пользователя
+     * отдельной строкой по мере обхода.
+     *
+     * @param users упорядоченный обход пользователей
+     * @return ответ
+     */
+    private static ResponseEntity<StreamingResponseBody> streamResponse(
+            final Iterator<User> users) {
+        StreamingResponseBody body = (OutputStream out) ->
+                UserNdjson.write(users, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(body);
+    }
+
+    /**
+     * Сверяет If-None-Match с версией и проставляет ETag ответа.
+     * Хранилище без версий ETag не получает.
+     *
+     * @param request запрос с условными заголовками
+     * @param version версия пользователя или набора
+     * @return true, если ответ 304 уже сформирован
+     */
+    private boolean notModified(final WebRequest request,
+                                final long version) {
+        return versioned && request.checkNotModified(etag(version));
+    }
+
+    /**
+     * Сильный ETag версии.
+     *
+     * @param version версия пользователя или набора
+     * @return ETag в кавычках
+     */
+    private String etag(final long version) {
+        return "\"" + etagPrefix + version + "\"";
+    }
+
+    /**
+     * Извлекает версию из заголовка If-Match. Слабые ETag и ETag
+     * другого запуска не подходят: сравнение только строгое.
+     *
+     * @param ifMatch значение заголовка: ETag через запятую
+     * @return версия из первого подходящего ETag или null
+     */
+    private Long versionOf(final String ifMatch) {
+        if (!versioned) {
+            return null;
+        }
+        for (String tag : ifMatch.split(",")) {
+            String value = tag.trim();
+            if (value.length() < 2 || !value.startsWith("\"")
+                    || !value.endsWith("\"")) {
+                continue;
+            }
+            value = value.substring(1, value.length() - 1);
+            if (value.startsWith(etagPrefix)) {
+                try {
+                    return Long.parseLong(
+                            value.substring(etagPrefix.length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Тело запроса или ответа в JSON для журнала. Вызывается только
+     * при включенном DEBUG, когда строка действительно пишется.
+     *
+     * @param value объект
+     * @return JSON-строка
+     */
+    private static String payload(final Object value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            return String.valueOf(value);
+        }
+    }
 }
@@ -0,0 +1,359 @@
+package ru.vsu.practice.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class UserControllerTest {
+
+    private static final String NDJSON = UserController.APPLICATION_NDJSON;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private UserService service;
+    private MockMvc mvc;
+    private String aliceId;
+    private String bobId;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Path file = tempDir.resolve("users.json");
+        Files.writeString(file, "[]");
+        service = new UserService(file.toString());
+        aliceId = service.create(user("Alice", 30)).getId();
+        bobId = service.create(user("Bob", 25)).getId();
+        service.addFriend(aliceId, bobId);
+        mvc = mvc(new UserController(service));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+    }
+
+    private static MockMvc mvc(final UserController controller) {
+        return MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    private static User user(final String firstName, final int age) {
+        return new User(firstName, "Doe", age,
+                firstName.toLowerCase() + "@example.com", "likes chess", new ArrayList<>());
+    }
+
+    private String json(final Object value) throws IOException {
+        return mapper.writeValueAsString(value);
+    }
+
+    private String etagOf(final String path) throws Exception {
+        return mvc.perform(get(path)).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    /**
+     * Проверяет ETag пользователя и списков: совпадающий If-None-Match
+     * дает 304, изменение пользователя меняет оба ETag.
+     */
+    @Test
+    public void testConditionalGetReturnsNotModified() throws Exception {
+        String userTag = etagOf("/api/v1/user/" + aliceId);
+        String listTag = etagOf("/api/v1/users");
+        String friendsTag = etagOf("/api/v1/user/" + aliceId + "/friends");
+        assertNotNull(userTag);
+        assertEquals(listTag, friendsTag);
+
+        mvc.perform(get("/api/v1/user/" + aliceId).header(HttpHeaders.IF_NONE_MATCH, userTag))
+                .andExpect(status().isNotModified());
+        mvc.perform(get("/api/v1/users").header(HttpHeaders.IF_NONE_MATCH, listTag))
+                .andExpect(status().isNotModified());
+        mvc.perform(get("/api/v1/user/" + aliceId + "/friends")
+                        .header(HttpHeaders.IF_NONE_MATCH, friendsTag))
+                .andExpect(status().isNotModified());
+
+        User patch = new User();
+        patch.setAge(31);
+        service.update(aliceId, patch);
+        mvc.perform(get("/api/v1/user/" + aliceId).header(HttpHeaders.IF_NONE_MATCH, userTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.age").value(31));
+        mvc.perform(get("/api/v1/users").header(HttpHeaders.IF_NONE_MATCH, listTag))
+                .andExpect(status().isOk());
+    }
+
+    /**
+     * Проверяет If-Match: текущий ETag дает 200 с новым ETag,
+     * устаревший или чужой — 412 без изменения пользователя.
+     */
+    @Test
+    public void testIfMatchRejectsStaleVersion() throws Exception {
+        String tag = etagOf("/api/v1/user/" + aliceId);
+        MvcResult updated = mvc.perform(put("/api/v1/user/" + aliceId)
+                        .header(HttpHeaders.IF_MATCH, tag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"age\":40}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.age").value(40))
+                .andReturn();
+        String fresh = updated.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(fresh);
+        assertNotEquals(tag, fresh);
+
+        mvc.perform(put("/api/v1/user/" + aliceId)
+                        .header(HttpHeaders.IF_MATCH, tag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"age\":50}"))
+                .andExpect(status().isPreconditionFailed());
+        mvc.perform(put("/api/v1/user/" + aliceId)
+                        .header(HttpHeaders.IF_MATCH, "W/" + fresh)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"age\":50}"))
+                .andExpect(status().isPreconditionFailed());
+        mvc.perform(put("/api/v1/user/" + aliceId)
+                        .header(HttpHeaders.IF_MATCH, "*")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"age\":45}"))
+                .andExpect(status().isOk());
+        assertEquals(45, service.getById(aliceId).getAge());
+    }
+
+    /**
+     * Проверяет, что ETag прежнего запуска с тем же номером версии
+     * не подходит: ни для 304, ни для If-Match.
+     */
+    @Test
+    public void testEtagOfAnotherRunDoesNotMatch() throws Exception {
+        String tag = etagOf("/api/v1/user/" + aliceId);
+        Thread.sleep(2);
+        MockMvc restarted = mvc(new UserController(service));
+        String restartedTag = restarted.perform(get("/api/v1/user/" + aliceId))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(tag, restartedTag);
+
+        restarted.perform(get("/api/v1/user/" + aliceId).header(HttpHeaders.IF_NONE_MATCH, tag))
+                .andExpect(status().isOk());
+        restarted.perform(put("/api/v1/user/" + aliceId)
+                        .header(HttpHeaders.IF_MATCH, tag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"age\":50}"))
+                .andExpect(status().isPreconditionFailed());
+        assertEquals(30, service.getById(aliceId).getAge());
+    }
+
+    /**
+     * Проверяет, что хранилище без версий не выдает ETag.
+     */
+    @Test
+    public void testUnversionedStorageHasNoEtag() throws Exception {
+        UserRepository unversioned = mock(UserRepository.class, CALLS_REAL_METHODS);
+        doReturn(service.getById(aliceId)).when(unversioned).getById(aliceId);
+        mvc(new UserController(unversioned)).perform(get("/api/v1/user/" + aliceId))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    /**
+     * Проверяет пакетные маршруты: результаты по элементам в порядке
+     * пакета, выборку по списку ID и 400 для слишком большого пакета.
+     */
+    @Test
+    public void testBatchEndpoints() throws Exception {
+        User carol = user("Carol", 35);
+        mvc.perform(post("/api/v1/users/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(List.of(carol, carol))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(carol.getId()))
+                .andExpect(jsonPath("$[0].error").doesNotExist())
+                .andExpect(jsonPath("$[1].index").value(1))
+                .andExpect(jsonPath("$[1].id").value(carol.getId()))
+                .andExpect(jsonPath("$[1].error").exists());
+
+        mvc.perform(patch("/api/v1/users/friends/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(List.of(new FriendEdge(carol.getId(), aliceId),
+                                new FriendEdge(carol.getId(), "missing")))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].error").doesNotExist())
+                .andExpect(jsonPath("$[1].error").exists());
+        assertEquals(List.of(aliceId), service.getById(carol.getId()).getFriends());
+
+        mvc.perform(get("/api/v1/users/batch")
+                        .param("ids", carol.getId() + ",missing," + aliceId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].firstName").value("Carol"))
+                .andExpect(jsonPath("$[1].firstName").value("Alice"));
+
+        List<FriendEdge> tooMany = new ArrayList<>();
+        for (int i = 0; i <= 10_000; i++) {
+            tooMany.add(new FriendEdge(aliceId, bobId));
+        }
+        mvc.perform(patch("/api/v1/users/friends/rm")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json(tooMany)))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Проверяет поиск: 200 с найденными пользователями, 400
+     * для пустого запроса и 501 для хранилища без поиска.
+     */
+    @Test
+    public void testSearch() throws Exception {
+        mvc.perform(get("/api/v1/users/search").param("q", "ali*"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].user.id").value(aliceId));
+        mvc.perform(get("/api/v1/users/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/v1/users/search").param("q", "chess").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+
+        UserRepository unsearchable = mock(UserRepository.class, CALLS_REAL_METHODS);
+        mvc(new UserController(unsearchable))
+                .perform(get("/api/v1/users/search").param("q", "chess"))
+                .andExpect(status().isNotImplemented());
+    }
+
+    /**
+     * Проверяет постраничное чтение: курсор следующей страницы
+     * в заголовках X-Next-Cursor и Link, его отсутствие на последней
+     * странице и 400 для испорченного курсора.
+     */
+    @Test
+    public void testPagedListHasNextCursor() throws Exception {
+        String cursor = mvc.perform(get("/api/v1/users").param("limit", "1").param("sort", "age"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.LINK))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(bobId))
+                .andReturn().getResponse().getHeader("X-Next-Cursor");
+        assertNotNull(cursor);
+
+        mvc.perform(get("/api/v1/users").param("limit", "1").param("sort", "age")
+                        .param("after", cursor))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$[0].id").value(aliceId));
+        mvc.perform(get("/api/v1/users").param("after", "broken"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Проверяет потоковую выдачу NDJSON: пользователи и друзья
+     * по строке на объект в заданном порядке, 400 для неизвестного
+     * порядка.
+     */
+    @Test
+    public void testNdjsonStreams() throws Exception {
+        assertEquals(List.of(bobId, aliceId),
+                ids(stream("/api/v1/users", Map.of("sort", "age"))));
+        assertEquals(List.of(aliceId),
+                ids(stream("/api/v1/users", Map.of("firstName", "ali"))));
+        assertEquals(List.of(bobId),
+                ids(stream("/api/v1/user/" + aliceId + "/friends", Map.of())));
+        mvc.perform(get("/api/v1/users").param("sort", "name").accept(NDJSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Проверяет загрузку NDJSON: отчет о созданных и отклоненных
+     * записях, а при обрыве JSON — 400 с записями до ошибки;
+     * выгрузка отдает всех пользователей в порядке добавления.
+     */
+    @Test
+    public void testImportAndExport() throws Exception {
+        String valid = json(user("Dave", 41)) + "\n"
+                + "{\"id\":\"not-a-uuid\",\"firstName\":\"Eve\"}\n";
+        mvc.perform(post("/api/v1/users/import").contentType(NDJSON).content(valid))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.errors[0].index").value(1))
+                .andExpect(jsonPath("$.error").doesNotExist());
+
+        String broken = json(user("Frank", 42)) + "\n{\"firstName\": oops}\n";
+        mvc.perform(post("/api/v1/users/import").contentType(NDJSON).content(broken))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.error").exists());
+        List<String> all = ids(service.getAll(Map.of()));
+        assertEquals(4, all.size());
+        assertEquals(all, ids(stream("/api/v1/users/export", Map.of())));
+    }
+
+    /**
+     * Проверяет маршруты графа дружбы: общие друзья, кандидаты
+     * с числом общих друзей, 400 для недопустимого limit
+     * и распределение по числу друзей.
+     */
+    @Test
+    public void testGraphEndpoints() throws Exception {
+        String carolId = service.create(user("Carol", 35)).getId();
+        service.addFriend(carolId, bobId);
+        service.addFriend(bobId, carolId);
+
+        mvc.perform(get("/api/v1/user/" + aliceId + "/friends/mutual/" + carolId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(bobId));
+        mvc.perform(get("/api/v1/user/" + aliceId + "/friends/suggestions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].user.id").value(carolId))
+                .andExpect(jsonPath("$[0].mutualFriends").value(1));
+        mvc.perform(get("/api/v1/user/" + aliceId + "/friends/suggestions").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/v1/users/degrees"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users").value(3))
+                .andExpect(jsonPath("$.friendships").value(3))
+                .andExpect(jsonPath("$.max").value(1));
+    }
+
+    private List<User> stream(final String path, final Map<String, String> params) throws Exception {
+        var builder = get(path).accept(NDJSON);
+        params.forEach(builder::param);
+        MvcResult started = mvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(NDJSON))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        List<User> users = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.isBlank()) {
+                users.add(mapper.readValue(line, User.class));
+            }
+        }
+        return users;
+    }
+
+    private static List<String> ids(final List<User> users) {
+        return users.stream().map(User::getId).toList();
+    }
+}